@@ -15,6 +15,7 @@ import android.content.IntentFilter;
 import android.content.BroadcastReceiver;
 import android.media.AudioManager;
 import android.media.ToneGenerator;
+import android.os.Looper;
 
 import com.marianhello.bgloc.data.BackgroundLocation;
 import com.marianhello.cordova.JSONErrorFactory;
@@ -45,7 +46,7 @@ public abstract class AbstractLocationProvider implements LocationProvider {
 
     protected AbstractLocationProvider(LocationService locationService) {
         this.locationService = locationService;
-        this.config = locationService.getConfig();
+        this.config = locationService.getIngestConfig();
     }
 
     public void onCreate() {
@@ -73,11 +74,23 @@ public abstract class AbstractLocationProvider implements LocationProvider {
         locationService.unregisterReceiver(receiver);
     }
 
+    /**
+     * Returns looper location updates are to be delivered on,
+     * so location processing never runs on main thread
+     */
+    public Looper getLooper() {
+        return locationService.getIngestLooper();
+    }
+
     /**
      * Handle location as recorder by provider
+     * Location is dropped, when it doesn't pass filter chain of service.
      * @param location
      */
     public void handleLocation (Location location) {
+        if (!locationService.getFilterChain().accept(location)) {
+            return;
+        }
         locationService.handleLocation(new BackgroundLocation(PROVIDER_ID, location));
     }
 
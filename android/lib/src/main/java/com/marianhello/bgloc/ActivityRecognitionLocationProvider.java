@@ -110,7 +110,7 @@ public class ActivityRecognitionLocationProvider extends AbstractLocationProvide
                 .setInterval(config.getInterval());
                 // .setSmallestDisplacement(config.getStationaryRadius());
         try {
-            LocationServices.FusedLocationApi.requestLocationUpdates(googleApiClient, locationRequest, this);
+            LocationServices.FusedLocationApi.requestLocationUpdates(googleApiClient, locationRequest, this, getLooper());
             isTracking = true;
             log.debug("Start tracking with priority={} fastestInterval={} interval={} activitiesInterval={} stopOnStillActivity={}", priority, config.getFastestInterval(), config.getInterval(), config.getActivitiesInterval(), config.getStopOnStillActivity());
         } catch (SecurityException e) {
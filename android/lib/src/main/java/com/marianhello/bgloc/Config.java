@@ -16,6 +16,8 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.Bundle;
 
+import com.marianhello.bgloc.http.RetryPolicy;
+
 import org.json.JSONObject;
 import org.json.JSONException;
 
@@ -30,6 +32,16 @@ public class Config implements Parcelable
     public static final int ANDROID_DISTANCE_FILTER_PROVIDER = 0;
     public static final int ANDROID_ACTIVITY_PROVIDER = 1;
 
+    public static final int SQLITE_LOCATION_STORE = 0;
+    public static final int JOURNAL_LOCATION_STORE = 1;
+
+    public static final int NO_COMPRESSION = 0;
+    public static final int GZIP_COMPRESSION = 1;
+    public static final int DEFLATE_COMPRESSION = 2;
+
+    public static final int JSON_PAYLOAD_FORMAT = 0;
+    public static final int BINARY_PAYLOAD_FORMAT = 1;
+
     // actual values should be read from strings.xml
     public static final String ACCOUNT_TYPE_RESOURCE = "account_type";
     public static final String CONTENT_AUTHORITY_RESOURCE = "content_authority";
@@ -56,6 +68,31 @@ public class Config implements Parcelable
     private Integer syncThreshold = 100;
     private HashMap httpHeaders = new HashMap<String, String>();
     private Integer maxLocations = 10000;
+    private Integer locationStore = SQLITE_LOCATION_STORE;
+    private Integer syncCompression = NO_COMPRESSION;
+    private Integer syncBatchSize = 1000;
+    private Integer syncBatchBytes = 512 * 1024;
+    private Integer payloadFormat = JSON_PAYLOAD_FORMAT;
+    private Integer httpConnectTimeout = 15000;
+    private Integer httpReadTimeout = 30000;
+    private Integer postBatchWindow = 0;
+    private Integer postBatchSize = LocationPostQueue.DEFAULT_MAX_SIZE;
+    private Integer uploadConcurrency = UploadExecutor.DEFAULT_CONCURRENCY;
+    private Integer uploadQueueSize = UploadExecutor.DEFAULT_QUEUE_SIZE;
+    private Integer retryBaseDelay = (int) RetryPolicy.DEFAULT_BASE_DELAY;
+    private Integer retryMaxDelay = (int) RetryPolicy.DEFAULT_MAX_DELAY;
+    private Integer circuitFailureThreshold = RetryPolicy.DEFAULT_FAILURE_THRESHOLD;
+    private Integer circuitOpenDuration = (int) RetryPolicy.DEFAULT_OPEN_DURATION;
+    private Integer syncMinBatchSize = 100;
+    private Integer maxAccuracy = 0;
+    private Integer maxSpeed = 0;
+    private Integer minTimeDelta = 0;
+    private Boolean rejectMockLocations = false;
+    private Boolean smoothLocations = false;
+    private Integer simplificationTolerance = 0;
+    private Integer visitRadius = 0;
+    private Integer visitMinDuration = 300000;
+    private Boolean rejectDuplicateLocations = false;
 
     public Config () {
     }
@@ -87,6 +124,31 @@ public class Config implements Parcelable
         out.writeString(getSyncUrl());
         out.writeInt(getSyncThreshold());
         out.writeInt(getMaxLocations());
+        out.writeInt(getLocationStore());
+        out.writeInt(getSyncCompression());
+        out.writeInt(getSyncBatchSize());
+        out.writeInt(getSyncBatchBytes());
+        out.writeInt(getPayloadFormat());
+        out.writeInt(getHttpConnectTimeout());
+        out.writeInt(getHttpReadTimeout());
+        out.writeInt(getPostBatchWindow());
+        out.writeInt(getPostBatchSize());
+        out.writeInt(getUploadConcurrency());
+        out.writeInt(getUploadQueueSize());
+        out.writeInt(getRetryBaseDelay());
+        out.writeInt(getRetryMaxDelay());
+        out.writeInt(getCircuitFailureThreshold());
+        out.writeInt(getCircuitOpenDuration());
+        out.writeInt(getSyncMinBatchSize());
+        out.writeInt(getMaxAccuracy());
+        out.writeInt(getMaxSpeed());
+        out.writeInt(getMinTimeDelta());
+        out.writeValue(getRejectMockLocations());
+        out.writeValue(getSmoothLocations());
+        out.writeInt(getSimplificationTolerance());
+        out.writeInt(getVisitRadius());
+        out.writeInt(getVisitMinDuration());
+        out.writeValue(getRejectDuplicateLocations());
         Bundle bundle = new Bundle();
         bundle.putSerializable("httpHeaders", getHttpHeaders());
         out.writeBundle(bundle);
@@ -125,6 +187,31 @@ public class Config implements Parcelable
         setSyncUrl(in.readString());
         setSyncThreshold(in.readInt());
         setMaxLocations(in.readInt());
+        setLocationStore(in.readInt());
+        setSyncCompression(in.readInt());
+        setSyncBatchSize(in.readInt());
+        setSyncBatchBytes(in.readInt());
+        setPayloadFormat(in.readInt());
+        setHttpConnectTimeout(in.readInt());
+        setHttpReadTimeout(in.readInt());
+        setPostBatchWindow(in.readInt());
+        setPostBatchSize(in.readInt());
+        setUploadConcurrency(in.readInt());
+        setUploadQueueSize(in.readInt());
+        setRetryBaseDelay(in.readInt());
+        setRetryMaxDelay(in.readInt());
+        setCircuitFailureThreshold(in.readInt());
+        setCircuitOpenDuration(in.readInt());
+        setSyncMinBatchSize(in.readInt());
+        setMaxAccuracy(in.readInt());
+        setMaxSpeed(in.readInt());
+        setMinTimeDelta(in.readInt());
+        setRejectMockLocations((Boolean) in.readValue(null));
+        setSmoothLocations((Boolean) in.readValue(null));
+        setSimplificationTolerance(in.readInt());
+        setVisitRadius(in.readInt());
+        setVisitMinDuration(in.readInt());
+        setRejectDuplicateLocations((Boolean) in.readValue(null));
         Bundle bundle = in.readBundle();
         setHttpHeaders((HashMap<String, String>) bundle.getSerializable("httpHeaders"));
     }
@@ -325,8 +412,217 @@ public class Config implements Parcelable
         return maxLocations;
     }
 
+    /**
+     * Set max number of locations kept in store, 0 is treated as 1
+     *
+     * @param maxLocations
+     * @throws IllegalArgumentException when maxLocations is null or negative
+     */
     public void setMaxLocations(Integer maxLocations) {
-        this.maxLocations = maxLocations;
+        if (maxLocations == null || maxLocations < 0) {
+            throw new IllegalArgumentException("Invalid maxLocations: " + maxLocations);
+        }
+        this.maxLocations = Math.max(1, maxLocations);
+    }
+
+    public Integer getLocationStore() {
+        return locationStore;
+    }
+
+    public void setLocationStore(Integer locationStore) {
+        this.locationStore = locationStore;
+    }
+
+    public Integer getSyncCompression() {
+        return syncCompression;
+    }
+
+    public void setSyncCompression(Integer syncCompression) {
+        this.syncCompression = syncCompression;
+    }
+
+    public Integer getSyncBatchSize() {
+        return syncBatchSize;
+    }
+
+    public void setSyncBatchSize(Integer syncBatchSize) {
+        this.syncBatchSize = syncBatchSize;
+    }
+
+    public Integer getSyncBatchBytes() {
+        return syncBatchBytes;
+    }
+
+    public void setSyncBatchBytes(Integer syncBatchBytes) {
+        this.syncBatchBytes = syncBatchBytes;
+    }
+
+    public Integer getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    public void setPayloadFormat(Integer payloadFormat) {
+        this.payloadFormat = payloadFormat;
+    }
+
+    public Integer getHttpConnectTimeout() {
+        return httpConnectTimeout;
+    }
+
+    public void setHttpConnectTimeout(Integer httpConnectTimeout) {
+        this.httpConnectTimeout = httpConnectTimeout;
+    }
+
+    public Integer getHttpReadTimeout() {
+        return httpReadTimeout;
+    }
+
+    public void setHttpReadTimeout(Integer httpReadTimeout) {
+        this.httpReadTimeout = httpReadTimeout;
+    }
+
+    public Integer getPostBatchWindow() {
+        return postBatchWindow;
+    }
+
+    public void setPostBatchWindow(Integer postBatchWindow) {
+        this.postBatchWindow = postBatchWindow;
+    }
+
+    public Integer getPostBatchSize() {
+        return postBatchSize;
+    }
+
+    public void setPostBatchSize(Integer postBatchSize) {
+        this.postBatchSize = postBatchSize;
+    }
+
+    public Integer getUploadConcurrency() {
+        return uploadConcurrency;
+    }
+
+    public void setUploadConcurrency(Integer uploadConcurrency) {
+        this.uploadConcurrency = uploadConcurrency;
+    }
+
+    public Integer getUploadQueueSize() {
+        return uploadQueueSize;
+    }
+
+    public void setUploadQueueSize(Integer uploadQueueSize) {
+        this.uploadQueueSize = uploadQueueSize;
+    }
+
+    public Integer getRetryBaseDelay() {
+        return retryBaseDelay;
+    }
+
+    public void setRetryBaseDelay(Integer retryBaseDelay) {
+        this.retryBaseDelay = retryBaseDelay;
+    }
+
+    public Integer getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    public void setRetryMaxDelay(Integer retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+    }
+
+    public Integer getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+
+    public void setCircuitFailureThreshold(Integer circuitFailureThreshold) {
+        this.circuitFailureThreshold = circuitFailureThreshold;
+    }
+
+    public Integer getCircuitOpenDuration() {
+        return circuitOpenDuration;
+    }
+
+    public void setCircuitOpenDuration(Integer circuitOpenDuration) {
+        this.circuitOpenDuration = circuitOpenDuration;
+    }
+
+    public Integer getSyncMinBatchSize() {
+        return syncMinBatchSize;
+    }
+
+    public void setSyncMinBatchSize(Integer syncMinBatchSize) {
+        this.syncMinBatchSize = syncMinBatchSize;
+    }
+
+    public Integer getMaxAccuracy() {
+        return maxAccuracy;
+    }
+
+    public void setMaxAccuracy(Integer maxAccuracy) {
+        this.maxAccuracy = maxAccuracy;
+    }
+
+    public Integer getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    public void setMaxSpeed(Integer maxSpeed) {
+        this.maxSpeed = maxSpeed;
+    }
+
+    public Integer getMinTimeDelta() {
+        return minTimeDelta;
+    }
+
+    public void setMinTimeDelta(Integer minTimeDelta) {
+        this.minTimeDelta = minTimeDelta;
+    }
+
+    public Boolean getRejectMockLocations() {
+        return rejectMockLocations;
+    }
+
+    public void setRejectMockLocations(Boolean rejectMockLocations) {
+        this.rejectMockLocations = rejectMockLocations;
+    }
+
+    public Boolean getSmoothLocations() {
+        return smoothLocations;
+    }
+
+    public void setSmoothLocations(Boolean smoothLocations) {
+        this.smoothLocations = smoothLocations;
+    }
+
+    public Integer getSimplificationTolerance() {
+        return simplificationTolerance;
+    }
+
+    public void setSimplificationTolerance(Integer simplificationTolerance) {
+        this.simplificationTolerance = simplificationTolerance;
+    }
+
+    public Integer getVisitRadius() {
+        return visitRadius;
+    }
+
+    public void setVisitRadius(Integer visitRadius) {
+        this.visitRadius = visitRadius;
+    }
+
+    public Integer getVisitMinDuration() {
+        return visitMinDuration;
+    }
+
+    public void setVisitMinDuration(Integer visitMinDuration) {
+        this.visitMinDuration = visitMinDuration;
+    }
+
+    public Boolean getRejectDuplicateLocations() {
+        return rejectDuplicateLocations;
+    }
+
+    public void setRejectDuplicateLocations(Boolean rejectDuplicateLocations) {
+        this.rejectDuplicateLocations = rejectDuplicateLocations;
     }
 
     @Override
@@ -354,6 +650,31 @@ public class Config implements Parcelable
                 .append(" syncThreshold=").append(getSyncThreshold())
                 .append(" httpHeaders=").append(getHttpHeaders().toString())
                 .append(" maxLocations=").append(getMaxLocations())
+                .append(" locationStore=").append(getLocationStore())
+                .append(" syncCompression=").append(getSyncCompression())
+                .append(" syncBatchSize=").append(getSyncBatchSize())
+                .append(" syncBatchBytes=").append(getSyncBatchBytes())
+                .append(" payloadFormat=").append(getPayloadFormat())
+                .append(" httpConnectTimeout=").append(getHttpConnectTimeout())
+                .append(" httpReadTimeout=").append(getHttpReadTimeout())
+                .append(" postBatchWindow=").append(getPostBatchWindow())
+                .append(" postBatchSize=").append(getPostBatchSize())
+                .append(" uploadConcurrency=").append(getUploadConcurrency())
+                .append(" uploadQueueSize=").append(getUploadQueueSize())
+                .append(" retryBaseDelay=").append(getRetryBaseDelay())
+                .append(" retryMaxDelay=").append(getRetryMaxDelay())
+                .append(" circuitFailureThreshold=").append(getCircuitFailureThreshold())
+                .append(" circuitOpenDuration=").append(getCircuitOpenDuration())
+                .append(" syncMinBatchSize=").append(getSyncMinBatchSize())
+                .append(" maxAccuracy=").append(getMaxAccuracy())
+                .append(" maxSpeed=").append(getMaxSpeed())
+                .append(" minTimeDelta=").append(getMinTimeDelta())
+                .append(" rejectMockLocations=").append(getRejectMockLocations())
+                .append(" smoothLocations=").append(getSmoothLocations())
+                .append(" simplificationTolerance=").append(getSimplificationTolerance())
+                .append(" visitRadius=").append(getVisitRadius())
+                .append(" visitMinDuration=").append(getVisitMinDuration())
+                .append(" rejectDuplicateLocations=").append(getRejectDuplicateLocations())
                 .append("]")
                 .toString();
     }
@@ -396,6 +717,31 @@ public class Config implements Parcelable
         config.setSyncThreshold(jObject.optInt("syncThreshold", config.getSyncThreshold()));
         config.setHttpHeaders(jObject.optJSONObject("httpHeaders"));
         config.setMaxLocations(jObject.optInt("maxLocations", config.getMaxLocations()));
+        config.setLocationStore(jObject.optInt("locationStore", config.getLocationStore()));
+        config.setSyncCompression(jObject.optInt("syncCompression", config.getSyncCompression()));
+        config.setSyncBatchSize(jObject.optInt("syncBatchSize", config.getSyncBatchSize()));
+        config.setSyncBatchBytes(jObject.optInt("syncBatchBytes", config.getSyncBatchBytes()));
+        config.setPayloadFormat(jObject.optInt("payloadFormat", config.getPayloadFormat()));
+        config.setHttpConnectTimeout(jObject.optInt("httpConnectTimeout", config.getHttpConnectTimeout()));
+        config.setHttpReadTimeout(jObject.optInt("httpReadTimeout", config.getHttpReadTimeout()));
+        config.setPostBatchWindow(jObject.optInt("postBatchWindow", config.getPostBatchWindow()));
+        config.setPostBatchSize(jObject.optInt("postBatchSize", config.getPostBatchSize()));
+        config.setUploadConcurrency(jObject.optInt("uploadConcurrency", config.getUploadConcurrency()));
+        config.setUploadQueueSize(jObject.optInt("uploadQueueSize", config.getUploadQueueSize()));
+        config.setRetryBaseDelay(jObject.optInt("retryBaseDelay", config.getRetryBaseDelay()));
+        config.setRetryMaxDelay(jObject.optInt("retryMaxDelay", config.getRetryMaxDelay()));
+        config.setCircuitFailureThreshold(jObject.optInt("circuitFailureThreshold", config.getCircuitFailureThreshold()));
+        config.setCircuitOpenDuration(jObject.optInt("circuitOpenDuration", config.getCircuitOpenDuration()));
+        config.setSyncMinBatchSize(jObject.optInt("syncMinBatchSize", config.getSyncMinBatchSize()));
+        config.setMaxAccuracy(jObject.optInt("maxAccuracy", config.getMaxAccuracy()));
+        config.setMaxSpeed(jObject.optInt("maxSpeed", config.getMaxSpeed()));
+        config.setMinTimeDelta(jObject.optInt("minTimeDelta", config.getMinTimeDelta()));
+        config.setRejectMockLocations(jObject.optBoolean("rejectMockLocations", config.getRejectMockLocations()));
+        config.setSmoothLocations(jObject.optBoolean("smoothLocations", config.getSmoothLocations()));
+        config.setSimplificationTolerance(jObject.optInt("simplificationTolerance", config.getSimplificationTolerance()));
+        config.setVisitRadius(jObject.optInt("visitRadius", config.getVisitRadius()));
+        config.setVisitMinDuration(jObject.optInt("visitMinDuration", config.getVisitMinDuration()));
+        config.setRejectDuplicateLocations(jObject.optBoolean("rejectDuplicateLocations", config.getRejectDuplicateLocations()));
 
         return config;
     }
@@ -424,6 +770,31 @@ public class Config implements Parcelable
         json.put("syncThreshold", getSyncThreshold());
         json.put("httpHeaders", new JSONObject(getHttpHeaders()));
         json.put("maxLocations", getMaxLocations());
+        json.put("locationStore", getLocationStore());
+        json.put("syncCompression", getSyncCompression());
+        json.put("syncBatchSize", getSyncBatchSize());
+        json.put("syncBatchBytes", getSyncBatchBytes());
+        json.put("payloadFormat", getPayloadFormat());
+        json.put("httpConnectTimeout", getHttpConnectTimeout());
+        json.put("httpReadTimeout", getHttpReadTimeout());
+        json.put("postBatchWindow", getPostBatchWindow());
+        json.put("postBatchSize", getPostBatchSize());
+        json.put("uploadConcurrency", getUploadConcurrency());
+        json.put("uploadQueueSize", getUploadQueueSize());
+        json.put("retryBaseDelay", getRetryBaseDelay());
+        json.put("retryMaxDelay", getRetryMaxDelay());
+        json.put("circuitFailureThreshold", getCircuitFailureThreshold());
+        json.put("circuitOpenDuration", getCircuitOpenDuration());
+        json.put("syncMinBatchSize", getSyncMinBatchSize());
+        json.put("maxAccuracy", getMaxAccuracy());
+        json.put("maxSpeed", getMaxSpeed());
+        json.put("minTimeDelta", getMinTimeDelta());
+        json.put("rejectMockLocations", getRejectMockLocations());
+        json.put("smoothLocations", getSmoothLocations());
+        json.put("simplificationTolerance", getSimplificationTolerance());
+        json.put("visitRadius", getVisitRadius());
+        json.put("visitMinDuration", getVisitMinDuration());
+        json.put("rejectDuplicateLocations", getRejectDuplicateLocations());
 
         return json;
   	}
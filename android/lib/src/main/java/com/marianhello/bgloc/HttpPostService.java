@@ -1,116 +1,129 @@
 package com.marianhello.bgloc;
 
-import android.os.Build;
-import android.util.Log;
+import com.marianhello.bgloc.http.HttpTransport;
+import com.marianhello.bgloc.http.UrlConnectionTransport;
+import com.marianhello.logging.LoggerManager;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.util.Map;
-import java.util.Iterator;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+public class HttpPostService {
+    public static final int BUFFER_SIZE = 16 * 1024;
 
-import java.net.URL;
-import java.net.HttpURLConnection;
-import java.io.OutputStreamWriter;
+    private static volatile HttpTransport transport = new UrlConnectionTransport();
 
-public class HttpPostService {
+    /**
+     * Request body written directly into connection output stream
+     */
+    public interface StreamingBody {
+        void writeTo(OutputStream os) throws IOException;
+    }
 
-    public static int postJSON(String url, Object json, Map headers) throws IOException {
-        String jsonString = json.toString();
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-        conn.setDoOutput(true);
-        conn.setFixedLengthStreamingMode(jsonString.length());
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        Iterator<Map.Entry<String, String>> it = headers.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, String> pair = it.next();
-            conn.setRequestProperty(pair.getKey(), pair.getValue());
-        }
-
-        OutputStreamWriter os = null;
-        try {
-            os = new OutputStreamWriter(conn.getOutputStream());
-            os.write(json.toString());
-
-        } finally {
-            if (os != null) {
-                os.flush();
-                try {
-                    os.close();
-                } catch (Exception e) {
-                
-                }
-            }
-            if (conn != null) {
-                try {
-                    conn.disconnect();
-                } catch (Exception e) {
-                
-                }
+    /**
+     * Replace transport used for all requests
+     *
+     * @param httpTransport
+     */
+    public static void setTransport(HttpTransport httpTransport) {
+        transport = httpTransport;
+    }
+
+    public static HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Set connect and read timeouts of current transport in milliseconds
+     */
+    public static void setTimeouts(int connectTimeout, int readTimeout) {
+        transport.setTimeouts(connectTimeout, readTimeout);
+    }
+
+    public static int postJSON(String url, Object json, Map<String, String> headers) throws IOException {
+        return postBytes(url, json.toString().getBytes("UTF-8"), "application/json", headers).getResponseCode();
+    }
+
+    /**
+     * Post already serialized body
+     *
+     * @param url
+     * @param body
+     * @param contentType
+     * @param headers
+     * @return response
+     * @throws IOException
+     */
+    public static HttpTransport.Response postBytes(String url, final byte[] body, String contentType, Map<String, String> headers) throws IOException {
+        return post(url, contentType, headers, new HttpTransport.Body() {
+            public long getContentLength() {
+                return body.length;
             }
-        }
 
-        return conn.getResponseCode();
+            public void writeTo(OutputStream os) throws IOException {
+                os.write(body);
+            }
+        });
     }
 
-    public static int postFile(String url, File file, Map headers, UploadingCallback callback) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-
-        conn.setDoInput(false);
-        conn.setDoOutput(true);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            conn.setFixedLengthStreamingMode(file.length());
-        } else {
-            conn.setChunkedStreamingMode(0);
-        }
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        Iterator<Map.Entry<String, String>> it = headers.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, String> pair = it.next();
-            conn.setRequestProperty(pair.getKey(), pair.getValue());
-        }
-
-        long progress = 0;
-        int bytesRead = -1;
-        byte[] buffer = new byte[1024];
-
-        BufferedInputStream is = null;
-        BufferedOutputStream os = null;
-        try {
-            is = new BufferedInputStream(new FileInputStream(file));
-            os = new BufferedOutputStream(conn.getOutputStream());
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-                os.flush();
-                progress += bytesRead;
-                int percentage = (int) ((progress * 100L) / file.length());
-                if (callback != null) {
-                    callback.uploadListener(percentage);
-                }
+    public static HttpTransport.Response postFile(String url, final File file, Map<String, String> headers, final UploadingCallback callback) throws IOException {
+        String contentType = headers.containsKey("Content-Type") ? headers.get("Content-Type") : "application/json";
+        return post(url, contentType, headers, new HttpTransport.Body() {
+            public long getContentLength() {
+                return file.length();
             }
-        } finally {
-            if (os != null) {
-                os.flush();
-                os.close();
+
+            public void writeTo(OutputStream os) throws IOException {
+                long progress = 0;
+                int bytesRead = -1;
+                byte[] buffer = new byte[BUFFER_SIZE];
+
+                FileInputStream is = new FileInputStream(file);
+                try {
+                    while ((bytesRead = is.read(buffer)) != -1) {
+                        os.write(buffer, 0, bytesRead);
+                        progress += bytesRead;
+                        int percentage = (int) ((progress * 100L) / file.length());
+                        if (callback != null) {
+                            callback.uploadListener(percentage);
+                        }
+                    }
+                } finally {
+                    is.close();
+                }
             }
-            if (is != null) {
-                is.close();
+        });
+    }
+
+    /**
+     * Post body of unknown length using chunked transfer encoding
+     *
+     * @param url
+     * @param body written into request on the fly
+     * @param headers
+     * @return response
+     * @throws IOException
+     */
+    public static HttpTransport.Response postStream(String url, final StreamingBody body, Map<String, String> headers) throws IOException {
+        String contentType = headers.containsKey("Content-Type") ? headers.get("Content-Type") : "application/json";
+        return post(url, contentType, headers, new HttpTransport.Body() {
+            public long getContentLength() {
+                return -1;
             }
-            if (conn != null) {
-                conn.disconnect();
+
+            public void writeTo(OutputStream os) throws IOException {
+                body.writeTo(os);
             }
-        }
+        });
+    }
+
+    private static HttpTransport.Response post(String url, String contentType, Map<String, String> headers, HttpTransport.Body body) throws IOException {
+        HttpTransport.Response response = transport.post(url, contentType, headers, body);
+        LoggerManager.getLogger(HttpPostService.class)
+                .debug("Posted to url: {} responseCode: {} timing: {}", url, response.getResponseCode(), response.getTiming());
 
-        return conn.getResponseCode();
+        return response;
     }
 }
@@ -0,0 +1,103 @@
+package com.marianhello.bgloc;
+
+import android.os.Handler;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Micro-batching stage of realtime location posts.
+ *
+ * Locations are coalesced into single post, which is dispatched when queue reaches maxSize
+ * or when window elapses since first location has been queued, whichever comes first.
+ * Therefore no location waits longer than window before it is posted.
+ *
+ * Timer runs on thread of provided handler, actual posting is up to the listener
+ * and should not block handler thread.
+ */
+public class LocationPostQueue {
+
+    public static final int DEFAULT_MAX_SIZE = 10;
+
+    /**
+     * Listener notified with locations to be posted in single request
+     */
+    public interface Listener {
+        void onPostLocations(List<BackgroundLocation> locations);
+    }
+
+    private final Handler handler;
+    private final Listener listener;
+    private final int maxSize;
+    private final long window;
+
+    private List<BackgroundLocation> queue;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param handler
+     * @param listener
+     * @param maxSize max number of locations in single post
+     * @param window max time in milliseconds location is held in queue
+     */
+    public LocationPostQueue(Handler handler, Listener listener, int maxSize, long window) {
+        this.handler = handler;
+        this.listener = listener;
+        this.maxSize = Math.max(1, maxSize);
+        this.window = window;
+        this.queue = new ArrayList<BackgroundLocation>(this.maxSize);
+    }
+
+    /**
+     * Queue location for posting
+     * @param location
+     */
+    public void offer(BackgroundLocation location) {
+        int size;
+        synchronized (this) {
+            queue.add(location);
+            size = queue.size();
+        }
+
+        if (size >= maxSize || window <= 0) {
+            handler.removeCallbacks(flushRunnable);
+            handler.post(flushRunnable);
+        } else if (size == 1) {
+            handler.postDelayed(flushRunnable, window);
+        }
+    }
+
+    /**
+     * Pass all queued locations to listener
+     *
+     * Can be called from any thread.
+     */
+    public void flush() {
+        List<BackgroundLocation> locations;
+        synchronized (this) {
+            if (queue.isEmpty()) {
+                return;
+            }
+            locations = queue;
+            queue = new ArrayList<BackgroundLocation>(maxSize);
+            handler.removeCallbacks(flushRunnable);
+        }
+
+        listener.onPostLocations(locations);
+    }
+
+    /**
+     * Returns number of locations waiting to be posted
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+}
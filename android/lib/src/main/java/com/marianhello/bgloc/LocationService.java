@@ -22,39 +22,69 @@ import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
 
 import com.marianhello.bgloc.data.BackgroundLocation;
 import com.marianhello.bgloc.data.ConfigurationDAO;
 import com.marianhello.bgloc.data.DAOFactory;
+import com.marianhello.bgloc.data.LocationOutbox;
 import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationWriteBehindQueue;
+import com.marianhello.bgloc.data.Visit;
+import com.marianhello.bgloc.data.serializer.LocationSerializer;
+import com.marianhello.bgloc.data.serializer.SerializerFactory;
+import com.marianhello.bgloc.data.sqlite.SQLiteCompactor;
+import com.marianhello.bgloc.filter.KalmanSmoother;
+import com.marianhello.bgloc.filter.LocationFilterChain;
+import com.marianhello.bgloc.filter.LocationFilterFactory;
+import com.marianhello.bgloc.filter.StayPointDetector;
+import com.marianhello.bgloc.filter.TrajectorySimplifier;
+import com.marianhello.bgloc.http.HttpTransport;
+import com.marianhello.bgloc.http.RetryPolicy;
 import com.marianhello.bgloc.sync.AccountHelper;
 import com.marianhello.bgloc.sync.AuthenticatorService;
+import com.marianhello.bgloc.sync.BatchSizeTuner;
 import com.marianhello.bgloc.sync.SyncService;
 import com.marianhello.logging.LoggerManager;
+import com.marianhello.utils.NetworkTools;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
-public class LocationService extends Service {
+public class LocationService extends Service implements LocationWriteBehindQueue.Listener, LocationPostQueue.Listener {
 
-    /** Keeps track of all current registered clients. */
-    HashMap<Integer, Messenger> mClients = new HashMap();
+    /**
+     * Keeps track of all current registered clients.
+     * Clients are registered on main thread and notified from pipeline,
+     * so map has to be locked also while iterating over it.
+     */
+    final Map<Integer, Messenger> mClients = Collections.synchronizedMap(new HashMap<Integer, Messenger>());
 
     /**
      * Command sent by the service to
@@ -95,6 +125,18 @@ public class LocationService extends Service {
      */
     public static final int MSG_SWITCH_MODE = 6;
 
+    /**
+     * Command sent by the service to
+     * any registered clients whenever circuit breaker of realtime upload url changes its state
+     */
+    public static final int MSG_ON_CIRCUIT_STATE_CHANGE = 7;
+
+    /**
+     * Command sent by the service to
+     * any registered clients whenever device leaves place it has been staying at
+     */
+    public static final int MSG_ON_VISIT = 8;
+
 
     /** background operation mode of location provider */
     public static final int BACKGROUND_MODE = 0;
@@ -104,27 +146,88 @@ public class LocationService extends Service {
 
     private static final int ONE_MINUTE = 1000 * 60;
     private static final int FIVE_MINUTES = 1000 * 60 * 5;
+    private static final int ONE_HOUR = 1000 * 60 * 60;
+
+    // lease id of realtime posting, sync leases are identified by their batchStartMillis
+    private static final long REALTIME_LEASE_ID = 1;
+
+    // max number of tasks waiting in pipeline stage
+    private static final int STAGE_CAPACITY = 100;
 
-    private LocationDAO dao;
-    private Config config;
-    private LocationProvider provider;
+    /**
+     * Every field is replaced only on thread of its owning stage,
+     * other threads may only read it (@see onStartCommand).
+     */
+    // owned by ingest stage
+    private volatile Config ingestConfig;
+    private volatile LocationProvider provider;
+    private volatile KalmanSmoother smoother;
+    private volatile TrajectorySimplifier simplifier;
+    private volatile StayPointDetector visitDetector;
+    private volatile LocationWriteBehindQueue persistQueue;
+    // owned by persist stage
+    private volatile Config config;
+    private volatile LocationDAO dao;
+    private volatile LocationOutbox outbox;
+    private volatile LocationPostQueue postQueue;
+    private volatile UploadExecutor uploadExecutor;
+    private volatile RetryPolicy retryPolicy;
+    private volatile BatchSizeTuner batchSizeTuner;
+    private SQLiteCompactor compactor;
+    // built-in filters are replaced on ingest stage, custom filters outlive reconfiguration
+    private LocationFilterChain filterChain;
     private Account syncAccount;
-    private Boolean hasConnectivity = true;
+    private volatile Boolean hasConnectivity = true;
 
     private org.slf4j.Logger log;
 
-    private volatile HandlerThread handlerThread;
-    private ServiceHandler serviceHandler;
+    /**
+     * Location processing pipeline, no stage runs on main thread:
+     * ingest - provider callbacks and broadcasts, filtering of locations
+     * persist - write-behind queue, outbox leasing, sync threshold and micro-batching
+     * upload dispatch - realtime uploads on UploadExecutor
+     * notify - fan-out of messages to clients
+     */
+    private PipelineStage ingestStage;
+    private PipelineStage persistStage;
+    private PipelineStage notifyStage;
 
-    private class ServiceHandler extends Handler {
-        public ServiceHandler(Looper looper) {
-            super(looper);
+    /**
+     * Periodic idle time job archiving invalid locations and compacting db.
+     * Old valid locations are archived too, unless they are going to be uploaded.
+     * Job is also run ahead of schedule when device becomes stationary.
+     */
+    private final Runnable compactionJob = new Runnable() {
+        @Override
+        public void run() {
+            Config config = LocationService.this.config;
+            try {
+                compactor.compact(config != null && !config.hasUrl() && !config.hasSyncUrl());
+            } catch (SQLException e) {
+                log.error("Compaction failed: {}", e.getMessage());
+            }
+            log.info("Pipeline stats: {} uploads: {}", getPipelineStats(), getUploadStats());
+            log.info("Filter stats: {}", getFilterStats());
+            if (simplifier != null) {
+                log.info("Simplified trajectory: {} of {} locations", simplifier.getEmitted(), simplifier.getReceived());
+            }
+            if (visitDetector != null) {
+                log.info("Visits: {} from {} locations", visitDetector.getEmitted(), visitDetector.getReceived());
+            }
+            persistStage.getHandler().postDelayed(this, ONE_HOUR);
         }
+    };
 
+    /**
+     * Run compaction job ahead of schedule, job schedules its next run itself
+     */
+    private final Runnable compactionTrigger = new Runnable() {
         @Override
-        public void handleMessage(Message msg) {
+        public void run() {
+            persistStage.getHandler().removeCallbacks(compactionJob);
+            compactionJob.run();
         }
-    }
+    };
 
     /**
      * Handler of incoming messages from clients.
@@ -134,10 +237,14 @@ public class LocationService extends Service {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_REGISTER_CLIENT:
-                    mClients.put(msg.arg1, msg.replyTo);
+                    synchronized (mClients) {
+                        mClients.put(msg.arg1, msg.replyTo);
+                    }
                     break;
                 case MSG_UNREGISTER_CLIENT:
-                    mClients.remove(msg.arg1);
+                    synchronized (mClients) {
+                        mClients.remove(msg.arg1);
+                    }
                     break;
                 case MSG_SWITCH_MODE:
                     switchMode(msg.arg1);
@@ -168,13 +275,18 @@ public class LocationService extends Service {
         log = LoggerManager.getLogger(LocationService.class);
         log.info("Creating LocationService");
 
-        // An Android handler thread internally operates on a looper.
-        handlerThread = new HandlerThread("LocationService.HandlerThread");
-        handlerThread.start();
-        // An Android service handler is a handler running on a specific background thread.
-        serviceHandler = new ServiceHandler(handlerThread.getLooper());
+        ingestStage = new PipelineStage("Ingest", STAGE_CAPACITY, Process.THREAD_PRIORITY_DEFAULT);
+        persistStage = new PipelineStage("Persist", STAGE_CAPACITY, Process.THREAD_PRIORITY_BACKGROUND);
+        notifyStage = new PipelineStage("Notify", STAGE_CAPACITY, Process.THREAD_PRIORITY_DEFAULT);
+        filterChain = new LocationFilterChain();
 
-        dao = (DAOFactory.createLocationDAO(this));
+        final Context context = this;
+        persistStage.getHandler().post(new Runnable() {
+            public void run() {
+                compactor = new SQLiteCompactor(context);
+                persistStage.getHandler().postDelayed(compactionJob, ONE_HOUR);
+            }
+        });
         syncAccount = AccountHelper.CreateSyncAccount(this,
                 AuthenticatorService.getAccount(getStringResource(Config.ACCOUNT_TYPE_RESOURCE)));
 
@@ -184,20 +296,71 @@ public class LocationService extends Service {
     @Override
     public void onDestroy() {
         log.info("Destroying LocationService");
-        provider.onDestroy();
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            handlerThread.quitSafely();
-        } else {
-            handlerThread.quit(); //sorry
-        }
         unregisterReceiver(connectivityChangeReceiver);
+        ingestStage.getHandler().post(new Runnable() {
+            public void run() {
+                stopIngest();
+            }
+        });
+        ingestStage.quit();
         super.onDestroy();
     }
 
+    /**
+     * Stop provider and hand off all pending locations to persist stage (on ingest stage)
+     */
+    private void stopIngest() {
+        if (provider != null) {
+            provider.onDestroy();
+        }
+        flushSimplifier();
+        flushVisitDetector();
+        final LocationWriteBehindQueue queue = persistQueue;
+        persistStage.getHandler().post(new Runnable() {
+            public void run() {
+                stopPersist(queue);
+            }
+        });
+        persistStage.quit();
+    }
+
+    /**
+     * Persist all pending locations before persist stage is gone (on persist stage)
+     * Notify stage is stopped only once persist stage has drained.
+     *
+     * @param queue write-behind queue of ingest stage
+     */
+    private void stopPersist(LocationWriteBehindQueue queue) {
+        if (queue != null) {
+            queue.flush();
+        }
+        if (postQueue != null) {
+            postQueue.flush();
+        }
+        // queued uploads are dropped, their locations are released for batch sync
+        if (uploadExecutor != null) {
+            releaseUploads(uploadExecutor.shutdown());
+        }
+        persistStage.getHandler().removeCallbacks(compactionJob);
+        log.info("Pipeline stats: {} uploads: {}", getPipelineStats(), getUploadStats());
+        // messages of flushed locations and visits are already posted to notify stage
+        notifyStage.quit();
+    }
+
     @Override
     public void onTaskRemoved(Intent rootIntent) {
         log.debug("Task has been removed");
-        if (config.getStopOnTerminate()) {
+        final LocationWriteBehindQueue queue = persistQueue;
+        if (queue != null) {
+            // dropped flush is not lost, queue is flushed by its own timer
+            persistStage.post(new Runnable() {
+                public void run() {
+                    queue.flush();
+                }
+            });
+        }
+        Config config = this.config;
+        if (config != null && config.getStopOnTerminate()) {
             log.info("Stopping self");
             stopSelf();
         } else {
@@ -206,70 +369,149 @@ public class LocationService extends Service {
         super.onTaskRemoved(rootIntent);
     }
 
+    /**
+     * Start or restart tracking with given config
+     *
+     * Service is reconfigured on pipeline threads, so that no stage state is replaced
+     * while stage is using it and no db work is done on main thread.
+     * Ingest stage replaces its state first and then hands off to persist stage,
+     * so locations queued with previous config are persisted before persist stage switches
+     * to new one.
+     */
     @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
+    public int onStartCommand(Intent intent, int flags, final int startId) {
         log.info("Received start startId: {} intent: {}", startId, intent);
 
-        if (provider != null) {
-            provider.onDestroy();
-        }
-
+        final Config config;
         if (intent == null) {
             //service has been probably restarted so we need to load config from db
-            ConfigurationDAO dao = DAOFactory.createConfigurationDAO(this);
-            try {
-                config = dao.retrieveConfiguration();
-            } catch (JSONException e) {
-                log.error("Config exception: {}", e.getMessage());
-                config = new Config(); //using default config
-            }
+            config = null;
+        } else if (intent.hasExtra("config")) {
+            config = intent.getParcelableExtra("config");
         } else {
-            if (intent.hasExtra("config")) {
-                config = intent.getParcelableExtra("config");
-            } else {
-                config = new Config(); //using default config
+            config = new Config(); //using default config
+        }
+
+        ingestStage.getHandler().post(new Runnable() {
+            public void run() {
+                startIngest(config != null ? config : loadConfig(), startId);
             }
+        });
+
+        //We want this service to continue running until it is explicitly stopped
+        return START_STICKY;
+    }
+
+    private Config loadConfig() {
+        ConfigurationDAO dao = DAOFactory.createConfigurationDAO(this);
+        try {
+            return dao.retrieveConfiguration();
+        } catch (JSONException e) {
+            log.error("Config exception: {}", e.getMessage());
+            return new Config(); //using default config
+        }
+    }
+
+    /**
+     * Replace ingest stage state and start provider (on ingest stage)
+     */
+    private void startIngest(final Config config, int startId) {
+        if (provider != null) {
+            provider.onDestroy();
         }
 
         log.debug("Will start service with: {}", config.toString());
+        // pending locations are written into store they were queued for
+        flushSimplifier();
+        flushVisitDetector();
+        final LocationWriteBehindQueue previousQueue = persistQueue;
+        final LocationDAO dao = DAOFactory.createLocationDAO(this, config);
+        // queue is flushed on persist stage, so its first flush runs after persist stage is reconfigured
+        persistQueue = new LocationWriteBehindQueue(dao, persistStage.getHandler(), this);
+        persistQueue.setMaxRows(config.getMaxLocations());
+        persistStage.getHandler().post(new Runnable() {
+            public void run() {
+                startPersist(config, dao, previousQueue);
+            }
+        });
+
+        ingestConfig = config;
+        filterChain.setBuiltInFilters(LocationFilterFactory.createFilters(config));
+        smoother = config.getSmoothLocations() ? new KalmanSmoother() : null;
+        simplifier = config.getSimplificationTolerance() > 0 ? new TrajectorySimplifier(config.getSimplificationTolerance()) : null;
+        visitDetector = config.getVisitRadius() > 0 ? new StayPointDetector(config.getVisitRadius(), config.getVisitMinDuration()) : null;
 
         LocationProviderFactory spf = new LocationProviderFactory(this);
         provider = spf.getInstance(config.getLocationProvider());
 
         if (config.getStartForeground()) {
-            // Build a Notification required for running service in foreground.
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(this);
-            builder.setContentTitle(config.getNotificationTitle());
-            builder.setContentText(config.getNotificationText());
-            if (config.getSmallNotificationIcon() != null) {
-                builder.setSmallIcon(getDrawableResource(config.getSmallNotificationIcon()));
-            } else {
-                builder.setSmallIcon(android.R.drawable.ic_menu_mylocation);
-            }
-            if (config.getLargeNotificationIcon() != null) {
-                builder.setLargeIcon(BitmapFactory.decodeResource(getApplication().getResources(), getDrawableResource(config.getLargeNotificationIcon())));
-            }
-            if (config.getNotificationIconColor() != null) {
-                builder.setColor(this.parseNotificationIconColor(config.getNotificationIconColor()));
-            }
+            startForeground(startId, buildNotification(config));
+        }
 
-            // Add an onclick handler to the notification
-            Context context = getApplicationContext();
-            String packageName = context.getPackageName();
-            Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(packageName);
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT | Intent.FLAG_ACTIVITY_SINGLE_TOP);
-            PendingIntent contentIntent = PendingIntent.getActivity(context, 0, launchIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-            builder.setContentIntent(contentIntent);
+        provider.startRecording();
+    }
 
-            Notification notification = builder.build();
-            notification.flags |= Notification.FLAG_ONGOING_EVENT | Notification.FLAG_FOREGROUND_SERVICE | Notification.FLAG_NO_CLEAR;
-            startForeground(startId, notification);
+    /**
+     * Replace persist stage state (on persist stage)
+     *
+     * @param config
+     * @param dao store of locations queued by ingest stage with new config
+     * @param previousQueue write-behind queue of previous config or null
+     */
+    private void startPersist(Config config, LocationDAO dao, LocationWriteBehindQueue previousQueue) {
+        if (previousQueue != null) {
+            previousQueue.flush();
+        }
+        if (postQueue != null) {
+            postQueue.flush();
+        }
+        if (uploadExecutor != null) {
+            releaseUploads(uploadExecutor.shutdown());
         }
 
-        provider.startRecording();
+        this.config = config;
+        this.dao = dao;
+        outbox = DAOFactory.createLocationOutbox(this, config);
+        uploadExecutor = new UploadExecutor(config.getUploadConcurrency(), config.getUploadQueueSize());
+        RetryPolicy retryPolicy = new RetryPolicy(config.getRetryBaseDelay(), config.getRetryMaxDelay(),
+                config.getCircuitFailureThreshold(), config.getCircuitOpenDuration());
+        retryPolicy.setListener(circuitListener);
+        this.retryPolicy = retryPolicy;
+        postQueue = new LocationPostQueue(persistStage.getHandler(), this, config.getPostBatchSize(), config.getPostBatchWindow());
+        HttpPostService.setTimeouts(config.getHttpConnectTimeout(), config.getHttpReadTimeout());
+        batchSizeTuner = new BatchSizeTuner(DAOFactory.createUploadStatsDAO(this), config);
+    }
 
-        //We want this service to continue running until it is explicitly stopped
-        return START_STICKY;
+    /**
+     * Build a Notification required for running service in foreground.
+     */
+    private Notification buildNotification(Config config) {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this);
+        builder.setContentTitle(config.getNotificationTitle());
+        builder.setContentText(config.getNotificationText());
+        if (config.getSmallNotificationIcon() != null) {
+            builder.setSmallIcon(getDrawableResource(config.getSmallNotificationIcon()));
+        } else {
+            builder.setSmallIcon(android.R.drawable.ic_menu_mylocation);
+        }
+        if (config.getLargeNotificationIcon() != null) {
+            builder.setLargeIcon(BitmapFactory.decodeResource(getApplication().getResources(), getDrawableResource(config.getLargeNotificationIcon())));
+        }
+        if (config.getNotificationIconColor() != null) {
+            builder.setColor(this.parseNotificationIconColor(config.getNotificationIconColor()));
+        }
+
+        // Add an onclick handler to the notification
+        Context context = getApplicationContext();
+        String packageName = context.getPackageName();
+        Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(packageName);
+        launchIntent.addFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent contentIntent = PendingIntent.getActivity(context, 0, launchIntent, PendingIntent.FLAG_CANCEL_CURRENT);
+        builder.setContentIntent(contentIntent);
+
+        Notification notification = builder.build();
+        notification.flags |= Notification.FLAG_ONGOING_EVENT | Notification.FLAG_FOREGROUND_SERVICE | Notification.FLAG_NO_CLEAR;
+        return notification;
     }
 
     protected int getAppResource(String name, String type) {
@@ -297,19 +539,37 @@ public class LocationService extends Service {
     }
 
     public void startRecording() {
-        provider.startRecording();
+        ingestStage.getHandler().post(new Runnable() {
+            public void run() {
+                if (provider != null) {
+                    provider.startRecording();
+                }
+            }
+        });
     }
 
     public void stopRecording() {
-        provider.stopRecording();
+        ingestStage.getHandler().post(new Runnable() {
+            public void run() {
+                if (provider != null) {
+                    provider.stopRecording();
+                }
+            }
+        });
     }
 
 
     /**
-     * Handle location from location location provider
+     * Handle location from location location provider (on ingest stage)
      *
      * All locations updates are recorded in local db at all times.
+     * Locations are not written immediately, but queued and persisted
+     * in batches by write-behind queue (@see onLocationsPersisted).
      * Also location is also send to all messenger clients.
+     * When option.smoothLocations is set, smoothed coordinates are added to location.
+     * When option.simplificationTolerance is set, locations not needed to keep trajectory
+     * within tolerance are dropped (@see TrajectorySimplifier).
+     * When option.visitRadius is set, locations are clustered into visits (@see StayPointDetector).
      *
      * If option.url is defined, each location is also immediately posted.
      * If post is successful, the location is deleted from local db.
@@ -322,34 +582,154 @@ public class LocationService extends Service {
      * @param location
      */
     public void handleLocation(BackgroundLocation location) {
+        long start = SystemClock.uptimeMillis();
+        long age = getLocationAge(location);
+        if (smoother != null) {
+            smoother.smooth(location);
+        }
         log.debug("New location {}", location.toString());
+        if (visitDetector != null) {
+            handleVisit(visitDetector.offer(location));
+        }
+
+        // simplifier holds location back, until it knows whether location is needed
+        BackgroundLocation simplified = simplifier != null ? simplifier.offer(location) : location;
+        if (simplified != null) {
+            persistQueue.offer(simplified);
+        }
+        ingestStage.record(age, SystemClock.uptimeMillis() - start);
+    }
+
+    /**
+     * End simplified trajectory, so location held back by simplifier is persisted
+     */
+    private void flushSimplifier() {
+        if (simplifier != null) {
+            BackgroundLocation location = simplifier.flush();
+            if (location != null) {
+                persistQueue.offer(location);
+            }
+        }
+    }
+
+    /**
+     * End pending visit, so it is not lost when tracking stops
+     */
+    private void flushVisitDetector() {
+        if (visitDetector != null) {
+            handleVisit(visitDetector.flush());
+        }
+    }
+
+    /**
+     * Persist visit on persist stage and send it to clients
+     *
+     * @param visit visit or null when there is none
+     */
+    private void handleVisit(final Visit visit) {
+        if (visit == null) {
+            return;
+        }
+        log.info("New visit {}", visit.toString());
+        final Context context = this;
+        // not bounded by stage capacity, visit cannot be recovered once dropped
+        persistStage.getHandler().post(new Runnable() {
+            public void run() {
+                try {
+                    DAOFactory.createVisitDAO(context).persistVisit(visit);
+                } catch (SQLException e) {
+                    log.error("Failed to persist visit: {}", e.getMessage());
+                }
+
+                Bundle bundle = new Bundle();
+                bundle.putParcelable("visit", visit);
+                Message msg = Message.obtain(null, MSG_ON_VISIT);
+                msg.setData(bundle);
 
-        location.setBatchStartMillis(System.currentTimeMillis() + ONE_MINUTE); // prevent sync of not yet posted location
-        persistLocation(location);
+                sendClientMessage(msg);
+            }
+        });
+    }
+
+    /**
+     * Returns time in milliseconds since location has been fixed or 0 when not known
+     */
+    private static long getLocationAge(BackgroundLocation location) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && location.getElapsedRealtimeNanos() > 0) {
+            return (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000;
+        }
+        return 0;
+    }
 
+    /**
+     * Continue handling of locations once they have been persisted by write-behind queue
+     * (on persist stage)
+     *
+     * Sync threshold is checked once per flushed batch,
+     * threshold is tuned by measured sync performance of current network (@see BatchSizeTuner).
+     * Locations to be posted are leased from outbox first, so they are not picked up
+     * by batch sync while realtime post is pending.
+     *
+     * @param locations persisted locations with locationId set
+     */
+    public void onLocationsPersisted(List<BackgroundLocation> locations) {
         if (config.hasSyncUrl()) {
             Long locationsCount = dao.locationsForSyncCount(System.currentTimeMillis());
-            log.debug("Location to sync: {} threshold: {}", locationsCount, config.getSyncThreshold());
-            if (locationsCount >= config.getSyncThreshold()) {
-                log.debug("Attempt to sync locations: {} threshold: {}", locationsCount, config.getSyncThreshold());
+            int syncThreshold = batchSizeTuner.getSyncThreshold(NetworkTools.getNetworkType(this));
+            log.debug("Location to sync: {} threshold: {}", locationsCount, syncThreshold);
+            if (locationsCount >= syncThreshold) {
+                log.debug("Attempt to sync locations: {} threshold: {}", locationsCount, syncThreshold);
                 SyncService.sync(syncAccount, getStringResource(Config.CONTENT_AUTHORITY_RESOURCE));
             }
         }
 
+        Collection<Long> leasedIds = Collections.emptySet();
         if (hasConnectivity && config.hasUrl()) {
-            postLocationAsync(location);
+            long leaseExpires = System.currentTimeMillis() + config.getPostBatchWindow() + ONE_MINUTE;
+            leasedIds = new HashSet<Long>(outbox.lease(getLocationIds(locations), REALTIME_LEASE_ID, leaseExpires));
         }
 
-        Bundle bundle = new Bundle();
-        bundle.putParcelable("location", location);
-        Message msg = Message.obtain(null, MSG_LOCATION_UPDATE);
-        msg.setData(bundle);
+        for (BackgroundLocation location : locations) {
+            // location which failed to persist is not in outbox, so it is posted without lease
+            if (hasConnectivity && config.hasUrl() && (!isPersisted(location) || leasedIds.contains(location.getLocationId()))) {
+                if (config.getPostBatchWindow() > 0) {
+                    postQueue.offer(location);
+                } else {
+                    postLocationAsync(location);
+                }
+            }
 
-        sendClientMessage(msg);
+            Bundle bundle = new Bundle();
+            bundle.putParcelable("location", location);
+            Message msg = Message.obtain(null, MSG_LOCATION_UPDATE);
+            msg.setData(bundle);
+
+            // location is already persisted, so clients falling behind can read it from db
+            offerClientMessage(msg);
+        }
+    }
+
+    /**
+     * Post locations coalesced by post queue in single request
+     *
+     * @param locations
+     */
+    public void onPostLocations(List<BackgroundLocation> locations) {
+        log.debug("Posting batch of {} locations", locations.size());
+        postLocationsAsync(locations.toArray(new BackgroundLocation[locations.size()]));
     }
 
     public void handleStationary(BackgroundLocation location) {
         log.debug("New stationary {}", location.toString());
+        // device has stopped, last moving location must not wait for next one
+        flushSimplifier();
+        // stationary location is still part of current visit
+        if (visitDetector != null) {
+            handleVisit(visitDetector.offer(location));
+        }
+
+        // device is idle, good time to compact db, when persist stage is busy job runs on schedule
+        persistStage.post(compactionTrigger);
 
         Bundle bundle = new Bundle();
         bundle.putParcelable("location", location);
@@ -363,24 +743,57 @@ public class LocationService extends Service {
         // TODO: implement
     }
 
+    /**
+     * Hand off message to notify stage, which sends it to all registered clients
+     *
+     * @param msg
+     */
     public void sendClientMessage(Message msg) {
-        Iterator<Messenger> it = mClients.values().iterator();
-        while (it.hasNext()) {
-            try {
-                Messenger client = it.next();
-                client.send(msg);
-            } catch (RemoteException e) {
-                // The client is dead.  Remove it from the list;
-                // we are going through the list from back to front
-                // so this is safe to do inside the loop.
-                it.remove();
+        // not bounded by stage capacity, messages must not be lost
+        notifyStage.getHandler().post(new ClientMessageTask(msg));
+    }
+
+    /**
+     * Hand off message to notify stage, unless notify stage is full
+     *
+     * @param msg
+     * @return false if message has been dropped
+     */
+    public boolean offerClientMessage(Message msg) {
+        return notifyStage.post(new ClientMessageTask(msg));
+    }
+
+    /**
+     * Send message to all registered clients (on notify stage)
+     */
+    private class ClientMessageTask implements Runnable {
+        private final Message msg;
+
+        ClientMessageTask(Message msg) {
+            this.msg = msg;
+        }
+
+        public void run() {
+            synchronized (mClients) {
+                Iterator<Messenger> it = mClients.values().iterator();
+                while (it.hasNext()) {
+                    try {
+                        Messenger client = it.next();
+                        client.send(msg);
+                    } catch (RemoteException e) {
+                        // The client is dead.  Remove it from the list;
+                        // we are going through the list from back to front
+                        // so this is safe to do inside the loop.
+                        it.remove();
+                    }
+                }
             }
         }
     }
 
     @Override
     public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
-        return super.registerReceiver(receiver, filter, null, serviceHandler);
+        return super.registerReceiver(receiver, filter, null, ingestStage.getHandler());
     }
 
     @Override
@@ -412,77 +825,237 @@ public class LocationService extends Service {
     }
 
     public void postLocation(BackgroundLocation location) {
-        PostLocationTask task = new LocationService.PostLocationTask();
-        task.doInBackground(location);
+        PostLocationTask task = new LocationService.PostLocationTask(location);
+        task.post();
     }
 
     public void postLocationAsync(BackgroundLocation location) {
-        PostLocationTask task = new LocationService.PostLocationTask();
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, location);
+        postLocationsAsync(location);
+    }
+
+    /**
+     * Queue locations for posting in single request
+     *
+     * If upload queue is full, locations are released back to outbox and will be uploaded by batch sync.
+     *
+     * @param locations
+     */
+    public void postLocationsAsync(BackgroundLocation... locations) {
+        long delay = retryPolicy.getDelay(config.getUrl());
+        if (delay > 0) {
+            log.debug("Posting delayed by: {}ms, {} locations left for batch sync", delay, locations.length);
+            outbox.release(REALTIME_LEASE_ID, getLocationIds(Arrays.asList(locations)));
+            return;
+        }
+
+        PostLocationTask task = new LocationService.PostLocationTask(locations);
+        if (!uploadExecutor.submit(config.getUrl(), task)) {
+            log.warn("Upload queue is full, {} locations left for batch sync", locations.length);
+            outbox.release(REALTIME_LEASE_ID, getLocationIds(Arrays.asList(locations)));
+        }
+    }
+
+    /**
+     * Release locations of uploads dropped by upload executor
+     */
+    private void releaseUploads(List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            ((PostLocationTask) task).release();
         }
-        else {
-            task.execute(location);
+    }
+
+    private static boolean isPersisted(BackgroundLocation location) {
+        Long locationId = location.getLocationId();
+        return locationId != null && locationId > 0;
+    }
+
+    private static List<Long> getLocationIds(List<BackgroundLocation> locations) {
+        List<Long> locationIds = new ArrayList<Long>(locations.size());
+        for (BackgroundLocation location : locations) {
+            if (isPersisted(location)) {
+                locationIds.add(location.getLocationId());
+            }
         }
+
+        return locationIds;
+    }
+
+    public UploadExecutor.Stats getUploadStats() {
+        return uploadExecutor != null ? uploadExecutor.getStats() : null;
+    }
+
+    /**
+     * Returns latency metrics of ingest, persist and notify stages
+     * (upload dispatch is reported by getUploadStats)
+     */
+    public List<PipelineStage.Stats> getPipelineStats() {
+        return Arrays.asList(ingestStage.getStats(), persistStage.getStats(), notifyStage.getStats());
+    }
+
+    /**
+     * Returns chain of filters locations from provider have to pass before they are handled.
+     * Custom filters can be appended to chain, they are kept when service is restarted with new config.
+     */
+    public LocationFilterChain getFilterChain() {
+        return filterChain;
+    }
+
+    public LocationFilterChain.Stats getFilterStats() {
+        return filterChain.getStats();
+    }
+
+    /**
+     * Returns looper of ingest stage, location providers deliver their updates on it
+     */
+    public Looper getIngestLooper() {
+        return ingestStage.getLooper();
     }
 
     public Config getConfig() {
         return this.config;
     }
 
+    /**
+     * Returns config of ingest stage, which is replaced ahead of config returned by getConfig
+     * (location provider is created with it)
+     */
+    public Config getIngestConfig() {
+        return this.ingestConfig;
+    }
+
     public void setConfig(Config config) {
         this.config = config;
     }
 
-    private class PostLocationTask extends AsyncTask<BackgroundLocation, Integer, Boolean> {
+    /**
+     * Post locations leased by realtime posting
+     *
+     * Lease is renewed right before request, so it cannot expire while request is in flight,
+     * and only locations still held by lease are posted. Posted locations are acked once server
+     * has accepted them, otherwise they are released back to outbox for batch sync.
+     * Task keeps config it has been created with, so it is not affected by reconfiguration of service.
+     */
+    private class PostLocationTask implements Runnable {
+        private final BackgroundLocation[] queuedLocations;
+        private final Config config;
+        private final LocationOutbox outbox;
+        private final RetryPolicy retryPolicy;
+
+        PostLocationTask(BackgroundLocation... locations) {
+            this.queuedLocations = locations;
+            this.config = LocationService.this.config;
+            this.outbox = LocationService.this.outbox;
+            this.retryPolicy = LocationService.this.retryPolicy;
+        }
 
-        @Override
-        protected Boolean doInBackground(BackgroundLocation... locations) {
-            log.debug("Executing PostLocationTask#doInBackground");
-            if (locations.length == 0) {
+        public void run() {
+            post();
+        }
+
+        /**
+         * Release lease of locations of task, which will not be executed
+         */
+        void release() {
+            outbox.release(REALTIME_LEASE_ID, getLocationIds(Arrays.asList(queuedLocations)));
+        }
+
+        boolean post() {
+            log.debug("Executing PostLocationTask#post");
+            long leaseExpires = System.currentTimeMillis() + config.getHttpConnectTimeout() + config.getHttpReadTimeout() + ONE_MINUTE;
+            Set<Long> leasedIds = new HashSet<Long>(
+                    outbox.lease(getLocationIds(Arrays.asList(queuedLocations)), REALTIME_LEASE_ID, leaseExpires));
+            List<BackgroundLocation> leasedLocations = new ArrayList<BackgroundLocation>(queuedLocations.length);
+            for (BackgroundLocation location : queuedLocations) {
+                if (!isPersisted(location) || leasedIds.contains(location.getLocationId())) {
+                    leasedLocations.add(location);
+                }
+            }
+            if (leasedLocations.isEmpty()) {
+                log.debug("Lease of locations has expired, locations left for batch sync");
                 return false;
             }
 
-            JSONObject jsonLocation = null;
-            BackgroundLocation firstLocation = null;
+            BackgroundLocation[] locations = leasedLocations.toArray(new BackgroundLocation[leasedLocations.size()]);
+            List<Long> locationIds = new ArrayList<Long>(leasedIds);
+            if (!post(locations)) {
+                outbox.release(REALTIME_LEASE_ID, locationIds);
+                return false;
+            }
+
+            outbox.ack(REALTIME_LEASE_ID, locationIds);
+            return true;
+        }
+
+        private boolean post(BackgroundLocation[] locations) {
+            LocationSerializer serializer = SerializerFactory.createLocationSerializer(config.getPayloadFormat());
+            byte[] body = null;
 
             try {
-                // Take the first location
-                firstLocation = locations[0];
-                jsonLocation = firstLocation.toJSONObject();
-            } catch (JSONException e) {
-                log.warn("Location to json failed: {}", firstLocation.toString());
+                if (config.getPostBatchWindow() > 0) {
+                    // micro-batch is always posted as array, even when it contains single location
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    LocationSerializer.BatchWriter writer = serializer.createBatchWriter(out);
+                    for (BackgroundLocation location : locations) {
+                        writer.write(location);
+                    }
+                    writer.finish();
+                    body = out.toByteArray();
+                } else {
+                    // Take the first location
+                    body = serializer.serialize(locations[0]);
+                }
+            } catch (IOException e) {
+                log.warn("Location serialization failed: {}", e.getMessage());
                 return false;
             }
 
             String url = config.getUrl();
-            log.debug("Posting json to url: {} headers: {}", url, config.getHttpHeaders());
-            int responseCode;
+            if (!retryPolicy.allowRequest(url)) {
+                log.debug("Posting to url: {} not allowed by retry policy, locations left for batch sync", url);
+                return false;
+            }
+
+            log.debug("Posting {} to url: {} headers: {}", serializer.getContentType(), url, config.getHttpHeaders());
+            HttpTransport.Response response;
 
             try {
-                responseCode = HttpPostService.postJSON(url, jsonLocation, config.getHttpHeaders());
+                response = HttpPostService.postBytes(url, body, serializer.getContentType(), config.getHttpHeaders());
             } catch (Exception e) {
                 hasConnectivity = isNetworkAvailable();
                 log.warn("Error while posting locations: {}", e.getMessage());
+                retryPolicy.onFailure(url, null);
                 return false;
             }
 
+            int responseCode = response.getResponseCode();
+            retryPolicy.onResponse(url, responseCode, response.getRetryAfter());
             if (responseCode != HttpURLConnection.HTTP_OK) {
                 log.warn("Server error while posting locations responseCode: {}", responseCode);
                 return false;
             }
 
-            for (BackgroundLocation location : locations) {
-                Long locationId = location.getLocationId();
-                if (locationId != null) {
-                    dao.deleteLocation(locationId);
-                }
-            }
-
             return true;
         }
     }
 
+    /**
+     * Forward circuit state changes to clients (on notify stage)
+     */
+    private RetryPolicy.Listener circuitListener = new RetryPolicy.Listener() {
+        @Override
+        public void onStateChanged(final String endpoint, RetryPolicy.State from, final RetryPolicy.State to, final long retryAt) {
+            log.info("Circuit of url: {} changed from: {} to: {} retryAt: {}", endpoint, from, to, retryAt);
+            Bundle bundle = new Bundle();
+            bundle.putString("url", endpoint);
+            bundle.putString("state", to.name().toLowerCase(Locale.US));
+            bundle.putLong("retryAt", retryAt);
+            Message msg = Message.obtain(null, MSG_ON_CIRCUIT_STATE_CHANGE);
+            msg.setData(bundle);
+
+            sendClientMessage(msg);
+        }
+    };
+
     /**
      * Broadcast receiver which detects connectivity change condition
      */
@@ -0,0 +1,259 @@
+package com.marianhello.bgloc;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import com.marianhello.logging.LoggerManager;
+
+/**
+ * Single stage of location processing pipeline
+ *
+ * Stage owns dedicated looper thread, so work of stage is executed serially
+ * and never on main thread. Tasks are handed off to stage by post, which is bounded
+ * by capacity. Task posted into full stage is dropped and post returns false,
+ * so post is meant for work which can be lost or is repeated later anyway.
+ * Timers and work which must not be lost (eg. lifecycle of stage) are scheduled
+ * directly on stage handler.
+ *
+ * Every task executed on stage handler is measured. Wait is time task spent in queue
+ * after it was due, run is time of its execution. Work delivered to stage looper
+ * by framework (eg. location listener callbacks) is measured by caller with record.
+ */
+public class PipelineStage {
+    private final String name;
+    private final int capacity;
+    private final HandlerThread thread;
+    private final StageHandler handler;
+
+    private int pending = 0;
+    private long processed = 0;
+    private long dropped = 0;
+    private long onMainThread = 0;
+    private long totalWait = 0;
+    private long maxWait = 0;
+    private long totalRun = 0;
+    private long maxRun = 0;
+
+    private org.slf4j.Logger log;
+
+    /**
+     * Snapshot of stage metrics (times in milliseconds)
+     */
+    public static class Stats {
+        private String name;
+        private int pending;
+        private long processed;
+        private long dropped;
+        private long onMainThread;
+        private double avgWait;
+        private long maxWait;
+        private double avgRun;
+        private long maxRun;
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns number of tasks posted to stage and waiting for execution
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        /**
+         * Returns number of executed tasks
+         */
+        public long getProcessed() {
+            return processed;
+        }
+
+        /**
+         * Returns number of tasks dropped because of full stage or shutdown
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * Returns number of tasks which have been executed on main thread (should be 0)
+         */
+        public long getOnMainThread() {
+            return onMainThread;
+        }
+
+        public double getAvgWait() {
+            return avgWait;
+        }
+
+        public long getMaxWait() {
+            return maxWait;
+        }
+
+        public double getAvgRun() {
+            return avgRun;
+        }
+
+        public long getMaxRun() {
+            return maxRun;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder()
+                    .append("Stats[name=").append(name)
+                    .append(" pending=").append(pending)
+                    .append(" processed=").append(processed)
+                    .append(" dropped=").append(dropped)
+                    .append(" onMainThread=").append(onMainThread)
+                    .append(" avgWait=").append(avgWait)
+                    .append(" maxWait=").append(maxWait)
+                    .append(" avgRun=").append(avgRun)
+                    .append(" maxRun=").append(maxRun)
+                    .append("]")
+                    .toString();
+        }
+    }
+
+    private class StageHandler extends Handler {
+        StageHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void dispatchMessage(Message msg) {
+            // when is uptime message was due, so delay of timers is not counted as wait
+            long wait = SystemClock.uptimeMillis() - msg.getWhen();
+            long start = SystemClock.uptimeMillis();
+            try {
+                super.dispatchMessage(msg);
+            } finally {
+                record(wait, SystemClock.uptimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Task handed off by post, which frees its slot in stage once executed
+     */
+    private class BoundedTask implements Runnable {
+        private final Runnable task;
+
+        BoundedTask(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            synchronized (PipelineStage.this) {
+                pending--;
+            }
+            task.run();
+        }
+    }
+
+    /**
+     * @param name name of stage and its thread
+     * @param capacity max number of tasks waiting in stage
+     * @param priority thread priority (@see android.os.Process)
+     */
+    public PipelineStage(String name, int capacity, int priority) {
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        thread = new HandlerThread("LocationService." + name, priority);
+        thread.start();
+        handler = new StageHandler(thread.getLooper());
+        log = LoggerManager.getLogger(PipelineStage.class);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Looper getLooper() {
+        return thread.getLooper();
+    }
+
+    /**
+     * Returns handler of stage thread. Tasks and timers scheduled directly
+     * on handler are measured, but not bounded by capacity.
+     */
+    public Handler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Hand off task to stage
+     *
+     * @param task
+     * @return false if task has been dropped
+     */
+    public boolean post(Runnable task) {
+        synchronized (this) {
+            if (pending >= capacity) {
+                dropped++;
+                log.warn("Stage: {} is full, task dropped", name);
+                return false;
+            }
+            pending++;
+        }
+
+        if (!handler.post(new BoundedTask(task))) {
+            // looper has quit already
+            synchronized (this) {
+                pending--;
+                dropped++;
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Record execution of work delivered to stage looper by framework
+     *
+     * @param wait time in milliseconds work was waiting for stage
+     * @param run time in milliseconds work was executed
+     */
+    public synchronized void record(long wait, long run) {
+        wait = Math.max(0, wait);
+        processed++;
+        totalWait += wait;
+        totalRun += run;
+        maxWait = Math.max(maxWait, wait);
+        maxRun = Math.max(maxRun, run);
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            onMainThread++;
+        }
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.name = name;
+        stats.pending = pending;
+        stats.processed = processed;
+        stats.dropped = dropped;
+        stats.onMainThread = onMainThread;
+        stats.avgWait = processed > 0 ? (double) totalWait / processed : 0;
+        stats.maxWait = maxWait;
+        stats.avgRun = processed > 0 ? (double) totalRun / processed : 0;
+        stats.maxRun = maxRun;
+
+        return stats;
+    }
+
+    /**
+     * Stop stage thread once already queued tasks are executed
+     */
+    public void quit() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            thread.quitSafely();
+        } else {
+            thread.quit(); //sorry
+        }
+    }
+}
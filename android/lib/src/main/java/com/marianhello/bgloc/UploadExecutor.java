@@ -0,0 +1,224 @@
+package com.marianhello.bgloc;
+
+import android.os.Process;
+
+import com.marianhello.logging.LoggerManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dedicated executor of realtime uploads
+ *
+ * Uploads are queued into per endpoint lanes. Lane runs at most one upload at time,
+ * so uploads to same endpoint are always executed in order they have been submitted.
+ * Different endpoints are served concurrently by at most concurrency threads.
+ *
+ * Total number of queued (not yet running) uploads is bounded by queueSize.
+ * Upload submitted into full queue is dropped and submit returns false.
+ * Caller is expected to leave data of dropped upload for batch sync.
+ */
+public class UploadExecutor {
+    public static final int DEFAULT_CONCURRENCY = 2;
+    public static final int DEFAULT_QUEUE_SIZE = 50;
+
+    private final ExecutorService executor;
+    private final int queueSize;
+    private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+
+    private int queued = 0;
+    private int inFlight = 0;
+    private long completed = 0;
+    private long dropped = 0;
+    private boolean shutdown = false;
+
+    private org.slf4j.Logger log;
+
+    /**
+     * Snapshot of executor metrics
+     */
+    public static class Stats {
+        private int queueDepth;
+        private int inFlight;
+        private long completed;
+        private long dropped;
+
+        /**
+         * Returns number of uploads waiting for execution
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * Returns number of uploads being executed
+         */
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * Returns number of executed uploads
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * Returns number of uploads dropped because of full queue or shutdown
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder()
+                    .append("Stats[queueDepth=").append(queueDepth)
+                    .append(" inFlight=").append(inFlight)
+                    .append(" completed=").append(completed)
+                    .append(" dropped=").append(dropped)
+                    .append("]")
+                    .toString();
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final String endpoint;
+        private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+        Lane(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        /**
+         * Run single upload and reschedule lane if there are more,
+         * so lanes are sharing threads fairly
+         */
+        public void run() {
+            Runnable task;
+            synchronized (UploadExecutor.this) {
+                task = tasks.poll();
+                if (task == null) {
+                    return;
+                }
+                queued--;
+                inFlight++;
+            }
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Upload to: {} failed: {}", endpoint, e.getMessage());
+            } finally {
+                synchronized (UploadExecutor.this) {
+                    inFlight--;
+                    completed++;
+                    if (tasks.isEmpty() || shutdown) {
+                        lanes.remove(endpoint);
+                    } else {
+                        executor.execute(this);
+                    }
+                }
+            }
+        }
+    }
+
+    public UploadExecutor() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param concurrency max number of uploads running at the same time
+     * @param queueSize max number of uploads waiting for execution
+     */
+    public UploadExecutor(int concurrency, int queueSize) {
+        this.queueSize = queueSize;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(1);
+
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "UploadExecutor #" + count.getAndIncrement());
+            }
+        });
+        log = LoggerManager.getLogger(UploadExecutor.class);
+    }
+
+    /**
+     * Queue upload to given endpoint
+     *
+     * @param endpoint uploads with the same endpoint are executed in submission order
+     * @param task upload
+     * @return false if upload has been dropped
+     */
+    public synchronized boolean submit(String endpoint, Runnable task) {
+        if (shutdown || queued >= queueSize) {
+            dropped++;
+            log.warn("Dropping upload to: {} {}", endpoint, getStats().toString());
+            return false;
+        }
+
+        queued++;
+        Lane lane = lanes.get(endpoint);
+        if (lane == null) {
+            lane = new Lane(endpoint);
+            lanes.put(endpoint, lane);
+            lane.tasks.add(task);
+            executor.execute(lane);
+        } else {
+            lane.tasks.add(task);
+        }
+
+        return true;
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.queueDepth = queued;
+        stats.inFlight = inFlight;
+        stats.completed = completed;
+        stats.dropped = dropped;
+
+        return stats;
+    }
+
+    /**
+     * Drop all queued uploads and stop accepting new ones
+     *
+     * Running uploads are left to finish. Method is not blocking.
+     * Dropped uploads are returned, so caller can return their data for batch sync.
+     *
+     * @return dropped uploads
+     */
+    public List<Runnable> shutdown() {
+        List<Runnable> droppedTasks = new ArrayList<Runnable>();
+        synchronized (this) {
+            if (shutdown) {
+                return droppedTasks;
+            }
+            shutdown = true;
+            dropped += queued;
+            queued = 0;
+            for (Lane lane : lanes.values()) {
+                droppedTasks.addAll(lane.tasks);
+                lane.tasks.clear();
+            }
+        }
+        executor.shutdown();
+        log.info("Upload executor shut down {}", getStats().toString());
+
+        return droppedTasks;
+    }
+}
@@ -24,11 +24,14 @@ public class BackgroundLocation implements Parcelable {
     private float bearing = 0.0f;
     private double altitude = 0.0f;
     private float radius = 0.0f;
+    private double smoothedLatitude = 0.0;
+    private double smoothedLongitude = 0.0;
     private boolean hasAccuracy = false;
     private boolean hasAltitude = false;
     private boolean hasSpeed = false;
     private boolean hasBearing = false;
     private boolean hasRadius = false;
+    private boolean hasSmoothed = false;
     private boolean isFromMockProvider = false;
     private boolean isValid = true;
     private Bundle extras = null;
@@ -101,11 +104,14 @@ public class BackgroundLocation implements Parcelable {
         bearing = l.bearing;
         altitude = l.altitude;
         radius = l.radius;
+        smoothedLatitude = l.smoothedLatitude;
+        smoothedLongitude = l.smoothedLongitude;
         hasAccuracy = l.hasAccuracy;
         hasAltitude = l.hasAltitude;
         hasSpeed = l.hasSpeed;
         hasBearing = l.hasBearing;
         hasRadius = l.hasRadius;
+        hasSmoothed = l.hasSmoothed;
         isFromMockProvider = l.isFromMockProvider;
         isValid = l.isValid;
         extras = (l.extras == null) ? null : new Bundle(l.extras);
@@ -125,11 +131,14 @@ public class BackgroundLocation implements Parcelable {
         bearing = in.readFloat();
         altitude = in.readDouble();
         radius = in.readFloat();
+        smoothedLatitude = in.readDouble();
+        smoothedLongitude = in.readDouble();
         hasAccuracy = in.readInt() != 0;
         hasAltitude = in.readInt() != 0;
         hasSpeed = in.readInt() != 0;
         hasBearing = in.readInt() != 0;
         hasRadius = in.readInt() != 0;
+        hasSmoothed = in.readInt() != 0;
         isFromMockProvider = in.readInt() != 0;
         isValid = in.readInt() != 0;
         extras = in.readBundle();
@@ -144,7 +153,7 @@ public class BackgroundLocation implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeLong(locationId);
         dest.writeInt(locationProvider);
-        dest.writeLong(batchStartMillis);
+        dest.writeLong(batchStartMillis != null ? batchStartMillis : 0L);
         dest.writeString(provider);
         dest.writeDouble(latitude);
         dest.writeDouble(longitude);
@@ -155,11 +164,14 @@ public class BackgroundLocation implements Parcelable {
         dest.writeFloat(bearing);
         dest.writeDouble(altitude);
         dest.writeFloat(radius);
+        dest.writeDouble(smoothedLatitude);
+        dest.writeDouble(smoothedLongitude);
         dest.writeInt(hasAccuracy ? 1 : 0);
         dest.writeInt(hasAltitude ? 1 : 0);
         dest.writeInt(hasSpeed ? 1 : 0);
         dest.writeInt(hasBearing ? 1 : 0);
         dest.writeInt(hasRadius ? 1 : 0);
+        dest.writeInt(hasSmoothed ? 1 : 0);
         dest.writeInt(isFromMockProvider ? 1 : 0);
         dest.writeInt(isValid ? 1 : 0);
         dest.writeBundle(extras);
@@ -458,6 +470,36 @@ public class BackgroundLocation implements Parcelable {
         this.hasRadius = true;
     }
 
+    /**
+     * Returns latitude smoothed by KalmanSmoother, in degrees.
+     */
+    public double getSmoothedLatitude() {
+        return smoothedLatitude;
+    }
+
+    /**
+     * Sets smoothed latitude, in degrees.
+     */
+    public void setSmoothedLatitude(double smoothedLatitude) {
+        this.smoothedLatitude = smoothedLatitude;
+        this.hasSmoothed = true;
+    }
+
+    /**
+     * Returns longitude smoothed by KalmanSmoother, in degrees.
+     */
+    public double getSmoothedLongitude() {
+        return smoothedLongitude;
+    }
+
+    /**
+     * Sets smoothed longitude, in degrees.
+     */
+    public void setSmoothedLongitude(double smoothedLongitude) {
+        this.smoothedLongitude = smoothedLongitude;
+        this.hasSmoothed = true;
+    }
+
     /**
      * True if this location has an accuracy.
      *
@@ -496,6 +538,13 @@ public class BackgroundLocation implements Parcelable {
         return hasRadius;
     }
 
+    /**
+     * True if this location has smoothed coordinates.
+     */
+    public boolean hasSmoothed() {
+        return hasSmoothed;
+    }
+
     /**
      * Returns true if the Location came from a mock provider.
      *
@@ -689,6 +738,7 @@ public class BackgroundLocation implements Parcelable {
         if (hasSpeed) s.append(" vel=").append(speed);
         if (hasBearing) s.append(" bear=").append(bearing);
         if (hasRadius) s.append(" radius=").append(radius);
+        if (hasSmoothed) s.append(String.format(" smoothed=%.6f,%.6f", smoothedLatitude, smoothedLongitude));
         if (isFromMockProvider) s.append(" mock");
         if (extras != null) {
             s.append(" {").append(extras).append('}');
@@ -714,6 +764,10 @@ public class BackgroundLocation implements Parcelable {
         if (hasAltitude) json.put("altitude", altitude);
         if (hasBearing) json.put("bearing", bearing);
         if (hasRadius) json.put("radius", radius);
+        if (hasSmoothed) {
+            json.put("smoothedLatitude", smoothedLatitude);
+            json.put("smoothedLongitude", smoothedLongitude);
+        }
         json.put("locationProvider", locationProvider);
 
         return json;
@@ -2,15 +2,50 @@ package com.marianhello.bgloc.data;
 
 import android.content.Context;
 
+import com.marianhello.bgloc.Config;
+import com.marianhello.bgloc.data.journal.JournalLocationDAO;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationOutbox;
 import com.marianhello.bgloc.data.sqlite.SQLiteConfigurationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteUploadStatsDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteVisitDAO;
 
 public abstract class DAOFactory {
     public static LocationDAO createLocationDAO(Context context) {
         return new SQLiteLocationDAO(context);
     }
 
+    public static LocationDAO createLocationDAO(Context context, Config config) {
+        if (useJournal(config)) {
+            return JournalLocationDAO.getInstance(context);
+        }
+        return createLocationDAO(context);
+    }
+
+    public static LocationOutbox createLocationOutbox(Context context, Config config) {
+        if (useJournal(config)) {
+            return JournalLocationDAO.getInstance(context);
+        }
+        return new SQLiteLocationOutbox(context);
+    }
+
+    /**
+     * Journal is shared with batch sync (@see BatchManager),
+     * which drains it through LocationOutbox in sync adapter process.
+     */
+    private static boolean useJournal(Config config) {
+        return config != null && config.getLocationStore() == Config.JOURNAL_LOCATION_STORE;
+    }
+
     public static ConfigurationDAO createConfigurationDAO(Context context) {
         return new SQLiteConfigurationDAO(context);
     }
+
+    public static UploadStatsDAO createUploadStatsDAO(Context context) {
+        return new SQLiteUploadStatsDAO(context);
+    }
+
+    public static VisitDAO createVisitDAO(Context context) {
+        return new SQLiteVisitDAO(context);
+    }
 }
@@ -1,13 +1,20 @@
 package com.marianhello.bgloc.data;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
 public interface LocationDAO {
     public Collection<BackgroundLocation> getAllLocations();
+    public List<BackgroundLocation> getLocationsPage(long afterLocationId, int limit);
+    public Iterator<BackgroundLocation> getLocationsIterator(long afterLocationId, int pageSize);
+    public List<BackgroundLocation> getLocationsInRange(Long from, Long to, double[] bbox, Integer limit);
     public Collection<BackgroundLocation> getValidLocations();
-    public Long locationsForSyncCount(Long millisSinceLastBatch);
+    public Long locationsForSyncCount(Long now);
     public Long persistLocation(BackgroundLocation location);
     public Long persistLocationWithLimit(BackgroundLocation location, Integer maxRows);
+    public List<Long> persistLocationsWithLimit(List<BackgroundLocation> locations, Integer maxRows);
     public void deleteLocation(Long locationId);
+    public void deleteLocations(List<Long> locationIds);
     public void deleteAllLocations();
 }
@@ -0,0 +1,107 @@
+package com.marianhello.bgloc.data;
+
+import java.util.List;
+
+/**
+ * Outbox of locations waiting for upload
+ *
+ * Every stored location is in one of following states:
+ * <ul>
+ *     <li>pending - waiting for upload, can be leased by any uploader</li>
+ *     <li>leased - reserved for upload by holder of lease until lease expires</li>
+ *     <li>acked - uploaded (or deleted), never uploaded again</li>
+ * </ul>
+ * Only holder of lease can ack location. Expired lease turns location back into pending,
+ * so locations of crashed uploader are picked up by next uploader.
+ *
+ * Outbox is shared by realtime posting (LocationService) and batch sync (SyncAdapter),
+ * which runs in its own process, so every implementation has to be safe across processes.
+ */
+public interface LocationOutbox {
+    /**
+     * Lease given locations, renew lease if locations are already leased by leaseId
+     *
+     * @param locationIds
+     * @param leaseId id of lease holder
+     * @param leaseExpires time in milliseconds when lease expires
+     * @return ids of locations which are leased by leaseId
+     */
+    List<Long> lease(List<Long> locationIds, long leaseId, long leaseExpires);
+
+    /**
+     * Mark locations leased by leaseId as uploaded
+     *
+     * @param leaseId
+     * @param locationIds
+     */
+    void ack(long leaseId, List<Long> locationIds);
+
+    /**
+     * Return locations leased by leaseId back into pending state
+     *
+     * @param leaseId
+     * @param locationIds
+     */
+    void release(long leaseId, List<Long> locationIds);
+
+    /**
+     * Returns number of pending locations
+     *
+     * @param now current time in milliseconds
+     */
+    long pendingCount(long now);
+
+    /**
+     * Returns id of newest stored location or 0 if there is none
+     */
+    long getMaxLocationId();
+
+    /**
+     * Lease pending locations in order of their ids
+     *
+     * @param leaseId
+     * @param leaseExpires time in milliseconds when lease expires
+     * @param maxLocationId locations with greater id are not leased
+     * @param limit max number of leased locations
+     * @return number of leased locations
+     */
+    int leasePending(long leaseId, long leaseExpires, long maxLocationId, int limit);
+
+    /**
+     * Returns page of not yet acked locations held by leaseId in order of their ids
+     *
+     * @param leaseId
+     * @param afterLocationId only locations with greater id are returned
+     * @param maxLocationId locations with greater id are not returned
+     * @param limit max number of returned locations
+     * @return locations
+     */
+    List<BackgroundLocation> getLeasedLocations(long leaseId, long afterLocationId, long maxLocationId, int limit);
+
+    /**
+     * Extend lease of all not yet acked locations held by leaseId
+     *
+     * @param leaseId
+     * @param leaseExpires
+     * @return number of locations still held by lease
+     */
+    int renew(long leaseId, long leaseExpires);
+
+    /**
+     * Mark locations held by leaseId with ids in range (afterLocationId, toLocationId> as uploaded
+     *
+     * @param leaseId
+     * @param afterLocationId
+     * @param toLocationId
+     * @return number of acked locations
+     */
+    int ack(long leaseId, long afterLocationId, long toLocationId);
+
+    /**
+     * Return all not yet acked locations held by leaseId back into pending state
+     *
+     * @param leaseId
+     * @return number of released locations
+     */
+    int release(long leaseId);
+}
@@ -0,0 +1,146 @@
+package com.marianhello.bgloc.data;
+
+import android.os.Handler;
+
+import com.marianhello.logging.LoggerManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write-behind persistence stage for locations.
+ *
+ * Locations are collected into bounded in-memory queue and committed
+ * into db in single transaction per flush window.
+ * Flush is triggered when queue reaches maxSize or when flushInterval elapses
+ * since first location has been queued, whichever comes first.
+ *
+ * Flushes are executed on thread of provided handler, but flush can be also forced
+ * synchronously on calling thread (eg. when service is being destroyed).
+ * When handler thread falls behind and queue reaches capacity, offer flushes on calling
+ * thread, so queue never grows beyond capacity and producer is slowed down instead.
+ */
+public class LocationWriteBehindQueue {
+
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final long DEFAULT_FLUSH_INTERVAL = 2000; //milliseconds
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /**
+     * Listener notified after locations have been persisted.
+     * Every location has locationId set (-1 when persisting failed).
+     */
+    public interface Listener {
+        void onLocationsPersisted(List<BackgroundLocation> locations);
+    }
+
+    private final LocationDAO dao;
+    private final Handler handler;
+    private final Listener listener;
+    private final int maxSize;
+    private final long flushInterval;
+    private final int capacity;
+
+    private final Object flushLock = new Object();
+    private List<BackgroundLocation> queue;
+    private Integer maxRows;
+
+    private org.slf4j.Logger log;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public LocationWriteBehindQueue(LocationDAO dao, Handler handler, Listener listener) {
+        this(dao, handler, listener, DEFAULT_MAX_SIZE, DEFAULT_FLUSH_INTERVAL, DEFAULT_CAPACITY);
+    }
+
+    public LocationWriteBehindQueue(LocationDAO dao, Handler handler, Listener listener, int maxSize, long flushInterval, int capacity) {
+        this.dao = dao;
+        this.handler = handler;
+        this.listener = listener;
+        this.maxSize = maxSize;
+        this.flushInterval = flushInterval;
+        this.capacity = Math.max(maxSize, capacity);
+        this.queue = new ArrayList<BackgroundLocation>(maxSize);
+        log = LoggerManager.getLogger(LocationWriteBehindQueue.class);
+    }
+
+    /**
+     * Set maximum number of rows in db table
+     * @param maxRows
+     */
+    public synchronized void setMaxRows(Integer maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Queue location for persisting
+     * @param location
+     */
+    public void offer(BackgroundLocation location) {
+        int size;
+        synchronized (this) {
+            queue.add(location);
+            size = queue.size();
+        }
+
+        if (size >= capacity) {
+            log.warn("Write-behind queue is full, flushing {} locations on calling thread", size);
+            flush();
+        } else if (size >= maxSize) {
+            handler.removeCallbacks(flushRunnable);
+            handler.post(flushRunnable);
+        } else if (size == 1) {
+            handler.postDelayed(flushRunnable, flushInterval);
+        }
+    }
+
+    /**
+     * Persist all queued locations in single transaction
+     *
+     * Method is blocking and can be called from any thread.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            List<BackgroundLocation> locations;
+            Integer limit;
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    return;
+                }
+                locations = queue;
+                limit = maxRows;
+                queue = new ArrayList<BackgroundLocation>(maxSize);
+                handler.removeCallbacks(flushRunnable);
+            }
+
+            try {
+                List<Long> locationIds = dao.persistLocationsWithLimit(locations, limit);
+                for (int i = 0; i < locations.size(); i++) {
+                    locations.get(i).setLocationId(locationIds.get(i));
+                }
+                log.debug("Persisted {} locations", locations.size());
+            } catch (RuntimeException e) {
+                // any failure of store (not only SQLException) must not kill handler thread
+                // and locations must still be passed to listener
+                log.error("Failed to persist {} locations error: {}", locations.size(), e.getMessage());
+                for (BackgroundLocation location : locations) {
+                    location.setLocationId(-1L);
+                }
+            }
+
+            listener.onLocationsPersisted(locations);
+        }
+    }
+
+    /**
+     * Returns number of locations waiting to be persisted
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+}
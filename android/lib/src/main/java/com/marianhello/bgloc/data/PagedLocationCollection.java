@@ -0,0 +1,82 @@
+package com.marianhello.bgloc.data;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Read only view of all locations of LocationDAO fetched page by page
+ *
+ * Only single page of locations is held in memory while iterating,
+ * so whole history can be iterated with bounded memory (@see LocationDAO#getLocationsPage).
+ * Locations are read when iterated, in order of their locationId.
+ * Size is counted by iterating all pages.
+ */
+public class PagedLocationCollection extends AbstractCollection<BackgroundLocation> {
+    private final LocationDAO dao;
+    private final long afterLocationId;
+    private final int pageSize;
+
+    public PagedLocationCollection(LocationDAO dao, int pageSize) {
+        this(dao, 0, pageSize);
+    }
+
+    /**
+     * @param dao
+     * @param afterLocationId locationId of last location not to be iterated or 0 for all locations
+     * @param pageSize number of locations fetched at once
+     */
+    public PagedLocationCollection(LocationDAO dao, long afterLocationId, int pageSize) {
+        this.dao = dao;
+        this.afterLocationId = afterLocationId;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public Iterator<BackgroundLocation> iterator() {
+        return new PageIterator();
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        long lastLocationId = afterLocationId;
+        List<BackgroundLocation> page;
+        while (!(page = dao.getLocationsPage(lastLocationId, pageSize)).isEmpty()) {
+            size += page.size();
+            lastLocationId = page.get(page.size() - 1).getLocationId();
+        }
+        return size;
+    }
+
+    private class PageIterator implements Iterator<BackgroundLocation> {
+        private List<BackgroundLocation> page;
+        private int index = 0;
+        private long lastLocationId = afterLocationId;
+
+        @Override
+        public boolean hasNext() {
+            if (page == null || (index == page.size() && page.size() == pageSize)) {
+                page = dao.getLocationsPage(lastLocationId, pageSize);
+                index = 0;
+            }
+            return index < page.size();
+        }
+
+        @Override
+        public BackgroundLocation next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            BackgroundLocation location = page.get(index++);
+            lastLocationId = location.getLocationId();
+            return location;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.marianhello.bgloc.data;
+
+/**
+ * Measured upload performance of single network type
+ *
+ * Throughput, latency and success rate are exponentially weighted moving averages,
+ * batch size and sync threshold are values chosen from them (@see BatchSizeTuner).
+ */
+public class UploadStats {
+    private String networkType;
+    private double throughput = 0;
+    private double latency = 0;
+    private double successRate = 1;
+    private long uploads = 0;
+    private long failures = 0;
+    private int batchSize = 0;
+    private int syncThreshold = 0;
+    private long updatedAt = 0;
+
+    public UploadStats(String networkType) {
+        this.networkType = networkType;
+    }
+
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    /**
+     * Returns average throughput in locations per second
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public void setThroughput(double throughput) {
+        this.throughput = throughput;
+    }
+
+    /**
+     * Returns average time in milliseconds till server has responded
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    public void setLatency(double latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Returns average ratio of successful uploads (0 - 1)
+     */
+    public double getSuccessRate() {
+        return successRate;
+    }
+
+    public void setSuccessRate(double successRate) {
+        this.successRate = successRate;
+    }
+
+    /**
+     * Returns number of successful uploads
+     */
+    public long getUploads() {
+        return uploads;
+    }
+
+    public void setUploads(long uploads) {
+        this.uploads = uploads;
+    }
+
+    /**
+     * Returns number of failed uploads
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public void setFailures(long failures) {
+        this.failures = failures;
+    }
+
+    /**
+     * Returns max number of locations in single batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns number of pending locations which triggers sync
+     */
+    public int getSyncThreshold() {
+        return syncThreshold;
+    }
+
+    public void setSyncThreshold(int syncThreshold) {
+        this.syncThreshold = syncThreshold;
+    }
+
+    /**
+     * Returns time in milliseconds of last measurement
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("UploadStats[networkType=").append(networkType)
+                .append(" throughput=").append(throughput)
+                .append(" latency=").append(latency)
+                .append(" successRate=").append(successRate)
+                .append(" uploads=").append(uploads)
+                .append(" failures=").append(failures)
+                .append(" batchSize=").append(batchSize)
+                .append(" syncThreshold=").append(syncThreshold)
+                .append("]")
+                .toString();
+    }
+}
@@ -0,0 +1,9 @@
+package com.marianhello.bgloc.data;
+
+import java.util.Collection;
+
+public interface UploadStatsDAO {
+    public UploadStats getUploadStats(String networkType);
+    public Collection<UploadStats> getAllUploadStats();
+    public void persistUploadStats(UploadStats stats);
+}
@@ -0,0 +1,161 @@
+package com.marianhello.bgloc.data;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Stay of device in single place (@see StayPointDetector)
+ *
+ * Visit lasts from first (arrival) to last (departure) location within visit radius,
+ * its position is centroid of those locations.
+ */
+public class Visit implements Parcelable {
+    private Long visitId = null;
+    private long arrival = 0;
+    private long departure = 0;
+    private double latitude = 0.0;
+    private double longitude = 0.0;
+    private int pointCount = 0;
+
+    public Visit() {}
+
+    private Visit(Parcel in) {
+        long id = in.readLong();
+        visitId = id >= 0 ? id : null;
+        arrival = in.readLong();
+        departure = in.readLong();
+        latitude = in.readDouble();
+        longitude = in.readDouble();
+        pointCount = in.readInt();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(visitId != null ? visitId : -1L);
+        dest.writeLong(arrival);
+        dest.writeLong(departure);
+        dest.writeDouble(latitude);
+        dest.writeDouble(longitude);
+        dest.writeInt(pointCount);
+    }
+
+    public static final Parcelable.Creator<Visit> CREATOR
+            = new Parcelable.Creator<Visit>() {
+        public Visit createFromParcel(Parcel in) {
+            return new Visit(in);
+        }
+        public Visit[] newArray(int size) {
+            return new Visit[size];
+        }
+    };
+
+    /**
+     * Returns visitId if visit was stored in db.
+     * @return visitId or null
+     */
+    public Long getVisitId() {
+        return visitId;
+    }
+
+    public void setVisitId(Long visitId) {
+        this.visitId = visitId;
+    }
+
+    /**
+     * Returns time of first location of visit, in milliseconds since January 1, 1970.
+     */
+    public long getArrival() {
+        return arrival;
+    }
+
+    public void setArrival(long arrival) {
+        this.arrival = arrival;
+    }
+
+    /**
+     * Returns time of last location of visit, in milliseconds since January 1, 1970.
+     */
+    public long getDeparture() {
+        return departure;
+    }
+
+    public void setDeparture(long departure) {
+        this.departure = departure;
+    }
+
+    /**
+     * Returns latitude of centroid, in degrees.
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+    }
+
+    /**
+     * Returns longitude of centroid, in degrees.
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+    }
+
+    /**
+     * Returns number of locations recorded during visit.
+     */
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public void setPointCount(int pointCount) {
+        this.pointCount = pointCount;
+    }
+
+    /**
+     * Returns visit duration in milliseconds.
+     */
+    public long getDuration() {
+        return departure - arrival;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("Visit[id=").append(visitId)
+                .append(String.format(" %.6f,%.6f", latitude, longitude))
+                .append(" arrival=").append(arrival)
+                .append(" departure=").append(departure)
+                .append(" pointCount=").append(pointCount)
+                .append("]")
+                .toString();
+    }
+
+    /**
+     * Returns visit as JSON object.
+     * @throws JSONException
+     */
+    public JSONObject toJSONObject() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("visitId", visitId);
+        json.put("arrival", arrival);
+        json.put("departure", departure);
+        json.put("latitude", latitude);
+        json.put("longitude", longitude);
+        json.put("pointCount", pointCount);
+
+        return json;
+    }
+}
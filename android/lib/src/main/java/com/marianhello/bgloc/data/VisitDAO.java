@@ -0,0 +1,9 @@
+package com.marianhello.bgloc.data;
+
+import java.util.Collection;
+
+public interface VisitDAO {
+    public Collection<Visit> getAllVisits();
+    public Long persistVisit(Visit visit);
+    public void deleteAllVisits();
+}
@@ -0,0 +1,889 @@
+package com.marianhello.bgloc.data.journal;
+
+import android.content.Context;
+import android.database.SQLException;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationOutbox;
+import com.marianhello.bgloc.data.PagedLocationCollection;
+import com.marianhello.logging.LoggerManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Location DAO backed by memory mapped binary journal
+ *
+ * Journal is a file of fixed size records, used as ring of capacity slots
+ * (same as ring of SQLiteLocationDAO). Every location gets monotonically increasing
+ * sequence number, which is also its locationId, and is stored into slot (seq - 1) % capacity.
+ * Deleted (not valid) locations are marked in tombstone bitmap, one bit per slot.
+ * Outbox lease of every slot (lease id and expiration) is stored in lease table.
+ *
+ * <pre>
+ * file: header (magic, version, capacity, superseded flag, head seq, valid count),
+ *       tombstone bitmap, lease table, records
+ * record: seq, time, latitude, longitude, altitude, accuracy, speed, bearing, radius,
+ *         batch start, location provider, flags, provider, smoothed latitude offset,
+ *         smoothed longitude offset, crc32
+ * </pre>
+ *
+ * Smoothed coordinates are stored as 24 bit offsets from raw coordinates in 1e-7 degrees
+ * (about 9km), smoothed coordinates further from raw ones are not stored.
+ *
+ * Every record is protected by CRC32. On open journal is recovered by scanning all records,
+ * records with invalid checksum (torn writes) are dropped, head and valid count are recomputed.
+ * Writes go to memory mapped pages, so they survive process death, but are not forced
+ * to storage device.
+ *
+ * Journal is shared by service and sync adapter running in its own process.
+ * Whole state lives in shared mapping of the file and every operation holds exclusive lock
+ * of the file, so processes never see half done operation of each other.
+ * Resize replaces file by new one, old file is marked as superseded first,
+ * so other process reopens journal before its next operation. Leases of dead process
+ * simply expire. Acked locations are deleted.
+ */
+public class JournalLocationDAO implements LocationDAO, LocationOutbox {
+    public static final String JOURNAL_FILE_NAME = "locations.journal";
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final int MAGIC = 0x42474C4A; // BGLJ
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int SUPERSEDED_OFFSET = 12;
+    private static final int HEAD_SEQ_OFFSET = 16;
+    private static final int VALID_COUNT_OFFSET = 24;
+    private static final int LEASE_SIZE = 16;
+    private static final int RECORD_SIZE = 80;
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+
+    private static final int HAS_ACCURACY = 1;
+    private static final int HAS_SPEED = 1 << 1;
+    private static final int HAS_BEARING = 1 << 2;
+    private static final int HAS_ALTITUDE = 1 << 3;
+    private static final int HAS_RADIUS = 1 << 4;
+    private static final int HAS_LOCATION_PROVIDER = 1 << 5;
+    private static final int HAS_SMOOTHED = 1 << 6;
+
+    private static final double COORDINATE_SCALE = 1e7;
+    private static final int MAX_SMOOTHED_OFFSET = (1 << 23) - 1;
+
+    // android location providers, other providers are stored as unknown (null)
+    private static final String[] PROVIDERS = { null, "gps", "network", "passive", "fused" };
+
+    // file lock is held by whole process, threads (and instances) of process are excluded by lock of journal path
+    private static final Map<String, ReentrantLock> locks = new HashMap<String, ReentrantLock>();
+
+    private static JournalLocationDAO instance;
+
+    private final File file;
+    private final ReentrantLock lock;
+    private RandomAccessFile raf;
+    private FileLock fileLock;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int leasesOffset;
+    private int recordsOffset;
+
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private org.slf4j.Logger log;
+
+    /**
+     * Get JournalLocationDAO instance (singleton)
+     *
+     * Journal is memory mapped, so there must be only one instance per process.
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized JournalLocationDAO getInstance(Context context) {
+        if (instance == null) {
+            instance = new JournalLocationDAO(new File(context.getFilesDir(), JOURNAL_FILE_NAME), DEFAULT_CAPACITY);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Constructor
+     *
+     * NOTE: Intended to use only for testing purposes.
+     * Use factory method getInstance instead.
+     *
+     * @param file journal file
+     * @param capacity capacity of newly created journal
+     */
+    public JournalLocationDAO(File file, int capacity) {
+        this.file = file;
+        log = LoggerManager.getLogger(JournalLocationDAO.class);
+        synchronized (locks) {
+            String path = file.getAbsolutePath();
+            ReentrantLock pathLock = locks.get(path);
+            if (pathLock == null) {
+                pathLock = new ReentrantLock();
+                locks.put(path, pathLock);
+            }
+            lock = pathLock;
+        }
+
+        lock.lock();
+        try {
+            open(capacity);
+            recover();
+        } catch (IOException e) {
+            throw new SQLException("Cannot open journal: " + e.getMessage());
+        } finally {
+            unlock();
+        }
+    }
+
+    public Collection<BackgroundLocation> getAllLocations() {
+        lock();
+        try {
+            return getLocations(0, Integer.MAX_VALUE, false);
+        } finally {
+            unlock();
+        }
+    }
+
+    public List<BackgroundLocation> getLocationsPage(long afterLocationId, int limit) {
+        lock();
+        try {
+            return getLocations(afterLocationId, limit, false);
+        } finally {
+            unlock();
+        }
+    }
+
+    public Iterator<BackgroundLocation> getLocationsIterator(long afterLocationId, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive number");
+        }
+        return new PagedLocationCollection(this, afterLocationId, pageSize).iterator();
+    }
+
+    public List<BackgroundLocation> getLocationsInRange(Long from, Long to, double[] bbox, Integer limit) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        for (BackgroundLocation location : getAllLocations()) {
+            long time = location.getTime();
+            if ((from != null && time < from) || (to != null && time > to)) {
+                continue;
+            }
+            if (bbox != null && !isInBoundingBox(location, bbox)) {
+                continue;
+            }
+            locations.add(location);
+        }
+
+        Collections.sort(locations, new Comparator<BackgroundLocation>() {
+            @Override
+            public int compare(BackgroundLocation a, BackgroundLocation b) {
+                return a.getTime() < b.getTime() ? -1 : (a.getTime() == b.getTime() ? 0 : 1);
+            }
+        });
+        if (limit != null && locations.size() > limit) {
+            return new ArrayList<BackgroundLocation>(locations.subList(0, limit));
+        }
+
+        return locations;
+    }
+
+    public Collection<BackgroundLocation> getValidLocations() {
+        lock();
+        try {
+            return getLocations(0, Integer.MAX_VALUE, true);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Get number of valid locations not leased for upload
+     *
+     * @param now current time in milliseconds
+     * @return number of pending locations
+     */
+    public Long locationsForSyncCount(Long now) {
+        lock();
+        try {
+            long leased = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (getLeaseExpires(slot) >= now && !isTombstone(slot)) {
+                    leased++;
+                }
+            }
+
+            return getValidCount() - leased;
+        } finally {
+            unlock();
+        }
+    }
+
+    public Long persistLocation(BackgroundLocation location) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(1);
+        locations.add(location);
+
+        return persistLocationsWithLimit(locations, null).get(0);
+    }
+
+    public Long persistLocationWithLimit(BackgroundLocation location, Integer maxRows) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(1);
+        locations.add(location);
+
+        return persistLocationsWithLimit(locations, maxRows).get(0);
+    }
+
+    /**
+     * Append locations to journal
+     *
+     * When journal is full, oldest locations are overwritten.
+     * If maxRows differs from journal capacity, journal is resized first.
+     *
+     * @param locations
+     * @param maxRows journal capacity, 0 is treated as 1, null keeps current capacity
+     * @return locationIds (sequence numbers) in the same order as given locations
+     * @throws IllegalArgumentException when maxRows is negative
+     */
+    public List<Long> persistLocationsWithLimit(List<BackgroundLocation> locations, Integer maxRows) {
+        if (maxRows != null && maxRows < 0) {
+            throw new IllegalArgumentException("Invalid max number of locations: " + maxRows);
+        }
+        lock();
+        try {
+            if (maxRows != null && Math.max(1, maxRows) != capacity) {
+                resize(Math.max(1, maxRows));
+            }
+
+            List<Long> ids = new ArrayList<Long>(locations.size());
+            long headSeq = getHeadSeq();
+            long validCount = getValidCount();
+            for (BackgroundLocation location : locations) {
+                long seq = headSeq + 1;
+                int slot = slotOf(seq);
+                // evict location stored in slot
+                if (isValid(slot, seq - capacity)) {
+                    validCount--;
+                }
+
+                encodeRecord(seq, location);
+                writeRecord(slot);
+                setTombstone(slot, !location.isValid());
+                setLease(slot, 0, 0);
+                if (location.isValid()) {
+                    validCount++;
+                }
+                headSeq = seq;
+                ids.add(seq);
+            }
+            setHeadSeq(headSeq);
+            setValidCount(validCount);
+
+            return ids;
+        } catch (IOException e) {
+            throw new SQLException("Cannot resize journal: " + e.getMessage());
+        } finally {
+            unlock();
+        }
+    }
+
+    public void deleteLocation(Long locationId) {
+        lock();
+        try {
+            delete(locationId);
+        } finally {
+            unlock();
+        }
+    }
+
+    public void deleteLocations(List<Long> locationIds) {
+        lock();
+        try {
+            for (Long locationId : locationIds) {
+                delete(locationId);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    public long pendingCount(long now) {
+        return locationsForSyncCount(now);
+    }
+
+    public long getMaxLocationId() {
+        lock();
+        try {
+            return getHeadSeq();
+        } finally {
+            unlock();
+        }
+    }
+
+    public List<Long> lease(List<Long> locationIds, long leaseId, long leaseExpires) {
+        lock();
+        try {
+            List<Long> leasedIds = new ArrayList<Long>(locationIds.size());
+            long now = System.currentTimeMillis();
+            for (Long locationId : locationIds) {
+                if (locationId == null || !isValid(slotOf(locationId), locationId)) {
+                    continue;
+                }
+                int slot = slotOf(locationId);
+                if (getLeaseExpires(slot) < now || getLeaseId(slot) == leaseId) {
+                    setLease(slot, leaseId, leaseExpires);
+                    leasedIds.add(locationId);
+                }
+            }
+
+            return leasedIds;
+        } finally {
+            unlock();
+        }
+    }
+
+    public int leasePending(long leaseId, long leaseExpires, long maxLocationId, int limit) {
+        lock();
+        try {
+            int count = 0;
+            long now = System.currentTimeMillis();
+            long lastSeq = Math.min(getHeadSeq(), maxLocationId);
+            for (long seq = firstSeq(); seq <= lastSeq && count < limit; seq++) {
+                int slot = slotOf(seq);
+                if (isValid(slot, seq) && getLeaseExpires(slot) < now) {
+                    setLease(slot, leaseId, leaseExpires);
+                    count++;
+                }
+            }
+
+            return count;
+        } finally {
+            unlock();
+        }
+    }
+
+    public List<BackgroundLocation> getLeasedLocations(long leaseId, long afterLocationId, long maxLocationId, int limit) {
+        lock();
+        try {
+            List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+            long lastSeq = Math.min(getHeadSeq(), maxLocationId);
+            for (long seq = Math.max(afterLocationId + 1, firstSeq()); seq <= lastSeq && locations.size() < limit; seq++) {
+                int slot = slotOf(seq);
+                if (isValid(slot, seq) && getLeaseId(slot) == leaseId && readRecord(slot, seq)) {
+                    locations.add(decodeRecord());
+                }
+            }
+
+            return locations;
+        } finally {
+            unlock();
+        }
+    }
+
+    public int renew(long leaseId, long leaseExpires) {
+        lock();
+        try {
+            int count = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (getLeaseId(slot) == leaseId && !isTombstone(slot)) {
+                    setLease(slot, leaseId, leaseExpires);
+                    count++;
+                }
+            }
+
+            return count;
+        } finally {
+            unlock();
+        }
+    }
+
+    public void ack(long leaseId, List<Long> locationIds) {
+        lock();
+        try {
+            for (Long locationId : locationIds) {
+                if (locationId != null && isValid(slotOf(locationId), locationId) && getLeaseId(slotOf(locationId)) == leaseId) {
+                    delete(locationId);
+                }
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    public int ack(long leaseId, long afterLocationId, long toLocationId) {
+        lock();
+        try {
+            int count = 0;
+            long lastSeq = Math.min(getHeadSeq(), toLocationId);
+            for (long seq = Math.max(afterLocationId + 1, firstSeq()); seq <= lastSeq; seq++) {
+                if (isValid(slotOf(seq), seq) && getLeaseId(slotOf(seq)) == leaseId) {
+                    delete(seq);
+                    count++;
+                }
+            }
+
+            return count;
+        } finally {
+            unlock();
+        }
+    }
+
+    public void release(long leaseId, List<Long> locationIds) {
+        lock();
+        try {
+            for (Long locationId : locationIds) {
+                if (locationId != null && isValid(slotOf(locationId), locationId) && getLeaseId(slotOf(locationId)) == leaseId) {
+                    setLease(slotOf(locationId), leaseId, 0);
+                }
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    public int release(long leaseId) {
+        lock();
+        try {
+            int count = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (getLeaseId(slot) == leaseId && !isTombstone(slot)) {
+                    setLease(slot, leaseId, 0);
+                    count++;
+                }
+            }
+
+            return count;
+        } finally {
+            unlock();
+        }
+    }
+
+    public void deleteAllLocations() {
+        lock();
+        try {
+            for (int slot = 0; slot < capacity; slot++) {
+                setTombstone(slot, true);
+                setLease(slot, 0, 0);
+            }
+            setValidCount(0);
+        } finally {
+            unlock();
+        }
+    }
+
+    private void delete(Long locationId) {
+        if (locationId == null) {
+            return;
+        }
+        int slot = slotOf(locationId);
+        if (isValid(slot, locationId)) {
+            setTombstone(slot, true);
+            setLease(slot, 0, 0);
+            setValidCount(getValidCount() - 1);
+        }
+    }
+
+    private List<BackgroundLocation> getLocations(long afterSeq, int limit, boolean validOnly) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        long headSeq = getHeadSeq();
+        for (long seq = Math.max(afterSeq + 1, firstSeq()); seq <= headSeq && locations.size() < limit; seq++) {
+            int slot = slotOf(seq);
+            if (!readRecord(slot, seq)) {
+                continue;
+            }
+            boolean isValid = !isTombstone(slot);
+            if (validOnly && !isValid) {
+                continue;
+            }
+            BackgroundLocation location = decodeRecord();
+            location.setValid(isValid);
+            locations.add(location);
+        }
+
+        return locations;
+    }
+
+    private static boolean isInBoundingBox(BackgroundLocation location, double[] bbox) {
+        double west = bbox[0], south = bbox[1], east = bbox[2], north = bbox[3];
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+        if (latitude < south || latitude > north) {
+            return false;
+        }
+        if (west > east) {
+            return longitude >= west || longitude <= east;
+        }
+        return longitude >= west && longitude <= east;
+    }
+
+    /**
+     * Lock journal for calling thread
+     *
+     * Lock is reentrant, file is locked by outermost call only.
+     * If journal has been replaced by other process, new journal is opened.
+     */
+    private void lock() {
+        lock.lock();
+        if (lock.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            fileLock = raf.getChannel().lock();
+            if (buffer.getInt(SUPERSEDED_OFFSET) != 0) {
+                log.debug("Journal {} has been resized, reopening", file.getName());
+                fileLock.release();
+                raf.close();
+                open(capacity);
+            }
+        } catch (IOException e) {
+            unlock();
+            throw new SQLException("Cannot lock journal: " + e.getMessage());
+        }
+    }
+
+    private void unlock() {
+        try {
+            if (lock.getHoldCount() == 1 && fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } catch (IOException e) {
+            log.error("Cannot unlock journal: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Open and lock journal file and map it into memory
+     *
+     * Journal file is created if it does not exist.
+     */
+    private void open(int defaultCapacity) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        fileLock = raf.getChannel().lock();
+
+        int storedCapacity = 0;
+        if (raf.length() >= HEADER_SIZE) {
+            raf.seek(0);
+            if (raf.readInt() == MAGIC && raf.readInt() == VERSION) {
+                storedCapacity = raf.readInt();
+            } else {
+                log.warn("Journal {} has unknown format and will be recreated", file.getName());
+            }
+        }
+
+        capacity = storedCapacity > 0 ? storedCapacity : defaultCapacity;
+        leasesOffset = HEADER_SIZE + bitmapSize(capacity);
+        recordsOffset = leasesOffset + capacity * LEASE_SIZE;
+        long size = (long) recordsOffset + (long) capacity * RECORD_SIZE;
+        if (storedCapacity == 0) {
+            raf.setLength(0);
+            raf.setLength(size);
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(capacity);
+        } else if (raf.length() < size) {
+            raf.setLength(size);
+        }
+
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Scan all records, drop corrupted ones and restore head and valid locations count
+     */
+    private void recover() {
+        long headSeq = 0;
+        long validCount = 0;
+        int dropped = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            long seq = buffer.getLong(recordOffset(slot));
+            if (seq == 0) {
+                continue;
+            }
+            if (seq < 0 || slotOf(seq) != slot || !readRecord(slot, seq)) {
+                buffer.putLong(recordOffset(slot), 0);
+                setTombstone(slot, true);
+                setLease(slot, 0, 0);
+                dropped++;
+                continue;
+            }
+            headSeq = Math.max(headSeq, seq);
+        }
+
+        // count only records within last capacity sequence numbers
+        for (int slot = 0; slot < capacity; slot++) {
+            long seq = buffer.getLong(recordOffset(slot));
+            if (seq > 0 && seq > headSeq - capacity && !isTombstone(slot)) {
+                validCount++;
+            }
+        }
+        setHeadSeq(headSeq);
+        setValidCount(validCount);
+
+        log.info("Journal recovered head: {} valid: {} dropped: {}", headSeq, validCount, dropped);
+    }
+
+    /**
+     * Rewrite journal with new capacity keeping newest locations
+     *
+     * Resized journal is written into temporary file first and then renamed over journal,
+     * so journal is never lost when process dies in the middle of resize.
+     * Replaced journal is marked as superseded while still locked, so other process
+     * holding it opens new journal before its next operation.
+     */
+    private void resize(int newCapacity) throws IOException {
+        log.info("Resizing journal from {} to {}", capacity, newCapacity);
+
+        long headSeq = getHeadSeq();
+        long firstSeq = Math.max(firstSeq(), headSeq - newCapacity + 1);
+        long validCount = 0;
+        int newLeasesOffset = HEADER_SIZE + bitmapSize(newCapacity);
+        int newRecordsOffset = newLeasesOffset + newCapacity * LEASE_SIZE;
+        ByteBuffer resized = ByteBuffer.allocate(newRecordsOffset + newCapacity * RECORD_SIZE);
+        resized.putInt(0, MAGIC);
+        resized.putInt(4, VERSION);
+        resized.putInt(8, newCapacity);
+        for (long seq = firstSeq; seq <= headSeq; seq++) {
+            int slot = slotOf(seq);
+            if (!readRecord(slot, seq)) {
+                continue;
+            }
+            int newSlot = (int) ((seq - 1) % newCapacity);
+            resized.position(newRecordsOffset + newSlot * RECORD_SIZE);
+            resized.put(record.array());
+            if (isTombstone(slot)) {
+                int offset = HEADER_SIZE + (newSlot >> 3);
+                resized.put(offset, (byte) (resized.get(offset) | (1 << (newSlot & 7))));
+            } else {
+                resized.putLong(newLeasesOffset + newSlot * LEASE_SIZE, getLeaseId(slot));
+                resized.putLong(newLeasesOffset + newSlot * LEASE_SIZE + 8, getLeaseExpires(slot));
+                validCount++;
+            }
+        }
+        resized.putLong(HEAD_SEQ_OFFSET, headSeq);
+        resized.putLong(VALID_COUNT_OFFSET, validCount);
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw");
+        try {
+            tmp.setLength(0);
+            tmp.write(resized.array());
+            tmp.getFD().sync();
+        } finally {
+            tmp.close();
+        }
+        buffer.putInt(SUPERSEDED_OFFSET, 1);
+        if (!tmpFile.renameTo(file)) {
+            buffer.putInt(SUPERSEDED_OFFSET, 0);
+            tmpFile.delete();
+            throw new IOException("Cannot replace journal " + file.getName());
+        }
+
+        // new journal is locked before replaced one is unlocked
+        RandomAccessFile replaced = raf;
+        FileLock replacedLock = fileLock;
+        open(newCapacity);
+        replacedLock.release();
+        replaced.close();
+    }
+
+    private long getHeadSeq() {
+        return buffer.getLong(HEAD_SEQ_OFFSET);
+    }
+
+    private void setHeadSeq(long headSeq) {
+        buffer.putLong(HEAD_SEQ_OFFSET, headSeq);
+    }
+
+    private long getValidCount() {
+        return buffer.getLong(VALID_COUNT_OFFSET);
+    }
+
+    private void setValidCount(long validCount) {
+        buffer.putLong(VALID_COUNT_OFFSET, validCount);
+    }
+
+    /**
+     * Returns sequence number of oldest location which can be stored in journal
+     */
+    private long firstSeq() {
+        return Math.max(1, getHeadSeq() - capacity + 1);
+    }
+
+    /**
+     * Returns true if slot holds valid location with given sequence number
+     */
+    private boolean isValid(int slot, long seq) {
+        return seq > 0 && buffer.getLong(recordOffset(slot)) == seq && !isTombstone(slot);
+    }
+
+    private long getLeaseId(int slot) {
+        return buffer.getLong(leasesOffset + slot * LEASE_SIZE);
+    }
+
+    private long getLeaseExpires(int slot) {
+        return buffer.getLong(leasesOffset + slot * LEASE_SIZE + 8);
+    }
+
+    private void setLease(int slot, long leaseId, long leaseExpires) {
+        buffer.putLong(leasesOffset + slot * LEASE_SIZE, leaseId);
+        buffer.putLong(leasesOffset + slot * LEASE_SIZE + 8, leaseExpires);
+    }
+
+    private int slotOf(long seq) {
+        return (int) ((seq - 1) % capacity);
+    }
+
+    private static int bitmapSize(int capacity) {
+        return ((capacity + 63) / 64) * 8;
+    }
+
+    private int recordOffset(int slot) {
+        return recordsOffset + slot * RECORD_SIZE;
+    }
+
+    private boolean isTombstone(int slot) {
+        return (buffer.get(HEADER_SIZE + (slot >> 3)) & (1 << (slot & 7))) != 0;
+    }
+
+    private void setTombstone(int slot, boolean tombstone) {
+        int offset = HEADER_SIZE + (slot >> 3);
+        byte bits = buffer.get(offset);
+        bits = (byte) (tombstone ? bits | (1 << (slot & 7)) : bits & ~(1 << (slot & 7)));
+        buffer.put(offset, bits);
+    }
+
+    /**
+     * Read record from slot into record buffer
+     *
+     * @return true if slot contains intact record with given sequence number
+     */
+    private boolean readRecord(int slot, long seq) {
+        if (seq <= 0) {
+            return false;
+        }
+        int offset = recordOffset(slot);
+        if (buffer.getLong(offset) != seq) {
+            return false;
+        }
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            record.put(i, buffer.get(offset + i));
+        }
+        crc.reset();
+        crc.update(record.array(), 0, CRC_OFFSET);
+
+        return record.getInt(CRC_OFFSET) == (int) crc.getValue();
+    }
+
+    private void writeRecord(int slot) {
+        crc.reset();
+        crc.update(record.array(), 0, CRC_OFFSET);
+        record.putInt(CRC_OFFSET, (int) crc.getValue());
+        writeRawRecord(slot);
+    }
+
+    private void writeRawRecord(int slot) {
+        int offset = recordOffset(slot);
+        // sequence number goes last, so partially written record is never matched by its seq
+        buffer.putLong(offset, 0);
+        for (int i = 8; i < RECORD_SIZE; i++) {
+            buffer.put(offset + i, record.get(i));
+        }
+        buffer.putLong(offset, record.getLong(0));
+    }
+
+    private void encodeRecord(long seq, BackgroundLocation l) {
+        int flags = (l.hasAccuracy() ? HAS_ACCURACY : 0)
+                | (l.hasSpeed() ? HAS_SPEED : 0)
+                | (l.hasBearing() ? HAS_BEARING : 0)
+                | (l.hasAltitude() ? HAS_ALTITUDE : 0)
+                | (l.hasRadius() ? HAS_RADIUS : 0)
+                | (l.getLocationProvider() != null ? HAS_LOCATION_PROVIDER : 0);
+        long smoothedLatitudeOffset = 0;
+        long smoothedLongitudeOffset = 0;
+        if (l.hasSmoothed()) {
+            smoothedLatitudeOffset = Math.round((l.getSmoothedLatitude() - l.getLatitude()) * COORDINATE_SCALE);
+            smoothedLongitudeOffset = Math.round((l.getSmoothedLongitude() - l.getLongitude()) * COORDINATE_SCALE);
+            if (Math.abs(smoothedLatitudeOffset) <= MAX_SMOOTHED_OFFSET && Math.abs(smoothedLongitudeOffset) <= MAX_SMOOTHED_OFFSET) {
+                flags |= HAS_SMOOTHED;
+            }
+        }
+        int provider = 0;
+        for (int i = 1; i < PROVIDERS.length; i++) {
+            if (PROVIDERS[i].equals(l.getProvider())) {
+                provider = i;
+            }
+        }
+        Long batchStartMillis = l.getBatchStartMillis();
+
+        record.clear();
+        record.putLong(0, seq);
+        record.putLong(8, l.getTime());
+        record.putDouble(16, l.getLatitude());
+        record.putDouble(24, l.getLongitude());
+        record.putDouble(32, l.getAltitude());
+        record.putFloat(40, l.getAccuracy());
+        record.putFloat(44, l.getSpeed());
+        record.putFloat(48, l.getBearing());
+        record.putFloat(52, l.getRadius());
+        record.putLong(56, batchStartMillis != null ? batchStartMillis : 0L);
+        record.putInt(64, l.getLocationProvider() != null ? l.getLocationProvider() : 0);
+        record.put(68, (byte) flags);
+        record.put(69, (byte) provider);
+        putInt24(70, (int) smoothedLatitudeOffset);
+        putInt24(73, (int) smoothedLongitudeOffset);
+    }
+
+    private BackgroundLocation decodeRecord() {
+        int flags = record.get(68);
+        BackgroundLocation l = new BackgroundLocation(PROVIDERS[record.get(69)]);
+        l.setLocationId(record.getLong(0));
+        l.setTime(record.getLong(8));
+        l.setLatitude(record.getDouble(16));
+        l.setLongitude(record.getDouble(24));
+        if ((flags & HAS_ALTITUDE) != 0) l.setAltitude(record.getDouble(32));
+        if ((flags & HAS_ACCURACY) != 0) l.setAccuracy(record.getFloat(40));
+        if ((flags & HAS_SPEED) != 0) l.setSpeed(record.getFloat(44));
+        if ((flags & HAS_BEARING) != 0) l.setBearing(record.getFloat(48));
+        if ((flags & HAS_RADIUS) != 0) l.setRadius(record.getFloat(52));
+        l.setBatchStartMillis(record.getLong(56));
+        if ((flags & HAS_LOCATION_PROVIDER) != 0) l.setLocationProvider(record.getInt(64));
+        if ((flags & HAS_SMOOTHED) != 0) {
+            l.setSmoothedLatitude(l.getLatitude() + getInt24(70) / COORDINATE_SCALE);
+            l.setSmoothedLongitude(l.getLongitude() + getInt24(73) / COORDINATE_SCALE);
+        }
+
+        return l;
+    }
+
+    private void putInt24(int index, int value) {
+        record.put(index, (byte) (value >> 16));
+        record.put(index + 1, (byte) (value >> 8));
+        record.put(index + 2, (byte) value);
+    }
+
+    private int getInt24(int index) {
+        // sign of 24 bit value is extended by arithmetic shift
+        return ((record.get(index) << 24) | ((record.get(index + 1) & 0xFF) << 16) | ((record.get(index + 2) & 0xFF) << 8)) >> 8;
+    }
+}
@@ -0,0 +1,137 @@
+package com.marianhello.bgloc.data.serializer;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary serializer
+ *
+ * <pre>
+ * stream: magic ('B', 'L'), version, locations... (until end of stream)
+ * location: flags, time delta, latitude delta, longitude delta, provider,
+ *           [accuracy], [speed], [bearing], [altitude], [radius], [location provider],
+ *           [smoothed latitude, smoothed longitude]
+ * provider: 0 for null, index of already sent provider
+ *           or next index followed by utf-8 length and bytes of new provider
+ * </pre>
+ *
+ * All numbers are zigzag varints. Deltas are relative to previous location in stream
+ * (first location is relative to zero). Coordinates are stored in 1e-7 degrees,
+ * altitude, accuracy, radius and bearing in tenths and speed in hundredths of their units.
+ * Optional values are present only when their flag is set.
+ * Smoothed coordinates are relative to raw coordinates of the same location.
+ */
+public class BinaryLocationSerializer implements LocationSerializer {
+    public static final String CONTENT_TYPE = "application/x-bgloc-locations";
+
+    private static final int MAGIC_B = 'B';
+    private static final int MAGIC_L = 'L';
+    private static final int VERSION = 1;
+
+    private static final int HAS_ACCURACY = 1;
+    private static final int HAS_SPEED = 1 << 1;
+    private static final int HAS_BEARING = 1 << 2;
+    private static final int HAS_ALTITUDE = 1 << 3;
+    private static final int HAS_RADIUS = 1 << 4;
+    private static final int HAS_LOCATION_PROVIDER = 1 << 5;
+    private static final int HAS_SMOOTHED = 1 << 6;
+
+    private static final double COORDINATE_SCALE = 1e7;
+
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    public byte[] serialize(BackgroundLocation location) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        BatchWriter writer = createBatchWriter(out);
+        writer.write(location);
+        writer.finish();
+
+        return out.toByteArray();
+    }
+
+    public BatchWriter createBatchWriter(OutputStream out) throws IOException {
+        return new Writer(out);
+    }
+
+    private static class Writer implements BatchWriter {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[128]; // enough for single location without new provider
+        private final Map<String, Integer> providers = new HashMap<String, Integer>();
+        private int pos = 0;
+        private long time = 0, latitude = 0, longitude = 0;
+
+        Writer(OutputStream out) throws IOException {
+            this.out = out;
+            out.write(MAGIC_B);
+            out.write(MAGIC_L);
+            out.write(VERSION);
+        }
+
+        public void write(BackgroundLocation l) throws IOException {
+            int flags = (l.hasAccuracy() ? HAS_ACCURACY : 0)
+                    | (l.hasSpeed() ? HAS_SPEED : 0)
+                    | (l.hasBearing() ? HAS_BEARING : 0)
+                    | (l.hasAltitude() ? HAS_ALTITUDE : 0)
+                    | (l.hasRadius() ? HAS_RADIUS : 0)
+                    | (l.getLocationProvider() != null ? HAS_LOCATION_PROVIDER : 0)
+                    | (l.hasSmoothed() ? HAS_SMOOTHED : 0);
+            long nextLatitude = Math.round(l.getLatitude() * COORDINATE_SCALE);
+            long nextLongitude = Math.round(l.getLongitude() * COORDINATE_SCALE);
+
+            pos = 0;
+            writeVarint(flags);
+            writeVarint(l.getTime() - time);
+            writeVarint(nextLatitude - latitude);
+            writeVarint(nextLongitude - longitude);
+            time = l.getTime();
+            latitude = nextLatitude;
+            longitude = nextLongitude;
+
+            String provider = l.getProvider();
+            Integer providerIndex = provider != null ? providers.get(provider) : Integer.valueOf(0);
+            if (providerIndex != null) {
+                writeVarint(providerIndex);
+            } else {
+                byte[] bytes = provider.getBytes("UTF-8");
+                providers.put(provider, providers.size() + 1);
+                writeVarint(providers.size());
+                writeVarint(bytes.length);
+                out.write(buffer, 0, pos);
+                out.write(bytes);
+                pos = 0;
+            }
+
+            if (l.hasAccuracy()) writeVarint(Math.round(l.getAccuracy() * 10));
+            if (l.hasSpeed()) writeVarint(Math.round(l.getSpeed() * 100));
+            if (l.hasBearing()) writeVarint(Math.round(l.getBearing() * 10));
+            if (l.hasAltitude()) writeVarint(Math.round(l.getAltitude() * 10));
+            if (l.hasRadius()) writeVarint(Math.round(l.getRadius() * 10));
+            if (l.getLocationProvider() != null) writeVarint(l.getLocationProvider());
+            if (l.hasSmoothed()) {
+                writeVarint(Math.round(l.getSmoothedLatitude() * COORDINATE_SCALE) - nextLatitude);
+                writeVarint(Math.round(l.getSmoothedLongitude() * COORDINATE_SCALE) - nextLongitude);
+            }
+            out.write(buffer, 0, pos);
+        }
+
+        public void finish() throws IOException {
+            out.flush();
+        }
+
+        private void writeVarint(long value) {
+            long v = (value << 1) ^ (value >> 63); // zigzag
+            while ((v & ~0x7FL) != 0) {
+                buffer[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buffer[pos++] = (byte) v;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.marianhello.bgloc.data.serializer;
+
+import android.util.JsonWriter;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * JSON serializer
+ *
+ * Single location is posted as JSON object, batch as JSON array of objects.
+ */
+public class JsonLocationSerializer implements LocationSerializer {
+    public static final String CONTENT_TYPE = "application/json";
+
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    public byte[] serialize(BackgroundLocation location) throws IOException {
+        try {
+            return location.toJSONObject().toString().getBytes("UTF-8");
+        } catch (JSONException e) {
+            throw new IOException("Location to json failed: " + e.getMessage());
+        }
+    }
+
+    public BatchWriter createBatchWriter(OutputStream out) throws IOException {
+        final JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
+        writer.beginArray();
+
+        return new BatchWriter() {
+            public void write(BackgroundLocation l) throws IOException {
+                writer.beginObject();
+                if (l.getProvider() != null) writer.name("provider").value(l.getProvider());
+                writer.name("time").value(l.getTime());
+                writer.name("latitude").value(l.getLatitude());
+                writer.name("longitude").value(l.getLongitude());
+                if (l.hasAccuracy()) writer.name("accuracy").value(l.getAccuracy());
+                if (l.hasSpeed()) writer.name("speed").value(l.getSpeed());
+                if (l.hasBearing()) writer.name("bearing").value(l.getBearing());
+                if (l.hasAltitude()) writer.name("altitude").value(l.getAltitude());
+                if (l.hasRadius()) writer.name("radius").value(l.getRadius());
+                if (l.hasSmoothed()) {
+                    writer.name("smoothedLatitude").value(l.getSmoothedLatitude());
+                    writer.name("smoothedLongitude").value(l.getSmoothedLongitude());
+                }
+                if (l.getLocationProvider() != null) writer.name("locationProvider").value(l.getLocationProvider());
+                writer.endObject();
+            }
+
+            public void finish() throws IOException {
+                writer.endArray();
+                writer.flush();
+            }
+        };
+    }
+}
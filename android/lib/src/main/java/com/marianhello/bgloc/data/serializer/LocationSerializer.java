@@ -0,0 +1,46 @@
+package com.marianhello.bgloc.data.serializer;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Wire format of uploaded locations
+ *
+ * Single location is serialized for realtime post,
+ * batches are written location by location into stream of unknown length.
+ */
+public interface LocationSerializer {
+    /**
+     * Returns value of Content-Type header of serialized locations
+     */
+    String getContentType();
+
+    /**
+     * Serialize single location
+     *
+     * @param location
+     * @return serialized location
+     * @throws IOException
+     */
+    byte[] serialize(BackgroundLocation location) throws IOException;
+
+    /**
+     * Create writer of batch of locations
+     *
+     * @param out stream to write into, stream is not closed by writer
+     * @return batch writer
+     * @throws IOException
+     */
+    BatchWriter createBatchWriter(OutputStream out) throws IOException;
+
+    interface BatchWriter {
+        void write(BackgroundLocation location) throws IOException;
+
+        /**
+         * Write end of batch and flush underlying stream
+         */
+        void finish() throws IOException;
+    }
+}
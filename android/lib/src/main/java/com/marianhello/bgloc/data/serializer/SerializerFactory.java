@@ -0,0 +1,12 @@
+package com.marianhello.bgloc.data.serializer;
+
+import com.marianhello.bgloc.Config;
+
+public abstract class SerializerFactory {
+    public static LocationSerializer createLocationSerializer(Integer payloadFormat) {
+        if (payloadFormat != null && payloadFormat == Config.BINARY_PAYLOAD_FORMAT) {
+            return new BinaryLocationSerializer();
+        }
+        return new JsonLocationSerializer();
+    }
+}
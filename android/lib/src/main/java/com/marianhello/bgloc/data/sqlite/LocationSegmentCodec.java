@@ -0,0 +1,273 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary codec of archived location segments
+ *
+ * Segment packs consecutive locations into single blob:
+ *
+ * <pre>
+ * version, providers dictionary (count, [length, utf-8 bytes]...), locations count, locations...
+ * location: flags, id delta, time delta, latitude delta, longitude delta, provider index,
+ *           [accuracy], [speed], [bearing], [altitude], [radius], [location provider],
+ *           [smoothed latitude delta, smoothed longitude delta]
+ * </pre>
+ *
+ * Flags and corrections are unsigned varints, other numbers zigzag varints.
+ * Every floating point value is stored losslessly
+ * as scaled value followed by correction, xor of bits of value and of scaled value
+ * divided back. Coordinates are scaled to 1e-7 degrees (deltas), altitude, accuracy,
+ * radius and bearing to tenths and speed to hundredths of their units. Correction
+ * is zero (single byte) when value is multiple of its scale unit, otherwise it keeps
+ * just the lowest bits where both values differ.
+ * Optional values are present only when their flag is set, valid flag is part of flags.
+ * Sync state of location (batch start, lease) is not archived.
+ *
+ * Segments of version 1 (values rounded to scale unit, no correction, no smoothed
+ * coordinates) are still decoded, their locations as not valid.
+ */
+public class LocationSegmentCodec {
+    private static final int VERSION = 2;
+    private static final int VERSION_ROUNDED = 1;
+
+    private static final int HAS_ACCURACY = 1;
+    private static final int HAS_SPEED = 1 << 1;
+    private static final int HAS_BEARING = 1 << 2;
+    private static final int HAS_ALTITUDE = 1 << 3;
+    private static final int HAS_RADIUS = 1 << 4;
+    private static final int HAS_LOCATION_PROVIDER = 1 << 5;
+    private static final int IS_VALID = 1 << 6;
+    private static final int HAS_SMOOTHED = 1 << 7;
+
+    private static final double COORDINATE_SCALE = 1e7;
+
+    private LocationSegmentCodec() {}
+
+    /**
+     * Encode locations (with locationId set) ordered by time into segment blob
+     *
+     * @param locations
+     * @return segment blob
+     */
+    public static byte[] encode(List<BackgroundLocation> locations) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(locations.size() * 40);
+        writeVarint(out, VERSION);
+
+        List<String> providers = new ArrayList<String>();
+        Map<String, Integer> providerIndexes = new HashMap<String, Integer>();
+        for (BackgroundLocation l : locations) {
+            String provider = l.getProvider();
+            if (provider != null && !providerIndexes.containsKey(provider)) {
+                providers.add(provider);
+                providerIndexes.put(provider, providers.size()); // 0 stands for null provider
+            }
+        }
+        writeVarint(out, providers.size());
+        for (String provider : providers) {
+            byte[] bytes = toBytes(provider);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        writeVarint(out, locations.size());
+        long id = 0, time = 0, latitude = 0, longitude = 0;
+        for (BackgroundLocation l : locations) {
+            int flags = (l.hasAccuracy() ? HAS_ACCURACY : 0)
+                    | (l.hasSpeed() ? HAS_SPEED : 0)
+                    | (l.hasBearing() ? HAS_BEARING : 0)
+                    | (l.hasAltitude() ? HAS_ALTITUDE : 0)
+                    | (l.hasRadius() ? HAS_RADIUS : 0)
+                    | (l.getLocationProvider() != null ? HAS_LOCATION_PROVIDER : 0)
+                    | (l.isValid() ? IS_VALID : 0)
+                    | (l.hasSmoothed() ? HAS_SMOOTHED : 0);
+            writeUnsignedVarint(out, flags);
+
+            long nextId = l.getLocationId();
+            writeVarint(out, nextId - id);
+            writeVarint(out, l.getTime() - time);
+            id = nextId;
+            time = l.getTime();
+            latitude = writeDouble(out, l.getLatitude(), COORDINATE_SCALE, latitude);
+            longitude = writeDouble(out, l.getLongitude(), COORDINATE_SCALE, longitude);
+
+            Integer providerIndex = providerIndexes.get(l.getProvider());
+            writeVarint(out, providerIndex != null ? providerIndex : 0);
+
+            if (l.hasAccuracy()) writeFloat(out, l.getAccuracy(), 10);
+            if (l.hasSpeed()) writeFloat(out, l.getSpeed(), 100);
+            if (l.hasBearing()) writeFloat(out, l.getBearing(), 10);
+            if (l.hasAltitude()) writeDouble(out, l.getAltitude(), 10, 0);
+            if (l.hasRadius()) writeFloat(out, l.getRadius(), 10);
+            if (l.getLocationProvider() != null) writeVarint(out, l.getLocationProvider());
+            if (l.hasSmoothed()) {
+                writeDouble(out, l.getSmoothedLatitude(), COORDINATE_SCALE, latitude);
+                writeDouble(out, l.getSmoothedLongitude(), COORDINATE_SCALE, longitude);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode segment blob into locations
+     *
+     * @param data segment blob
+     * @return locations in order they have been encoded
+     */
+    public static List<BackgroundLocation> decode(byte[] data) {
+        Reader in = new Reader(data);
+        int version = (int) in.readVarint();
+        if (version != VERSION && version != VERSION_ROUNDED) {
+            throw new IllegalArgumentException("Unsupported segment version: " + version);
+        }
+        boolean rounded = version == VERSION_ROUNDED;
+
+        int providersCount = (int) in.readVarint();
+        String[] providers = new String[providersCount + 1];
+        for (int i = 1; i <= providersCount; i++) {
+            providers[i] = in.readString((int) in.readVarint());
+        }
+
+        int count = (int) in.readVarint();
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        long id = 0, time = 0, latitude = 0, longitude = 0;
+        for (int i = 0; i < count; i++) {
+            int flags = (int) (rounded ? in.readVarint() : in.readUnsignedVarint());
+            id += in.readVarint();
+            time += in.readVarint();
+            double lat, lon;
+            if (rounded) {
+                latitude += in.readVarint();
+                longitude += in.readVarint();
+                lat = latitude / COORDINATE_SCALE;
+                lon = longitude / COORDINATE_SCALE;
+            } else {
+                lat = in.readDouble(COORDINATE_SCALE, latitude);
+                latitude = in.scaled;
+                lon = in.readDouble(COORDINATE_SCALE, longitude);
+                longitude = in.scaled;
+            }
+
+            BackgroundLocation l = new BackgroundLocation(providers[(int) in.readVarint()]);
+            l.setLatitude(lat);
+            l.setLongitude(lon);
+            l.setLocationId(id);
+            l.setTime(time);
+            if ((flags & HAS_ACCURACY) != 0) l.setAccuracy(in.readFloat(10, rounded));
+            if ((flags & HAS_SPEED) != 0) l.setSpeed(in.readFloat(100, rounded));
+            if ((flags & HAS_BEARING) != 0) l.setBearing(in.readFloat(10, rounded));
+            if ((flags & HAS_ALTITUDE) != 0) l.setAltitude(rounded ? in.readVarint() / 10d : in.readDouble(10, 0));
+            if ((flags & HAS_RADIUS) != 0) l.setRadius(in.readFloat(10, rounded));
+            if ((flags & HAS_LOCATION_PROVIDER) != 0) l.setLocationProvider((int) in.readVarint());
+            if ((flags & HAS_SMOOTHED) != 0) {
+                l.setSmoothedLatitude(in.readDouble(COORDINATE_SCALE, latitude));
+                l.setSmoothedLongitude(in.readDouble(COORDINATE_SCALE, longitude));
+            }
+            l.setBatchStartMillis(0L);
+            l.setValid((flags & IS_VALID) != 0);
+
+            locations.add(l);
+        }
+
+        return locations;
+    }
+
+    /**
+     * Write double as delta of scaled value from given previous scaled value and correction
+     *
+     * @return scaled value
+     */
+    private static long writeDouble(ByteArrayOutputStream out, double value, double scale, long previous) {
+        long scaled = Math.round(value * scale);
+        writeVarint(out, scaled - previous);
+        writeUnsignedVarint(out, Double.doubleToRawLongBits(value) ^ Double.doubleToRawLongBits(scaled / scale));
+        return scaled;
+    }
+
+    private static void writeFloat(ByteArrayOutputStream out, float value, int scale) {
+        long scaled = Math.round((double) value * scale);
+        writeVarint(out, scaled);
+        writeUnsignedVarint(out, (Float.floatToRawIntBits(value) ^ Float.floatToRawIntBits((float) ((double) scaled / scale))) & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        writeUnsignedVarint(out, (value << 1) ^ (value >> 63)); // zigzag
+    }
+
+    private static void writeUnsignedVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static byte[] toBytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] data;
+        private int pos = 0;
+        long scaled;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        long readVarint() {
+            long v = readUnsignedVarint();
+            return (v >>> 1) ^ -(v & 1); // zigzag
+        }
+
+        long readUnsignedVarint() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+
+        /**
+         * Read double written by writeDouble, its scaled value is left in scaled
+         */
+        double readDouble(double scale, long previous) {
+            scaled = previous + readVarint();
+            return Double.longBitsToDouble(Double.doubleToRawLongBits(scaled / scale) ^ readUnsignedVarint());
+        }
+
+        float readFloat(int scale, boolean rounded) {
+            long value = readVarint();
+            if (rounded) {
+                return (float) value / scale;
+            }
+            return Float.intBitsToFloat(Float.floatToRawIntBits((float) ((double) value / scale)) ^ (int) readUnsignedVarint());
+        }
+
+        String readString(int length) {
+            try {
+                String s = new String(data, pos, length, "UTF-8");
+                pos += length;
+                return s;
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+
+import com.marianhello.logging.LoggerManager;
+
+/**
+ * Background compaction of location database
+ *
+ * Rolls invalid (deleted or already synced) locations into compact archived segments
+ * in bounded chunks, optionally also valid locations older than hot max age
+ * (only when they are never going to be uploaded), expires segments older than archive max age
+ * and returns free pages to file system with incremental vacuum.
+ * Intended to be run from idle time job, never from location write path.
+ */
+public class SQLiteCompactor {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final int DEFAULT_MAX_CHUNKS = 20;
+    public static final int DEFAULT_VACUUM_PAGES = 256;
+    public static final long DEFAULT_ARCHIVE_MAX_AGE = 1000L * 60 * 60 * 24 * 30; //milliseconds
+    public static final long DEFAULT_HOT_MAX_AGE = 1000L * 60 * 60 * 24; //milliseconds
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private SQLiteDatabase db;
+    private int chunkSize;
+    private int maxChunks;
+    private int vacuumPages;
+    private long archiveMaxAge;
+    private long hotMaxAge;
+    private SQLiteLocationDAO dao;
+    private Stats lastStats;
+
+    private org.slf4j.Logger log;
+
+    /**
+     * Result of single compaction run
+     */
+    public static class Stats {
+        private long archivedRows;
+        private long expiredSegments;
+        private long freePages;
+        private long reclaimedBytes;
+        private long durationMillis;
+
+        /**
+         * Returns number of rows moved from location table into archived segments
+         */
+        public long getArchivedRows() {
+            return archivedRows;
+        }
+
+        /**
+         * Returns number of archived segments deleted because of their age
+         */
+        public long getExpiredSegments() {
+            return expiredSegments;
+        }
+
+        /**
+         * Returns number of free pages left in database file after compaction
+         */
+        public long getFreePages() {
+            return freePages;
+        }
+
+        /**
+         * Returns number of bytes database file has shrunk by
+         */
+        public long getReclaimedBytes() {
+            return reclaimedBytes;
+        }
+
+        /**
+         * Returns duration of compaction in milliseconds
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder()
+                    .append("Stats[archivedRows=").append(archivedRows)
+                    .append(" expiredSegments=").append(expiredSegments)
+                    .append(" freePages=").append(freePages)
+                    .append(" reclaimedBytes=").append(reclaimedBytes)
+                    .append(" durationMillis=").append(durationMillis)
+                    .append("]")
+                    .toString();
+        }
+    }
+
+    public SQLiteCompactor(Context context) {
+        this(SQLiteOpenHelper.getHelper(context).getWritableDatabase());
+    }
+
+    public SQLiteCompactor(SQLiteDatabase db) {
+        this(db, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_CHUNKS, DEFAULT_VACUUM_PAGES, DEFAULT_ARCHIVE_MAX_AGE, DEFAULT_HOT_MAX_AGE);
+    }
+
+    /**
+     * @param db
+     * @param chunkSize number of rows archived into single segment in single transaction
+     * @param maxChunks max number of archive transactions per compaction run
+     * @param vacuumPages max number of pages released per compaction run
+     * @param archiveMaxAge max age of archived locations in milliseconds
+     * @param hotMaxAge age in milliseconds after which valid locations can be archived
+     */
+    public SQLiteCompactor(SQLiteDatabase db, int chunkSize, int maxChunks, int vacuumPages, long archiveMaxAge, long hotMaxAge) {
+        this.db = db;
+        this.chunkSize = chunkSize;
+        this.maxChunks = maxChunks;
+        this.vacuumPages = vacuumPages;
+        this.archiveMaxAge = archiveMaxAge;
+        this.hotMaxAge = hotMaxAge;
+        this.dao = new SQLiteLocationDAO(db);
+        log = LoggerManager.getLogger(SQLiteCompactor.class);
+    }
+
+    /**
+     * Run single compaction, valid locations are kept in location table
+     *
+     * @return compaction stats
+     */
+    public Stats compact() {
+        return compact(false);
+    }
+
+    /**
+     * Run single compaction
+     *
+     * Database created before auto_vacuum has been enabled is vacuumed once
+     * to switch into incremental auto vacuum mode.
+     *
+     * @param archiveValid true if valid locations older than hot max age should be archived,
+     *                     must be false when locations are uploaded (archived locations leave outbox)
+     * @return compaction stats
+     */
+    public Stats compact(boolean archiveValid) {
+        Stats stats = new Stats();
+        long startedAt = SystemClock.elapsedRealtime();
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+
+        stats.archivedRows = archiveInvalidLocations();
+        if (archiveValid) {
+            stats.archivedRows += archiveOldLocations();
+        }
+        stats.expiredSegments = dao.deleteArchivedLocationsBefore(System.currentTimeMillis() - archiveMaxAge);
+
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            log.info("Switching database into incremental auto vacuum mode");
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            incrementalVacuum(vacuumPages);
+        }
+
+        stats.freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        stats.reclaimedBytes = (pageCount - DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)) * pageSize;
+        stats.durationMillis = SystemClock.elapsedRealtime() - startedAt;
+        lastStats = stats;
+
+        log.info("Compaction finished: {}", stats.toString());
+
+        return stats;
+    }
+
+    /**
+     * Returns stats of last compaction run or null if compaction has not run yet
+     */
+    public Stats getLastStats() {
+        return lastStats;
+    }
+
+    /**
+     * Archive invalid locations in chunks of chunkSize rows,
+     * each chunk in own transaction so writers are not blocked for long.
+     *
+     * @return number of archived rows
+     */
+    private long archiveInvalidLocations() {
+        long archivedRows = 0;
+        for (int chunk = 0; chunk < maxChunks; chunk++) {
+            int archived = dao.archiveInvalidLocations(chunkSize);
+            if (archived == 0) {
+                break;
+            }
+            archivedRows += archived;
+        }
+
+        return archivedRows;
+    }
+
+    /**
+     * Archive valid locations older than hot max age in chunks of chunkSize rows
+     *
+     * @return number of archived rows
+     */
+    private long archiveOldLocations() {
+        long archivedRows = 0;
+        long before = System.currentTimeMillis() - hotMaxAge;
+        for (int chunk = 0; chunk < maxChunks; chunk++) {
+            int archived = dao.archiveValidLocationsBefore(before, chunkSize);
+            if (archived == 0) {
+                break;
+            }
+            archivedRows += archived;
+        }
+
+        return archivedRows;
+    }
+
+    private void incrementalVacuum(int pages) {
+        // incremental_vacuum is executed as query, pages are freed while stepping through results
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+            while (cursor.moveToNext()) {}
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -33,5 +33,30 @@ public final class SQLiteConfigurationContract {
         public static final String COLUMN_NAME_SYNC_THRESHOLD = "sync_threshold";
         public static final String COLUMN_NAME_HEADERS = "http_headers";
         public static final String COLUMN_NAME_MAX_LOCATIONS = "max_locations";
+        public static final String COLUMN_NAME_LOCATION_STORE = "location_store";
+        public static final String COLUMN_NAME_SYNC_COMPRESSION = "sync_compression";
+        public static final String COLUMN_NAME_SYNC_BATCH_SIZE = "sync_batch_size";
+        public static final String COLUMN_NAME_SYNC_BATCH_BYTES = "sync_batch_bytes";
+        public static final String COLUMN_NAME_PAYLOAD_FORMAT = "payload_format";
+        public static final String COLUMN_NAME_HTTP_CONNECT_TIMEOUT = "http_connect_timeout";
+        public static final String COLUMN_NAME_HTTP_READ_TIMEOUT = "http_read_timeout";
+        public static final String COLUMN_NAME_POST_BATCH_WINDOW = "post_batch_window";
+        public static final String COLUMN_NAME_POST_BATCH_SIZE = "post_batch_size";
+        public static final String COLUMN_NAME_UPLOAD_CONCURRENCY = "upload_concurrency";
+        public static final String COLUMN_NAME_UPLOAD_QUEUE_SIZE = "upload_queue_size";
+        public static final String COLUMN_NAME_RETRY_BASE_DELAY = "retry_base_delay";
+        public static final String COLUMN_NAME_RETRY_MAX_DELAY = "retry_max_delay";
+        public static final String COLUMN_NAME_CIRCUIT_FAILURE_THRESHOLD = "circuit_failure_threshold";
+        public static final String COLUMN_NAME_CIRCUIT_OPEN_DURATION = "circuit_open_duration";
+        public static final String COLUMN_NAME_SYNC_MIN_BATCH_SIZE = "sync_min_batch_size";
+        public static final String COLUMN_NAME_MAX_ACCURACY = "max_accuracy";
+        public static final String COLUMN_NAME_MAX_SPEED = "max_speed";
+        public static final String COLUMN_NAME_MIN_TIME_DELTA = "min_time_delta";
+        public static final String COLUMN_NAME_REJECT_MOCK_LOCATIONS = "reject_mock_locations";
+        public static final String COLUMN_NAME_SMOOTH_LOCATIONS = "smooth_locations";
+        public static final String COLUMN_NAME_SIMPLIFICATION_TOLERANCE = "simplification_tolerance";
+        public static final String COLUMN_NAME_VISIT_RADIUS = "visit_radius";
+        public static final String COLUMN_NAME_VISIT_MIN_DURATION = "visit_min_duration";
+        public static final String COLUMN_NAME_REJECT_DUPLICATE_LOCATIONS = "reject_duplicate_locations";
     }
 }
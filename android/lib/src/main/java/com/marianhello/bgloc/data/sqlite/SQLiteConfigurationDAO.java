@@ -1,9 +1,12 @@
 package com.marianhello.bgloc.data.sqlite;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
 import android.util.Log;
 
 import org.json.JSONObject;
@@ -12,10 +15,64 @@ import org.json.JSONException;
 import com.marianhello.bgloc.Config;
 import com.marianhello.bgloc.data.ConfigurationDAO;
 import com.marianhello.bgloc.data.sqlite.SQLiteConfigurationContract.ConfigurationEntry;
+import com.marianhello.utils.SQLiteStatementCache;
 
 public class SQLiteConfigurationDAO implements ConfigurationDAO {
   private static final String TAG = SQLiteConfigurationDAO.class.getName();
 
+  private static final String[] PERSIST_COLUMNS = {
+    ConfigurationEntry._ID,
+    ConfigurationEntry.COLUMN_NAME_RADIUS,
+    ConfigurationEntry.COLUMN_NAME_DISTANCE_FILTER,
+    ConfigurationEntry.COLUMN_NAME_DESIRED_ACCURACY,
+    ConfigurationEntry.COLUMN_NAME_DEBUG,
+    ConfigurationEntry.COLUMN_NAME_NOTIF_TITLE,
+    ConfigurationEntry.COLUMN_NAME_NOTIF_TEXT,
+    ConfigurationEntry.COLUMN_NAME_NOTIF_ICON_SMALL,
+    ConfigurationEntry.COLUMN_NAME_NOTIF_ICON_LARGE,
+    ConfigurationEntry.COLUMN_NAME_NOTIF_COLOR,
+    ConfigurationEntry.COLUMN_NAME_STOP_TERMINATE,
+    ConfigurationEntry.COLUMN_NAME_STOP_ON_STILL,
+    ConfigurationEntry.COLUMN_NAME_START_BOOT,
+    ConfigurationEntry.COLUMN_NAME_START_FOREGROUND,
+    ConfigurationEntry.COLUMN_NAME_LOCATION_PROVIDER,
+    ConfigurationEntry.COLUMN_NAME_INTERVAL,
+    ConfigurationEntry.COLUMN_NAME_FASTEST_INTERVAL,
+    ConfigurationEntry.COLUMN_NAME_ACTIVITIES_INTERVAL,
+    ConfigurationEntry.COLUMN_NAME_URL,
+    ConfigurationEntry.COLUMN_NAME_SYNC_URL,
+    ConfigurationEntry.COLUMN_NAME_SYNC_THRESHOLD,
+    ConfigurationEntry.COLUMN_NAME_HEADERS,
+    ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS,
+    ConfigurationEntry.COLUMN_NAME_LOCATION_STORE,
+    ConfigurationEntry.COLUMN_NAME_SYNC_COMPRESSION,
+    ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_SIZE,
+    ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_BYTES,
+    ConfigurationEntry.COLUMN_NAME_PAYLOAD_FORMAT,
+    ConfigurationEntry.COLUMN_NAME_HTTP_CONNECT_TIMEOUT,
+    ConfigurationEntry.COLUMN_NAME_HTTP_READ_TIMEOUT,
+    ConfigurationEntry.COLUMN_NAME_POST_BATCH_WINDOW,
+    ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE,
+    ConfigurationEntry.COLUMN_NAME_UPLOAD_CONCURRENCY,
+    ConfigurationEntry.COLUMN_NAME_UPLOAD_QUEUE_SIZE,
+    ConfigurationEntry.COLUMN_NAME_RETRY_BASE_DELAY,
+    ConfigurationEntry.COLUMN_NAME_RETRY_MAX_DELAY,
+    ConfigurationEntry.COLUMN_NAME_CIRCUIT_FAILURE_THRESHOLD,
+    ConfigurationEntry.COLUMN_NAME_CIRCUIT_OPEN_DURATION,
+    ConfigurationEntry.COLUMN_NAME_SYNC_MIN_BATCH_SIZE,
+    ConfigurationEntry.COLUMN_NAME_MAX_ACCURACY,
+    ConfigurationEntry.COLUMN_NAME_MAX_SPEED,
+    ConfigurationEntry.COLUMN_NAME_MIN_TIME_DELTA,
+    ConfigurationEntry.COLUMN_NAME_REJECT_MOCK_LOCATIONS,
+    ConfigurationEntry.COLUMN_NAME_SMOOTH_LOCATIONS,
+    ConfigurationEntry.COLUMN_NAME_SIMPLIFICATION_TOLERANCE,
+    ConfigurationEntry.COLUMN_NAME_VISIT_RADIUS,
+    ConfigurationEntry.COLUMN_NAME_VISIT_MIN_DURATION,
+    ConfigurationEntry.COLUMN_NAME_REJECT_DUPLICATE_LOCATIONS
+  };
+
+  private static final String SQL_PERSIST_CONFIGURATION = buildPersistSql();
+
     private SQLiteDatabase db;
 
   public SQLiteConfigurationDAO(Context context) {
@@ -53,7 +110,32 @@ public class SQLiteConfigurationDAO implements ConfigurationDAO {
       ConfigurationEntry.COLUMN_NAME_SYNC_URL,
       ConfigurationEntry.COLUMN_NAME_SYNC_THRESHOLD,
       ConfigurationEntry.COLUMN_NAME_HEADERS,
-      ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS
+      ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS,
+      ConfigurationEntry.COLUMN_NAME_LOCATION_STORE,
+      ConfigurationEntry.COLUMN_NAME_SYNC_COMPRESSION,
+      ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_SIZE,
+      ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_BYTES,
+      ConfigurationEntry.COLUMN_NAME_PAYLOAD_FORMAT,
+      ConfigurationEntry.COLUMN_NAME_HTTP_CONNECT_TIMEOUT,
+      ConfigurationEntry.COLUMN_NAME_HTTP_READ_TIMEOUT,
+      ConfigurationEntry.COLUMN_NAME_POST_BATCH_WINDOW,
+      ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE,
+      ConfigurationEntry.COLUMN_NAME_UPLOAD_CONCURRENCY,
+      ConfigurationEntry.COLUMN_NAME_UPLOAD_QUEUE_SIZE,
+      ConfigurationEntry.COLUMN_NAME_RETRY_BASE_DELAY,
+      ConfigurationEntry.COLUMN_NAME_RETRY_MAX_DELAY,
+      ConfigurationEntry.COLUMN_NAME_CIRCUIT_FAILURE_THRESHOLD,
+      ConfigurationEntry.COLUMN_NAME_CIRCUIT_OPEN_DURATION,
+      ConfigurationEntry.COLUMN_NAME_SYNC_MIN_BATCH_SIZE,
+      ConfigurationEntry.COLUMN_NAME_MAX_ACCURACY,
+      ConfigurationEntry.COLUMN_NAME_MAX_SPEED,
+      ConfigurationEntry.COLUMN_NAME_MIN_TIME_DELTA,
+      ConfigurationEntry.COLUMN_NAME_REJECT_MOCK_LOCATIONS,
+      ConfigurationEntry.COLUMN_NAME_SMOOTH_LOCATIONS,
+      ConfigurationEntry.COLUMN_NAME_SIMPLIFICATION_TOLERANCE,
+      ConfigurationEntry.COLUMN_NAME_VISIT_RADIUS,
+      ConfigurationEntry.COLUMN_NAME_VISIT_MIN_DURATION,
+      ConfigurationEntry.COLUMN_NAME_REJECT_DUPLICATE_LOCATIONS
     };
 
     String whereClause = null;
@@ -85,7 +167,19 @@ public class SQLiteConfigurationDAO implements ConfigurationDAO {
   }
 
   public boolean persistConfiguration(Config config) throws NullPointerException {
-    long rowId = db.replace(ConfigurationEntry.TABLE_NAME, ConfigurationEntry.COLUMN_NAME_NULLABLE, getContentValues(config));
+    Object[] values = getValues(config);
+    long rowId;
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_PERSIST_CONFIGURATION);
+    stmt.clearBindings();
+    for (int i = 0; i < values.length; i++) {
+      DatabaseUtils.bindObjectToProgram(stmt, i + 1, values[i]);
+    }
+    try {
+      rowId = stmt.executeInsert();
+    } catch (SQLException e) {
+      Log.e(TAG, "Error persisting configuration: " + e.getMessage());
+      rowId = -1;
+    }
     Log.d(TAG, "Configuration persisted with rowId = " + rowId);
     if (rowId > -1) {
       return true;
@@ -118,36 +212,100 @@ public class SQLiteConfigurationDAO implements ConfigurationDAO {
     config.setSyncThreshold(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_SYNC_THRESHOLD)));
     config.setHttpHeaders(new JSONObject(c.getString(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_HEADERS))));
     config.setMaxLocations(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS)));
+    config.setLocationStore(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_LOCATION_STORE)));
+    config.setSyncCompression(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_SYNC_COMPRESSION)));
+    config.setSyncBatchSize(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_SIZE)));
+    config.setSyncBatchBytes(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_BYTES)));
+    config.setPayloadFormat(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_PAYLOAD_FORMAT)));
+    config.setHttpConnectTimeout(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_HTTP_CONNECT_TIMEOUT)));
+    config.setHttpReadTimeout(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_HTTP_READ_TIMEOUT)));
+    config.setPostBatchWindow(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_POST_BATCH_WINDOW)));
+    config.setPostBatchSize(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE)));
+    config.setUploadConcurrency(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_UPLOAD_CONCURRENCY)));
+    config.setUploadQueueSize(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_UPLOAD_QUEUE_SIZE)));
+    config.setRetryBaseDelay(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_RETRY_BASE_DELAY)));
+    config.setRetryMaxDelay(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_RETRY_MAX_DELAY)));
+    config.setCircuitFailureThreshold(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_CIRCUIT_FAILURE_THRESHOLD)));
+    config.setCircuitOpenDuration(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_CIRCUIT_OPEN_DURATION)));
+    config.setSyncMinBatchSize(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_SYNC_MIN_BATCH_SIZE)));
+    config.setMaxAccuracy(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_MAX_ACCURACY)));
+    config.setMaxSpeed(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_MAX_SPEED)));
+    config.setMinTimeDelta(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_MIN_TIME_DELTA)));
+    config.setRejectMockLocations( (c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_REJECT_MOCK_LOCATIONS)) == 1) ? true : false );
+    config.setSmoothLocations( (c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_SMOOTH_LOCATIONS)) == 1) ? true : false );
+    config.setSimplificationTolerance(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_SIMPLIFICATION_TOLERANCE)));
+    config.setVisitRadius(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_VISIT_RADIUS)));
+    config.setVisitMinDuration(c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_VISIT_MIN_DURATION)));
+    config.setRejectDuplicateLocations( (c.getInt(c.getColumnIndex(ConfigurationEntry.COLUMN_NAME_REJECT_DUPLICATE_LOCATIONS)) == 1) ? true : false );
 
     return config;
   }
 
-  private ContentValues getContentValues(Config config) throws NullPointerException {
-    ContentValues values = new ContentValues();
-    values.put(ConfigurationEntry._ID, 1);
-    values.put(ConfigurationEntry.COLUMN_NAME_RADIUS, config.getStationaryRadius());
-    values.put(ConfigurationEntry.COLUMN_NAME_DISTANCE_FILTER, config.getDistanceFilter());
-    values.put(ConfigurationEntry.COLUMN_NAME_DESIRED_ACCURACY, config.getDesiredAccuracy());
-    values.put(ConfigurationEntry.COLUMN_NAME_DEBUG, (config.isDebugging() == true) ? 1 : 0);
-    values.put(ConfigurationEntry.COLUMN_NAME_NOTIF_TITLE, config.getNotificationTitle());
-    values.put(ConfigurationEntry.COLUMN_NAME_NOTIF_TEXT, config.getNotificationText());
-    values.put(ConfigurationEntry.COLUMN_NAME_NOTIF_ICON_SMALL, config.getSmallNotificationIcon());
-    values.put(ConfigurationEntry.COLUMN_NAME_NOTIF_ICON_LARGE, config.getLargeNotificationIcon());
-    values.put(ConfigurationEntry.COLUMN_NAME_NOTIF_COLOR, config.getNotificationIconColor());
-    values.put(ConfigurationEntry.COLUMN_NAME_STOP_TERMINATE, (config.getStopOnTerminate() == true) ? 1 : 0);
-    values.put(ConfigurationEntry.COLUMN_NAME_STOP_ON_STILL, (config.getStopOnStillActivity() == true) ? 1 : 0);
-    values.put(ConfigurationEntry.COLUMN_NAME_START_BOOT, (config.getStartOnBoot() == true) ? 1 : 0);
-    values.put(ConfigurationEntry.COLUMN_NAME_START_FOREGROUND, (config.getStartForeground() == true) ? 1 : 0);
-    values.put(ConfigurationEntry.COLUMN_NAME_LOCATION_PROVIDER, config.getLocationProvider());
-    values.put(ConfigurationEntry.COLUMN_NAME_INTERVAL, config.getInterval());
-    values.put(ConfigurationEntry.COLUMN_NAME_FASTEST_INTERVAL, config.getFastestInterval());
-    values.put(ConfigurationEntry.COLUMN_NAME_ACTIVITIES_INTERVAL, config.getActivitiesInterval());
-    values.put(ConfigurationEntry.COLUMN_NAME_URL, config.getUrl());
-    values.put(ConfigurationEntry.COLUMN_NAME_SYNC_URL, config.getSyncUrl());
-    values.put(ConfigurationEntry.COLUMN_NAME_SYNC_THRESHOLD, config.getSyncThreshold());
-    values.put(ConfigurationEntry.COLUMN_NAME_HEADERS, new JSONObject(config.getHttpHeaders()).toString());
-    values.put(ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS, config.getMaxLocations());
-
-    return values;
+  /**
+   * Returns config values in order of PERSIST_COLUMNS
+   */
+  private Object[] getValues(Config config) throws NullPointerException {
+    return new Object[] {
+      1,
+      config.getStationaryRadius(),
+      config.getDistanceFilter(),
+      config.getDesiredAccuracy(),
+      (config.isDebugging() == true) ? 1 : 0,
+      config.getNotificationTitle(),
+      config.getNotificationText(),
+      config.getSmallNotificationIcon(),
+      config.getLargeNotificationIcon(),
+      config.getNotificationIconColor(),
+      (config.getStopOnTerminate() == true) ? 1 : 0,
+      (config.getStopOnStillActivity() == true) ? 1 : 0,
+      (config.getStartOnBoot() == true) ? 1 : 0,
+      (config.getStartForeground() == true) ? 1 : 0,
+      config.getLocationProvider(),
+      config.getInterval(),
+      config.getFastestInterval(),
+      config.getActivitiesInterval(),
+      config.getUrl(),
+      config.getSyncUrl(),
+      config.getSyncThreshold(),
+      new JSONObject(config.getHttpHeaders()).toString(),
+      config.getMaxLocations(),
+      config.getLocationStore(),
+      config.getSyncCompression(),
+      config.getSyncBatchSize(),
+      config.getSyncBatchBytes(),
+      config.getPayloadFormat(),
+      config.getHttpConnectTimeout(),
+      config.getHttpReadTimeout(),
+      config.getPostBatchWindow(),
+      config.getPostBatchSize(),
+      config.getUploadConcurrency(),
+      config.getUploadQueueSize(),
+      config.getRetryBaseDelay(),
+      config.getRetryMaxDelay(),
+      config.getCircuitFailureThreshold(),
+      config.getCircuitOpenDuration(),
+      config.getSyncMinBatchSize(),
+      config.getMaxAccuracy(),
+      config.getMaxSpeed(),
+      config.getMinTimeDelta(),
+      (config.getRejectMockLocations() == true) ? 1 : 0,
+      (config.getSmoothLocations() == true) ? 1 : 0,
+      config.getSimplificationTolerance(),
+      config.getVisitRadius(),
+      config.getVisitMinDuration(),
+      (config.getRejectDuplicateLocations() == true) ? 1 : 0
+    };
+  }
+
+  private static String buildPersistSql() {
+    String[] placeholders = new String[PERSIST_COLUMNS.length];
+    for (int i = 0; i < placeholders.length; i++) {
+      placeholders[i] = "?";
+    }
+    return new StringBuilder("INSERT OR REPLACE INTO ")
+        .append(ConfigurationEntry.TABLE_NAME)
+        .append(" (").append(TextUtils.join(",", PERSIST_COLUMNS)).append(")")
+        .append(" VALUES (").append(TextUtils.join(",", placeholders)).append(")")
+        .toString();
   }
 }
@@ -28,5 +28,65 @@ public final class SQLiteLocationContract {
         public static final String COLUMN_NAME_LOCATION_PROVIDER = "service_provider";
         public static final String COLUMN_NAME_VALID = "valid";
         public static final String COLUMN_NAME_BATCH_START_MILLIS = "batch_start";
+        public static final String COLUMN_NAME_SLOT = "slot";
+        public static final String COLUMN_NAME_GEOHASH = "geohash";
+        public static final String COLUMN_NAME_LEASE_ID = "lease_id";
+        public static final String COLUMN_NAME_LEASE_EXPIRES = "lease_expires";
+        public static final String COLUMN_NAME_SMOOTHED_LATITUDE = "smoothed_latitude";
+        public static final String COLUMN_NAME_SMOOTHED_LONGITUDE = "smoothed_longitude";
+        public static final String COLUMN_NAME_TIME_BUCKET = "time_bucket";
+
+        // length of time bucket (time / TIME_BUCKET_MILLIS) in milliseconds
+        public static final long TIME_BUCKET_MILLIS = 3600000;
+    }
+
+    /* Inner class that defines state of fixed capacity location ring */
+    public static abstract class RingEntry implements BaseColumns {
+        public static final String TABLE_NAME = "location_ring";
+        public static final String COLUMN_NAME_CAPACITY = "capacity";
+        public static final String COLUMN_NAME_HEAD = "head";
+    }
+
+    /* Inner class that defines trigger maintained location counters */
+    public static abstract class CounterEntry implements BaseColumns {
+        public static final String TABLE_NAME = "location_counter";
+        public static final String COLUMN_NAME_VALID_COUNT = "valid_count";
+    }
+
+    /* Inner class that defines archived location segments (@see LocationSegmentCodec) */
+    public static abstract class SegmentEntry implements BaseColumns {
+        public static final String TABLE_NAME = "location_segment";
+        public static final String COLUMN_NAME_START_TIME = "start_time";
+        public static final String COLUMN_NAME_END_TIME = "end_time";
+        public static final String COLUMN_NAME_COUNT = "count";
+        public static final String COLUMN_NAME_DATA = "data";
+        public static final String COLUMN_NAME_FIRST_ID = "first_id";
+        public static final String COLUMN_NAME_LAST_ID = "last_id";
+        // 0 when all locations of segment have been deleted, otherwise valid flag of every location applies
+        public static final String COLUMN_NAME_VALID = "valid";
+    }
+
+    /* Inner class that defines measured upload performance per network type (@see BatchSizeTuner) */
+    public static abstract class UploadStatsEntry implements BaseColumns {
+        public static final String TABLE_NAME = "upload_stats";
+        public static final String COLUMN_NAME_NETWORK_TYPE = "network_type";
+        public static final String COLUMN_NAME_THROUGHPUT = "throughput";
+        public static final String COLUMN_NAME_LATENCY = "latency";
+        public static final String COLUMN_NAME_SUCCESS_RATE = "success_rate";
+        public static final String COLUMN_NAME_UPLOADS = "uploads";
+        public static final String COLUMN_NAME_FAILURES = "failures";
+        public static final String COLUMN_NAME_BATCH_SIZE = "batch_size";
+        public static final String COLUMN_NAME_SYNC_THRESHOLD = "sync_threshold";
+        public static final String COLUMN_NAME_UPDATED_AT = "updated_at";
+    }
+
+    /* Inner class that defines visits detected by StayPointDetector */
+    public static abstract class VisitEntry implements BaseColumns {
+        public static final String TABLE_NAME = "visit";
+        public static final String COLUMN_NAME_ARRIVAL = "arrival";
+        public static final String COLUMN_NAME_DEPARTURE = "departure";
+        public static final String COLUMN_NAME_LATITUDE = "latitude";
+        public static final String COLUMN_NAME_LONGITUDE = "longitude";
+        public static final String COLUMN_NAME_POINT_COUNT = "point_count";
     }
 }
@@ -5,16 +5,110 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
 import com.marianhello.bgloc.data.BackgroundLocation;
 import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.PagedLocationCollection;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.RingEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.CounterEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.SegmentEntry;
+import com.marianhello.utils.GeoHash;
+import com.marianhello.utils.SQLiteStatementCache;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 
 public class SQLiteLocationDAO implements LocationDAO {
+  private static final String[] INSERT_COLUMNS = {
+    LocationEntry.COLUMN_NAME_PROVIDER,
+    LocationEntry.COLUMN_NAME_TIME,
+    LocationEntry.COLUMN_NAME_ACCURACY,
+    LocationEntry.COLUMN_NAME_SPEED,
+    LocationEntry.COLUMN_NAME_BEARING,
+    LocationEntry.COLUMN_NAME_ALTITUDE,
+    LocationEntry.COLUMN_NAME_RADIUS,
+    LocationEntry.COLUMN_NAME_LATITUDE,
+    LocationEntry.COLUMN_NAME_LONGITUDE,
+    LocationEntry.COLUMN_NAME_HAS_ACCURACY,
+    LocationEntry.COLUMN_NAME_HAS_SPEED,
+    LocationEntry.COLUMN_NAME_HAS_BEARING,
+    LocationEntry.COLUMN_NAME_HAS_ALTITUDE,
+    LocationEntry.COLUMN_NAME_HAS_RADIUS,
+    LocationEntry.COLUMN_NAME_LOCATION_PROVIDER,
+    LocationEntry.COLUMN_NAME_VALID,
+    LocationEntry.COLUMN_NAME_BATCH_START_MILLIS,
+    LocationEntry.COLUMN_NAME_SLOT,
+    LocationEntry.COLUMN_NAME_GEOHASH,
+    LocationEntry.COLUMN_NAME_LEASE_ID,
+    LocationEntry.COLUMN_NAME_LEASE_EXPIRES,
+    LocationEntry.COLUMN_NAME_SMOOTHED_LATITUDE,
+    LocationEntry.COLUMN_NAME_SMOOTHED_LONGITUDE,
+    LocationEntry.COLUMN_NAME_TIME_BUCKET
+  };
+
+  // slot is unique, so replace is keyed upsert into ring slot
+  private static final String SQL_INSERT_LOCATION =
+      "INSERT OR REPLACE INTO " + LocationEntry.TABLE_NAME + " (" + TextUtils.join(",", INSERT_COLUMNS) + ")" +
+      " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+  private static final String SQL_UPDATE_RING_HEAD =
+      "UPDATE " + RingEntry.TABLE_NAME + " SET " + RingEntry.COLUMN_NAME_HEAD + " = ?";
+
+  // bare MIN() and MAX() in subqueries, so both are answered from time_idx
+  private static final String SQL_TIME_RANGE =
+      "SELECT (SELECT MIN(" + LocationEntry.COLUMN_NAME_TIME + ") FROM " + LocationEntry.TABLE_NAME + ")," +
+      " (SELECT MAX(" + LocationEntry.COLUMN_NAME_TIME + ") FROM " + LocationEntry.TABLE_NAME + ")";
+
+  // time range of bounding box query searched bucket by bucket (one week)
+  private static final int MAX_TIME_BUCKETS = 168;
+
+  // host parameter limit of SQLite
+  private static final int MAX_SQL_ARGS = 999;
+
+  private static final String SQL_DELETE_LOCATION =
+      "DELETE FROM " + LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = ?";
+
+  private static final String[] SEGMENT_COLUMNS = {
+    SegmentEntry._ID,
+    SegmentEntry.COLUMN_NAME_DATA,
+    SegmentEntry.COLUMN_NAME_VALID
+  };
+
+  // number of locations fetched at once by getAllLocations
+  private static final int PAGE_SIZE = 500;
+
+  private static final Comparator<BackgroundLocation> ID_COMPARATOR = new Comparator<BackgroundLocation>() {
+    @Override
+    public int compare(BackgroundLocation a, BackgroundLocation b) {
+      return a.getLocationId().compareTo(b.getLocationId());
+    }
+  };
+
+  private static final Comparator<BackgroundLocation> TIME_COMPARATOR = new Comparator<BackgroundLocation>() {
+    @Override
+    public int compare(BackgroundLocation a, BackgroundLocation b) {
+      return a.getTime() < b.getTime() ? -1 : (a.getTime() == b.getTime() ? 0 : 1);
+    }
+  };
+
+  private static final String SQL_INVALIDATE_LOCATION =
+      "UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_VALID + " = 0" +
+      " WHERE " + LocationEntry._ID + " = ?";
+
+  // valid locations (trigger maintained counter) minus leased locations,
+  // latter are only locations being uploaded right now and are counted by range scan of outbox_idx
+  private static final String SQL_COUNT_LOCATIONS_FOR_SYNC =
+      "SELECT " + CounterEntry.COLUMN_NAME_VALID_COUNT + " - (SELECT COUNT(*) FROM " + LocationEntry.TABLE_NAME +
+      " WHERE " + LocationEntry.COLUMN_NAME_VALID + " = 1 AND " + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " >= ?)" +
+      " FROM " + CounterEntry.TABLE_NAME;
+
   private SQLiteDatabase db;
 
   public SQLiteLocationDAO(Context context) {
@@ -42,7 +136,20 @@ public class SQLiteLocationDAO implements LocationDAO {
    * @return collection of locations
      */
   private Collection<BackgroundLocation> getLocations(String whereClause, String[] whereArgs) {
-    Collection<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+    return getLocations(whereClause, whereArgs, LocationEntry.COLUMN_NAME_TIME + " ASC", null);
+  }
+
+  /**
+   * Get locations that match whereClause
+   *
+   * @param whereClause
+   * @param whereArgs
+   * @param orderBy
+   * @param limit max number of locations or null for no limit
+   * @return list of locations
+   */
+  List<BackgroundLocation> getLocations(String whereClause, String[] whereArgs, String orderBy, String limit) {
+    List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
 
     String[] columns = {
       LocationEntry._ID,
@@ -62,12 +169,13 @@ public class SQLiteLocationDAO implements LocationDAO {
       LocationEntry.COLUMN_NAME_HAS_RADIUS,
       LocationEntry.COLUMN_NAME_LOCATION_PROVIDER,
       LocationEntry.COLUMN_NAME_VALID,
-      LocationEntry.COLUMN_NAME_BATCH_START_MILLIS
+      LocationEntry.COLUMN_NAME_BATCH_START_MILLIS,
+      LocationEntry.COLUMN_NAME_SMOOTHED_LATITUDE,
+      LocationEntry.COLUMN_NAME_SMOOTHED_LONGITUDE
     };
 
     String groupBy = null;
     String having = null;
-    String orderBy = LocationEntry.COLUMN_NAME_TIME + " ASC";
     Cursor cursor = null;
 
     try {
@@ -78,7 +186,8 @@ public class SQLiteLocationDAO implements LocationDAO {
           whereArgs,                 // The values for the WHERE clause
           groupBy,                   // don't group the rows
           having,                    // don't filter by row groups
-          orderBy                    // The sort order
+          orderBy,                   // The sort order
+          limit                      // Max number of rows
       );
       while (cursor.moveToNext()) {
         locations.add(hydrate(cursor));
@@ -91,26 +200,522 @@ public class SQLiteLocationDAO implements LocationDAO {
 
     return locations;
   }
+  /**
+   * Get all locations including archived ones (@see archiveInvalidLocations)
+   *
+   * Locations are fetched page by page while iterated (@see PagedLocationCollection),
+   * so archived segments are decoded one by one and never all at once.
+   *
+   * @return collection of locations ordered by locationId
+   */
   public Collection<BackgroundLocation> getAllLocations() {
-    return getLocations(null, null);
+    return new PagedLocationCollection(this, PAGE_SIZE);
+  }
+
+  /**
+   * Get page of locations stored after given location
+   *
+   * Keyset pagination over rowid, locations are returned in order they have been stored.
+   * Page is located with single index seek, so cost of fetching page does not depend
+   * on number of locations before it. To fetch next page pass locationId
+   * of last location of previous page.
+   *
+   * Archived locations are merged in by their locationId. Segments are visited in order
+   * of their first locationId (segment_id_idx) and only while they can hold location
+   * preceding last location of page, so single segment is decoded at a time.
+   *
+   * @param afterLocationId locationId of last already fetched location or 0 for first page
+   * @param limit max number of locations in page
+   * @return list of locations
+   */
+  public List<BackgroundLocation> getLocationsPage(long afterLocationId, int limit) {
+    String whereClause = LocationEntry._ID + " > ?";
+    String[] whereArgs = { String.valueOf(afterLocationId) };
+    String orderBy = LocationEntry._ID + " ASC";
+
+    List<BackgroundLocation> locations = getLocations(whereClause, whereArgs, orderBy, String.valueOf(limit));
+    long lastLocationId = locations.size() < limit ? Long.MAX_VALUE : locations.get(limit - 1).getLocationId();
+    boolean merged = false;
+
+    String[] columns = { SegmentEntry._ID, SegmentEntry.COLUMN_NAME_FIRST_ID };
+    String segmentWhereClause = SegmentEntry.COLUMN_NAME_LAST_ID + " > ?";
+    String segmentOrderBy = SegmentEntry.COLUMN_NAME_FIRST_ID + " ASC";
+    Cursor cursor = null;
+    try {
+      cursor = db.query(SegmentEntry.TABLE_NAME, columns, segmentWhereClause, whereArgs, null, null, segmentOrderBy);
+      while (cursor.moveToNext() && cursor.getLong(1) <= lastLocationId) {
+        for (BackgroundLocation location : getSegmentLocations(cursor.getLong(0))) {
+          long locationId = location.getLocationId();
+          if (locationId > afterLocationId && locationId <= lastLocationId) {
+            locations.add(location);
+            merged = true;
+          }
+        }
+        if (merged && locations.size() > limit) {
+          Collections.sort(locations, ID_COMPARATOR);
+          locations.subList(limit, locations.size()).clear();
+          lastLocationId = locations.get(limit - 1).getLocationId();
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    if (merged) {
+      Collections.sort(locations, ID_COMPARATOR);
+    }
+    return locations;
+  }
+
+  /**
+   * Get cursor over locations stored after given location
+   *
+   * Locations are fetched lazily with keyset pagination (@see getLocationsPage),
+   * so only single page is held in memory. Iteration can be resumed from any
+   * location by passing its locationId.
+   *
+   * @param afterLocationId locationId of last already iterated location or 0 for all locations
+   * @param pageSize number of locations fetched at once
+   * @return iterator of locations ordered by locationId
+   */
+  public Iterator<BackgroundLocation> getLocationsIterator(long afterLocationId, int pageSize) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("Page size must be positive number");
+    }
+    return new PagedLocationCollection(this, afterLocationId, pageSize).iterator();
+  }
+
+  /**
+   * Get locations recorded in given time range and bounding box
+   *
+   * Bounding box is covered by few geohash ranges (@see GeoHash). When time range spans
+   * at most MAX_TIME_BUCKETS buckets, every range is searched in every time bucket
+   * by range scan of bucket_geohash_idx, so time bounds the scan as well.
+   * Wider time range is searched by range scan of geohash_time_idx within whole time range.
+   * Time terms are prefixed with unary plus, as without statistics planner tends to prefer
+   * time_idx (avoiding sort) and scan whole time range. INDEXED BY cannot be used instead,
+   * as older SQLite versions disable OR optimization with it. Time expression has no affinity,
+   * therefore its (text bound) arguments are cast. Without bounding box time_idx is used.
+   * Archived locations are searched by segment time range and filtered after decoding.
+   *
+   * @param from min time (inclusive) or null
+   * @param to max time (inclusive) or null
+   * @param bbox bounding box [west, south, east, north] or null
+   * @param limit max number of locations or null for no limit
+   * @return list of locations ordered by time
+   */
+  public List<BackgroundLocation> getLocationsInRange(Long from, Long to, double[] bbox, Integer limit) {
+    List<BackgroundLocation> locations = bbox != null
+        ? getLocationsInBoundingBox(from, to, bbox, limit)
+        : getLocationsInTimeRange(from, to, limit);
+
+    List<BackgroundLocation> archived = getArchivedLocations(from, to);
+    if (bbox != null) {
+      List<BackgroundLocation> inBoundingBox = new ArrayList<BackgroundLocation>();
+      for (BackgroundLocation location : archived) {
+        if (isInBoundingBox(location, bbox)) {
+          inBoundingBox.add(location);
+        }
+      }
+      archived = inBoundingBox;
+    }
+    if (archived.isEmpty()) {
+      return locations;
+    }
+
+    archived.addAll(locations);
+    Collections.sort(archived, TIME_COMPARATOR);
+    if (limit != null && archived.size() > limit) {
+      return new ArrayList<BackgroundLocation>(archived.subList(0, limit));
+    }
+
+    return archived;
+  }
+
+  private List<BackgroundLocation> getLocationsInTimeRange(Long from, Long to, Integer limit) {
+    List<String> conditions = new ArrayList<String>();
+    List<String> args = new ArrayList<String>();
+    if (from != null) {
+      conditions.add(LocationEntry.COLUMN_NAME_TIME + " >= ?");
+      args.add(String.valueOf(from));
+    }
+    if (to != null) {
+      conditions.add(LocationEntry.COLUMN_NAME_TIME + " <= ?");
+      args.add(String.valueOf(to));
+    }
+
+    String whereClause = conditions.isEmpty() ? null : TextUtils.join(" AND ", conditions);
+    String[] whereArgs = args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    String orderBy = LocationEntry.COLUMN_NAME_TIME + " ASC";
+
+    return getLocations(whereClause, whereArgs, orderBy, limit != null ? String.valueOf(limit) : null);
+  }
+
+  private List<BackgroundLocation> getLocationsInBoundingBox(Long from, Long to, double[] bbox, Integer limit) {
+    double west = bbox[0], south = bbox[1], east = bbox[2], north = bbox[3];
+    List<long[]> ranges = GeoHash.coverRanges(west, south, east, north);
+
+    // ranges also cover area around bounding box
+    List<String> filters = new ArrayList<String>();
+    List<String> filterArgs = new ArrayList<String>();
+    filters.add(LocationEntry.COLUMN_NAME_LATITUDE + " BETWEEN ? AND ?");
+    filterArgs.add(String.valueOf(south));
+    filterArgs.add(String.valueOf(north));
+    if (west > east) {
+      filters.add("(" + LocationEntry.COLUMN_NAME_LONGITUDE + " >= ? OR " + LocationEntry.COLUMN_NAME_LONGITUDE + " <= ?)");
+    } else {
+      filters.add(LocationEntry.COLUMN_NAME_LONGITUDE + " BETWEEN ? AND ?");
+    }
+    filterArgs.add(String.valueOf(west));
+    filterArgs.add(String.valueOf(east));
+    if (from != null) {
+      filters.add("+" + LocationEntry.COLUMN_NAME_TIME + " >= CAST(? AS INTEGER)");
+      filterArgs.add(String.valueOf(from));
+    }
+    if (to != null) {
+      filters.add("+" + LocationEntry.COLUMN_NAME_TIME + " <= CAST(? AS INTEGER)");
+      filterArgs.add(String.valueOf(to));
+    }
+
+    List<String> terms = new ArrayList<String>();
+    List<String> termArgs = new ArrayList<String>();
+    long[] timeRange = getTimeRange(from, to);
+    if (timeRange == null) {
+      return new ArrayList<BackgroundLocation>();
+    }
+    long firstBucket = timeRange[0] / LocationEntry.TIME_BUCKET_MILLIS;
+    long lastBucket = timeRange[1] / LocationEntry.TIME_BUCKET_MILLIS;
+    if (lastBucket - firstBucket >= MAX_TIME_BUCKETS) {
+      for (long[] range : ranges) {
+        terms.add(LocationEntry.COLUMN_NAME_GEOHASH + " BETWEEN ? AND ?");
+        termArgs.add(String.valueOf(range[0]));
+        termArgs.add(String.valueOf(range[1]));
+      }
+      return getLocationsInBoundingBox(terms, termArgs, filters, filterArgs, limit);
+    }
+
+    // buckets are searched in time order by as few queries as host parameter limit allows
+    int bucketsPerQuery = Math.max(1, (MAX_SQL_ARGS - filterArgs.size()) / (3 * ranges.size()));
+    List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+    for (long bucket = firstBucket; bucket <= lastBucket; bucket++) {
+      for (long[] range : ranges) {
+        terms.add("(" + LocationEntry.COLUMN_NAME_TIME_BUCKET + " = ? AND " + LocationEntry.COLUMN_NAME_GEOHASH + " BETWEEN ? AND ?)");
+        termArgs.add(String.valueOf(bucket));
+        termArgs.add(String.valueOf(range[0]));
+        termArgs.add(String.valueOf(range[1]));
+      }
+      if (bucket == lastBucket || terms.size() >= bucketsPerQuery * ranges.size()) {
+        Integer remaining = limit != null ? limit - locations.size() : null;
+        locations.addAll(getLocationsInBoundingBox(terms, termArgs, filters, filterArgs, remaining));
+        if (limit != null && locations.size() >= limit) {
+          break;
+        }
+        terms.clear();
+        termArgs.clear();
+      }
+    }
+
+    return locations;
+  }
+
+  private List<BackgroundLocation> getLocationsInBoundingBox(List<String> terms, List<String> termArgs,
+      List<String> filters, List<String> filterArgs, Integer limit) {
+    List<String> args = new ArrayList<String>(termArgs);
+    args.addAll(filterArgs);
+    String whereClause = "(" + TextUtils.join(" OR ", terms) + ") AND " + TextUtils.join(" AND ", filters);
+    String orderBy = "+" + LocationEntry.COLUMN_NAME_TIME + " ASC";
+
+    return getLocations(whereClause, args.toArray(new String[args.size()]), orderBy,
+        limit != null ? String.valueOf(limit) : null);
+  }
+
+  /**
+   * Complete time range by time of first and last location
+   *
+   * @return [from, to] or null when there are no locations
+   */
+  private long[] getTimeRange(Long from, Long to) {
+    if (from != null && to != null) {
+      return new long[] { from, to };
+    }
+
+    Cursor cursor = null;
+    try {
+      cursor = db.rawQuery(SQL_TIME_RANGE, null);
+      if (!cursor.moveToFirst() || cursor.isNull(0)) {
+        return null;
+      }
+      return new long[] { from != null ? from : cursor.getLong(0), to != null ? to : cursor.getLong(1) };
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  private static boolean isInBoundingBox(BackgroundLocation location, double[] bbox) {
+    double west = bbox[0], south = bbox[1], east = bbox[2], north = bbox[3];
+    double latitude = location.getLatitude();
+    double longitude = location.getLongitude();
+    if (latitude < south || latitude > north) {
+      return false;
+    }
+    if (west > east) {
+      return longitude >= west || longitude <= east;
+    }
+    return longitude >= west && longitude <= east;
+  }
+
+  /**
+   * Get archived locations from segments overlapping given time range
+   *
+   * @param from min time (inclusive) or null
+   * @param to max time (inclusive) or null
+   * @return list of locations ordered by time
+   */
+  private List<BackgroundLocation> getArchivedLocations(Long from, Long to) {
+    List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+    List<String> conditions = new ArrayList<String>();
+    List<String> args = new ArrayList<String>();
+    if (to != null) {
+      conditions.add(SegmentEntry.COLUMN_NAME_START_TIME + " <= ?");
+      args.add(String.valueOf(to));
+    }
+    if (from != null) {
+      conditions.add(SegmentEntry.COLUMN_NAME_END_TIME + " >= ?");
+      args.add(String.valueOf(from));
+    }
+
+    String whereClause = conditions.isEmpty() ? null : TextUtils.join(" AND ", conditions);
+    String[] whereArgs = args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    String orderBy = SegmentEntry.COLUMN_NAME_START_TIME + " ASC";
+    Cursor cursor = null;
+    try {
+      cursor = db.query(SegmentEntry.TABLE_NAME, SEGMENT_COLUMNS, whereClause, whereArgs, null, null, orderBy);
+      while (cursor.moveToNext()) {
+        for (BackgroundLocation location : decodeSegment(cursor)) {
+          if ((from == null || location.getTime() >= from) && (to == null || location.getTime() <= to)) {
+            locations.add(location);
+          }
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    return locations;
+  }
+
+  /**
+   * Roll oldest invalid locations into single archived segment
+   *
+   * Locations are encoded with LocationSegmentCodec, stored into segment table
+   * and deleted from location table in single transaction.
+   * Segment is created only when there are at least segmentSize invalid locations.
+   *
+   * @param segmentSize number of locations in segment
+   * @return number of archived locations
+   */
+  public int archiveInvalidLocations(int segmentSize) {
+    String whereClause = LocationEntry.COLUMN_NAME_VALID + " = ?";
+    String[] whereArgs = { "0" };
+
+    return archiveLocations(whereClause, whereArgs, segmentSize, false);
+  }
+
+  /**
+   * Roll oldest valid locations recorded before given time into single archived segment
+   *
+   * Archived locations stay valid, but they are not in outbox anymore, therefore
+   * only locations which are never going to be uploaded should be archived.
+   * Leased locations are never archived.
+   * Segment is created only when there are at least segmentSize such locations.
+   *
+   * @param time
+   * @param segmentSize number of locations in segment
+   * @return number of archived locations
+   */
+  public int archiveValidLocationsBefore(long time, int segmentSize) {
+    String whereClause = LocationEntry.COLUMN_NAME_VALID + " = ?" +
+        " AND " + LocationEntry.COLUMN_NAME_TIME + " < ?" +
+        " AND +" + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " < ?";
+    String[] whereArgs = { "1", String.valueOf(time), String.valueOf(System.currentTimeMillis()) };
+
+    return archiveLocations(whereClause, whereArgs, segmentSize, true);
+  }
+
+  private int archiveLocations(String whereClause, String[] whereArgs, int segmentSize, boolean valid) {
+    String orderBy = LocationEntry.COLUMN_NAME_TIME + " ASC";
+
+    db.beginTransactionNonExclusive();
+    try {
+      List<BackgroundLocation> locations = getLocations(whereClause, whereArgs, orderBy, String.valueOf(segmentSize));
+      if (locations.size() < segmentSize) {
+        return 0;
+      }
+
+      long firstId = Long.MAX_VALUE, lastId = 0;
+      for (BackgroundLocation location : locations) {
+        firstId = Math.min(firstId, location.getLocationId());
+        lastId = Math.max(lastId, location.getLocationId());
+      }
+      ContentValues values = new ContentValues();
+      values.put(SegmentEntry.COLUMN_NAME_START_TIME, locations.get(0).getTime());
+      values.put(SegmentEntry.COLUMN_NAME_END_TIME, locations.get(locations.size() - 1).getTime());
+      values.put(SegmentEntry.COLUMN_NAME_COUNT, locations.size());
+      values.put(SegmentEntry.COLUMN_NAME_DATA, LocationSegmentCodec.encode(locations));
+      values.put(SegmentEntry.COLUMN_NAME_FIRST_ID, firstId);
+      values.put(SegmentEntry.COLUMN_NAME_LAST_ID, lastId);
+      values.put(SegmentEntry.COLUMN_NAME_VALID, valid ? 1 : 0);
+      db.insertOrThrow(SegmentEntry.TABLE_NAME, null, values);
+
+      SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_DELETE_LOCATION);
+      for (BackgroundLocation location : locations) {
+        stmt.clearBindings();
+        stmt.bindLong(1, location.getLocationId());
+        stmt.executeUpdateDelete();
+      }
+
+      db.setTransactionSuccessful();
+      return locations.size();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private List<BackgroundLocation> getSegmentLocations(long segmentId) {
+    String whereClause = SegmentEntry._ID + " = ?";
+    String[] whereArgs = { String.valueOf(segmentId) };
+    Cursor cursor = null;
+    try {
+      cursor = db.query(SegmentEntry.TABLE_NAME, SEGMENT_COLUMNS, whereClause, whereArgs, null, null, null);
+      return cursor.moveToFirst() ? decodeSegment(cursor) : new ArrayList<BackgroundLocation>();
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Decode segment at cursor position (@see SEGMENT_COLUMNS)
+   */
+  private static List<BackgroundLocation> decodeSegment(Cursor cursor) {
+    List<BackgroundLocation> locations = LocationSegmentCodec.decode(cursor.getBlob(1));
+    if (cursor.getInt(2) == 0) {
+      for (BackgroundLocation location : locations) {
+        location.setValid(false);
+      }
+    }
+    return locations;
+  }
+
+  /**
+   * Invalidate archived location by rewriting its segment
+   *
+   * @return true if location has been found in segment
+   */
+  private boolean invalidateArchivedLocation(long locationId) {
+    String whereClause = SegmentEntry.COLUMN_NAME_FIRST_ID + " <= ?" +
+        " AND " + SegmentEntry.COLUMN_NAME_LAST_ID + " >= ?" +
+        " AND " + SegmentEntry.COLUMN_NAME_VALID + " = 1";
+    String[] whereArgs = { String.valueOf(locationId), String.valueOf(locationId) };
+    Cursor cursor = null;
+    try {
+      cursor = db.query(SegmentEntry.TABLE_NAME, SEGMENT_COLUMNS, whereClause, whereArgs, null, null, null);
+      while (cursor.moveToNext()) {
+        List<BackgroundLocation> locations = decodeSegment(cursor);
+        boolean found = false, valid = false;
+        for (BackgroundLocation location : locations) {
+          if (location.getLocationId() == locationId) {
+            found = true;
+            location.setValid(false);
+          }
+          valid |= location.isValid();
+        }
+        if (found) {
+          ContentValues values = new ContentValues();
+          values.put(SegmentEntry.COLUMN_NAME_DATA, LocationSegmentCodec.encode(locations));
+          values.put(SegmentEntry.COLUMN_NAME_VALID, valid ? 1 : 0);
+          db.update(SegmentEntry.TABLE_NAME, values, SegmentEntry._ID + " = ?", new String[] { cursor.getString(0) });
+          return true;
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return false;
   }
 
+  /**
+   * Delete archived segments with all locations older than given time
+   *
+   * @param time
+   * @return number of deleted segments
+   */
+  public int deleteArchivedLocationsBefore(long time) {
+    String whereClause = SegmentEntry.COLUMN_NAME_END_TIME + " < ?";
+    String[] whereArgs = { String.valueOf(time) };
+
+    return db.delete(SegmentEntry.TABLE_NAME, whereClause, whereArgs);
+  }
+
+  /**
+   * Get valid locations including archived ones (@see archiveValidLocationsBefore)
+   *
+   * @return collection of locations ordered by time
+   */
   public Collection<BackgroundLocation> getValidLocations() {
     String whereClause = LocationEntry.COLUMN_NAME_VALID + " = ?";
     String[] whereArgs = { "1" };
+    Collection<BackgroundLocation> locations = getLocations(whereClause, whereArgs);
 
-    return getLocations(whereClause, whereArgs);
-  }
+    List<BackgroundLocation> archived = new ArrayList<BackgroundLocation>();
+    String orderBy = SegmentEntry.COLUMN_NAME_START_TIME + " ASC";
+    Cursor cursor = null;
+    try {
+      cursor = db.query(SegmentEntry.TABLE_NAME, SEGMENT_COLUMNS, SegmentEntry.COLUMN_NAME_VALID + " = ?", whereArgs, null, null, orderBy);
+      while (cursor.moveToNext()) {
+        for (BackgroundLocation location : decodeSegment(cursor)) {
+          if (location.isValid()) {
+            archived.add(location);
+          }
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (archived.isEmpty()) {
+      return locations;
+    }
 
-  public Long locationsForSyncCount(Long millisSinceLastBatch) {
-    String whereClause = TextUtils.join("", new String[]{
-            SQLiteLocationContract.LocationEntry.COLUMN_NAME_VALID + " = ? AND ( ",
-            SQLiteLocationContract.LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + " IS NULL OR ",
-            SQLiteLocationContract.LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + " < ? )",
-    });
-    String[] whereArgs = { "1", String.valueOf(millisSinceLastBatch) };
+    archived.addAll(locations);
+    Collections.sort(archived, TIME_COMPARATOR);
+    return archived;
+  }
 
-    return DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME, whereClause, whereArgs);
+  /**
+   * Get number of valid locations ready for sync
+   *
+   * Count is derived from trigger maintained counter of valid locations,
+   * so cost does not depend on number of stored locations.
+   *
+   * @param now current time in milliseconds
+   * @return number of valid locations not leased for upload (@see SQLiteLocationOutbox)
+   */
+  public Long locationsForSyncCount(Long now) {
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_COUNT_LOCATIONS_FOR_SYNC);
+    stmt.clearBindings();
+    stmt.bindLong(1, now);
+    return stmt.simpleQueryForLong();
   }
 
   /**
@@ -120,41 +725,223 @@ public class SQLiteLocationDAO implements LocationDAO {
    * @return rowId or -1 when error occured
    */
   public Long persistLocation(BackgroundLocation location) {
-    ContentValues values = getContentValues(location);
-    long rowId = db.insertOrThrow(LocationEntry.TABLE_NAME, LocationEntry.COLUMN_NAME_NULLABLE, values);
-
-    return rowId;
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_INSERT_LOCATION);
+    bindLocation(stmt, location, null);
+    return stmt.executeInsert();
   }
 
   /**
    * Persist location into database with maximum row limit
    *
-   * Method will ensure that there will be no more records than maxRows.
-   * Instead old records will be replaced with newer ones.
-   * If maxRows will change in time, method will delete excess records and vacuum table.
+   * Locations are stored in fixed capacity ring of maxRows slots.
+   * When ring is full, oldest location is replaced by newer one.
+   * @see persistLocationsWithLimit
    *
    * @param location
    * @param maxRows
    * @return rowId or -1 when error occured
    */
   public Long persistLocationWithLimit(BackgroundLocation location, Integer maxRows) {
-    Long rowId = null;
-    String sql = null;
-    Boolean shouldVacuum = false;
+    List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(1);
+    locations.add(location);
 
-    long rowCount = DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME);
+    return persistLocationsWithLimit(locations, maxRows).get(0);
+  }
+
+  /**
+   * Persist multiple locations in single transaction with maximum row limit
+   *
+   * Locations are stored in fixed capacity ring of maxRows slots.
+   * Every location is written with single keyed upsert into slot pointed by ring head,
+   * so there is no need to count table or search for oldest location.
+   * Ring head is persisted in ring table together with ring capacity.
+   * If maxRows will change in time, ring is resized (@see resizeRing).
+   *
+   * @param locations
+   * @param maxRows ring capacity, 0 is treated as 1
+   * @return rowIds in the same order as given locations
+   * @throws IllegalArgumentException when maxRows is null or negative
+   */
+  public List<Long> persistLocationsWithLimit(List<BackgroundLocation> locations, Integer maxRows) {
+    long capacity = getRingCapacity(maxRows);
+    List<Long> rowIds = new ArrayList<Long>(locations.size());
+    SQLiteStatement insertStmt = SQLiteStatementCache.getStatement(db, SQL_INSERT_LOCATION);
+    SQLiteStatement headStmt = SQLiteStatementCache.getStatement(db, SQL_UPDATE_RING_HEAD);
+
+    db.beginTransactionNonExclusive();
+    try {
+      long head = getRingHead(capacity);
+
+      for (BackgroundLocation location : locations) {
+        bindLocation(insertStmt, location, head);
+        rowIds.add(insertStmt.executeInsert());
+        head = (head + 1) % capacity;
+      }
 
-    if (rowCount < maxRows) {
-      ContentValues values = getContentValues(location);
-      rowId = db.insertOrThrow(LocationEntry.TABLE_NAME, LocationEntry.COLUMN_NAME_NULLABLE, values);
+      headStmt.clearBindings();
+      headStmt.bindLong(1, head);
+      headStmt.executeUpdateDelete();
 
-      return rowId;
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
     }
 
-    db.beginTransactionNonExclusive();
+    return rowIds;
+  }
+
+  /**
+   * Returns ring capacity for given max number of rows
+   *
+   * Ring has at least one slot, so newest location is always kept.
+   *
+   * @param maxRows
+   * @return capacity of at least 1
+   * @throws IllegalArgumentException when maxRows is null or negative
+   */
+  static long getRingCapacity(Integer maxRows) {
+    if (maxRows == null || maxRows < 0) {
+      throw new IllegalArgumentException("Invalid max number of locations: " + maxRows);
+    }
+    return Math.max(1, maxRows);
+  }
 
-    if (rowCount > maxRows) {
-      sql = new StringBuilder("DELETE FROM ")
+  /**
+   * Get current position of ring head for given capacity
+   *
+   * Resizes ring when capacity differs from persisted one.
+   *
+   * @param capacity at least 1 (@see getRingCapacity)
+   * @return slot where next location should be written
+   */
+  private long getRingHead(long capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+    }
+    String[] columns = { RingEntry.COLUMN_NAME_CAPACITY, RingEntry.COLUMN_NAME_HEAD };
+    Cursor cursor = null;
+    try {
+      cursor = db.query(RingEntry.TABLE_NAME, columns, null, null, null, null, null);
+      if (cursor.moveToFirst()) {
+        long currentCapacity = cursor.getLong(cursor.getColumnIndex(RingEntry.COLUMN_NAME_CAPACITY));
+        long head = cursor.getLong(cursor.getColumnIndex(RingEntry.COLUMN_NAME_HEAD));
+        if (currentCapacity == capacity) {
+          return head;
+        }
+        return resizeRing(currentCapacity, head, capacity);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    // ring not initialized yet (eg. after upgrade from version without ring)
+    long head = renumberRing(capacity);
+    ContentValues values = new ContentValues();
+    values.put(RingEntry._ID, 1);
+    values.put(RingEntry.COLUMN_NAME_CAPACITY, capacity);
+    values.put(RingEntry.COLUMN_NAME_HEAD, head);
+    db.insertOrThrow(RingEntry.TABLE_NAME, RingEntry.COLUMN_NAME_CAPACITY, values);
+
+    return head;
+  }
+
+  /**
+   * Resize ring from current capacity to new capacity
+   *
+   * Growing ring only shifts slots of oldest locations (these between head and end of ring)
+   * to the end of the new ring, leaving free slots right after the head.
+   * Shrinking ring deletes excess oldest locations and moves only remaining locations,
+   * which don't fit into the new ring (@see shrinkRing).
+   * Database file is never vacuumed.
+   *
+   * @param capacity current capacity
+   * @param head current ring head
+   * @param newCapacity
+   * @return new ring head
+   */
+  private long resizeRing(long capacity, long head, long newCapacity) {
+    long newHead;
+    if (newCapacity > capacity) {
+      shiftSlots(head, newCapacity - capacity);
+      newHead = head;
+    } else {
+      newHead = shrinkRing(capacity, head, newCapacity);
+    }
+
+    ContentValues values = new ContentValues();
+    values.put(RingEntry.COLUMN_NAME_CAPACITY, newCapacity);
+    values.put(RingEntry.COLUMN_NAME_HEAD, newHead);
+    db.update(RingEntry.TABLE_NAME, values, null, null);
+
+    return newHead;
+  }
+
+  /**
+   * Shrink ring keeping newCapacity newest locations
+   *
+   * Newest locations occupy slots right before the head. When there are at least
+   * newCapacity of them (head >= newCapacity), they are consecutive slots
+   * and taking slot modulo newCapacity keeps their order, so only slots >= newCapacity move.
+   * Otherwise newest locations stay in slots below the head and remaining
+   * oldest locations at the end of ring are shifted down right after them.
+   * Both deletes and moves are range updates over slot index.
+   *
+   * @param capacity current capacity
+   * @param head current ring head
+   * @param newCapacity
+   * @return new ring head
+   */
+  private long shrinkRing(long capacity, long head, long newCapacity) {
+    String table = LocationEntry.TABLE_NAME;
+    String slot = LocationEntry.COLUMN_NAME_SLOT;
+    if (head >= newCapacity) {
+      db.execSQL("DELETE FROM " + table + " WHERE " + slot + " < ? OR " + slot + " >= ?",
+              new Object[] { head - newCapacity, head });
+      // kept slots are unique modulo newCapacity, so no moved slot collides with kept one
+      db.execSQL("UPDATE " + table + " SET " + slot + " = " + slot + " % ? WHERE " + slot + " >= ?",
+              new Object[] { newCapacity, newCapacity });
+      return head % newCapacity;
+    }
+
+    long oldestKept = capacity - newCapacity + head;
+    db.execSQL("DELETE FROM " + table + " WHERE " + slot + " >= ? AND " + slot + " < ?",
+            new Object[] { head, oldestKept });
+    shiftSlots(oldestKept, head - oldestKept);
+
+    return head;
+  }
+
+  /**
+   * Add shift to all slots starting from given slot
+   *
+   * Slots are moved in two steps through negative slots to avoid unique constraint
+   * violation on overlapping slots.
+   *
+   * @param fromSlot
+   * @param shift
+   */
+  private void shiftSlots(long fromSlot, long shift) {
+    db.execSQL("UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_SLOT + " = -(" +
+            LocationEntry.COLUMN_NAME_SLOT + " + ?) - 1 WHERE " + LocationEntry.COLUMN_NAME_SLOT + " >= ?",
+            new Object[] { shift, fromSlot });
+    db.execSQL("UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_SLOT + " = -" +
+            LocationEntry.COLUMN_NAME_SLOT + " - 1 WHERE " + LocationEntry.COLUMN_NAME_SLOT + " < 0");
+  }
+
+  /**
+   * Delete locations exceeding capacity and assign slots to remaining locations from oldest to newest
+   *
+   * Used only once to initialize ring over locations stored without slots.
+   *
+   * @param capacity
+   * @return new ring head
+   */
+  private long renumberRing(long capacity) {
+    long rowCount = DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME);
+    if (rowCount > capacity) {
+      String sql = new StringBuilder("DELETE FROM ")
               .append(LocationEntry.TABLE_NAME)
               .append(" WHERE ").append(LocationEntry._ID)
               .append(" IN (SELECT ").append(LocationEntry._ID)
@@ -162,60 +949,38 @@ public class SQLiteLocationDAO implements LocationDAO {
               .append(" ORDER BY ").append(LocationEntry.COLUMN_NAME_TIME)
               .append(" LIMIT ?)")
               .toString();
-      db.execSQL(sql, new Object[] {(rowCount - maxRows)});
-      shouldVacuum = true;
-    }
-
-    sql = new StringBuilder("UPDATE ")
-            .append(LocationEntry.TABLE_NAME).append(" SET ")
-            .append(LocationEntry.COLUMN_NAME_PROVIDER).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_TIME).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_ACCURACY).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_SPEED).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_BEARING).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_ALTITUDE).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_RADIUS).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_LATITUDE).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_LONGITUDE).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_ACCURACY).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_SPEED).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_BEARING).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_ALTITUDE).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_HAS_RADIUS).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_BATCH_START_MILLIS).append("= ?,")
-            .append(LocationEntry.COLUMN_NAME_VALID).append("= ?")
-            .append(" WHERE ").append(LocationEntry.COLUMN_NAME_TIME)
-            .append("= (SELECT min(").append(LocationEntry.COLUMN_NAME_TIME).append(") FROM ")
-            .append(LocationEntry.TABLE_NAME).append(")")
-            .toString();
-    db.execSQL(sql, new Object[] {
-            location.getProvider(),
-            location.getTime(),
-            location.getAccuracy(),
-            location.getSpeed(),
-            location.getBearing(),
-            location.getAltitude(),
-            location.getRadius(),
-            location.getLatitude(),
-            location.getLongitude(),
-            location.hasAccuracy() ? 1 : 0,
-            location.hasSpeed() ? 1 : 0,
-            location.hasBearing() ? 1 : 0,
-            location.hasAltitude() ? 1 : 0,
-            location.hasRadius() ? 1 : 0,
-            location.getLocationProvider(),
-            location.getBatchStartMillis(),
-            location.isValid() ? 1 : 0
-    });
-
-    rowId = getLastInsertRowId(db);
-    db.setTransactionSuccessful();
-    db.endTransaction();
-
-    if (shouldVacuum) { db.execSQL("VACUUM"); }
-
-    return rowId;
+      db.execSQL(sql, new Object[] { rowCount - capacity });
+      rowCount = capacity;
+    }
+
+    ContentValues values = new ContentValues();
+    values.putNull(LocationEntry.COLUMN_NAME_SLOT);
+    db.update(LocationEntry.TABLE_NAME, values, null, null);
+
+    String[] columns = { LocationEntry._ID };
+    String orderBy = LocationEntry.COLUMN_NAME_TIME + " ASC";
+    Cursor cursor = null;
+    SQLiteStatement stmt = null;
+    long slot = 0;
+    try {
+      stmt = db.compileStatement("UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+              LocationEntry.COLUMN_NAME_SLOT + " = ? WHERE " + LocationEntry._ID + " = ?");
+      cursor = db.query(LocationEntry.TABLE_NAME, columns, null, null, null, null, orderBy);
+      while (cursor.moveToNext()) {
+        stmt.bindLong(1, slot++);
+        stmt.bindLong(2, cursor.getLong(0));
+        stmt.executeUpdateDelete();
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+      if (stmt != null) {
+        stmt.close();
+      }
+    }
+
+    return rowCount % capacity;
   }
 
   /**
@@ -225,13 +990,30 @@ public class SQLiteLocationDAO implements LocationDAO {
    * @param locationId
    */
   public void deleteLocation(Long locationId) {
-    ContentValues values = new ContentValues();
-    values.put(LocationEntry.COLUMN_NAME_VALID, 0);
-
-    String whereClause = LocationEntry._ID + " = ?";
-    String[] whereArgs = { String.valueOf(locationId) };
+    deleteLocations(Collections.singletonList(locationId));
+  }
 
-    db.update(LocationEntry.TABLE_NAME, values, whereClause, whereArgs);
+  /**
+   * Delete locations by given locationIds in single transaction
+   *
+   * Note: locations are not actually deleted only flagged as non valid
+   * @param locationIds
+   */
+  public void deleteLocations(List<Long> locationIds) {
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_INVALIDATE_LOCATION);
+    db.beginTransactionNonExclusive();
+    try {
+      for (Long locationId : locationIds) {
+        stmt.clearBindings();
+        stmt.bindLong(1, locationId);
+        if (stmt.executeUpdateDelete() == 0) {
+          invalidateArchivedLocation(locationId);
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
   }
 
   /**
@@ -243,7 +1025,14 @@ public class SQLiteLocationDAO implements LocationDAO {
     ContentValues values = new ContentValues();
     values.put(LocationEntry.COLUMN_NAME_VALID, 0);
 
-    db.update(LocationEntry.TABLE_NAME, values, null, null);
+    db.beginTransactionNonExclusive();
+    try {
+      db.update(LocationEntry.TABLE_NAME, values, null, null);
+      db.update(SegmentEntry.TABLE_NAME, values, SegmentEntry.COLUMN_NAME_VALID + " = 1", null);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
   }
 
   private BackgroundLocation hydrate(Cursor c) {
@@ -266,6 +1055,10 @@ public class SQLiteLocationDAO implements LocationDAO {
     }
     l.setLatitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_LATITUDE)));
     l.setLongitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_LONGITUDE)));
+    if (!c.isNull(c.getColumnIndex(LocationEntry.COLUMN_NAME_SMOOTHED_LATITUDE))) {
+      l.setSmoothedLatitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_SMOOTHED_LATITUDE)));
+      l.setSmoothedLongitude(c.getDouble(c.getColumnIndex(LocationEntry.COLUMN_NAME_SMOOTHED_LONGITUDE)));
+    }
     l.setLocationProvider(c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER)));
     l.setBatchStartMillis(c.getLong(c.getColumnIndex(LocationEntry.COLUMN_NAME_BATCH_START_MILLIS)));
     l.setValid(c.getInt(c.getColumnIndex(LocationEntry.COLUMN_NAME_VALID)) != 0);
@@ -274,26 +1067,49 @@ public class SQLiteLocationDAO implements LocationDAO {
     return l;
   }
 
-  private ContentValues getContentValues(BackgroundLocation l) {
-    ContentValues values = new ContentValues();
-    values.put(LocationEntry.COLUMN_NAME_PROVIDER, l.getProvider());
-    values.put(LocationEntry.COLUMN_NAME_TIME, l.getTime());
-    values.put(LocationEntry.COLUMN_NAME_ACCURACY, l.getAccuracy());
-    values.put(LocationEntry.COLUMN_NAME_SPEED, l.getSpeed());
-    values.put(LocationEntry.COLUMN_NAME_BEARING, l.getBearing());
-    values.put(LocationEntry.COLUMN_NAME_ALTITUDE, l.getAltitude());
-    values.put(LocationEntry.COLUMN_NAME_RADIUS, l.getRadius());
-    values.put(LocationEntry.COLUMN_NAME_LATITUDE, l.getLatitude());
-    values.put(LocationEntry.COLUMN_NAME_LONGITUDE, l.getLongitude());
-    values.put(LocationEntry.COLUMN_NAME_HAS_ACCURACY, l.hasAccuracy() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_HAS_SPEED, l.hasSpeed() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_HAS_BEARING, l.hasBearing() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_HAS_ALTITUDE, l.hasAltitude() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_HAS_RADIUS, l.hasRadius() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_LOCATION_PROVIDER, l.getLocationProvider());
-    values.put(LocationEntry.COLUMN_NAME_VALID, l.isValid() ? 1 : 0);
-    values.put(LocationEntry.COLUMN_NAME_BATCH_START_MILLIS, l.getBatchStartMillis());
-
-    return values;
+  /**
+   * Bind location to insert statement (@see SQL_INSERT_LOCATION)
+   *
+   * @param stmt
+   * @param l
+   * @param slot ring slot or null when location is not stored in ring
+   */
+  private void bindLocation(SQLiteStatement stmt, BackgroundLocation l, Long slot) {
+    stmt.clearBindings();
+    if (l.getProvider() != null) {
+      stmt.bindString(1, l.getProvider());
+    }
+    stmt.bindLong(2, l.getTime());
+    stmt.bindDouble(3, l.getAccuracy());
+    stmt.bindDouble(4, l.getSpeed());
+    stmt.bindDouble(5, l.getBearing());
+    stmt.bindDouble(6, l.getAltitude());
+    stmt.bindDouble(7, l.getRadius());
+    stmt.bindDouble(8, l.getLatitude());
+    stmt.bindDouble(9, l.getLongitude());
+    stmt.bindLong(10, l.hasAccuracy() ? 1 : 0);
+    stmt.bindLong(11, l.hasSpeed() ? 1 : 0);
+    stmt.bindLong(12, l.hasBearing() ? 1 : 0);
+    stmt.bindLong(13, l.hasAltitude() ? 1 : 0);
+    stmt.bindLong(14, l.hasRadius() ? 1 : 0);
+    if (l.getLocationProvider() != null) {
+      stmt.bindLong(15, l.getLocationProvider());
+    }
+    stmt.bindLong(16, l.isValid() ? 1 : 0);
+    Long batchStartMillis = l.getBatchStartMillis();
+    stmt.bindLong(17, batchStartMillis != null ? batchStartMillis : 0L);
+    if (slot != null) {
+      stmt.bindLong(18, slot);
+    }
+    stmt.bindLong(19, GeoHash.encode(l.getLatitude(), l.getLongitude()));
+    // new location is pending (not leased), lease_expires must not be null to be matched by outbox_idx range scan
+    stmt.bindLong(20, 0L);
+    stmt.bindLong(21, 0L);
+    // smoothed coordinates are null when location has not been smoothed
+    if (l.hasSmoothed()) {
+      stmt.bindDouble(22, l.getSmoothedLatitude());
+      stmt.bindDouble(23, l.getSmoothedLongitude());
+    }
+    stmt.bindLong(24, l.getTime() / LocationEntry.TIME_BUCKET_MILLIS);
   }
 }
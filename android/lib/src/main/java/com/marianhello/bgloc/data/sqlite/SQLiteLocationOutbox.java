@@ -0,0 +1,195 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationOutbox;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.utils.SQLiteStatementCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Location outbox backed by location table
+ *
+ * State of location is derived from valid, lease_id and lease_expires columns:
+ * <pre>
+ * pending: valid = 1 AND lease_expires < now
+ * leased:  valid = 1 AND lease_expires >= now (held by lease_id)
+ * acked:   valid = 0
+ * </pre>
+ * Every state change is single conditional UPDATE, so leases are safe
+ * also between service and sync adapter running in different processes.
+ */
+public class SQLiteLocationOutbox implements LocationOutbox {
+  // bare MAX() in subquery, so it is answered from primary key instead of scanning table
+  private static final String SQL_MAX_LOCATION_ID =
+      "SELECT IFNULL((SELECT MAX(" + LocationEntry._ID + ") FROM " + LocationEntry.TABLE_NAME + "), 0)";
+
+  private static final String SQL_LEASE_LOCATION =
+      "UPDATE " + LocationEntry.TABLE_NAME +
+      " SET " + LocationEntry.COLUMN_NAME_LEASE_ID + " = ?, " + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " = ?" +
+      " WHERE " + LocationEntry._ID + " = ?" +
+      " AND " + LocationEntry.COLUMN_NAME_VALID + " = 1" +
+      " AND (" + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " < ? OR " + LocationEntry.COLUMN_NAME_LEASE_ID + " = ?)";
+
+  private static final String SQL_LEASE_PENDING =
+      "UPDATE " + LocationEntry.TABLE_NAME +
+      " SET " + LocationEntry.COLUMN_NAME_LEASE_ID + " = ?, " + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " = ?" +
+      " WHERE " + LocationEntry._ID + " IN (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+      " WHERE " + LocationEntry.COLUMN_NAME_VALID + " = 1" +
+      " AND " + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " < ?" +
+      " AND " + LocationEntry._ID + " <= ?" +
+      " ORDER BY " + LocationEntry._ID + " LIMIT ?)";
+
+  // unary plus keeps planner on lease_idx, valid_time_idx would visit every valid location
+  private static final String SQL_RENEW_LEASE =
+      "UPDATE " + LocationEntry.TABLE_NAME +
+      " SET " + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " = ?" +
+      " WHERE " + LocationEntry.COLUMN_NAME_LEASE_ID + " = ?" +
+      " AND +" + LocationEntry.COLUMN_NAME_VALID + " = 1";
+
+  private static final String SQL_ACK_LOCATION =
+      "UPDATE " + LocationEntry.TABLE_NAME +
+      " SET " + LocationEntry.COLUMN_NAME_VALID + " = 0" +
+      " WHERE " + LocationEntry.COLUMN_NAME_LEASE_ID + " = ?" +
+      " AND " + LocationEntry._ID + " = ?";
+
+  private static final String SQL_ACK_RANGE =
+      "UPDATE " + LocationEntry.TABLE_NAME +
+      " SET " + LocationEntry.COLUMN_NAME_VALID + " = 0" +
+      " WHERE " + LocationEntry.COLUMN_NAME_LEASE_ID + " = ?" +
+      " AND " + LocationEntry._ID + " > ?" +
+      " AND " + LocationEntry._ID + " <= ?";
+
+  private static final String SQL_RELEASE_LOCATION =
+      "UPDATE " + LocationEntry.TABLE_NAME +
+      " SET " + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " = 0" +
+      " WHERE " + LocationEntry.COLUMN_NAME_LEASE_ID + " = ?" +
+      " AND " + LocationEntry._ID + " = ?" +
+      " AND " + LocationEntry.COLUMN_NAME_VALID + " = 1";
+
+  private static final String SQL_RELEASE_LEASE =
+      "UPDATE " + LocationEntry.TABLE_NAME +
+      " SET " + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " = 0" +
+      " WHERE " + LocationEntry.COLUMN_NAME_LEASE_ID + " = ?" +
+      " AND +" + LocationEntry.COLUMN_NAME_VALID + " = 1";
+
+  private SQLiteDatabase db;
+
+  public SQLiteLocationOutbox(Context context) {
+    this(SQLiteOpenHelper.getHelper(context).getWritableDatabase());
+  }
+
+  public SQLiteLocationOutbox(SQLiteDatabase db) {
+    this.db = db;
+  }
+
+  public long pendingCount(long now) {
+    return new SQLiteLocationDAO(db).locationsForSyncCount(now);
+  }
+
+  public long getMaxLocationId() {
+    return DatabaseUtils.longForQuery(db, SQL_MAX_LOCATION_ID, null);
+  }
+
+  public List<Long> lease(List<Long> locationIds, long leaseId, long leaseExpires) {
+    List<Long> leasedIds = new ArrayList<Long>(locationIds.size());
+    long now = System.currentTimeMillis();
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_LEASE_LOCATION);
+
+    db.beginTransactionNonExclusive();
+    try {
+      for (Long locationId : locationIds) {
+        stmt.clearBindings();
+        stmt.bindLong(1, leaseId);
+        stmt.bindLong(2, leaseExpires);
+        stmt.bindLong(3, locationId);
+        stmt.bindLong(4, now);
+        stmt.bindLong(5, leaseId);
+        if (stmt.executeUpdateDelete() == 1) {
+          leasedIds.add(locationId);
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return leasedIds;
+  }
+
+  public int leasePending(long leaseId, long leaseExpires, long maxLocationId, int limit) {
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_LEASE_PENDING);
+    stmt.clearBindings();
+    stmt.bindLong(1, leaseId);
+    stmt.bindLong(2, leaseExpires);
+    stmt.bindLong(3, System.currentTimeMillis());
+    stmt.bindLong(4, maxLocationId);
+    stmt.bindLong(5, limit);
+    return stmt.executeUpdateDelete();
+  }
+
+  public List<BackgroundLocation> getLeasedLocations(long leaseId, long afterLocationId, long maxLocationId, int limit) {
+    String whereClause = LocationEntry.COLUMN_NAME_VALID + " = 1" +
+        " AND " + LocationEntry.COLUMN_NAME_LEASE_ID + " = ?" +
+        " AND " + LocationEntry._ID + " > ?" +
+        " AND " + LocationEntry._ID + " <= ?";
+    String[] whereArgs = { String.valueOf(leaseId), String.valueOf(afterLocationId), String.valueOf(maxLocationId) };
+    String orderBy = LocationEntry._ID + " ASC";
+
+    return new SQLiteLocationDAO(db).getLocations(whereClause, whereArgs, orderBy, String.valueOf(limit));
+  }
+
+  public int renew(long leaseId, long leaseExpires) {
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_RENEW_LEASE);
+    stmt.clearBindings();
+    stmt.bindLong(1, leaseExpires);
+    stmt.bindLong(2, leaseId);
+    return stmt.executeUpdateDelete();
+  }
+
+  public void ack(long leaseId, List<Long> locationIds) {
+    executeForEach(SQL_ACK_LOCATION, leaseId, locationIds);
+  }
+
+  public int ack(long leaseId, long afterLocationId, long toLocationId) {
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_ACK_RANGE);
+    stmt.clearBindings();
+    stmt.bindLong(1, leaseId);
+    stmt.bindLong(2, afterLocationId);
+    stmt.bindLong(3, toLocationId);
+    return stmt.executeUpdateDelete();
+  }
+
+  public void release(long leaseId, List<Long> locationIds) {
+    executeForEach(SQL_RELEASE_LOCATION, leaseId, locationIds);
+  }
+
+  public int release(long leaseId) {
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_RELEASE_LEASE);
+    stmt.clearBindings();
+    stmt.bindLong(1, leaseId);
+    return stmt.executeUpdateDelete();
+  }
+
+  private void executeForEach(String sql, long leaseId, List<Long> locationIds) {
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, sql);
+    db.beginTransactionNonExclusive();
+    try {
+      for (Long locationId : locationIds) {
+        stmt.clearBindings();
+        stmt.bindLong(1, leaseId);
+        stmt.bindLong(2, locationId);
+        stmt.executeUpdateDelete();
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+}
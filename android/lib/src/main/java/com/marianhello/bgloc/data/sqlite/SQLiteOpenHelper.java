@@ -2,19 +2,28 @@ package com.marianhello.bgloc.data.sqlite;
 
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
+import com.marianhello.bgloc.data.BackgroundLocation;
 import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.RingEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.CounterEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.SegmentEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.UploadStatsEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.VisitEntry;
 import com.marianhello.bgloc.data.sqlite.SQLiteConfigurationContract.ConfigurationEntry;
+import com.marianhello.utils.GeoHash;
 
 import java.util.ArrayList;
 
 public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
     private static final String TAG = SQLiteOpenHelper.class.getName();
     public static final String SQLITE_DATABASE_NAME = "cordova_bg_geolocation.db";
-    public static final int DATABASE_VERSION = 12;
+    public static final int DATABASE_VERSION = 34;
 
     private static final String TEXT_TYPE = " TEXT";
     private static final String INTEGER_TYPE = " INTEGER";
@@ -40,7 +49,68 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
         LocationEntry.COLUMN_NAME_PROVIDER + TEXT_TYPE + COMMA_SEP +
         LocationEntry.COLUMN_NAME_LOCATION_PROVIDER + INTEGER_TYPE + COMMA_SEP +
         LocationEntry.COLUMN_NAME_VALID + INTEGER_TYPE + COMMA_SEP +
-        LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + INTEGER_TYPE +
+        LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + INTEGER_TYPE + COMMA_SEP +
+        LocationEntry.COLUMN_NAME_SLOT + INTEGER_TYPE + COMMA_SEP +
+        LocationEntry.COLUMN_NAME_GEOHASH + INTEGER_TYPE + COMMA_SEP +
+        LocationEntry.COLUMN_NAME_LEASE_ID + INTEGER_TYPE + COMMA_SEP +
+        LocationEntry.COLUMN_NAME_LEASE_EXPIRES + INTEGER_TYPE + COMMA_SEP +
+        LocationEntry.COLUMN_NAME_SMOOTHED_LATITUDE + REAL_TYPE + COMMA_SEP +
+        LocationEntry.COLUMN_NAME_SMOOTHED_LONGITUDE + REAL_TYPE + COMMA_SEP +
+        LocationEntry.COLUMN_NAME_TIME_BUCKET + INTEGER_TYPE +
+        " )";
+
+    private static final String SQL_CREATE_RING_TABLE =
+        "CREATE TABLE " + RingEntry.TABLE_NAME + " (" +
+        RingEntry._ID + " INTEGER PRIMARY KEY," +
+        RingEntry.COLUMN_NAME_CAPACITY + INTEGER_TYPE + COMMA_SEP +
+        RingEntry.COLUMN_NAME_HEAD + INTEGER_TYPE +
+        " )";
+
+    private static final String SQL_CREATE_COUNTER_TABLE =
+        "CREATE TABLE " + CounterEntry.TABLE_NAME + " (" +
+        CounterEntry._ID + " INTEGER PRIMARY KEY," +
+        CounterEntry.COLUMN_NAME_VALID_COUNT + INTEGER_TYPE +
+        " )";
+
+    private static final String SQL_INIT_COUNTER =
+        "INSERT INTO " + CounterEntry.TABLE_NAME + " (" +
+        CounterEntry._ID + COMMA_SEP + CounterEntry.COLUMN_NAME_VALID_COUNT + ")" +
+        " SELECT 1, COUNT(*) FROM " + LocationEntry.TABLE_NAME +
+        " WHERE " + LocationEntry.COLUMN_NAME_VALID + " = 1";
+
+    // triggers below keep valid_count equal to COUNT(*) of valid locations
+    // NOTE: ring eviction (INSERT OR REPLACE) fires delete trigger only with recursive_triggers on
+    private static final String SQL_CREATE_VALID_COUNT_INSERT_TRIGGER =
+        "CREATE TRIGGER valid_count_insert AFTER INSERT ON " + LocationEntry.TABLE_NAME +
+        " WHEN NEW." + LocationEntry.COLUMN_NAME_VALID + " = 1" +
+        " BEGIN UPDATE " + CounterEntry.TABLE_NAME + " SET " +
+        CounterEntry.COLUMN_NAME_VALID_COUNT + " = " + CounterEntry.COLUMN_NAME_VALID_COUNT + " + 1; END";
+
+    private static final String SQL_CREATE_VALID_COUNT_DELETE_TRIGGER =
+        "CREATE TRIGGER valid_count_delete AFTER DELETE ON " + LocationEntry.TABLE_NAME +
+        " WHEN OLD." + LocationEntry.COLUMN_NAME_VALID + " = 1" +
+        " BEGIN UPDATE " + CounterEntry.TABLE_NAME + " SET " +
+        CounterEntry.COLUMN_NAME_VALID_COUNT + " = " + CounterEntry.COLUMN_NAME_VALID_COUNT + " - 1; END";
+
+    private static final String SQL_CREATE_VALID_COUNT_UPDATE_TRIGGER =
+        "CREATE TRIGGER valid_count_update AFTER UPDATE OF " + LocationEntry.COLUMN_NAME_VALID +
+        " ON " + LocationEntry.TABLE_NAME +
+        " WHEN OLD." + LocationEntry.COLUMN_NAME_VALID + " IS NOT NEW." + LocationEntry.COLUMN_NAME_VALID +
+        " BEGIN UPDATE " + CounterEntry.TABLE_NAME + " SET " +
+        CounterEntry.COLUMN_NAME_VALID_COUNT + " = " + CounterEntry.COLUMN_NAME_VALID_COUNT +
+        " + (CASE WHEN NEW." + LocationEntry.COLUMN_NAME_VALID + " = 1 THEN 1 ELSE 0 END)" +
+        " - (CASE WHEN OLD." + LocationEntry.COLUMN_NAME_VALID + " = 1 THEN 1 ELSE 0 END); END";
+
+    private static final String SQL_CREATE_SEGMENT_TABLE =
+        "CREATE TABLE " + SegmentEntry.TABLE_NAME + " (" +
+        SegmentEntry._ID + " INTEGER PRIMARY KEY," +
+        SegmentEntry.COLUMN_NAME_START_TIME + INTEGER_TYPE + COMMA_SEP +
+        SegmentEntry.COLUMN_NAME_END_TIME + INTEGER_TYPE + COMMA_SEP +
+        SegmentEntry.COLUMN_NAME_COUNT + INTEGER_TYPE + COMMA_SEP +
+        SegmentEntry.COLUMN_NAME_DATA + " BLOB" + COMMA_SEP +
+        SegmentEntry.COLUMN_NAME_FIRST_ID + INTEGER_TYPE + COMMA_SEP +
+        SegmentEntry.COLUMN_NAME_LAST_ID + INTEGER_TYPE + COMMA_SEP +
+        SegmentEntry.COLUMN_NAME_VALID + INTEGER_TYPE + " DEFAULT 0" +
         " )";
 
     private static final String SQL_CREATE_CONFIG_TABLE =
@@ -67,21 +137,133 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
         ConfigurationEntry.COLUMN_NAME_SYNC_URL + TEXT_TYPE + COMMA_SEP +
         ConfigurationEntry.COLUMN_NAME_SYNC_THRESHOLD + INTEGER_TYPE + COMMA_SEP +
         ConfigurationEntry.COLUMN_NAME_HEADERS + TEXT_TYPE + COMMA_SEP +
-        ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS + INTEGER_TYPE +
+        ConfigurationEntry.COLUMN_NAME_MAX_LOCATIONS + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_LOCATION_STORE + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_SYNC_COMPRESSION + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_SIZE + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_BYTES + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_PAYLOAD_FORMAT + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_HTTP_CONNECT_TIMEOUT + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_HTTP_READ_TIMEOUT + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_POST_BATCH_WINDOW + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_UPLOAD_CONCURRENCY + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_UPLOAD_QUEUE_SIZE + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_RETRY_BASE_DELAY + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_RETRY_MAX_DELAY + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_CIRCUIT_FAILURE_THRESHOLD + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_CIRCUIT_OPEN_DURATION + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_SYNC_MIN_BATCH_SIZE + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_MAX_ACCURACY + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_MAX_SPEED + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_MIN_TIME_DELTA + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_REJECT_MOCK_LOCATIONS + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_SMOOTH_LOCATIONS + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_SIMPLIFICATION_TOLERANCE + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_VISIT_RADIUS + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_VISIT_MIN_DURATION + INTEGER_TYPE + COMMA_SEP +
+        ConfigurationEntry.COLUMN_NAME_REJECT_DUPLICATE_LOCATIONS + INTEGER_TYPE +
         " )";
 
     private static final String SQL_DROP_CONFIG_TABLE =
             "DROP TABLE IF EXISTS " + ConfigurationEntry.TABLE_NAME;
 
+    private static final String SQL_CREATE_UPLOAD_STATS_TABLE =
+        "CREATE TABLE " + UploadStatsEntry.TABLE_NAME + " (" +
+        UploadStatsEntry._ID + " INTEGER PRIMARY KEY," +
+        UploadStatsEntry.COLUMN_NAME_NETWORK_TYPE + TEXT_TYPE + " UNIQUE" + COMMA_SEP +
+        UploadStatsEntry.COLUMN_NAME_THROUGHPUT + REAL_TYPE + COMMA_SEP +
+        UploadStatsEntry.COLUMN_NAME_LATENCY + REAL_TYPE + COMMA_SEP +
+        UploadStatsEntry.COLUMN_NAME_SUCCESS_RATE + REAL_TYPE + COMMA_SEP +
+        UploadStatsEntry.COLUMN_NAME_UPLOADS + INTEGER_TYPE + COMMA_SEP +
+        UploadStatsEntry.COLUMN_NAME_FAILURES + INTEGER_TYPE + COMMA_SEP +
+        UploadStatsEntry.COLUMN_NAME_BATCH_SIZE + INTEGER_TYPE + COMMA_SEP +
+        UploadStatsEntry.COLUMN_NAME_SYNC_THRESHOLD + INTEGER_TYPE + COMMA_SEP +
+        UploadStatsEntry.COLUMN_NAME_UPDATED_AT + INTEGER_TYPE +
+        " )";
+
+    private static final String SQL_CREATE_VISIT_TABLE =
+        "CREATE TABLE " + VisitEntry.TABLE_NAME + " (" +
+        VisitEntry._ID + " INTEGER PRIMARY KEY," +
+        VisitEntry.COLUMN_NAME_ARRIVAL + INTEGER_TYPE + COMMA_SEP +
+        VisitEntry.COLUMN_NAME_DEPARTURE + INTEGER_TYPE + COMMA_SEP +
+        VisitEntry.COLUMN_NAME_LATITUDE + REAL_TYPE + COMMA_SEP +
+        VisitEntry.COLUMN_NAME_LONGITUDE + REAL_TYPE + COMMA_SEP +
+        VisitEntry.COLUMN_NAME_POINT_COUNT + INTEGER_TYPE +
+        " )";
+
     private static final String SQL_DROP_LOCATION_TABLE =
             "DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME;
 
+    private static final String SQL_DROP_RING_TABLE =
+            "DROP TABLE IF EXISTS " + RingEntry.TABLE_NAME;
+
+    private static final String SQL_DROP_COUNTER_TABLE =
+            "DROP TABLE IF EXISTS " + CounterEntry.TABLE_NAME;
+
+    private static final String SQL_DROP_SEGMENT_TABLE =
+            "DROP TABLE IF EXISTS " + SegmentEntry.TABLE_NAME;
+
+    private static final String SQL_DROP_UPLOAD_STATS_TABLE =
+            "DROP TABLE IF EXISTS " + UploadStatsEntry.TABLE_NAME;
+
+    private static final String SQL_DROP_VISIT_TABLE =
+            "DROP TABLE IF EXISTS " + VisitEntry.TABLE_NAME;
+
     private static final String SQL_CREATE_LOCATION_TABLE_TIME_IDX =
             "CREATE INDEX time_idx ON " + LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_NAME_TIME + ")";
 
     private static final String SQL_CREATE_LOCATION_TABLE_BATCH_ID_IDX =
             "CREATE INDEX batch_id_idx ON " + LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + ")";
 
+    private static final String SQL_CREATE_LOCATION_TABLE_SLOT_IDX =
+            "CREATE UNIQUE INDEX slot_idx ON " + LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_NAME_SLOT + ")";
+
+    // covers sync queries: valid = 1 AND batch_start < ? (ORDER BY time)
+    private static final String SQL_CREATE_LOCATION_TABLE_SYNC_IDX =
+            "CREATE INDEX sync_idx ON " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry.COLUMN_NAME_VALID + COMMA_SEP +
+            LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + COMMA_SEP +
+            LocationEntry.COLUMN_NAME_TIME + ")";
+
+    // covers outbox queries: valid = 1 AND lease_expires < ? (ORDER BY _id)
+    private static final String SQL_CREATE_LOCATION_TABLE_OUTBOX_IDX =
+            "CREATE INDEX outbox_idx ON " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry.COLUMN_NAME_VALID + COMMA_SEP +
+            LocationEntry.COLUMN_NAME_LEASE_EXPIRES + ")";
+
+    private static final String SQL_CREATE_LOCATION_TABLE_LEASE_IDX =
+            "CREATE INDEX lease_idx ON " + LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_NAME_LEASE_ID + ")";
+
+    // covers valid locations time range queries: valid = ? AND time > ? (ORDER BY time)
+    private static final String SQL_CREATE_LOCATION_TABLE_VALID_TIME_IDX =
+            "CREATE INDEX valid_time_idx ON " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry.COLUMN_NAME_VALID + COMMA_SEP +
+            LocationEntry.COLUMN_NAME_TIME + ")";
+
+    // covers bounding box queries: geohash BETWEEN ? AND ? (AND time BETWEEN ? AND ?)
+    private static final String SQL_CREATE_LOCATION_TABLE_GEOHASH_TIME_IDX =
+            "CREATE INDEX geohash_time_idx ON " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry.COLUMN_NAME_GEOHASH + COMMA_SEP +
+            LocationEntry.COLUMN_NAME_TIME + ")";
+
+    // covers bounding box queries of short time range: time_bucket = ? AND geohash BETWEEN ? AND ?
+    private static final String SQL_CREATE_LOCATION_TABLE_BUCKET_GEOHASH_IDX =
+            "CREATE INDEX bucket_geohash_idx ON " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry.COLUMN_NAME_TIME_BUCKET + COMMA_SEP +
+            LocationEntry.COLUMN_NAME_GEOHASH + ")";
+
+    private static final String SQL_CREATE_SEGMENT_TABLE_TIME_IDX =
+            "CREATE INDEX segment_time_idx ON " + SegmentEntry.TABLE_NAME + " (" +
+            SegmentEntry.COLUMN_NAME_START_TIME + COMMA_SEP +
+            SegmentEntry.COLUMN_NAME_END_TIME + ")";
+
+    // covers keyset pagination over segments: first_id <= ? AND last_id > ? ORDER BY first_id
+    private static final String SQL_CREATE_SEGMENT_TABLE_ID_IDX =
+            "CREATE INDEX segment_id_idx ON " + SegmentEntry.TABLE_NAME + " (" +
+            SegmentEntry.COLUMN_NAME_FIRST_ID + COMMA_SEP +
+            SegmentEntry.COLUMN_NAME_LAST_ID + ")";
+
     private static SQLiteOpenHelper instance;
 
     /**
@@ -113,13 +295,38 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
         super(context, SQLITE_DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // takes effect only for newly created database,
+        // existing database is switched into incremental mode by SQLiteCompactor
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        // rows deleted by REPLACE conflict resolution must fire delete triggers (counter maintenance)
+        db.execSQL("PRAGMA recursive_triggers = ON");
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         Log.d(TAG, "Creating db: " + this.getDatabaseName());
         execAndLogSql(db, SQL_CREATE_LOCATION_TABLE);
         execAndLogSql(db, SQL_CREATE_CONFIG_TABLE);
         execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_TIME_IDX);
-        execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_BATCH_ID_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_SLOT_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_OUTBOX_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_LEASE_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_VALID_TIME_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_GEOHASH_TIME_IDX);
+        execAndLogSql(db, SQL_CREATE_LOCATION_TABLE_BUCKET_GEOHASH_IDX);
+        execAndLogSql(db, SQL_CREATE_RING_TABLE);
+        execAndLogSql(db, SQL_CREATE_COUNTER_TABLE);
+        execAndLogSql(db, SQL_INIT_COUNTER);
+        execAndLogSql(db, SQL_CREATE_VALID_COUNT_INSERT_TRIGGER);
+        execAndLogSql(db, SQL_CREATE_VALID_COUNT_DELETE_TRIGGER);
+        execAndLogSql(db, SQL_CREATE_VALID_COUNT_UPDATE_TRIGGER);
+        execAndLogSql(db, SQL_CREATE_SEGMENT_TABLE);
+        execAndLogSql(db, SQL_CREATE_SEGMENT_TABLE_TIME_IDX);
+        execAndLogSql(db, SQL_CREATE_SEGMENT_TABLE_ID_IDX);
+        execAndLogSql(db, SQL_CREATE_UPLOAD_STATS_TABLE);
+        execAndLogSql(db, SQL_CREATE_VISIT_TABLE);
     }
 
     @Override
@@ -157,6 +364,157 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
                         LocationEntry.COLUMN_NAME_HAS_ALTITUDE + "= 1," +
                         LocationEntry.COLUMN_NAME_HAS_RADIUS + "= 1"
                 );
+            case 12:
+                alterSql.add("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_NAME_SLOT + INTEGER_TYPE);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_SLOT_IDX);
+                alterSql.add(SQL_CREATE_RING_TABLE);
+            case 13:
+                // batch_start is never null since version 14, so sync predicate can use range scan of sync_idx
+                alterSql.add("UPDATE " + LocationEntry.TABLE_NAME +
+                        " SET " + LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + "= 0" +
+                        " WHERE " + LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + " IS NULL");
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_SYNC_IDX);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_VALID_TIME_IDX);
+            case 14:
+                alterSql.add(SQL_CREATE_COUNTER_TABLE);
+                alterSql.add(SQL_INIT_COUNTER);
+                alterSql.add(SQL_CREATE_VALID_COUNT_INSERT_TRIGGER);
+                alterSql.add(SQL_CREATE_VALID_COUNT_DELETE_TRIGGER);
+                alterSql.add(SQL_CREATE_VALID_COUNT_UPDATE_TRIGGER);
+            case 15:
+                alterSql.add("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_NAME_GEOHASH + INTEGER_TYPE);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_GEOHASH_TIME_IDX);
+            case 16:
+                alterSql.add(SQL_CREATE_SEGMENT_TABLE);
+                alterSql.add(SQL_CREATE_SEGMENT_TABLE_TIME_IDX);
+            case 17:
+                // config table has been recreated with current columns when upgrading from version 10
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_LOCATION_STORE + INTEGER_TYPE + " DEFAULT 0");
+                }
+            case 18:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_SYNC_COMPRESSION + INTEGER_TYPE + " DEFAULT 0");
+                }
+            case 19:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_SIZE + INTEGER_TYPE + " DEFAULT 1000");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_SYNC_BATCH_BYTES + INTEGER_TYPE + " DEFAULT 524288");
+                }
+            case 20:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_PAYLOAD_FORMAT + INTEGER_TYPE + " DEFAULT 0");
+                }
+            case 21:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_HTTP_CONNECT_TIMEOUT + INTEGER_TYPE + " DEFAULT 15000");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_HTTP_READ_TIMEOUT + INTEGER_TYPE + " DEFAULT 30000");
+                }
+            case 22:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_POST_BATCH_WINDOW + INTEGER_TYPE + " DEFAULT 0");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_POST_BATCH_SIZE + INTEGER_TYPE + " DEFAULT 10");
+                }
+            case 23:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_UPLOAD_CONCURRENCY + INTEGER_TYPE + " DEFAULT 2");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_UPLOAD_QUEUE_SIZE + INTEGER_TYPE + " DEFAULT 50");
+                }
+            case 24:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_RETRY_BASE_DELAY + INTEGER_TYPE + " DEFAULT 1000");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_RETRY_MAX_DELAY + INTEGER_TYPE + " DEFAULT 300000");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_CIRCUIT_FAILURE_THRESHOLD + INTEGER_TYPE + " DEFAULT 5");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_CIRCUIT_OPEN_DURATION + INTEGER_TYPE + " DEFAULT 60000");
+                }
+            case 25:
+                // batch_start marking has been replaced by outbox leases
+                alterSql.add("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_NAME_LEASE_ID + INTEGER_TYPE + " DEFAULT 0");
+                alterSql.add("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + INTEGER_TYPE + " DEFAULT 0");
+                alterSql.add("DROP INDEX IF EXISTS sync_idx");
+                alterSql.add("DROP INDEX IF EXISTS batch_id_idx");
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_OUTBOX_IDX);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_LEASE_IDX);
+            case 26:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_SYNC_MIN_BATCH_SIZE + INTEGER_TYPE + " DEFAULT 100");
+                }
+                alterSql.add(SQL_CREATE_UPLOAD_STATS_TABLE);
+            case 27:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_MAX_ACCURACY + INTEGER_TYPE + " DEFAULT 0");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_MAX_SPEED + INTEGER_TYPE + " DEFAULT 0");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_MIN_TIME_DELTA + INTEGER_TYPE + " DEFAULT 0");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_REJECT_MOCK_LOCATIONS + INTEGER_TYPE + " DEFAULT 0");
+                }
+            case 28:
+                alterSql.add("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_NAME_SMOOTHED_LATITUDE + REAL_TYPE);
+                alterSql.add("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_NAME_SMOOTHED_LONGITUDE + REAL_TYPE);
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_SMOOTH_LOCATIONS + INTEGER_TYPE + " DEFAULT 0");
+                }
+            case 29:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_SIMPLIFICATION_TOLERANCE + INTEGER_TYPE + " DEFAULT 0");
+                }
+            case 30:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_VISIT_RADIUS + INTEGER_TYPE + " DEFAULT 0");
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_VISIT_MIN_DURATION + INTEGER_TYPE + " DEFAULT 300000");
+                }
+                alterSql.add(SQL_CREATE_VISIT_TABLE);
+            case 31:
+                if (oldVersion > 10) {
+                    alterSql.add("ALTER TABLE " + ConfigurationEntry.TABLE_NAME +
+                            " ADD COLUMN " + ConfigurationEntry.COLUMN_NAME_REJECT_DUPLICATE_LOCATIONS + INTEGER_TYPE + " DEFAULT 0");
+                }
+            case 32:
+                alterSql.add("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_NAME_TIME_BUCKET + INTEGER_TYPE);
+                alterSql.add("UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_TIME_BUCKET +
+                        " = " + LocationEntry.COLUMN_NAME_TIME + " / " + LocationEntry.TIME_BUCKET_MILLIS);
+                alterSql.add(SQL_CREATE_LOCATION_TABLE_BUCKET_GEOHASH_IDX);
+            case 33:
+                // segment table has been created with current columns when upgrading from version 16 or older
+                if (oldVersion > 16) {
+                    alterSql.add("ALTER TABLE " + SegmentEntry.TABLE_NAME +
+                            " ADD COLUMN " + SegmentEntry.COLUMN_NAME_FIRST_ID + INTEGER_TYPE);
+                    alterSql.add("ALTER TABLE " + SegmentEntry.TABLE_NAME +
+                            " ADD COLUMN " + SegmentEntry.COLUMN_NAME_LAST_ID + INTEGER_TYPE);
+                    alterSql.add("ALTER TABLE " + SegmentEntry.TABLE_NAME +
+                            " ADD COLUMN " + SegmentEntry.COLUMN_NAME_VALID + INTEGER_TYPE + " DEFAULT 0");
+                }
+                alterSql.add(SQL_CREATE_SEGMENT_TABLE_ID_IDX);
 
                 break;
             default:
@@ -167,6 +525,77 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
         for (String sql : alterSql) {
             execAndLogSql(db, sql);
         }
+
+        if (oldVersion < 16) {
+            updateGeohashes(db);
+        }
+        if (oldVersion > 16 && oldVersion < 34) {
+            updateSegmentIds(db);
+        }
+    }
+
+    /**
+     * Compute geohash of locations stored before geohash column has been added
+     */
+    private void updateGeohashes(SQLiteDatabase db) {
+        String[] columns = { LocationEntry._ID, LocationEntry.COLUMN_NAME_LATITUDE, LocationEntry.COLUMN_NAME_LONGITUDE };
+        String whereClause = LocationEntry.COLUMN_NAME_GEOHASH + " IS NULL";
+        Cursor cursor = null;
+        SQLiteStatement stmt = null;
+        try {
+            stmt = db.compileStatement("UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                    LocationEntry.COLUMN_NAME_GEOHASH + " = ? WHERE " + LocationEntry._ID + " = ?");
+            cursor = db.query(LocationEntry.TABLE_NAME, columns, whereClause, null, null, null, null);
+            while (cursor.moveToNext()) {
+                stmt.bindLong(1, GeoHash.encode(cursor.getDouble(1), cursor.getDouble(2)));
+                stmt.bindLong(2, cursor.getLong(0));
+                stmt.executeUpdateDelete();
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Error updating geohashes: " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (stmt != null) {
+                stmt.close();
+            }
+        }
+    }
+
+    /**
+     * Fill location id range of segments archived before id columns have been added
+     */
+    private void updateSegmentIds(SQLiteDatabase db) {
+        String[] columns = { SegmentEntry._ID, SegmentEntry.COLUMN_NAME_DATA };
+        Cursor cursor = null;
+        SQLiteStatement stmt = null;
+        try {
+            stmt = db.compileStatement("UPDATE " + SegmentEntry.TABLE_NAME + " SET " +
+                    SegmentEntry.COLUMN_NAME_FIRST_ID + " = ?, " + SegmentEntry.COLUMN_NAME_LAST_ID + " = ?" +
+                    " WHERE " + SegmentEntry._ID + " = ?");
+            cursor = db.query(SegmentEntry.TABLE_NAME, columns, null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                long firstId = Long.MAX_VALUE, lastId = 0;
+                for (BackgroundLocation location : LocationSegmentCodec.decode(cursor.getBlob(1))) {
+                    firstId = Math.min(firstId, location.getLocationId());
+                    lastId = Math.max(lastId, location.getLocationId());
+                }
+                stmt.bindLong(1, firstId);
+                stmt.bindLong(2, lastId);
+                stmt.bindLong(3, cursor.getLong(0));
+                stmt.executeUpdateDelete();
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Error updating segment ids: " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (stmt != null) {
+                stmt.close();
+            }
+        }
     }
 
     @Override
@@ -174,6 +603,11 @@ public class SQLiteOpenHelper extends android.database.sqlite.SQLiteOpenHelper {
         // we don't support db downgrade yet, instead we drop table and start over
         execAndLogSql(db, SQL_DROP_LOCATION_TABLE);
         execAndLogSql(db, SQL_DROP_CONFIG_TABLE);
+        execAndLogSql(db, SQL_DROP_RING_TABLE);
+        execAndLogSql(db, SQL_DROP_COUNTER_TABLE);
+        execAndLogSql(db, SQL_DROP_SEGMENT_TABLE);
+        execAndLogSql(db, SQL_DROP_UPLOAD_STATS_TABLE);
+        execAndLogSql(db, SQL_DROP_VISIT_TABLE);
         onCreate(db);
     }
 
@@ -0,0 +1,108 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.marianhello.bgloc.data.UploadStats;
+import com.marianhello.bgloc.data.UploadStatsDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.UploadStatsEntry;
+import com.marianhello.utils.SQLiteStatementCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+public class SQLiteUploadStatsDAO implements UploadStatsDAO {
+  private static final String[] COLUMNS = {
+    UploadStatsEntry.COLUMN_NAME_NETWORK_TYPE,
+    UploadStatsEntry.COLUMN_NAME_THROUGHPUT,
+    UploadStatsEntry.COLUMN_NAME_LATENCY,
+    UploadStatsEntry.COLUMN_NAME_SUCCESS_RATE,
+    UploadStatsEntry.COLUMN_NAME_UPLOADS,
+    UploadStatsEntry.COLUMN_NAME_FAILURES,
+    UploadStatsEntry.COLUMN_NAME_BATCH_SIZE,
+    UploadStatsEntry.COLUMN_NAME_SYNC_THRESHOLD,
+    UploadStatsEntry.COLUMN_NAME_UPDATED_AT
+  };
+
+  // network_type is unique, so replace is keyed upsert of network type stats
+  private static final String SQL_PERSIST_UPLOAD_STATS =
+      "INSERT OR REPLACE INTO " + UploadStatsEntry.TABLE_NAME + " (" + TextUtils.join(",", COLUMNS) + ")" +
+      " VALUES (?,?,?,?,?,?,?,?,?)";
+
+  private SQLiteDatabase db;
+
+  public SQLiteUploadStatsDAO(Context context) {
+    SQLiteOpenHelper helper = SQLiteOpenHelper.getHelper(context);
+    this.db = helper.getWritableDatabase();
+  }
+
+  public SQLiteUploadStatsDAO(SQLiteDatabase db) {
+    this.db = db;
+  }
+
+  /**
+   * Get stats of given network type
+   *
+   * @param networkType
+   * @return stats or null if uploads over network type have not been measured yet
+   */
+  public UploadStats getUploadStats(String networkType) {
+    Collection<UploadStats> stats = getUploadStats(UploadStatsEntry.COLUMN_NAME_NETWORK_TYPE + " = ?", new String[] { networkType });
+    return stats.isEmpty() ? null : stats.iterator().next();
+  }
+
+  public Collection<UploadStats> getAllUploadStats() {
+    return getUploadStats(null, null);
+  }
+
+  public void persistUploadStats(UploadStats stats) {
+    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_PERSIST_UPLOAD_STATS);
+    stmt.clearBindings();
+    stmt.bindString(1, stats.getNetworkType());
+    stmt.bindDouble(2, stats.getThroughput());
+    stmt.bindDouble(3, stats.getLatency());
+    stmt.bindDouble(4, stats.getSuccessRate());
+    stmt.bindLong(5, stats.getUploads());
+    stmt.bindLong(6, stats.getFailures());
+    stmt.bindLong(7, stats.getBatchSize());
+    stmt.bindLong(8, stats.getSyncThreshold());
+    stmt.bindLong(9, stats.getUpdatedAt());
+    stmt.executeInsert();
+  }
+
+  private Collection<UploadStats> getUploadStats(String whereClause, String[] whereArgs) {
+    Collection<UploadStats> stats = new ArrayList<UploadStats>();
+    String orderBy = UploadStatsEntry.COLUMN_NAME_NETWORK_TYPE + " ASC";
+    Cursor cursor = null;
+
+    try {
+      cursor = db.query(UploadStatsEntry.TABLE_NAME, COLUMNS, whereClause, whereArgs, null, null, orderBy);
+      while (cursor.moveToNext()) {
+        stats.add(hydrate(cursor));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    return stats;
+  }
+
+  private UploadStats hydrate(Cursor c) {
+    UploadStats stats = new UploadStats(c.getString(c.getColumnIndex(UploadStatsEntry.COLUMN_NAME_NETWORK_TYPE)));
+    stats.setThroughput(c.getDouble(c.getColumnIndex(UploadStatsEntry.COLUMN_NAME_THROUGHPUT)));
+    stats.setLatency(c.getDouble(c.getColumnIndex(UploadStatsEntry.COLUMN_NAME_LATENCY)));
+    stats.setSuccessRate(c.getDouble(c.getColumnIndex(UploadStatsEntry.COLUMN_NAME_SUCCESS_RATE)));
+    stats.setUploads(c.getLong(c.getColumnIndex(UploadStatsEntry.COLUMN_NAME_UPLOADS)));
+    stats.setFailures(c.getLong(c.getColumnIndex(UploadStatsEntry.COLUMN_NAME_FAILURES)));
+    stats.setBatchSize(c.getInt(c.getColumnIndex(UploadStatsEntry.COLUMN_NAME_BATCH_SIZE)));
+    stats.setSyncThreshold(c.getInt(c.getColumnIndex(UploadStatsEntry.COLUMN_NAME_SYNC_THRESHOLD)));
+    stats.setUpdatedAt(c.getLong(c.getColumnIndex(UploadStatsEntry.COLUMN_NAME_UPDATED_AT)));
+
+    return stats;
+  }
+}
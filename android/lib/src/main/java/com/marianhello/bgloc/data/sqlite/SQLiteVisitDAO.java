@@ -0,0 +1,93 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.marianhello.bgloc.data.Visit;
+import com.marianhello.bgloc.data.VisitDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.VisitEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+public class SQLiteVisitDAO implements VisitDAO {
+  private static final String[] COLUMNS = {
+    VisitEntry._ID,
+    VisitEntry.COLUMN_NAME_ARRIVAL,
+    VisitEntry.COLUMN_NAME_DEPARTURE,
+    VisitEntry.COLUMN_NAME_LATITUDE,
+    VisitEntry.COLUMN_NAME_LONGITUDE,
+    VisitEntry.COLUMN_NAME_POINT_COUNT
+  };
+
+  private SQLiteDatabase db;
+
+  public SQLiteVisitDAO(Context context) {
+    SQLiteOpenHelper helper = SQLiteOpenHelper.getHelper(context);
+    this.db = helper.getWritableDatabase();
+  }
+
+  public SQLiteVisitDAO(SQLiteDatabase db) {
+    this.db = db;
+  }
+
+  /**
+   * Get all visits ordered by arrival
+   */
+  public Collection<Visit> getAllVisits() {
+    Collection<Visit> visits = new ArrayList<Visit>();
+    String orderBy = VisitEntry.COLUMN_NAME_ARRIVAL + " ASC";
+    Cursor cursor = null;
+
+    try {
+      cursor = db.query(VisitEntry.TABLE_NAME, COLUMNS, null, null, null, null, orderBy);
+      while (cursor.moveToNext()) {
+        visits.add(hydrate(cursor));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    return visits;
+  }
+
+  /**
+   * Persist visit
+   *
+   * @param visit
+   * @return visitId
+   */
+  public Long persistVisit(Visit visit) {
+    ContentValues values = new ContentValues();
+    values.put(VisitEntry.COLUMN_NAME_ARRIVAL, visit.getArrival());
+    values.put(VisitEntry.COLUMN_NAME_DEPARTURE, visit.getDeparture());
+    values.put(VisitEntry.COLUMN_NAME_LATITUDE, visit.getLatitude());
+    values.put(VisitEntry.COLUMN_NAME_LONGITUDE, visit.getLongitude());
+    values.put(VisitEntry.COLUMN_NAME_POINT_COUNT, visit.getPointCount());
+
+    long rowId = db.insertOrThrow(VisitEntry.TABLE_NAME, null, values);
+    visit.setVisitId(rowId);
+
+    return rowId;
+  }
+
+  public void deleteAllVisits() {
+    db.delete(VisitEntry.TABLE_NAME, null, null);
+  }
+
+  private Visit hydrate(Cursor c) {
+    Visit visit = new Visit();
+    visit.setVisitId(c.getLong(c.getColumnIndex(VisitEntry._ID)));
+    visit.setArrival(c.getLong(c.getColumnIndex(VisitEntry.COLUMN_NAME_ARRIVAL)));
+    visit.setDeparture(c.getLong(c.getColumnIndex(VisitEntry.COLUMN_NAME_DEPARTURE)));
+    visit.setLatitude(c.getDouble(c.getColumnIndex(VisitEntry.COLUMN_NAME_LATITUDE)));
+    visit.setLongitude(c.getDouble(c.getColumnIndex(VisitEntry.COLUMN_NAME_LONGITUDE)));
+    visit.setPointCount(c.getInt(c.getColumnIndex(VisitEntry.COLUMN_NAME_POINT_COUNT)));
+
+    return visit;
+  }
+}
@@ -0,0 +1,26 @@
+package com.marianhello.bgloc.filter;
+
+import android.location.Location;
+
+/**
+ * Drops locations less accurate than maxAccuracy (eg. coarse cell fixes).
+ * Locations without accuracy are accepted.
+ */
+public class AccuracyFilter implements LocationFilter {
+    private final float maxAccuracy;
+
+    /**
+     * @param maxAccuracy max accuracy radius in meters
+     */
+    public AccuracyFilter(float maxAccuracy) {
+        this.maxAccuracy = maxAccuracy;
+    }
+
+    public String getName() {
+        return "accuracy";
+    }
+
+    public boolean accept(Location location, Location lastAccepted) {
+        return !location.hasAccuracy() || location.getAccuracy() <= maxAccuracy;
+    }
+}
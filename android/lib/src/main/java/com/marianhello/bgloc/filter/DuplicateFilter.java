@@ -0,0 +1,41 @@
+package com.marianhello.bgloc.filter;
+
+import android.location.Location;
+
+/**
+ * Drops duplicates of last accepted location, which are delivered when several providers
+ * are requested at once (eg. during aggressive acquisition).
+ *
+ * Location is duplicate when it has same time as last accepted location
+ * or same position and was recorded within window.
+ */
+public class DuplicateFilter implements LocationFilter {
+    public static final long DEFAULT_WINDOW = 1000; //milliseconds
+
+    private final long window;
+
+    public DuplicateFilter() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public DuplicateFilter(long window) {
+        this.window = window;
+    }
+
+    public String getName() {
+        return "duplicate";
+    }
+
+    public boolean accept(Location location, Location lastAccepted) {
+        if (lastAccepted == null) {
+            return true;
+        }
+        if (location.getTime() == lastAccepted.getTime()) {
+            return false;
+        }
+
+        return location.getLatitude() != lastAccepted.getLatitude()
+                || location.getLongitude() != lastAccepted.getLongitude()
+                || Math.abs(location.getTime() - lastAccepted.getTime()) >= window;
+    }
+}
@@ -0,0 +1,146 @@
+package com.marianhello.bgloc.filter;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+/**
+ * Constant velocity Kalman filter smoothing jitter of locations
+ *
+ * Locations are projected into local plane (meters east and north of origin,
+ * equirectangular projection around first location). Both axes are filtered
+ * independently with state of position and velocity. Accuracy of location is used
+ * as standard deviation of measurement noise, unknown velocity changes are modeled
+ * as white noise acceleration. Since noise is the same for both axes, they share
+ * single covariance matrix.
+ *
+ * Smoothed coordinates are set on location, raw coordinates are kept.
+ * Filter is restarted after gap longer than maxGap or when location is too far
+ * from origin for projection to be precise.
+ *
+ * Smoother does not allocate and is not thread safe.
+ */
+public class KalmanSmoother {
+    public static final double DEFAULT_ACCELERATION_NOISE = 1.0; // m/s^2
+    public static final long DEFAULT_MAX_GAP = 1000 * 60 * 5; //milliseconds
+
+    private static final double EARTH_RADIUS = 6371009; // meters
+    private static final double MAX_DISTANCE_FROM_ORIGIN = 50000; // meters
+    private static final double DEFAULT_ACCURACY = 30; // meters
+    private static final double INITIAL_VELOCITY_VARIANCE = 10 * 10; // (m/s)^2
+
+    private final double accelerationVariance;
+    private final long maxGap;
+
+    private boolean initialized = false;
+    private long time;
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerDegreeLongitude;
+
+    // state of east (x) and north (y) axis
+    private double x;
+    private double vx;
+    private double y;
+    private double vy;
+
+    // covariance of position and velocity, shared by both axes
+    private double p00;
+    private double p01;
+    private double p11;
+
+    public KalmanSmoother() {
+        this(DEFAULT_ACCELERATION_NOISE, DEFAULT_MAX_GAP);
+    }
+
+    /**
+     * @param accelerationNoise standard deviation of acceleration in m/s^2
+     * @param maxGap max time in milliseconds between locations to keep filter state
+     */
+    public KalmanSmoother(double accelerationNoise, long maxGap) {
+        this.accelerationVariance = accelerationNoise * accelerationNoise;
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Filter location and set its smoothed coordinates
+     * @param location
+     */
+    public void smooth(BackgroundLocation location) {
+        double accuracy = location.hasAccuracy() && location.getAccuracy() > 0
+                ? location.getAccuracy() : DEFAULT_ACCURACY;
+        double variance = accuracy * accuracy;
+        long dt = location.getTime() - time;
+
+        if (!initialized || dt > maxGap || dt < 0) {
+            reset(location, variance);
+        } else {
+            double zx = toX(location.getLongitude());
+            double zy = toY(location.getLatitude());
+            if (Math.abs(zx) > MAX_DISTANCE_FROM_ORIGIN || Math.abs(zy) > MAX_DISTANCE_FROM_ORIGIN) {
+                reset(location, variance);
+            } else {
+                predict(dt / 1000d);
+                update(zx, zy, variance);
+                time = location.getTime();
+            }
+        }
+
+        location.setSmoothedLatitude(originLatitude + Math.toDegrees(y / EARTH_RADIUS));
+        location.setSmoothedLongitude(originLongitude + x / metersPerDegreeLongitude);
+    }
+
+    /**
+     * Forget filter state, next location starts new track
+     */
+    public void reset() {
+        initialized = false;
+    }
+
+    private void reset(BackgroundLocation location, double variance) {
+        originLatitude = location.getLatitude();
+        originLongitude = location.getLongitude();
+        metersPerDegreeLongitude = Math.toRadians(EARTH_RADIUS) * Math.max(Math.cos(Math.toRadians(originLatitude)), 1e-6);
+        time = location.getTime();
+        x = 0;
+        y = 0;
+        vx = 0;
+        vy = 0;
+        p00 = variance;
+        p01 = 0;
+        p11 = INITIAL_VELOCITY_VARIANCE;
+        initialized = true;
+    }
+
+    private void predict(double dt) {
+        double dt2 = dt * dt;
+        x += vx * dt;
+        y += vy * dt;
+        // P = F * P * F' + Q, where Q is white noise acceleration
+        p00 += 2 * dt * p01 + dt2 * p11 + accelerationVariance * dt2 * dt2 / 4;
+        p01 += dt * p11 + accelerationVariance * dt2 * dt / 2;
+        p11 += accelerationVariance * dt2;
+    }
+
+    private void update(double zx, double zy, double variance) {
+        double s = p00 + variance;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        double rx = zx - x;
+        double ry = zy - y;
+        x += k0 * rx;
+        vx += k1 * rx;
+        y += k0 * ry;
+        vy += k1 * ry;
+        // P = (I - K * H) * P
+        p11 -= k1 * p01;
+        p01 -= k0 * p01;
+        p00 -= k0 * p00;
+    }
+
+    private double toX(double longitude) {
+        return (longitude - originLongitude) * metersPerDegreeLongitude;
+    }
+
+    private double toY(double latitude) {
+        return Math.toRadians(latitude - originLatitude) * EARTH_RADIUS;
+    }
+}
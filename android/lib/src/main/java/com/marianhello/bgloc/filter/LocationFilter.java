@@ -0,0 +1,23 @@
+package com.marianhello.bgloc.filter;
+
+import android.location.Location;
+
+/**
+ * Single stage of location filter chain
+ *
+ * Filter is called for every location recorded by provider, so it should not allocate.
+ * State shared by filters (last accepted location) is kept by chain.
+ */
+public interface LocationFilter {
+    /**
+     * Returns name under which locations dropped by filter are reported
+     */
+    String getName();
+
+    /**
+     * @param location location recorded by provider
+     * @param lastAccepted last location accepted by chain or null
+     * @return true if location passes filter
+     */
+    boolean accept(Location location, Location lastAccepted);
+}
@@ -0,0 +1,131 @@
+package com.marianhello.bgloc.filter;
+
+import android.location.Location;
+
+import com.marianhello.logging.LoggerManager;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chain of filters applied to locations before they are handed over to LocationService,
+ * so junk locations are neither persisted nor uploaded.
+ *
+ * Location is accepted only when it passes all filters, filters are applied in order
+ * they have been added and first filter rejecting location stops the chain.
+ * Every filter has own counter of dropped locations.
+ *
+ * Chain starts with built-in filters enabled by config, followed by custom filters.
+ * Built-in filters are replaced when service is reconfigured, custom filters are kept.
+ *
+ * Accepting location does not allocate, chain only keeps reference to last accepted location.
+ */
+public class LocationFilterChain {
+    private LocationFilter[] filters = new LocationFilter[0];
+    private long[] dropped = new long[0];
+    private int builtInCount = 0;
+    private long accepted = 0;
+    private Location lastAccepted;
+
+    private org.slf4j.Logger log;
+
+    /**
+     * Snapshot of chain counters
+     */
+    public static class Stats {
+        private long accepted;
+        private Map<String, Long> dropped = new LinkedHashMap<String, Long>();
+
+        /**
+         * Returns number of accepted locations
+         */
+        public long getAccepted() {
+            return accepted;
+        }
+
+        /**
+         * Returns number of dropped locations by filter name
+         */
+        public Map<String, Long> getDropped() {
+            return dropped;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder()
+                    .append("Stats[accepted=").append(accepted)
+                    .append(" dropped=").append(dropped)
+                    .append("]")
+                    .toString();
+        }
+    }
+
+    public LocationFilterChain() {
+        log = LoggerManager.getLogger(LocationFilterChain.class);
+    }
+
+    /**
+     * Append custom filter to end of chain
+     * @param filter
+     */
+    public synchronized LocationFilterChain add(LocationFilter filter) {
+        filters = Arrays.copyOf(filters, filters.length + 1);
+        filters[filters.length - 1] = filter;
+        dropped = Arrays.copyOf(dropped, dropped.length + 1);
+
+        return this;
+    }
+
+    /**
+     * Replace built-in filters, custom filters and their counters are kept
+     *
+     * Last accepted location is forgotten, so stateful filters start over.
+     *
+     * @param builtIns new built-in filters
+     */
+    public synchronized void setBuiltInFilters(List<LocationFilter> builtIns) {
+        int customCount = filters.length - builtInCount;
+        LocationFilter[] newFilters = new LocationFilter[builtIns.size() + customCount];
+        long[] newDropped = new long[newFilters.length];
+        for (int i = 0; i < builtIns.size(); i++) {
+            newFilters[i] = builtIns.get(i);
+        }
+        System.arraycopy(filters, builtInCount, newFilters, builtIns.size(), customCount);
+        System.arraycopy(dropped, builtInCount, newDropped, builtIns.size(), customCount);
+
+        filters = newFilters;
+        dropped = newDropped;
+        builtInCount = builtIns.size();
+        lastAccepted = null;
+    }
+
+    /**
+     * @param location
+     * @return true if location has passed all filters
+     */
+    public synchronized boolean accept(Location location) {
+        for (int i = 0; i < filters.length; i++) {
+            if (!filters[i].accept(location, lastAccepted)) {
+                dropped[i]++;
+                log.debug("Location dropped by filter: {}", filters[i].getName());
+                return false;
+            }
+        }
+        accepted++;
+        lastAccepted = location;
+
+        return true;
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.accepted = accepted;
+        for (int i = 0; i < filters.length; i++) {
+            stats.dropped.put(filters[i].getName(), dropped[i]);
+        }
+
+        return stats;
+    }
+}
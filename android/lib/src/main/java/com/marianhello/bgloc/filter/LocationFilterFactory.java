@@ -0,0 +1,49 @@
+package com.marianhello.bgloc.filter;
+
+import com.marianhello.bgloc.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LocationFilterFactory {
+    /**
+     * Create chain of built-in filters enabled by config
+     *
+     * @param config
+     */
+    public static LocationFilterChain createFilterChain(Config config) {
+        LocationFilterChain chain = new LocationFilterChain();
+        chain.setBuiltInFilters(createFilters(config));
+
+        return chain;
+    }
+
+    /**
+     * Create built-in filters enabled by config
+     *
+     * Cheap stateless filters go first, so they reject junk before
+     * stateful filters compare location with last accepted one.
+     *
+     * @param config
+     */
+    public static List<LocationFilter> createFilters(Config config) {
+        List<LocationFilter> filters = new ArrayList<LocationFilter>();
+        if (config.getRejectMockLocations()) {
+            filters.add(new MockLocationFilter());
+        }
+        if (config.getMaxAccuracy() > 0) {
+            filters.add(new AccuracyFilter(config.getMaxAccuracy()));
+        }
+        if (config.getRejectDuplicateLocations()) {
+            filters.add(new DuplicateFilter());
+        }
+        if (config.getMinTimeDelta() > 0) {
+            filters.add(new TimeDeltaFilter(config.getMinTimeDelta()));
+        }
+        if (config.getMaxSpeed() > 0) {
+            filters.add(new SpeedFilter(config.getMaxSpeed()));
+        }
+
+        return filters;
+    }
+}
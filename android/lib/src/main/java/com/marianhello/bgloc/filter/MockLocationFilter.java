@@ -0,0 +1,21 @@
+package com.marianhello.bgloc.filter;
+
+import android.location.Location;
+import android.os.Build;
+
+/**
+ * Drops locations from mock providers.
+ * Mock locations cannot be detected prior Android 4.3, so all locations are accepted there.
+ */
+public class MockLocationFilter implements LocationFilter {
+    public String getName() {
+        return "mock";
+    }
+
+    public boolean accept(Location location, Location lastAccepted) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return !location.isFromMockProvider();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,43 @@
+package com.marianhello.bgloc.filter;
+
+import android.location.Location;
+
+/**
+ * Drops locations implying movement faster than maxSpeed since last accepted location
+ * (teleport jumps).
+ *
+ * Distance is reduced by accuracy of location, so imprecise but plausible fix
+ * is not mistaken for jump.
+ */
+public class SpeedFilter implements LocationFilter {
+    private final float maxSpeed;
+    private final float[] distance = new float[1];
+
+    /**
+     * @param maxSpeed max speed in meters per second
+     */
+    public SpeedFilter(float maxSpeed) {
+        this.maxSpeed = maxSpeed;
+    }
+
+    public String getName() {
+        return "speed";
+    }
+
+    public boolean accept(Location location, Location lastAccepted) {
+        if (lastAccepted == null) {
+            return true;
+        }
+        long timeDelta = location.getTime() - lastAccepted.getTime();
+        if (timeDelta <= 0) {
+            // ordering of fixes is up to time delta and duplicate filters
+            return true;
+        }
+
+        Location.distanceBetween(lastAccepted.getLatitude(), lastAccepted.getLongitude(),
+                location.getLatitude(), location.getLongitude(), distance);
+        float meters = Math.max(0, distance[0] - (location.hasAccuracy() ? location.getAccuracy() : 0));
+
+        return meters * 1000 / timeDelta <= maxSpeed;
+    }
+}
@@ -0,0 +1,136 @@
+package com.marianhello.bgloc.filter;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.Visit;
+
+/**
+ * Incremental stay point detection
+ *
+ * Consecutive locations within radius (meters) from centroid of current cluster
+ * are clustered together. Centroid is running mean of clustered locations.
+ * When location falls out of radius, cluster is closed and new one is started
+ * at that location. Closed cluster lasting at least minDuration (time between
+ * its first and last location) is emitted as visit, shorter clusters are dropped.
+ *
+ * Location outside of radius, which is less accurate than radius itself,
+ * does not close cluster, since it cannot tell if device has really left.
+ *
+ * Visit is emitted on departure (or when flushed), so flush should be called
+ * when tracking ends. Detector keeps running sums only and does not allocate
+ * except of emitted visits.
+ */
+public class StayPointDetector {
+    private static final double EARTH_RADIUS = 6371009; // meters
+
+    private final double radius;
+    private final long minDuration;
+
+    private int count = 0;
+    private double sumLatitude;
+    private double sumLongitude;
+    private long arrival;
+    private long departure;
+
+    private long received = 0;
+    private long emitted = 0;
+
+    /**
+     * @param radius max distance in meters of location from centroid of visit
+     * @param minDuration min dwell time in milliseconds for cluster to become visit
+     */
+    public StayPointDetector(double radius, long minDuration) {
+        this.radius = radius;
+        this.minDuration = minDuration;
+    }
+
+    /**
+     * Offer new location
+     *
+     * @param location
+     * @return visit which device has just left or null when there is none
+     */
+    public synchronized Visit offer(BackgroundLocation location) {
+        received++;
+        if (count > 0 && location.getTime() < departure) {
+            // out of order location
+            return null;
+        }
+
+        if (count == 0 || isWithinRadius(location)) {
+            add(location);
+            return null;
+        }
+
+        if (location.hasAccuracy() && location.getAccuracy() > radius) {
+            return null;
+        }
+
+        Visit visit = close();
+        add(location);
+
+        return visit;
+    }
+
+    /**
+     * End tracking
+     *
+     * @return pending visit if it has lasted at least minDuration or null
+     */
+    public synchronized Visit flush() {
+        return close();
+    }
+
+    /**
+     * Returns number of offered locations
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    /**
+     * Returns number of emitted visits
+     */
+    public synchronized long getEmitted() {
+        return emitted;
+    }
+
+    private void add(BackgroundLocation location) {
+        if (count == 0) {
+            sumLatitude = 0;
+            sumLongitude = 0;
+            arrival = location.getTime();
+        }
+        count++;
+        sumLatitude += location.getLatitude();
+        sumLongitude += location.getLongitude();
+        departure = location.getTime();
+    }
+
+    private Visit close() {
+        Visit visit = null;
+        if (count > 0 && departure - arrival >= minDuration) {
+            visit = new Visit();
+            visit.setArrival(arrival);
+            visit.setDeparture(departure);
+            visit.setLatitude(sumLatitude / count);
+            visit.setLongitude(sumLongitude / count);
+            visit.setPointCount(count);
+            emitted++;
+        }
+        count = 0;
+
+        return visit;
+    }
+
+    /**
+     * Check if location is within radius from centroid (equirectangular approximation)
+     */
+    private boolean isWithinRadius(BackgroundLocation location) {
+        double latitude = sumLatitude / count;
+        double longitude = sumLongitude / count;
+        double x = Math.toRadians(location.getLongitude() - longitude) * Math.cos(Math.toRadians(latitude));
+        double y = Math.toRadians(location.getLatitude() - latitude);
+
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS <= radius;
+    }
+}
@@ -0,0 +1,26 @@
+package com.marianhello.bgloc.filter;
+
+import android.location.Location;
+
+/**
+ * Drops locations recorded sooner than minTimeDelta after last accepted location.
+ * Location older than last accepted one is dropped as well.
+ */
+public class TimeDeltaFilter implements LocationFilter {
+    private final long minTimeDelta;
+
+    /**
+     * @param minTimeDelta min time in milliseconds between locations
+     */
+    public TimeDeltaFilter(long minTimeDelta) {
+        this.minTimeDelta = minTimeDelta;
+    }
+
+    public String getName() {
+        return "timeDelta";
+    }
+
+    public boolean accept(Location location, Location lastAccepted) {
+        return lastAccepted == null || location.getTime() - lastAccepted.getTime() >= minTimeDelta;
+    }
+}
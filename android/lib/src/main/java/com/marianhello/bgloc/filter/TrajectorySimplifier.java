@@ -0,0 +1,155 @@
+package com.marianhello.bgloc.filter;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+/**
+ * Online trajectory simplification with guaranteed error (opening window algorithm)
+ *
+ * Last emitted location is anchor of window. New location is held back as long as all
+ * locations in window are within tolerance (perpendicular distance in meters) from segment
+ * between anchor and new location. Once some location would fall out of that corridor,
+ * previously held location is emitted and becomes new anchor. Therefore every dropped
+ * location is within tolerance from segment between emitted locations around it.
+ *
+ * Window is bounded by maxWindowSize, when it is full held location is emitted as well.
+ * Held location is emitted one location later (or when flushed), so flush should be called
+ * when trajectory ends (eg. device becomes stationary).
+ *
+ * Locations in window are kept in primitive arrays in meters relative to anchor
+ * (equirectangular projection), so simplification does not allocate.
+ */
+public class TrajectorySimplifier {
+    public static final int DEFAULT_MAX_WINDOW_SIZE = 100;
+
+    private static final double EARTH_RADIUS = 6371009; // meters
+
+    private final double tolerance;
+    private final double[] xs;
+    private final double[] ys;
+
+    private BackgroundLocation anchor;
+    private BackgroundLocation held;
+    private double metersPerDegreeLongitude;
+    private int size = 0;
+
+    private long received = 0;
+    private long emitted = 0;
+
+    public TrajectorySimplifier(double tolerance) {
+        this(tolerance, DEFAULT_MAX_WINDOW_SIZE);
+    }
+
+    /**
+     * @param tolerance max perpendicular distance in meters of dropped location from simplified trajectory
+     * @param maxWindowSize max number of locations held back in window
+     */
+    public TrajectorySimplifier(double tolerance, int maxWindowSize) {
+        this.tolerance = tolerance;
+        this.xs = new double[Math.max(1, maxWindowSize)];
+        this.ys = new double[Math.max(1, maxWindowSize)];
+    }
+
+    /**
+     * Offer new location
+     *
+     * @param location
+     * @return location to be emitted or null when there is none
+     */
+    public synchronized BackgroundLocation offer(BackgroundLocation location) {
+        received++;
+        if (anchor == null) {
+            setAnchor(location);
+            return emit(location);
+        }
+
+        double x = toX(location);
+        double y = toY(location);
+        if (size < xs.length && isWithinCorridor(x, y)) {
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+            held = location;
+            return null;
+        }
+
+        BackgroundLocation result = held;
+        if (result == null) {
+            // nothing has been held back since anchor
+            setAnchor(location);
+            return emit(location);
+        }
+
+        setAnchor(result);
+        xs[0] = toX(location);
+        ys[0] = toY(location);
+        size = 1;
+        held = location;
+
+        return emit(result);
+    }
+
+    /**
+     * End trajectory
+     *
+     * @return held location or null when there is none
+     */
+    public synchronized BackgroundLocation flush() {
+        BackgroundLocation result = held;
+        anchor = null;
+        held = null;
+        size = 0;
+
+        return result != null ? emit(result) : null;
+    }
+
+    /**
+     * Returns number of offered locations
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    /**
+     * Returns number of emitted locations
+     */
+    public synchronized long getEmitted() {
+        return emitted;
+    }
+
+    private BackgroundLocation emit(BackgroundLocation location) {
+        emitted++;
+        return location;
+    }
+
+    private void setAnchor(BackgroundLocation location) {
+        anchor = location;
+        held = null;
+        size = 0;
+        metersPerDegreeLongitude = Math.toRadians(EARTH_RADIUS) * Math.cos(Math.toRadians(location.getLatitude()));
+    }
+
+    /**
+     * Check if all locations in window are within tolerance from segment anchor - (bx, by)
+     */
+    private boolean isWithinCorridor(double bx, double by) {
+        double length2 = bx * bx + by * by;
+        for (int i = 0; i < size; i++) {
+            double t = length2 > 0 ? (xs[i] * bx + ys[i] * by) / length2 : 0;
+            t = Math.max(0, Math.min(1, t));
+            double dx = xs[i] - t * bx;
+            double dy = ys[i] - t * by;
+            if (dx * dx + dy * dy > tolerance * tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double toX(BackgroundLocation location) {
+        return (location.getLongitude() - anchor.getLongitude()) * metersPerDegreeLongitude;
+    }
+
+    private double toY(BackgroundLocation location) {
+        return Math.toRadians(location.getLatitude() - anchor.getLatitude()) * EARTH_RADIUS;
+    }
+}
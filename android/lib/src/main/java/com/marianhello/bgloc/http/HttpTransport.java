@@ -0,0 +1,73 @@
+package com.marianhello.bgloc.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Transport used by HttpPostService to execute requests
+ *
+ * Implementation is expected to keep idle connections alive and reuse them
+ * for subsequent requests to the same host.
+ */
+public interface HttpTransport {
+    /**
+     * Request body
+     */
+    interface Body {
+        /**
+         * Returns length of body in bytes or -1 if not known in advance
+         */
+        long getContentLength();
+
+        void writeTo(OutputStream os) throws IOException;
+    }
+
+    /**
+     * Set connect and read timeouts in milliseconds (0 means no timeout)
+     */
+    void setTimeouts(int connectTimeout, int readTimeout);
+
+    /**
+     * Execute POST request
+     *
+     * @param url
+     * @param contentType
+     * @param headers additional request headers
+     * @param body
+     * @return response with status code and timing of request
+     * @throws IOException
+     */
+    Response post(String url, String contentType, Map<String, String> headers, Body body) throws IOException;
+
+    class Response {
+        private final int responseCode;
+        private final String retryAfter;
+        private final RequestTiming timing;
+
+        public Response(int responseCode, RequestTiming timing) {
+            this(responseCode, null, timing);
+        }
+
+        public Response(int responseCode, String retryAfter, RequestTiming timing) {
+            this.responseCode = responseCode;
+            this.retryAfter = retryAfter;
+            this.timing = timing;
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * Returns raw value of Retry-After response header or null
+         */
+        public String getRetryAfter() {
+            return retryAfter;
+        }
+
+        public RequestTiming getTiming() {
+            return timing;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.marianhello.bgloc.http;
+
+/**
+ * Timing of single request in milliseconds
+ *
+ * Phase is -1 when transport cannot measure it.
+ */
+public class RequestTiming {
+    private long dnsMillis = -1;
+    private long connectMillis = -1;
+    private long ttfbMillis = -1;
+    private long totalMillis = -1;
+
+    /**
+     * Returns duration of host name resolution
+     */
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    public void setDnsMillis(long dnsMillis) {
+        this.dnsMillis = dnsMillis;
+    }
+
+    /**
+     * Returns duration of connection establishment (including TLS handshake),
+     * close to zero when pooled connection has been reused
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public void setConnectMillis(long connectMillis) {
+        this.connectMillis = connectMillis;
+    }
+
+    /**
+     * Returns time from request body has been sent until response headers arrived
+     */
+    public long getTtfbMillis() {
+        return ttfbMillis;
+    }
+
+    public void setTtfbMillis(long ttfbMillis) {
+        this.ttfbMillis = ttfbMillis;
+    }
+
+    /**
+     * Returns duration of whole request
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public void setTotalMillis(long totalMillis) {
+        this.totalMillis = totalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("RequestTiming[dns=").append(dnsMillis)
+                .append(" connect=").append(connectMillis)
+                .append(" ttfb=").append(ttfbMillis)
+                .append(" total=").append(totalMillis)
+                .append("]")
+                .toString();
+    }
+}
@@ -0,0 +1,260 @@
+package com.marianhello.bgloc.http;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Retry policy of uploads with per endpoint circuit breaker
+ *
+ * After every failed request next attempt is postponed by exponential backoff with full jitter
+ * (random delay between 0 and min(maxDelay, baseDelay * 2^(failures - 1))),
+ * unless server has told us how long to wait with Retry-After header.
+ *
+ * When number of consecutive failures reaches failureThreshold circuit is opened
+ * and no requests are allowed for openDuration. After that circuit is half open
+ * and single probe request is allowed. Successful probe closes circuit,
+ * failed one opens it again.
+ *
+ * Policy is not shared between processes, every process keeps its own state.
+ */
+public class RetryPolicy {
+    public static final long DEFAULT_BASE_DELAY = 1000; //milliseconds
+    public static final long DEFAULT_MAX_DELAY = 1000 * 60 * 5; //milliseconds
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION = 1000 * 60; //milliseconds
+
+    private static final int MAX_BACKOFF_EXPONENT = 30;
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Source of time, replaceable in tests
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Listener notified on every circuit state transition
+     */
+    public interface Listener {
+        /**
+         * @param endpoint
+         * @param from previous state
+         * @param to new state
+         * @param retryAt time in milliseconds when next request will be allowed
+         */
+        void onStateChanged(String endpoint, State from, State to, long retryAt);
+    }
+
+    private static class Circuit {
+        State state = State.CLOSED;
+        int failures = 0;
+        long retryAt = 0;
+        boolean probing = false;
+    }
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int failureThreshold;
+    private final long openDuration;
+    private final Clock clock;
+    private final Random random;
+    private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+    private Listener listener;
+
+    public RetryPolicy() {
+        this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+    }
+
+    public RetryPolicy(long baseDelay, long maxDelay, int failureThreshold, long openDuration) {
+        this(baseDelay, maxDelay, failureThreshold, openDuration, SYSTEM_CLOCK, new Random());
+    }
+
+    /**
+     * @param baseDelay delay in milliseconds after first failure
+     * @param maxDelay max delay in milliseconds between attempts
+     * @param failureThreshold number of consecutive failures which opens circuit
+     * @param openDuration time in milliseconds circuit stays open
+     * @param clock
+     * @param random source of jitter
+     */
+    public RetryPolicy(long baseDelay, long maxDelay, int failureThreshold, long openDuration, Clock clock, Random random) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+        this.clock = clock;
+        this.random = random;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized State getState(String endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        return circuit != null ? circuit.state : State.CLOSED;
+    }
+
+    /**
+     * Returns time in milliseconds till next request to endpoint will be allowed, 0 if allowed now
+     */
+    public synchronized long getDelay(String endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        if (circuit == null) {
+            return 0;
+        }
+        if (circuit.state == State.HALF_OPEN && circuit.probing) {
+            return openDuration;
+        }
+
+        return Math.max(0, circuit.retryAt - clock.currentTimeMillis());
+    }
+
+    /**
+     * Acquire permission to execute request
+     *
+     * In half open state only single probe request is allowed until its result is reported.
+     *
+     * @param endpoint
+     * @return true if request can be executed
+     */
+    public synchronized boolean allowRequest(String endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        if (circuit == null) {
+            return true;
+        }
+
+        long now = clock.currentTimeMillis();
+        if (now < circuit.retryAt) {
+            return false;
+        }
+        if (circuit.state == State.OPEN) {
+            transition(endpoint, circuit, State.HALF_OPEN, now);
+        }
+        if (circuit.state == State.HALF_OPEN) {
+            if (circuit.probing) {
+                return false;
+            }
+            circuit.probing = true;
+        }
+
+        return true;
+    }
+
+    /**
+     * Report successful request, closes circuit
+     */
+    public synchronized void onSuccess(String endpoint) {
+        Circuit circuit = circuits.remove(endpoint);
+        if (circuit != null && circuit.state != State.CLOSED) {
+            transition(endpoint, circuit, State.CLOSED, clock.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Report failed request
+     *
+     * @param endpoint
+     * @param retryAfter delay requested by server in milliseconds or null
+     */
+    public synchronized void onFailure(String endpoint, Long retryAfter) {
+        Circuit circuit = circuits.get(endpoint);
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits.put(endpoint, circuit);
+        }
+
+        long now = clock.currentTimeMillis();
+        circuit.failures++;
+        circuit.probing = false;
+        long delay = retryAfter != null ? retryAfter : nextBackoff(circuit.failures);
+
+        if (circuit.state == State.HALF_OPEN || circuit.failures >= failureThreshold) {
+            circuit.retryAt = now + Math.max(openDuration, delay);
+            if (circuit.state != State.OPEN) {
+                transition(endpoint, circuit, State.OPEN, now);
+            }
+        } else {
+            circuit.retryAt = now + delay;
+        }
+    }
+
+    /**
+     * Report response of request
+     *
+     * Non retryable error (eg. 4xx) means server is up and it has just rejected request,
+     * so it resets policy same as success.
+     *
+     * @param endpoint
+     * @param responseCode HTTP response code
+     * @param retryAfter value of Retry-After header or null
+     */
+    public synchronized void onResponse(String endpoint, int responseCode, String retryAfter) {
+        if (responseCode != 200 && isRetryable(responseCode)) {
+            onFailure(endpoint, parseRetryAfter(retryAfter, clock.currentTimeMillis()));
+        } else {
+            onSuccess(endpoint);
+        }
+    }
+
+    private long nextBackoff(int failures) {
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(failures - 1, MAX_BACKOFF_EXPONENT));
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    private void transition(String endpoint, Circuit circuit, State to, long now) {
+        State from = circuit.state;
+        circuit.state = to;
+        if (listener != null) {
+            listener.onStateChanged(endpoint, from, to, Math.max(now, circuit.retryAt));
+        }
+    }
+
+    /**
+     * Returns true if request failed with response code worth retrying (timeout, throttling or server error)
+     */
+    public static boolean isRetryable(int responseCode) {
+        return responseCode == 408 || responseCode == 429 || responseCode >= 500;
+    }
+
+    /**
+     * Parse value of Retry-After header, either delay in seconds or HTTP date
+     *
+     * @param value header value
+     * @param now current time in milliseconds
+     * @return delay in milliseconds or null if value is missing or invalid
+     */
+    public static Long parseRetryAfter(String value, long now) {
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // not delta seconds, try HTTP date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - now);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
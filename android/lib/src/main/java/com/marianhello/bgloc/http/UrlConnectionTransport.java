@@ -0,0 +1,122 @@
+package com.marianhello.bgloc.http;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * HttpURLConnection based transport
+ *
+ * HttpURLConnection keeps connections in process wide keep-alive pool.
+ * Connection is returned to the pool only when response has been fully read and closed
+ * and connection has not been disconnected, so it's never disconnected after successful request.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15000; //milliseconds
+    public static final int DEFAULT_READ_TIMEOUT = 30000; //milliseconds
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public Response post(String url, String contentType, Map<String, String> headers, Body body) throws IOException {
+        RequestTiming timing = new RequestTiming();
+        long startedAt = System.nanoTime();
+
+        URL target = new URL(url);
+        timing.setDnsMillis(resolve(target.getHost()));
+        HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setDoOutput(true);
+        long contentLength = body.getContentLength();
+        if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            conn.setFixedLengthStreamingMode((int) contentLength);
+        } else {
+            conn.setChunkedStreamingMode(BUFFER_SIZE);
+        }
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", contentType);
+        Iterator<Map.Entry<String, String>> it = headers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, String> pair = it.next();
+            conn.setRequestProperty(pair.getKey(), pair.getValue());
+        }
+
+        try {
+            long connectingAt = System.nanoTime();
+            conn.connect();
+            timing.setConnectMillis(millisSince(connectingAt));
+
+            OutputStream os = new BufferedOutputStream(conn.getOutputStream(), BUFFER_SIZE);
+            try {
+                body.writeTo(os);
+                os.flush();
+            } finally {
+                os.close();
+            }
+
+            long sentAt = System.nanoTime();
+            int responseCode = conn.getResponseCode();
+            timing.setTtfbMillis(millisSince(sentAt));
+            drain(responseCode < HttpURLConnection.HTTP_BAD_REQUEST ? conn.getInputStream() : conn.getErrorStream());
+            timing.setTotalMillis(millisSince(startedAt));
+
+            return new Response(responseCode, conn.getHeaderField("Retry-After"), timing);
+        } catch (IOException e) {
+            // broken connection must not go back into the pool
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Resolve host name ahead of connection and return duration of resolution
+     *
+     * Resolved address is kept in InetAddress cache, so connection does not resolve it again
+     * and repeated requests to the same host report close to zero.
+     *
+     * @return duration in milliseconds or -1 when host cannot be resolved
+     */
+    private static long resolve(String host) {
+        long startedAt = System.nanoTime();
+        try {
+            InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            // connection will fail with the same error
+            return -1;
+        }
+        return millisSince(startedAt);
+    }
+
+    /**
+     * Read response till the end, so connection can be reused
+     */
+    private static void drain(InputStream is) throws IOException {
+        if (is == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            while (is.read(buffer) != -1) {}
+        } finally {
+            is.close();
+        }
+    }
+
+    private static long millisSince(long nanoTime) {
+        return (System.nanoTime() - nanoTime) / 1000000L;
+    }
+}
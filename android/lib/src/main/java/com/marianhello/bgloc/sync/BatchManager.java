@@ -1,157 +1,376 @@
 package com.marianhello.bgloc.sync;
 
-import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.text.TextUtils;
-import android.util.JsonWriter;
 
-import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract;
-import com.marianhello.bgloc.data.sqlite.SQLiteOpenHelper;
+import com.marianhello.bgloc.Config;
+import com.marianhello.bgloc.HttpPostService;
+import com.marianhello.bgloc.UploadingCallback;
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationOutbox;
+import com.marianhello.bgloc.data.serializer.JsonLocationSerializer;
+import com.marianhello.bgloc.data.serializer.LocationSerializer;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationOutbox;
 import com.marianhello.logging.LoggerManager;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by finch on 20/07/16.
  */
 public class BatchManager {
-    private Context context;
+    // sync holds lease for this long after it has been acquired or renewed
+    private static final long LEASE_DURATION = 1000 * 60 * 10; //milliseconds
+
+    // leased locations are read from outbox in pages of this size
+    private static final int PAGE_SIZE = 100;
+
+    private LocationOutbox outbox;
     private org.slf4j.Logger log;
 
     public BatchManager(Context context) {
+        this(new SQLiteLocationOutbox(context));
+    }
+
+    /**
+     * Batch manager draining given outbox (@see DAOFactory.createLocationOutbox)
+     *
+     * @param outbox
+     */
+    public BatchManager(LocationOutbox outbox) {
         log = LoggerManager.getLogger(BatchManager.class);
-        this.context = context;
+        this.outbox = outbox;
+    }
+
+    /**
+     * Returns value of Content-Encoding header for given compression
+     * or null if batch is not compressed
+     *
+     * @param compression one of Config compression constants
+     */
+    public static String getContentEncoding(Integer compression) {
+        if (compression == null) {
+            return null;
+        }
+        switch (compression) {
+            case Config.GZIP_COMPRESSION:
+                return "gzip";
+            case Config.DEFLATE_COMPRESSION:
+                return "deflate";
+            default:
+                return null;
+        }
     }
 
     public File createBatch(Long batchStartMillis, Integer syncThreshold) throws IOException {
+        return createBatch(batchStartMillis, syncThreshold, Config.NO_COMPRESSION, Integer.MAX_VALUE, new JsonLocationSerializer());
+    }
+
+    /**
+     * Write locations ready for sync into batch file
+     *
+     * Batch is compressed while it is written, so compressed file
+     * can be uploaded with Content-Encoding returned by getContentEncoding.
+     * Locations are written in order of their ids, remaining locations
+     * exceeding maxBatchSize are left for next batch.
+     * Written locations are leased with batchStartMillis as lease id, lease is either acked
+     * by setBatchCompleted or returned by releaseBatch.
+     *
+     * @param batchStartMillis
+     * @param syncThreshold min number of locations in batch
+     * @param compression one of Config compression constants
+     * @param maxBatchSize max number of locations in batch
+     * @param serializer wire format of batch
+     * @return batch file or null if there is not enough locations to sync
+     * @throws IOException
+     */
+    public File createBatch(Long batchStartMillis, Integer syncThreshold, Integer compression, Integer maxBatchSize,
+                            LocationSerializer serializer) throws IOException {
         log.info("Creating batch {}", batchStartMillis);
 
-        SQLiteOpenHelper helper = SQLiteOpenHelper.getHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
-
-        String[] columns = {
-                SQLiteLocationContract.LocationEntry._ID,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_PROVIDER,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_TIME,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_LATITUDE,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_LONGITUDE,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_ACCURACY,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_SPEED,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_BEARING,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_ALTITUDE,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_RADIUS,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_ACCURACY,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_SPEED,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_BEARING,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_ALTITUDE,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_RADIUS,
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_LOCATION_PROVIDER
-        };
-
-        String whereClause = TextUtils.join("", new String[]{
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_VALID + " = ? AND ( ",
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + " IS NULL OR ",
-                SQLiteLocationContract.LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + " < ? )",
-        });
-        String[] whereArgs = { "1", String.valueOf(batchStartMillis) };
-        String groupBy = null;
-        String having = null;
-        String orderBy = SQLiteLocationContract.LocationEntry.COLUMN_NAME_TIME + " ASC";
-
-        Cursor cursor = null;
-        JsonWriter writer = null;
+        long now = System.currentTimeMillis();
+        if (outbox.pendingCount(now) < syncThreshold) {
+            return null;
+        }
+        outbox.leasePending(batchStartMillis, now + LEASE_DURATION, Long.MAX_VALUE, maxBatchSize);
 
+        File file = null;
+        OutputStream os = null;
+        boolean written = false;
         try {
-            db.beginTransactionNonExclusive();
-
-            cursor = db.query(
-                    SQLiteLocationContract.LocationEntry.TABLE_NAME,  // The table to query
-                    columns,                   // The columns to return
-                    whereClause,               // The columns for the WHERE clause
-                    whereArgs,                 // The values for the WHERE clause
-                    groupBy,                   // don't group the rows
-                    having,                    // don't filter by row groups
-                    orderBy                    // The sort order
-            );
-
-            if (cursor.getCount() < syncThreshold) {
-                return null;
+            file = File.createTempFile("locations", ".batch");
+            os = compress(new FileOutputStream(file), compression);
+            LocationSerializer.BatchWriter writer = serializer.createBatchWriter(os);
+            long afterLocationId = 0;
+            List<BackgroundLocation> page;
+            while (!(page = outbox.getLeasedLocations(batchStartMillis, afterLocationId, Long.MAX_VALUE, PAGE_SIZE)).isEmpty()) {
+                for (BackgroundLocation location : page) {
+                    writer.write(location);
+                }
+                afterLocationId = page.get(page.size() - 1).getLocationId();
             }
+            writer.finish();
+            os.close();
+            written = true;
 
-            File file = File.createTempFile("locations", ".json");
-            FileOutputStream fs = new FileOutputStream(file);
-            writer = new JsonWriter(new OutputStreamWriter(fs, "UTF-8"));
-            writer.beginArray();
-
-            while (cursor.moveToNext()) {
-                writer.beginObject();
-                String provider = cursor.getString(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_PROVIDER));
-                Long time = cursor.getLong(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_TIME));
-                Double latitude = cursor.getDouble(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_LATITUDE));
-                Double longitude = cursor.getDouble(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_LONGITUDE));
-                Integer locationProvider = cursor.getInt(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_LOCATION_PROVIDER));
-
-                if (provider != null) writer.name("provider").value(provider);
-                if (time != null) writer.name("time").value(time);
-                if (latitude != null) writer.name("latitude").value(latitude);
-                if (longitude != null) writer.name("longitude").value(longitude);
-                if (cursor.getInt(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_ACCURACY)) == 1) {
-                    writer.name("accuracy").value(cursor.getFloat(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_ACCURACY)));
-                }
-                if (cursor.getInt(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_SPEED)) == 1) {
-                    writer.name("speed").value(cursor.getFloat(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_SPEED)));
-                }
-                if (cursor.getInt(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_BEARING)) == 1) {
-                    writer.name("bearing").value(cursor.getFloat(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_BEARING)));
-                }
-                if (cursor.getInt(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_ALTITUDE)) == 1) {
-                    writer.name("altitude").value(cursor.getDouble(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_ALTITUDE)));
+            log.info("Batch file: {} created successfully", file.getName());
+
+            return file;
+        } finally {
+            if (!written) {
+                // locations of batch which cannot be written are returned to outbox right away
+                outbox.release(batchStartMillis);
+                if (os != null) {
+                    os.close();
                 }
-                if (cursor.getInt(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_HAS_RADIUS)) == 1) {
-                    writer.name("radius").value(cursor.getFloat(cursor.getColumnIndex(SQLiteLocationContract.LocationEntry.COLUMN_NAME_RADIUS)));
+                if (file != null) {
+                    file.delete();
                 }
-                if (locationProvider != null) writer.name("locationProvider").value(locationProvider);
-                writer.endObject();
             }
-            writer.endArray();
-            writer.close();
-            fs.close();
+        }
+    }
 
-            // set batchStartMillis for all synced locations
-            ContentValues values = new ContentValues();
-            values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_BATCH_START_MILLIS, batchStartMillis);
-            db.update(SQLiteLocationContract.LocationEntry.TABLE_NAME, values, whereClause, whereArgs);
+    /**
+     * Create first batch streamed directly from outbox into request body
+     *
+     * All pending locations are leased when batch is created, so they cannot be
+     * uploaded by realtime posting at the same time. Locations are acked by setBatchCompleted(StreamingBatch)
+     * only after server has acknowledged upload, locations of failed batches must be returned
+     * by releaseBatch(StreamingBatch). Lease expires if sync process dies in the middle of upload.
+     * Batch is closed when it reaches maxBatchSize locations or approximately maxBatchBytes
+     * of uncompressed payload, remaining locations are uploaded in batches returned by nextStreamingBatch.
+     *
+     * @param batchStartMillis
+     * @param syncThreshold min number of locations to sync
+     * @param compression one of Config compression constants
+     * @param maxBatchSize max number of locations in batch
+     * @param maxBatchBytes max size of batch in bytes
+     * @param serializer wire format of batch
+     * @return batch or null if there is not enough locations to sync
+     */
+    public StreamingBatch createStreamingBatch(Long batchStartMillis, Integer syncThreshold, Integer compression,
+                                               Integer maxBatchSize, Integer maxBatchBytes, LocationSerializer serializer) {
+        log.info("Creating streaming batch {}", batchStartMillis);
 
-            db.setTransactionSuccessful();
+        long now = System.currentTimeMillis();
+        if (outbox.pendingCount(now) < syncThreshold) {
+            return null;
+        }
+        // locations persisted while batches are being uploaded are left for next sync
+        long maxLocationId = outbox.getMaxLocationId();
+        long count = outbox.leasePending(batchStartMillis, now + LEASE_DURATION, maxLocationId, Integer.MAX_VALUE);
+        if (count == 0) {
+            return null;
+        }
 
-            log.info("Batch file: {} created successfully", file.getName());
+        return new StreamingBatch(batchStartMillis, batchStartMillis, 0, maxLocationId, count,
+                compression, maxBatchSize, maxBatchBytes, serializer);
+    }
 
-            return file;
-        } finally {
-            if (cursor != null) {
-                cursor.close();
+    /**
+     * Create batch following given acknowledged batch
+     *
+     * @param previous completed batch
+     * @return next batch or null if previous batch was the last one
+     */
+    public StreamingBatch nextStreamingBatch(StreamingBatch previous) {
+        return nextStreamingBatch(previous, previous.maxBatchSize);
+    }
+
+    /**
+     * Create batch following given acknowledged batch with different max size
+     *
+     * @param previous completed batch
+     * @param maxBatchSize max number of locations in next batch
+     * @return next batch or null if previous batch was the last one
+     */
+    public StreamingBatch nextStreamingBatch(StreamingBatch previous, int maxBatchSize) {
+        if (!previous.hasMore || previous.pendingCount - previous.writtenCount <= 0) {
+            return null;
+        }
+        long batchStartMillis = Math.max(System.currentTimeMillis(), previous.batchStartMillis + 1);
+        log.info("Creating streaming batch {}", batchStartMillis);
+
+        return new StreamingBatch(previous.leaseId, batchStartMillis, previous.lastLocationId, previous.maxLocationId,
+                previous.pendingCount - previous.writtenCount, previous.compression,
+                maxBatchSize, previous.maxBatchBytes, previous.serializer);
+    }
+
+    /**
+     * Batch of locations written straight from outbox into output stream
+     */
+    public class StreamingBatch implements HttpPostService.StreamingBody {
+        private final long leaseId;
+        private final long batchStartMillis;
+        private final long afterLocationId;
+        private final long maxLocationId;
+        private final long pendingCount;
+        private final Integer compression;
+        private final int maxBatchSize;
+        private final int maxBatchBytes;
+        private final LocationSerializer serializer;
+        private UploadingCallback callback;
+
+        private long lastLocationId;
+        private long writtenCount;
+        private boolean hasMore;
+
+        private StreamingBatch(long leaseId, long batchStartMillis, long afterLocationId, long maxLocationId, long pendingCount,
+                               Integer compression, int maxBatchSize, int maxBatchBytes, LocationSerializer serializer) {
+            this.leaseId = leaseId;
+            this.batchStartMillis = batchStartMillis;
+            this.afterLocationId = afterLocationId;
+            this.maxLocationId = maxLocationId;
+            this.pendingCount = pendingCount;
+            this.compression = compression;
+            this.maxBatchSize = maxBatchSize;
+            this.maxBatchBytes = maxBatchBytes;
+            this.serializer = serializer;
+        }
+
+        public long getBatchStartMillis() {
+            return batchStartMillis;
+        }
+
+        /**
+         * Returns number of locations written by last writeTo
+         */
+        public long getWrittenCount() {
+            return writtenCount;
+        }
+
+        public void setUploadingCallback(UploadingCallback callback) {
+            this.callback = callback;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            long expectedCount = Math.max(1, Math.min(pendingCount, maxBatchSize));
+
+            lastLocationId = afterLocationId;
+            writtenCount = 0;
+            hasMore = false;
+
+            // output stream is owned by caller, so writer is flushed but not closed
+            OutputStream os = compress(out, compression);
+            CountingOutputStream counter = new CountingOutputStream(os);
+            LocationSerializer.BatchWriter writer = serializer.createBatchWriter(counter);
+            int lastPercentage = -1;
+
+            // leased locations are read page by page, so batch of any size takes constant memory
+            while (!hasMore && writtenCount < maxBatchSize) {
+                int limit = (int) Math.min(PAGE_SIZE, maxBatchSize - writtenCount);
+                List<BackgroundLocation> page = outbox.getLeasedLocations(leaseId, lastLocationId, maxLocationId, limit);
+                if (page.isEmpty()) {
+                    break;
+                }
+                for (BackgroundLocation location : page) {
+                    writer.write(location);
+                    lastLocationId = location.getLocationId();
+                    writtenCount++;
+
+                    if (callback != null) {
+                        int percentage = (int) Math.min(100, (writtenCount * 100L) / expectedCount);
+                        if (percentage != lastPercentage) {
+                            callback.uploadListener(percentage);
+                            lastPercentage = percentage;
+                        }
+                    }
+                    // counter lags behind writer by its internal buffer only
+                    if (counter.getCount() >= maxBatchBytes) {
+                        hasMore = true;
+                        break;
+                    }
+                }
             }
-            if (writer != null) {
-                writer.close();
+            writer.finish();
+            if (os instanceof DeflaterOutputStream) {
+                ((DeflaterOutputStream) os).finish();
             }
-            db.endTransaction();
+            hasMore = hasMore || writtenCount == maxBatchSize;
+        }
+    }
+
+    /**
+     * Output stream counting bytes written through it
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
     }
 
+    private static OutputStream compress(OutputStream out, Integer compression) throws IOException {
+        String contentEncoding = getContentEncoding(compression);
+        if ("gzip".equals(contentEncoding)) {
+            return new GZIPOutputStream(out);
+        }
+        if ("deflate".equals(contentEncoding)) {
+            // zlib format, as required by deflate content coding
+            return new DeflaterOutputStream(out);
+        }
+        return out;
+    }
+
+    /**
+     * Mark locations of uploaded batch file as synced
+     *
+     * @param batchId batchStartMillis of batch
+     */
     public void setBatchCompleted(Long batchId) {
-        SQLiteOpenHelper helper = SQLiteOpenHelper.getHelper(context);
-        SQLiteDatabase db = helper.getWritableDatabase();
+        outbox.ack(batchId, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Return locations of failed batch file back for next sync
+     *
+     * @param batchId batchStartMillis of batch
+     */
+    public void releaseBatch(Long batchId) {
+        outbox.release(batchId);
+    }
 
-        String whereClause = SQLiteLocationContract.LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + " = ?";
-        String[] whereArgs = { String.valueOf(batchId) };
+    /**
+     * Mark locations of acknowledged streaming batch as synced
+     *
+     * Lease of remaining batches is renewed, so long running sync does not lose it.
+     *
+     * @param batch
+     */
+    public void setBatchCompleted(StreamingBatch batch) {
+        outbox.ack(batch.leaseId, batch.afterLocationId, batch.lastLocationId);
+        outbox.renew(batch.leaseId, System.currentTimeMillis() + LEASE_DURATION);
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(SQLiteLocationContract.LocationEntry.COLUMN_NAME_VALID, 0);
-        db.update(SQLiteLocationContract.LocationEntry.TABLE_NAME, values, whereClause, whereArgs);
+    /**
+     * Return all not yet acknowledged locations of streaming batch (and its following batches) back for next sync
+     *
+     * @param batch
+     */
+    public void releaseBatch(StreamingBatch batch) {
+        outbox.release(batch.leaseId);
     }
 }
@@ -0,0 +1,143 @@
+package com.marianhello.bgloc.sync;
+
+import com.marianhello.bgloc.Config;
+import com.marianhello.bgloc.data.UploadStats;
+import com.marianhello.bgloc.data.UploadStatsDAO;
+import com.marianhello.bgloc.http.RequestTiming;
+
+/**
+ * Tunes sync batch size and sync threshold by measured uplink performance
+ *
+ * Throughput (locations per second), latency and success rate of every batch upload
+ * are kept as exponentially weighted moving averages per network type, so sync over Wi-Fi
+ * and over poor cellular network are tuned independently.
+ *
+ * Batch size is number of locations uploaded in targetUploadTime at average throughput,
+ * scaled down by success rate and bounded by syncMinBatchSize and syncBatchSize.
+ * Sync threshold is bounded by syncThreshold and is never greater than batch size,
+ * so sync triggered on slow network finishes in single short request instead of keeping
+ * radio on for long upload which is likely to fail.
+ * Until first upload over network type is measured, configured values are used.
+ *
+ * Stats are persisted, so they are shared between service and sync process.
+ */
+public class BatchSizeTuner {
+    public static final double DEFAULT_ALPHA = 0.3; // weight of latest sample
+    public static final long DEFAULT_TARGET_UPLOAD_TIME = 1000 * 10; //milliseconds
+
+    private final UploadStatsDAO dao;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int maxSyncThreshold;
+    private final double alpha;
+    private final long targetUploadTime;
+
+    public BatchSizeTuner(UploadStatsDAO dao, Config config) {
+        this(dao, config.getSyncMinBatchSize(), config.getSyncBatchSize(), config.getSyncThreshold(),
+                DEFAULT_ALPHA, DEFAULT_TARGET_UPLOAD_TIME);
+    }
+
+    /**
+     * @param dao
+     * @param minBatchSize lower bound of batch size
+     * @param maxBatchSize upper bound of batch size
+     * @param maxSyncThreshold upper bound of sync threshold
+     * @param alpha weight of latest sample in moving averages (0 - 1)
+     * @param targetUploadTime desired duration of single batch upload in milliseconds
+     */
+    public BatchSizeTuner(UploadStatsDAO dao, int minBatchSize, int maxBatchSize, int maxSyncThreshold,
+                          double alpha, long targetUploadTime) {
+        this.dao = dao;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.minBatchSize = Math.max(1, Math.min(minBatchSize, this.maxBatchSize));
+        this.maxSyncThreshold = maxSyncThreshold;
+        this.alpha = alpha;
+        this.targetUploadTime = targetUploadTime;
+    }
+
+    /**
+     * Returns stats of network type with batch size and sync threshold tuned by current bounds
+     *
+     * @param networkType
+     */
+    public UploadStats getStats(String networkType) {
+        UploadStats stats = dao.getUploadStats(networkType);
+        if (stats == null) {
+            stats = new UploadStats(networkType);
+        }
+        tune(stats);
+
+        return stats;
+    }
+
+    public int getBatchSize(String networkType) {
+        return getStats(networkType).getBatchSize();
+    }
+
+    public int getSyncThreshold(String networkType) {
+        return getStats(networkType).getSyncThreshold();
+    }
+
+    /**
+     * Record successful upload of batch
+     *
+     * @param networkType
+     * @param locationsCount number of uploaded locations
+     * @param timing timing of upload request
+     * @return updated stats
+     */
+    public synchronized UploadStats onUploadSucceeded(String networkType, long locationsCount, RequestTiming timing) {
+        UploadStats stats = getStats(networkType);
+        if (timing != null && timing.getTotalMillis() >= 0) {
+            long totalMillis = Math.max(1, timing.getTotalMillis());
+            double throughput = locationsCount * 1000d / totalMillis;
+            double latency = timing.getTtfbMillis() >= 0 ? timing.getTtfbMillis() : totalMillis;
+            if (stats.getUploads() == 0) {
+                stats.setThroughput(throughput);
+                stats.setLatency(latency);
+            } else {
+                stats.setThroughput(average(stats.getThroughput(), throughput));
+                stats.setLatency(average(stats.getLatency(), latency));
+            }
+        }
+        stats.setSuccessRate(average(stats.getSuccessRate(), 1));
+        stats.setUploads(stats.getUploads() + 1);
+
+        return persist(stats);
+    }
+
+    /**
+     * Record failed upload of batch
+     *
+     * @param networkType
+     * @return updated stats
+     */
+    public synchronized UploadStats onUploadFailed(String networkType) {
+        UploadStats stats = getStats(networkType);
+        stats.setSuccessRate(average(stats.getSuccessRate(), 0));
+        stats.setFailures(stats.getFailures() + 1);
+
+        return persist(stats);
+    }
+
+    private UploadStats persist(UploadStats stats) {
+        tune(stats);
+        stats.setUpdatedAt(System.currentTimeMillis());
+        dao.persistUploadStats(stats);
+
+        return stats;
+    }
+
+    private void tune(UploadStats stats) {
+        double batchSize = stats.getThroughput() > 0
+                ? stats.getThroughput() * targetUploadTime / 1000d
+                : maxBatchSize;
+        batchSize = Math.max(minBatchSize, Math.min(maxBatchSize, batchSize * stats.getSuccessRate()));
+        stats.setBatchSize((int) batchSize);
+        stats.setSyncThreshold(Math.min(maxSyncThreshold, stats.getBatchSize()));
+    }
+
+    private double average(double average, double sample) {
+        return alpha * sample + (1 - alpha) * average;
+    }
+}
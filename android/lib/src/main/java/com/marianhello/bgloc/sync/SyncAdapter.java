@@ -17,7 +17,13 @@ import com.marianhello.bgloc.HttpPostService;
 import com.marianhello.bgloc.UploadingCallback;
 import com.marianhello.bgloc.data.ConfigurationDAO;
 import com.marianhello.bgloc.data.DAOFactory;
+import com.marianhello.bgloc.data.UploadStats;
+import com.marianhello.bgloc.data.serializer.LocationSerializer;
+import com.marianhello.bgloc.data.serializer.SerializerFactory;
+import com.marianhello.bgloc.http.HttpTransport;
+import com.marianhello.bgloc.http.RetryPolicy;
 import com.marianhello.logging.LoggerManager;
+import com.marianhello.utils.NetworkTools;
 
 import org.json.JSONException;
 
@@ -38,6 +44,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements Uploadin
     private ConfigurationDAO configDAO;
     private NotificationManager notifyManager;
     private BatchManager batchManager;
+    private RetryPolicy retryPolicy;
 
     private org.slf4j.Logger log;
 
@@ -54,7 +61,6 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements Uploadin
          */
         contentResolver = context.getContentResolver();
         configDAO = DAOFactory.createConfigurationDAO(context);
-        batchManager = new BatchManager(this.getContext());
         notifyManager = (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
     }
 
@@ -78,7 +84,6 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements Uploadin
          */
         contentResolver = context.getContentResolver();
         configDAO = DAOFactory.createConfigurationDAO(context);
-        batchManager = new BatchManager(this.getContext());
         notifyManager = (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
     }
 
@@ -108,40 +113,155 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements Uploadin
         if (config.hasUrl() || config.hasSyncUrl()) {
             Long batchStartMillis = System.currentTimeMillis();
 
-            File file = null;
-            try {
-                file = batchManager.createBatch(batchStartMillis, config.getSyncThreshold());
-            } catch (IOException e) {
-                log.error("Failed to create batch: {}", e.getMessage());
+            String url = config.hasSyncUrl() ? config.getSyncUrl() : config.getUrl();
+            HashMap<String, String> httpHeaders = new HashMap<String, String>();
+            httpHeaders.putAll(config.getHttpHeaders());
+            LocationSerializer serializer = SerializerFactory.createLocationSerializer(config.getPayloadFormat());
+            httpHeaders.put("Content-Type", serializer.getContentType());
+            String contentEncoding = BatchManager.getContentEncoding(config.getSyncCompression());
+            if (contentEncoding != null) {
+                httpHeaders.put("Content-Encoding", contentEncoding);
+            }
+            // sync adapter runs in its own process with its own transport and retry policy
+            HttpPostService.setTimeouts(config.getHttpConnectTimeout(), config.getHttpReadTimeout());
+            if (retryPolicy == null) {
+                retryPolicy = new RetryPolicy(config.getRetryBaseDelay(), config.getRetryMaxDelay(),
+                        config.getCircuitFailureThreshold(), config.getCircuitOpenDuration());
             }
 
-            if (file == null) {
+            // locations are drained from store selected by config, sqlite or journal
+            batchManager = new BatchManager(DAOFactory.createLocationOutbox(getContext(), config));
+
+            String networkType = NetworkTools.getNetworkType(getContext());
+            BatchSizeTuner batchSizeTuner = new BatchSizeTuner(DAOFactory.createUploadStatsDAO(getContext()), config);
+            UploadStats stats = batchSizeTuner.getStats(networkType);
+            log.info("Sync over network: {} {}", networkType, stats.toString());
+
+            BatchManager.StreamingBatch batch = batchManager.createStreamingBatch(
+                    batchStartMillis, stats.getSyncThreshold(), config.getSyncCompression(),
+                    stats.getBatchSize(), config.getSyncBatchBytes(), serializer);
+            if (batch == null) {
                 log.info("Nothing to sync");
                 return;
             }
 
-            log.info("Syncing startAt: {}", batchStartMillis);
-            String url = config.hasSyncUrl() ? config.getSyncUrl() : config.getUrl();
-            HashMap<String, String> httpHeaders = new HashMap<String, String>();
-            httpHeaders.putAll(config.getHttpHeaders());
-            httpHeaders.put("x-batch-id", String.valueOf(batchStartMillis));
-
-            if (uploadLocations(file, url, httpHeaders)) {
-                log.info("Batch sync successful");
-                batchManager.setBatchCompleted(batchStartMillis);
-                if (file.delete()) {
-                    log.info("Batch file has been deleted: {}", file.getAbsolutePath());
-                } else {
-                    log.warn("Batch file has not been deleted: {}", file.getAbsolutePath());
+            // every batch is acknowledged separately, so interrupted sync continues with first unacknowledged one
+            BatchManager.StreamingBatch firstBatch = batch;
+            try {
+                while (batch != null) {
+                    if (!retryPolicy.allowRequest(url)) {
+                        delaySync(url, syncResult);
+                        return;
+                    }
+
+                    log.info("Syncing startAt: {}", batch.getBatchStartMillis());
+                    httpHeaders.put("x-batch-id", String.valueOf(batch.getBatchStartMillis()));
+                    batch.setUploadingCallback(this);
+                    HttpTransport.Response response = uploadLocations(batch, null, url, httpHeaders);
+                    if (response != null && response.getResponseCode() == HttpURLConnection.HTTP_LENGTH_REQUIRED) {
+                        // server does not accept chunked request, batch has to be uploaded from file
+                        log.info("Chunked upload not supported by server, using batch file");
+                        batchManager.releaseBatch(firstBatch);
+                        syncBatchFile(config, serializer, batch.getBatchStartMillis(), url, httpHeaders, syncResult);
+                        return;
+                    }
+
+                    if (!handleResponse(url, response, syncResult)) {
+                        log.warn("Batch sync failed due server error");
+                        if (response == null || RetryPolicy.isRetryable(response.getResponseCode())) {
+                            batchSizeTuner.onUploadFailed(networkType);
+                        }
+                        return;
+                    }
+
+                    log.info("Batch sync successful");
+                    batchManager.setBatchCompleted(batch);
+                    // following batches are sized by throughput measured so far
+                    stats = batchSizeTuner.onUploadSucceeded(networkType, batch.getWrittenCount(), response.getTiming());
+                    batch = batchManager.nextStreamingBatch(batch, stats.getBatchSize());
                 }
+            } finally {
+                // unacknowledged locations are returned to outbox right away, not when lease expires
+                batchManager.releaseBatch(firstBatch);
+            }
+        }
+    }
+
+    private void syncBatchFile(Config config, LocationSerializer serializer, Long batchStartMillis, String url,
+                               HashMap<String, String> httpHeaders, SyncResult syncResult) {
+        File file = null;
+        try {
+            file = batchManager.createBatch(batchStartMillis, config.getSyncThreshold(), config.getSyncCompression(),
+                    config.getSyncBatchSize(), serializer);
+        } catch (IOException e) {
+            log.error("Failed to create batch: {}", e.getMessage());
+        }
+
+        if (file == null) {
+            log.info("Nothing to sync");
+            return;
+        }
+
+        if (handleResponse(url, uploadLocations(null, file, url, httpHeaders), syncResult)) {
+            log.info("Batch sync successful");
+            batchManager.setBatchCompleted(batchStartMillis);
+            if (file.delete()) {
+                log.info("Batch file has been deleted: {}", file.getAbsolutePath());
             } else {
-                log.warn("Batch sync failed due server error");
-                syncResult.stats.numIoExceptions++;
+                log.warn("Batch file has not been deleted: {}", file.getAbsolutePath());
             }
+        } else {
+            log.warn("Batch sync failed due server error");
+            batchManager.releaseBatch(batchStartMillis);
+        }
+    }
+
+    /**
+     * Report result of upload to retry policy
+     *
+     * When upload should be retried later, SyncManager is asked to delay next sync
+     * till retry policy allows next request.
+     *
+     * @param url
+     * @param response response or null if request failed
+     * @param syncResult
+     * @return true if upload was successful
+     */
+    private boolean handleResponse(String url, HttpTransport.Response response, SyncResult syncResult) {
+        if (response == null) {
+            syncResult.stats.numIoExceptions++;
+            retryPolicy.onFailure(url, null);
+            delaySync(url, syncResult);
+            return false;
+        }
+
+        int responseCode = response.getResponseCode();
+        retryPolicy.onResponse(url, responseCode, response.getRetryAfter());
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            return true;
+        }
+
+        syncResult.stats.numIoExceptions++;
+        if (RetryPolicy.isRetryable(responseCode)) {
+            delaySync(url, syncResult);
         }
+
+        return false;
     }
 
-    private boolean uploadLocations(File file, String url, HashMap httpHeaders) {
+    private void delaySync(String url, SyncResult syncResult) {
+        long delay = retryPolicy.getDelay(url);
+        log.info("Sync to: {} delayed by: {}ms circuit: {}", url, delay, retryPolicy.getState(url));
+        // delayUntil is time in seconds since epoch
+        syncResult.delayUntil = (System.currentTimeMillis() + delay) / 1000;
+    }
+
+    /**
+     * Upload either streaming batch or batch file
+     *
+     * @return response or null if upload failed
+     */
+    private HttpTransport.Response uploadLocations(BatchManager.StreamingBatch batch, File file, String url, HashMap<String, String> httpHeaders) {
         NotificationCompat.Builder builder = new NotificationCompat.Builder(getContext());
         builder.setOngoing(true);
         builder.setContentTitle("Syncing locations");
@@ -150,14 +270,16 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements Uploadin
         notifyManager.notify(NOTIFICATION_ID, builder.build());
 
         try {
-            int responseCode = HttpPostService.postFile(url, file, httpHeaders, this);
-            if (responseCode == HttpURLConnection.HTTP_OK) {
+            HttpTransport.Response response = batch != null
+                    ? HttpPostService.postStream(url, batch, httpHeaders)
+                    : HttpPostService.postFile(url, file, httpHeaders, this);
+            if (response.getResponseCode() == HttpURLConnection.HTTP_OK) {
                 builder.setContentText("Sync completed");
             } else {
                 builder.setContentText("Sync failed due server error");
             }
 
-            return responseCode == HttpURLConnection.HTTP_OK;
+            return response;
         } catch (IOException e) {
             log.warn("Error uploading locations: {}", e.getMessage());
             builder.setContentText("Sync failed: " + e.getMessage());
@@ -179,7 +301,7 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter implements Uploadin
             }, delayInMilliseconds);
         }
 
-        return false;
+        return null;
     }
 
     public void uploadListener(int progress) {
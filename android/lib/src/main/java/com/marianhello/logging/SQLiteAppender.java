@@ -33,6 +33,8 @@ import ch.qos.logback.core.CoreConstants;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import ch.qos.logback.core.android.CommonPathUtil;
 
+import com.marianhello.utils.SQLiteStatementCache;
+
 /**
  * SQLiteAppender is a logback appender optimized for Android SQLite. It requires no JDBC
  * as it uses the built-in Android SQLite API.
@@ -123,6 +125,7 @@ public class SQLiteAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
      */
     @Override
     public void stop() {
+        SQLiteStatementCache.release(this.db);
         this.db.close();
     }
 
@@ -134,9 +137,10 @@ public class SQLiteAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
     public void append(ILoggingEvent eventObject) {
         if (isStarted()) {
             try {
-                SQLiteStatement stmt = db.compileStatement(insertSQL);
+                SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, insertSQL);
                 try {
                     db.beginTransaction();
+                    stmt.clearBindings();
                     long eventId = subAppend(eventObject, stmt);
                     if (eventId != -1) {
                         secondarySubAppend(eventObject, eventId);
@@ -146,7 +150,6 @@ public class SQLiteAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
                     if (db.inTransaction()) {
                         db.endTransaction();
                     }
-                    stmt.close();
                 }
             } catch (Throwable e) {
                 addError("Cannot append event", e);
@@ -334,16 +337,13 @@ public class SQLiteAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
      */
     private void insertProperties(Map<String, String> mergedMap, long eventId) throws SQLException {
         if (mergedMap.size() > 0) {
-            SQLiteStatement stmt = db.compileStatement(insertPropertiesSQL);
-            try {
-                for (Entry<String,String> entry : mergedMap.entrySet()) {
-                    stmt.bindLong(1, eventId);
-                    stmt.bindString(2, entry.getKey());
-                    stmt.bindString(3, entry.getValue());
-                    stmt.executeInsert();
-                }
-            } finally {
-                stmt.close();
+            SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, insertPropertiesSQL);
+            for (Entry<String,String> entry : mergedMap.entrySet()) {
+                stmt.clearBindings();
+                stmt.bindLong(1, eventId);
+                stmt.bindString(2, entry.getKey());
+                stmt.bindString(3, entry.getValue());
+                stmt.executeInsert();
             }
         }
     }
@@ -384,38 +384,34 @@ public class SQLiteAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
     private void insertThrowable(IThrowableProxy tp, long eventId) throws SQLException {
 
-        SQLiteStatement stmt = db.compileStatement(insertExceptionSQL);
-        try {
-            short baseIndex = 0;
-            while (tp != null) {
-                StringBuilder buf = new StringBuilder();
-                ThrowableProxyUtil.subjoinFirstLine(buf, tp);
-                insertException(stmt, buf.toString(), baseIndex++, eventId);
-
-                int commonFrames = tp.getCommonFrames();
-                StackTraceElementProxy[] stepArray = tp.getStackTraceElementProxyArray();
-
-                for (int i = 0; i < stepArray.length - commonFrames; i++) {
-                    StringBuilder sb = new StringBuilder();
-                    sb.append(CoreConstants.TAB);
-                    ThrowableProxyUtil.subjoinSTEP(sb, stepArray[i]);
-                    insertException(stmt, sb.toString(), baseIndex++, eventId);
-                }
-
-                if (commonFrames > 0) {
-                    StringBuilder sb = new StringBuilder();
-                    sb.append(CoreConstants.TAB)
-                            .append("... ")
-                            .append(commonFrames)
-                            .append(" common frames omitted");
+        SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, insertExceptionSQL);
+        short baseIndex = 0;
+        while (tp != null) {
+            StringBuilder buf = new StringBuilder();
+            ThrowableProxyUtil.subjoinFirstLine(buf, tp);
+            insertException(stmt, buf.toString(), baseIndex++, eventId);
+
+            int commonFrames = tp.getCommonFrames();
+            StackTraceElementProxy[] stepArray = tp.getStackTraceElementProxyArray();
+
+            for (int i = 0; i < stepArray.length - commonFrames; i++) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(CoreConstants.TAB);
+                ThrowableProxyUtil.subjoinSTEP(sb, stepArray[i]);
+                insertException(stmt, sb.toString(), baseIndex++, eventId);
+            }
 
-                    insertException(stmt, sb.toString(), baseIndex++, eventId);
-                }
+            if (commonFrames > 0) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(CoreConstants.TAB)
+                        .append("... ")
+                        .append(commonFrames)
+                        .append(" common frames omitted");
 
-                tp = tp.getCause();
+                insertException(stmt, sb.toString(), baseIndex++, eventId);
             }
-        } finally {
-            stmt.close();
+
+            tp = tp.getCause();
         }
     }
 
@@ -22,6 +22,7 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.WritableArray;
@@ -33,6 +34,10 @@ import com.marianhello.bgloc.data.BackgroundLocation;
 import com.marianhello.bgloc.data.ConfigurationDAO;
 import com.marianhello.bgloc.data.DAOFactory;
 import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.UploadStats;
+import com.marianhello.bgloc.data.UploadStatsDAO;
+import com.marianhello.bgloc.data.Visit;
+import com.marianhello.bgloc.data.VisitDAO;
 import com.marianhello.logging.DBLogReader;
 import com.marianhello.logging.LogEntry;
 import com.marianhello.logging.LogReader;
@@ -42,6 +47,8 @@ import com.marianhello.utils.ErrorConstants;
 import com.marianhello.utils.LocationTools;
 import com.marianhello.utils.ServiceTools;
 
+import org.json.JSONException;
+
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -54,7 +61,10 @@ public class BackgroundGeolocationModule extends ReactContextBaseJavaModule impl
     public static final String LOCATION_EVENT = "location";
     public static final String STATIONARY_EVENT = "stationary";
     public static final String ERROR_EVENT = "error";
+    public static final String CIRCUIT_EVENT = "circuit";
+    public static final String VISIT_EVENT = "visit";
     private static final Integer MESSENGER_CLIENT_ID = 666;
+    private static final int DEFAULT_PAGE_SIZE = 100;
 
     /** Messenger for communicating with the service. */
     private Messenger mService = null;
@@ -132,6 +142,31 @@ public class BackgroundGeolocationModule extends ReactContextBaseJavaModule impl
         if (options.hasKey("activitiesInterval")) config.setActivitiesInterval(options.getInt("activitiesInterval"));
         if (options.hasKey("stopOnStillActivity")) config.setStopOnStillActivity(options.getBoolean("stopOnStillActivity"));
         if (options.hasKey("url")) config.setUrl(options.getString("url"));
+        if (options.hasKey("locationStore")) config.setLocationStore(options.getInt("locationStore"));
+        if (options.hasKey("syncCompression")) config.setSyncCompression(options.getInt("syncCompression"));
+        if (options.hasKey("syncBatchSize")) config.setSyncBatchSize(options.getInt("syncBatchSize"));
+        if (options.hasKey("syncBatchBytes")) config.setSyncBatchBytes(options.getInt("syncBatchBytes"));
+        if (options.hasKey("payloadFormat")) config.setPayloadFormat(options.getInt("payloadFormat"));
+        if (options.hasKey("httpConnectTimeout")) config.setHttpConnectTimeout(options.getInt("httpConnectTimeout"));
+        if (options.hasKey("httpReadTimeout")) config.setHttpReadTimeout(options.getInt("httpReadTimeout"));
+        if (options.hasKey("postBatchWindow")) config.setPostBatchWindow(options.getInt("postBatchWindow"));
+        if (options.hasKey("postBatchSize")) config.setPostBatchSize(options.getInt("postBatchSize"));
+        if (options.hasKey("uploadConcurrency")) config.setUploadConcurrency(options.getInt("uploadConcurrency"));
+        if (options.hasKey("uploadQueueSize")) config.setUploadQueueSize(options.getInt("uploadQueueSize"));
+        if (options.hasKey("retryBaseDelay")) config.setRetryBaseDelay(options.getInt("retryBaseDelay"));
+        if (options.hasKey("retryMaxDelay")) config.setRetryMaxDelay(options.getInt("retryMaxDelay"));
+        if (options.hasKey("circuitFailureThreshold")) config.setCircuitFailureThreshold(options.getInt("circuitFailureThreshold"));
+        if (options.hasKey("circuitOpenDuration")) config.setCircuitOpenDuration(options.getInt("circuitOpenDuration"));
+        if (options.hasKey("syncMinBatchSize")) config.setSyncMinBatchSize(options.getInt("syncMinBatchSize"));
+        if (options.hasKey("maxAccuracy")) config.setMaxAccuracy(options.getInt("maxAccuracy"));
+        if (options.hasKey("maxSpeed")) config.setMaxSpeed(options.getInt("maxSpeed"));
+        if (options.hasKey("minTimeDelta")) config.setMinTimeDelta(options.getInt("minTimeDelta"));
+        if (options.hasKey("rejectMockLocations")) config.setRejectMockLocations(options.getBoolean("rejectMockLocations"));
+        if (options.hasKey("smoothLocations")) config.setSmoothLocations(options.getBoolean("smoothLocations"));
+        if (options.hasKey("simplificationTolerance")) config.setSimplificationTolerance(options.getInt("simplificationTolerance"));
+        if (options.hasKey("visitRadius")) config.setVisitRadius(options.getInt("visitRadius"));
+        if (options.hasKey("visitMinDuration")) config.setVisitMinDuration(options.getInt("visitMinDuration"));
+        if (options.hasKey("rejectDuplicateLocations")) config.setRejectDuplicateLocations(options.getBoolean("rejectDuplicateLocations"));
         if (options.hasKey("httpHeaders")) {
             HashMap httpHeaders = new HashMap<String, String>();
             ReadableMap rm = options.getMap("httpHeaders");
@@ -268,24 +303,11 @@ public class BackgroundGeolocationModule extends ReactContextBaseJavaModule impl
     @ReactMethod
     public void getLocations(Callback success, Callback error) {
         WritableArray locationsArray = Arguments.createArray();
-        LocationDAO dao = DAOFactory.createLocationDAO(getReactApplicationContext());
+        LocationDAO dao = createLocationDAO();
         try {
-            Collection<BackgroundLocation> locations = dao.getAllLocations();
-            for (BackgroundLocation location : locations) {
-                WritableMap out = Arguments.createMap();
-                Long locationId = location.getLocationId();
-                Integer locationProvider = location.getLocationProvider();
-                if (locationId != null) out.putInt("locationId", Convert.safeLongToInt(locationId));
-                if (locationProvider != null) out.putInt("locationProvider", locationProvider);
-                out.putDouble("time", new Long(location.getTime()).doubleValue());
-                out.putDouble("latitude", location.getLatitude());
-                out.putDouble("longitude", location.getLongitude());
-                out.putDouble("accuracy", location.getAccuracy());
-                out.putDouble("speed", location.getSpeed());
-                out.putDouble("altitude", location.getAltitude());
-                out.putDouble("bearing", location.getBearing());
-
-                locationsArray.pushMap(out);
+            Iterator<BackgroundLocation> locations = dao.getLocationsIterator(0, DEFAULT_PAGE_SIZE);
+            while (locations.hasNext()) {
+                locationsArray.pushMap(locationToMap(locations.next()));
             }
             success.invoke(locationsArray);
         } catch (Exception e) {
@@ -294,6 +316,77 @@ public class BackgroundGeolocationModule extends ReactContextBaseJavaModule impl
         }
     }
 
+    @ReactMethod
+    public void getLocationsPage(ReadableMap options, Callback success, Callback error) {
+        long after = options != null && options.hasKey("after") ? (long) options.getDouble("after") : 0;
+        int limit = options != null && options.hasKey("limit") ? options.getInt("limit") : DEFAULT_PAGE_SIZE;
+        if (limit <= 0) {
+            error.invoke("Limit must be positive number");
+            return;
+        }
+
+        WritableArray locationsArray = Arguments.createArray();
+        LocationDAO dao = createLocationDAO();
+        try {
+            for (BackgroundLocation location : dao.getLocationsPage(after, limit)) {
+                locationsArray.pushMap(locationToMap(location));
+            }
+            success.invoke(locationsArray);
+        } catch (Exception e) {
+            log.error("Getting locations page failed: {}", e.getMessage());
+            error.invoke("Converting locations to JSON failed.");
+        }
+    }
+
+    @ReactMethod
+    public void getLocationsInRange(ReadableMap options, Callback success, Callback error) {
+        Long from = options.hasKey("from") ? (long) options.getDouble("from") : null;
+        Long to = options.hasKey("to") ? (long) options.getDouble("to") : null;
+        Integer limit = options.hasKey("limit") ? options.getInt("limit") : null;
+        double[] bbox = null;
+        if (options.hasKey("bbox")) {
+            ReadableArray ra = options.getArray("bbox");
+            if (ra.size() != 4) {
+                error.invoke("Bounding box must be array of [west, south, east, north]");
+                return;
+            }
+            bbox = new double[] { ra.getDouble(0), ra.getDouble(1), ra.getDouble(2), ra.getDouble(3) };
+        }
+
+        WritableArray locationsArray = Arguments.createArray();
+        LocationDAO dao = createLocationDAO();
+        try {
+            for (BackgroundLocation location : dao.getLocationsInRange(from, to, bbox, limit)) {
+                locationsArray.pushMap(locationToMap(location));
+            }
+            success.invoke(locationsArray);
+        } catch (Exception e) {
+            log.error("Getting locations in range failed: {}", e.getMessage());
+            error.invoke("Converting locations to JSON failed.");
+        }
+    }
+
+    private WritableMap locationToMap(BackgroundLocation location) {
+        WritableMap out = Arguments.createMap();
+        Long locationId = location.getLocationId();
+        Integer locationProvider = location.getLocationProvider();
+        if (locationId != null) out.putInt("locationId", Convert.safeLongToInt(locationId));
+        if (locationProvider != null) out.putInt("locationProvider", locationProvider);
+        out.putDouble("time", new Long(location.getTime()).doubleValue());
+        out.putDouble("latitude", location.getLatitude());
+        out.putDouble("longitude", location.getLongitude());
+        out.putDouble("accuracy", location.getAccuracy());
+        out.putDouble("speed", location.getSpeed());
+        out.putDouble("altitude", location.getAltitude());
+        out.putDouble("bearing", location.getBearing());
+        if (location.hasSmoothed()) {
+            out.putDouble("smoothedLatitude", location.getSmoothedLatitude());
+            out.putDouble("smoothedLongitude", location.getSmoothedLongitude());
+        }
+
+        return out;
+    }
+
     @ReactMethod
     public void switchMode(ReadableMap options, Callback success, Callback error) {
         //TODO: implement
@@ -335,6 +428,31 @@ public class BackgroundGeolocationModule extends ReactContextBaseJavaModule impl
             }
             json.putMap("httpHeaders", httpHeaders);
             json.putInt("maxLocations", config.getMaxLocations());
+            json.putInt("locationStore", config.getLocationStore());
+            json.putInt("syncCompression", config.getSyncCompression());
+            json.putInt("syncBatchSize", config.getSyncBatchSize());
+            json.putInt("syncBatchBytes", config.getSyncBatchBytes());
+            json.putInt("payloadFormat", config.getPayloadFormat());
+            json.putInt("httpConnectTimeout", config.getHttpConnectTimeout());
+            json.putInt("httpReadTimeout", config.getHttpReadTimeout());
+            json.putInt("postBatchWindow", config.getPostBatchWindow());
+            json.putInt("postBatchSize", config.getPostBatchSize());
+            json.putInt("uploadConcurrency", config.getUploadConcurrency());
+            json.putInt("uploadQueueSize", config.getUploadQueueSize());
+            json.putInt("retryBaseDelay", config.getRetryBaseDelay());
+            json.putInt("retryMaxDelay", config.getRetryMaxDelay());
+            json.putInt("circuitFailureThreshold", config.getCircuitFailureThreshold());
+            json.putInt("circuitOpenDuration", config.getCircuitOpenDuration());
+            json.putInt("syncMinBatchSize", config.getSyncMinBatchSize());
+            json.putInt("maxAccuracy", config.getMaxAccuracy());
+            json.putInt("maxSpeed", config.getMaxSpeed());
+            json.putInt("minTimeDelta", config.getMinTimeDelta());
+            json.putBoolean("rejectMockLocations", config.getRejectMockLocations());
+            json.putBoolean("smoothLocations", config.getSmoothLocations());
+            json.putInt("simplificationTolerance", config.getSimplificationTolerance());
+            json.putInt("visitRadius", config.getVisitRadius());
+            json.putInt("visitMinDuration", config.getVisitMinDuration());
+            json.putBoolean("rejectDuplicateLocations", config.getRejectDuplicateLocations());
 
             success.invoke(json);
         } catch (Exception e) {
@@ -362,6 +480,72 @@ public class BackgroundGeolocationModule extends ReactContextBaseJavaModule impl
         success.invoke(logEntriesArray);
     }
 
+    @ReactMethod
+    public void getSyncStats(Callback success, Callback error) {
+        WritableArray statsArray = Arguments.createArray();
+        UploadStatsDAO dao = DAOFactory.createUploadStatsDAO(getReactApplicationContext());
+        try {
+            for (UploadStats stats : dao.getAllUploadStats()) {
+                WritableMap out = Arguments.createMap();
+                out.putString("networkType", stats.getNetworkType());
+                out.putDouble("throughput", stats.getThroughput());
+                out.putDouble("latency", stats.getLatency());
+                out.putDouble("successRate", stats.getSuccessRate());
+                out.putDouble("uploads", stats.getUploads());
+                out.putDouble("failures", stats.getFailures());
+                out.putInt("batchSize", stats.getBatchSize());
+                out.putInt("syncThreshold", stats.getSyncThreshold());
+                out.putDouble("updatedAt", stats.getUpdatedAt());
+
+                statsArray.pushMap(out);
+            }
+            success.invoke(statsArray);
+        } catch (Exception e) {
+            log.error("Getting sync stats failed: {}", e.getMessage());
+            error.invoke("Getting sync stats failed: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void getVisits(Callback success, Callback error) {
+        WritableArray visitsArray = Arguments.createArray();
+        VisitDAO dao = DAOFactory.createVisitDAO(getReactApplicationContext());
+        try {
+            for (Visit visit : dao.getAllVisits()) {
+                visitsArray.pushMap(visitToMap(visit));
+            }
+            success.invoke(visitsArray);
+        } catch (Exception e) {
+            log.error("Getting visits failed: {}", e.getMessage());
+            error.invoke("Getting visits failed: " + e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void deleteAllVisits(Callback success, Callback error) {
+        VisitDAO dao = DAOFactory.createVisitDAO(getReactApplicationContext());
+        try {
+            dao.deleteAllVisits();
+            success.invoke(true);
+        } catch (Exception e) {
+            log.error("Deleting all visits failed: {}", e.getMessage());
+            error.invoke("Deleting all visits failed: " + e.getMessage());
+        }
+    }
+
+    private WritableMap visitToMap(Visit visit) {
+        WritableMap out = Arguments.createMap();
+        Long visitId = visit.getVisitId();
+        if (visitId != null) out.putInt("visitId", Convert.safeLongToInt(visitId));
+        out.putDouble("arrival", new Long(visit.getArrival()).doubleValue());
+        out.putDouble("departure", new Long(visit.getDeparture()).doubleValue());
+        out.putDouble("latitude", visit.getLatitude());
+        out.putDouble("longitude", visit.getLongitude());
+        out.putInt("pointCount", visit.getPointCount());
+
+        return out;
+    }
+
     /* Helpers */
 
     private void sendEvent(ReactContext reactContext, String eventName, @Nullable WritableMap params) {
@@ -440,6 +624,23 @@ public class BackgroundGeolocationModule extends ReactContextBaseJavaModule impl
         return this.getCurrentActivity();
     }
 
+    /**
+     * Returns location DAO of configured location store
+     * If plugin has not been configured yet, persisted configuration is used.
+     */
+    private LocationDAO createLocationDAO() {
+        Config config = mConfig;
+        if (config == null) {
+            ConfigurationDAO dao = DAOFactory.createConfigurationDAO(getReactApplicationContext());
+            try {
+                config = dao.retrieveConfiguration();
+            } catch (JSONException e) {
+                log.error("Config exception: {}", e.getMessage());
+            }
+        }
+        return DAOFactory.createLocationDAO(getReactApplicationContext(), config);
+    }
+
     private void persistConfiguration(Config config) throws NullPointerException {
         ConfigurationDAO dao = DAOFactory.createConfigurationDAO(getReactApplicationContext());
         dao.persistConfiguration(config);
@@ -493,6 +694,10 @@ public class BackgroundGeolocationModule extends ReactContextBaseJavaModule impl
                         out.putDouble("speed", location.getSpeed());
                         out.putDouble("altitude", location.getAltitude());
                         out.putDouble("bearing", location.getBearing());
+                        if (location.hasSmoothed()) {
+                            out.putDouble("smoothedLatitude", location.getSmoothedLatitude());
+                            out.putDouble("smoothedLongitude", location.getSmoothedLongitude());
+                        }
 
                         sendEvent(getReactApplicationContext(), LOCATION_EVENT, out);
                     } catch (Exception e) {
@@ -536,6 +741,27 @@ public class BackgroundGeolocationModule extends ReactContextBaseJavaModule impl
                     }
 
                     break;
+                case LocationService.MSG_ON_CIRCUIT_STATE_CHANGE: {
+                    Bundle bundle = msg.getData();
+                    WritableMap out = Arguments.createMap();
+                    out.putString("url", bundle.getString("url"));
+                    out.putString("state", bundle.getString("state"));
+                    out.putDouble("retryAt", new Long(bundle.getLong("retryAt")).doubleValue());
+
+                    sendEvent(getReactApplicationContext(), CIRCUIT_EVENT, out);
+
+                    break;
+                }
+                case LocationService.MSG_ON_VISIT: {
+                    log.debug("Sending visit to webview");
+                    Bundle bundle = msg.getData();
+                    bundle.setClassLoader(LocationService.class.getClassLoader());
+                    Visit visit = (Visit) bundle.getParcelable("visit");
+
+                    sendEvent(getReactApplicationContext(), VISIT_EVENT, visitToMap(visit));
+
+                    break;
+                }
                 default:
                     super.handleMessage(msg);
             }
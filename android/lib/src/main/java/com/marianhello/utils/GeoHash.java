@@ -0,0 +1,122 @@
+package com.marianhello.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Integer geohash (Morton code) of location
+ *
+ * Latitude and longitude are quantized into BITS bits each and their bits are interleaved,
+ * so locations close to each other share common prefix of geohash.
+ * Every cell of quadtree built above geohash maps to continuous range of geohashes,
+ * therefore bounding box can be searched with few range scans of ordinary B-tree index.
+ */
+public class GeoHash {
+    /** number of bits per coordinate (approx. 0.3m precision at equator) */
+    public static final int BITS = 26;
+
+    /** max number of quadtree cells used to cover bounding box */
+    private static final int MAX_CELLS = 16;
+
+    private static final long MAX_CELL = (1L << BITS) - 1;
+
+    private GeoHash() {}
+
+    /**
+     * Returns geohash of given coordinates
+     *
+     * @param latitude
+     * @param longitude
+     * @return geohash
+     */
+    public static long encode(double latitude, double longitude) {
+        return interleave(quantize(longitude, -180, 180), quantize(latitude, -90, 90));
+    }
+
+    /**
+     * Returns sorted, non overlapping geohash ranges covering given bounding box
+     *
+     * Ranges may cover also area outside of bounding box,
+     * so matched locations has to be filtered by their coordinates.
+     * Bounding box crossing antimeridian (west > east) is supported.
+     *
+     * @param west min longitude
+     * @param south min latitude
+     * @param east max longitude
+     * @param north max latitude
+     * @return list of [from, to] inclusive geohash ranges
+     */
+    public static List<long[]> coverRanges(double west, double south, double east, double north) {
+        List<long[]> ranges = new ArrayList<long[]>();
+        if (west > east) {
+            addCoverRanges(ranges, west, south, 180, north);
+            addCoverRanges(ranges, -180, south, east, north);
+        } else {
+            addCoverRanges(ranges, west, south, east, north);
+        }
+
+        Collections.sort(ranges, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+
+        // merge adjacent ranges
+        List<long[]> merged = new ArrayList<long[]>(ranges.size());
+        for (long[] range : ranges) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+
+        return merged;
+    }
+
+    private static void addCoverRanges(List<long[]> ranges, double west, double south, double east, double north) {
+        long xmin = quantize(west, -180, 180);
+        long xmax = quantize(east, -180, 180);
+        long ymin = quantize(south, -90, 90);
+        long ymax = quantize(north, -90, 90);
+
+        // find finest quadtree level at which bounding box is covered by at most MAX_CELLS cells
+        int shift = 0;
+        while (((xmax >> shift) - (xmin >> shift) + 1) * ((ymax >> shift) - (ymin >> shift) + 1) > MAX_CELLS) {
+            shift++;
+        }
+
+        for (long x = xmin >> shift; x <= xmax >> shift; x++) {
+            for (long y = ymin >> shift; y <= ymax >> shift; y++) {
+                long prefix = interleave(x, y);
+                ranges.add(new long[] { prefix << (2 * shift), ((prefix + 1) << (2 * shift)) - 1 });
+            }
+        }
+    }
+
+    private static long quantize(double value, double min, double max) {
+        long cell = (long) Math.floor((value - min) / (max - min) * (MAX_CELL + 1));
+        return Math.max(0, Math.min(MAX_CELL, cell));
+    }
+
+    private static long interleave(long x, long y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    /**
+     * Spread lower 32 bits of value into even bits of result
+     */
+    private static long spread(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+}
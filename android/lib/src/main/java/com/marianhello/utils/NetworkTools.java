@@ -0,0 +1,66 @@
+package com.marianhello.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+
+public class NetworkTools {
+    public static final String NETWORK_TYPE_NONE = "none";
+    public static final String NETWORK_TYPE_WIFI = "wifi";
+    public static final String NETWORK_TYPE_ETHERNET = "ethernet";
+    public static final String NETWORK_TYPE_CELLULAR_2G = "cellular_2g";
+    public static final String NETWORK_TYPE_CELLULAR_3G = "cellular_3g";
+    public static final String NETWORK_TYPE_CELLULAR_4G = "cellular_4g";
+    public static final String NETWORK_TYPE_CELLULAR = "cellular";
+    public static final String NETWORK_TYPE_OTHER = "other";
+
+    /**
+     * Returns type of active network, cellular networks are split by their generation
+     * @param context
+     * @return one of NETWORK_TYPE constants
+     */
+    public static String getNetworkType(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        if (activeNetwork == null || !activeNetwork.isConnectedOrConnecting()) {
+            return NETWORK_TYPE_NONE;
+        }
+
+        switch (activeNetwork.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                return NETWORK_TYPE_WIFI;
+            case ConnectivityManager.TYPE_ETHERNET:
+                return NETWORK_TYPE_ETHERNET;
+            case ConnectivityManager.TYPE_MOBILE:
+                return getCellularNetworkType(activeNetwork.getSubtype());
+            default:
+                return NETWORK_TYPE_OTHER;
+        }
+    }
+
+    private static String getCellularNetworkType(int subtype) {
+        switch (subtype) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return NETWORK_TYPE_CELLULAR_2G;
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+            case TelephonyManager.NETWORK_TYPE_HSDPA:
+            case TelephonyManager.NETWORK_TYPE_HSUPA:
+            case TelephonyManager.NETWORK_TYPE_HSPA:
+            case TelephonyManager.NETWORK_TYPE_EHRPD:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+                return NETWORK_TYPE_CELLULAR_3G;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return NETWORK_TYPE_CELLULAR_4G;
+            default:
+                return NETWORK_TYPE_CELLULAR;
+        }
+    }
+}
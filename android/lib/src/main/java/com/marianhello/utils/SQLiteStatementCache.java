@@ -0,0 +1,134 @@
+package com.marianhello.utils;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Cache of compiled SQLite statements
+ *
+ * Statements are compiled once per database connection, sql string and thread,
+ * then reused for every subsequent execution:
+ *
+ * <pre>
+ * SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, sql);
+ * stmt.clearBindings();
+ * stmt.bindLong(1, value);
+ * stmt.executeUpdateDelete();
+ * </pre>
+ *
+ * Cached statement is never shared between threads, so caller needs no synchronization.
+ * Shared statement would need its own lock held for whole bind/execute sequence,
+ * while execution itself waits for database connection. Thread holding connection
+ * by transaction and waiting for such lock would deadlock with thread holding the lock
+ * and waiting for connection. Native prepared statement is cached by connection itself,
+ * so statement of every thread is prepared only once per connection.
+ *
+ * Statements of given database must be released before database is closed.
+ */
+public class SQLiteStatementCache {
+
+    /**
+     * Statements of single thread
+     */
+    private static class ThreadStatements {
+        final Map<SQLiteDatabase, Map<String, SQLiteStatement>> statements =
+                new HashMap<SQLiteDatabase, Map<String, SQLiteStatement>>();
+        int releaseCount;
+    }
+
+    private static final ThreadLocal<ThreadStatements> cache = new ThreadLocal<ThreadStatements>() {
+        @Override
+        protected ThreadStatements initialValue() {
+            return new ThreadStatements();
+        }
+    };
+
+    // statements of all threads by database, released with database (weak, so they die with their thread)
+    private static final Map<SQLiteDatabase, Set<SQLiteStatement>> compiled =
+            new HashMap<SQLiteDatabase, Set<SQLiteStatement>>();
+    private static volatile int releaseCount = 0;
+
+    private SQLiteStatementCache() {}
+
+    /**
+     * Returns compiled statement of calling thread for given database and sql
+     * Statement is compiled on first request.
+     *
+     * Statement is compiled without holding any monitor, as compilation waits for database connection.
+     *
+     * @param db
+     * @param sql
+     * @return cached statement
+     */
+    public static SQLiteStatement getStatement(SQLiteDatabase db, String sql) {
+        ThreadStatements threadStatements = cache.get();
+        if (threadStatements.releaseCount != releaseCount) {
+            dropReleased(threadStatements);
+        }
+
+        Map<String, SQLiteStatement> statements = threadStatements.statements.get(db);
+        if (statements == null) {
+            statements = new HashMap<String, SQLiteStatement>();
+            threadStatements.statements.put(db, statements);
+        }
+        SQLiteStatement stmt = statements.get(sql);
+        if (stmt != null) {
+            return stmt;
+        }
+
+        stmt = db.compileStatement(sql);
+        statements.put(sql, stmt);
+        synchronized (compiled) {
+            Set<SQLiteStatement> dbStatements = compiled.get(db);
+            if (dbStatements == null) {
+                dbStatements = Collections.newSetFromMap(new WeakHashMap<SQLiteStatement, Boolean>());
+                compiled.put(db, dbStatements);
+            }
+            dbStatements.add(stmt);
+        }
+
+        return stmt;
+    }
+
+    /**
+     * Close cached statements of given database in all threads
+     *
+     * @param db
+     */
+    public static void release(SQLiteDatabase db) {
+        Set<SQLiteStatement> statements;
+        synchronized (compiled) {
+            statements = compiled.remove(db);
+            releaseCount++;
+        }
+        if (statements == null) {
+            return;
+        }
+        // statement being executed by other thread is closed after execution by its reference count
+        for (SQLiteStatement stmt : statements.toArray(new SQLiteStatement[0])) {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Forget statements of released databases
+     */
+    private static void dropReleased(ThreadStatements threadStatements) {
+        synchronized (compiled) {
+            Iterator<SQLiteDatabase> it = threadStatements.statements.keySet().iterator();
+            while (it.hasNext()) {
+                if (!compiled.containsKey(it.next())) {
+                    it.remove();
+                }
+            }
+            threadStatements.releaseCount = releaseCount;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.marianhello.bgloc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConfigTest {
+
+    @Test
+    public void zeroMaxLocationsKeepsOneLocation() {
+        Config config = new Config();
+        config.setMaxLocations(0);
+        assertEquals(Integer.valueOf(1), config.getMaxLocations());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMaxLocationsIsRejected() {
+        new Config().setMaxLocations(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullMaxLocationsIsRejected() {
+        new Config().setMaxLocations(null);
+    }
+}
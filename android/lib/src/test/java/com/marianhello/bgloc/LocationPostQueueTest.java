@@ -0,0 +1,120 @@
+package com.marianhello.bgloc;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.http.LocalHttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Realtime posts of LocationPostQueue against local server
+ *
+ * Every coalesced post is sent as single request, so server sees
+ * one request per maxSize locations instead of one request per location.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocationPostQueueTest {
+    private static final int LOCATIONS = 100;
+
+    private LocalHttpServer server;
+    private Handler handler;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalHttpServer();
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void microBatchingReducesNumberOfRequests() {
+        LocationPostQueue queue = new LocationPostQueue(handler, new PostingListener(), 1, 0);
+        offer(queue, LOCATIONS);
+        int unbatched = server.getRequestCount();
+
+        server.reset();
+        queue = new LocationPostQueue(handler, new PostingListener(), 10, 60000);
+        offer(queue, LOCATIONS);
+        int batched = server.getRequestCount();
+
+        System.out.println(String.format("%d locations posted in %d requests unbatched, %d requests batched",
+                LOCATIONS, unbatched, batched));
+        assertEquals(LOCATIONS, unbatched);
+        assertEquals(LOCATIONS / 10, batched);
+        assertEquals(LOCATIONS, countLocations(server.getBodies()));
+    }
+
+    @Test
+    public void partialBatchIsPostedWhenWindowElapses() {
+        LocationPostQueue queue = new LocationPostQueue(handler, new PostingListener(), 10, 5000);
+        offer(queue, 3);
+        assertEquals(0, server.getRequestCount());
+        assertEquals(3, queue.size());
+
+        ShadowLooper.idleMainLooper(5000);
+        assertEquals(1, server.getRequestCount());
+        assertEquals(3, countLocations(server.getBodies()));
+        assertEquals(0, queue.size());
+    }
+
+    private void offer(LocationPostQueue queue, int count) {
+        for (int i = 0; i < count; i++) {
+            BackgroundLocation location = new BackgroundLocation("gps");
+            location.setTime(1000000000000L + i * 1000L);
+            location.setLatitude(50.08 + i * 0.0001);
+            location.setLongitude(14.42 + i * 0.0001);
+            queue.offer(location);
+            ShadowLooper.idleMainLooper();
+        }
+    }
+
+    private static int countLocations(List<String> bodies) {
+        int count = 0;
+        try {
+            for (String body : bodies) {
+                count += new JSONArray(body).length();
+            }
+        } catch (JSONException e) {
+            throw new AssertionError(e);
+        }
+        return count;
+    }
+
+    /**
+     * Posts every coalesced batch of locations as single JSON array
+     */
+    private class PostingListener implements LocationPostQueue.Listener {
+        public void onPostLocations(List<BackgroundLocation> locations) {
+            try {
+                JSONArray json = new JSONArray();
+                for (BackgroundLocation location : locations) {
+                    json.put(location.toJSONObject());
+                }
+                assertEquals(200, HttpPostService.postJSON(server.getUrl(), json, new HashMap<String, String>()));
+            } catch (JSONException e) {
+                throw new AssertionError(e);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.marianhello.bgloc;
+
+import android.content.Intent;
+import android.database.DatabaseUtils;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.RecordingSQLiteConnection;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.TestDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Main thread only hands off work to pipeline stages
+ *
+ * Robolectric does not run loopers of background threads on their own,
+ * so stage tasks wait until test runs them on worker thread.
+ * Any db statement compiled or executed on main thread is reported
+ * by RecordingSQLiteConnection.
+ * Service is not destroyed, loopers of Robolectric 3.1 cannot quit safely.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocationServicePipelineTest {
+    private static final int LOCATIONS = 10;
+
+    private LocationService service;
+
+    /**
+     * Service without app resources, which are not available to library tests
+     */
+    public static class TestLocationService extends LocationService {
+        @Override
+        protected String getStringResource(String name) {
+            return "com.marianhello.bgloc.test";
+        }
+    }
+
+    @Before
+    public void setUp() {
+        RecordingSQLiteConnection.clear();
+        service = Robolectric.buildService(TestLocationService.class).create().get();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void noIoRunsOnMainThread() throws Exception {
+        Config config = new Config();
+        config.setStartForeground(false);
+        Intent intent = new Intent();
+        intent.putExtra("config", config);
+        service.onStartCommand(intent, 0, 1);
+        service.startRecording();
+        runStages();
+
+        Handler ingest = new Handler(service.getIngestLooper());
+        for (int i = 0; i < LOCATIONS; i++) {
+            final BackgroundLocation location = TestDatabase.createLocation(i);
+            // provider delivers locations on ingest looper
+            ingest.post(new Runnable() {
+                public void run() {
+                    service.handleLocation(location);
+                }
+            });
+        }
+        ingest.post(new Runnable() {
+            public void run() {
+                service.handleStationary(TestDatabase.createLocation(LOCATIONS));
+            }
+        });
+        service.onTaskRemoved(new Intent());
+        service.stopRecording();
+        List<String> mainThreadStatements = RecordingSQLiteConnection.getMainThreadStatements();
+        assertTrue("Statements run on main thread: " + mainThreadStatements, mainThreadStatements.isEmpty());
+        runStages();
+
+        mainThreadStatements = RecordingSQLiteConnection.getMainThreadStatements();
+        assertTrue("Statements run on main thread: " + mainThreadStatements, mainThreadStatements.isEmpty());
+        assertTrue(RecordingSQLiteConnection.getStatements().size() > 0);
+        for (PipelineStage.Stats stats : service.getPipelineStats()) {
+            assertEquals(stats.toString(), 0, stats.getOnMainThread());
+            assertEquals(stats.toString(), 0, stats.getDropped());
+        }
+        assertEquals(LOCATIONS, DatabaseUtils.queryNumEntries(TestDatabase.open(), LocationEntry.TABLE_NAME));
+    }
+
+    /**
+     * Run tasks of all stages on worker thread until none of stages has task ready to run
+     */
+    private void runStages() throws Exception {
+        final Looper[] loopers = {
+                getStageLooper("ingestStage"), getStageLooper("persistStage"), getStageLooper("notifyStage")
+        };
+        final Throwable[] error = new Throwable[1];
+        Thread worker = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    boolean idle = false;
+                    while (!idle) {
+                        idle = true;
+                        for (Looper looper : loopers) {
+                            if (shadowOf(looper).getScheduler().areAnyRunnable()) {
+                                shadowOf(looper).idle();
+                                idle = false;
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            }
+        }, "LocationServicePipelineTest");
+        worker.start();
+        worker.join();
+        if (error[0] != null) {
+            throw new AssertionError(error[0]);
+        }
+    }
+
+    private Looper getStageLooper(String name) throws Exception {
+        Field field = LocationService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return ((PipelineStage) field.get(service)).getLooper();
+    }
+}
@@ -0,0 +1,116 @@
+package com.marianhello.bgloc;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class UploadExecutorTest {
+
+    @Test
+    public void uploadsToSameEndpointRunInOrder() throws InterruptedException {
+        UploadExecutor executor = new UploadExecutor(2, 100);
+        final StringBuffer order = new StringBuffer();
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            final int n = i;
+            assertTrue(executor.submit("a", new Runnable() {
+                public void run() {
+                    order.append(n).append(',');
+                    done.countDown();
+                }
+            }));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("0,1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,", order.toString());
+        executor.shutdown();
+    }
+
+    @Test
+    public void uploadIsDroppedWhenQueueIsFull() throws InterruptedException {
+        UploadExecutor executor = new UploadExecutor(1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit("a", blockingTask(new CountDownLatch(1), release));
+        awaitInFlight(executor);
+
+        assertTrue(executor.submit("a", new CountingTask(null)));
+        assertTrue(executor.submit("b", new CountingTask(null)));
+        assertFalse(executor.submit("a", new CountingTask(null)));
+        assertEquals(1, executor.getStats().getDropped());
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void shutdownReturnsQueuedUploads() throws InterruptedException {
+        UploadExecutor executor = new UploadExecutor(1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executed = new AtomicInteger();
+        executor.submit("a", blockingTask(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Runnable a1 = new CountingTask(executed);
+        Runnable a2 = new CountingTask(executed);
+        Runnable b1 = new CountingTask(executed);
+        executor.submit("a", a1);
+        executor.submit("b", b1);
+        executor.submit("a", a2);
+
+        List<Runnable> dropped = executor.shutdown();
+        assertEquals(3, dropped.size());
+        assertTrue(dropped.containsAll(Arrays.asList(a1, a2, b1)));
+        assertTrue(dropped.indexOf(a1) < dropped.indexOf(a2));
+        assertTrue(executor.shutdown().isEmpty());
+        assertFalse(executor.submit("a", new CountingTask(executed)));
+
+        release.countDown();
+        Thread.sleep(100);
+        assertEquals(0, executed.get());
+        assertEquals(4, executor.getStats().getDropped());
+        assertEquals(0, executor.getStats().getQueueDepth());
+    }
+
+    private static Runnable blockingTask(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static void awaitInFlight(UploadExecutor executor) throws InterruptedException {
+        for (int i = 0; i < 100 && executor.getStats().getInFlight() == 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static class CountingTask implements Runnable {
+        private final AtomicInteger counter;
+
+        CountingTask(AtomicInteger counter) {
+            this.counter = counter;
+        }
+
+        public void run() {
+            if (counter != null) {
+                counter.incrementAndGet();
+            }
+        }
+    }
+}
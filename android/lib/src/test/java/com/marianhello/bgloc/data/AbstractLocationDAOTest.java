@@ -0,0 +1,309 @@
+package com.marianhello.bgloc.data;
+
+import com.marianhello.bgloc.data.sqlite.TestDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Behaviour shared by all location store backends (@see DAOFactory)
+ *
+ * Every backend runs the same tests and append/drain benchmark
+ * by extending this class.
+ */
+public abstract class AbstractLocationDAOTest {
+    private static final long MINUTE = 60000;
+
+    protected LocationDAO dao;
+    protected LocationOutbox outbox;
+
+    protected abstract LocationDAO createLocationDAO() throws Exception;
+
+    protected abstract LocationOutbox createLocationOutbox() throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        dao = createLocationDAO();
+        outbox = createLocationOutbox();
+    }
+
+    @Test
+    public void persistedLocationIsReadBack() {
+        BackgroundLocation location = TestDatabase.createLocation(1);
+        location.setSpeed(1.5f);
+        location.setBearing(90);
+        location.setAltitude(250);
+        location.setBatchStartMillis(0L);
+        Long locationId = dao.persistLocation(location);
+
+        Collection<BackgroundLocation> locations = dao.getAllLocations();
+        assertEquals(1, locations.size());
+        BackgroundLocation stored = locations.iterator().next();
+        assertEquals(locationId, stored.getLocationId());
+        assertEquals("gps", stored.getProvider());
+        assertEquals(location.getTime(), stored.getTime());
+        assertEquals(location.getLatitude(), stored.getLatitude(), 1e-7);
+        assertEquals(location.getLongitude(), stored.getLongitude(), 1e-7);
+        assertEquals(location.getAccuracy(), stored.getAccuracy(), 1e-3);
+        assertEquals(location.getSpeed(), stored.getSpeed(), 1e-3);
+        assertEquals(location.getBearing(), stored.getBearing(), 1e-3);
+        assertEquals(location.getAltitude(), stored.getAltitude(), 1e-3);
+        assertFalse(stored.hasRadius());
+        assertEquals(Integer.valueOf(0), stored.getLocationProvider());
+        assertTrue(stored.isValid());
+    }
+
+    @Test
+    public void locationIdsGrowInPersistOrder() {
+        List<Long> ids = persist(0, 10, 100);
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i) > ids.get(i - 1));
+        }
+    }
+
+    @Test
+    public void pagesFollowLocationIds() {
+        List<Long> ids = persist(0, 25, 100);
+        List<Long> paged = new ArrayList<Long>();
+        long afterLocationId = 0;
+        List<BackgroundLocation> page;
+        while (!(page = dao.getLocationsPage(afterLocationId, 10)).isEmpty()) {
+            assertTrue(page.size() <= 10);
+            for (BackgroundLocation location : page) {
+                paged.add(location.getLocationId());
+            }
+            afterLocationId = page.get(page.size() - 1).getLocationId();
+        }
+        assertEquals(ids, paged);
+    }
+
+    @Test
+    public void iteratorFetchesPagesLazily() {
+        List<Long> ids = persist(0, 25, 100);
+        List<Long> iterated = new ArrayList<Long>();
+        Iterator<BackgroundLocation> locations = dao.getLocationsIterator(0, 10);
+        while (locations.hasNext()) {
+            iterated.add(locations.next().getLocationId());
+        }
+        assertEquals(ids, iterated);
+        assertFalse(locations.hasNext());
+    }
+
+    @Test
+    public void iteratorResumesAfterLocation() {
+        List<Long> ids = persist(0, 25, 100);
+        Iterator<BackgroundLocation> locations = dao.getLocationsIterator(ids.get(9), 10);
+        List<BackgroundLocation> iterated = new ArrayList<BackgroundLocation>();
+        iterated.add(locations.next());
+        // locations persisted while iterating are returned too
+        persist(25, 5, 100);
+        while (locations.hasNext()) {
+            iterated.add(locations.next());
+        }
+        assertEquals(times(10, 30), times(iterated));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void iteratorRejectsEmptyPage() {
+        dao.getLocationsIterator(0, 0);
+    }
+
+    @Test
+    public void oldestLocationsAreEvictedWhenFull() {
+        persist(0, 25, 10);
+        assertEquals(times(15, 25), times(dao.getAllLocations()));
+        assertEquals(10L, dao.locationsForSyncCount(System.currentTimeMillis()).longValue());
+    }
+
+    @Test
+    public void newestLocationsAreKeptWhenLimitShrinks() {
+        persist(0, 20, 30);
+        persist(20, 5, 10);
+        assertEquals(times(15, 25), times(dao.getAllLocations()));
+
+        persist(25, 10, 20);
+        assertEquals(times(15, 35), times(dao.getAllLocations()));
+        assertEquals(20L, dao.locationsForSyncCount(System.currentTimeMillis()).longValue());
+    }
+
+    @Test
+    public void newestLocationIsKeptWithZeroLimit() {
+        persist(0, 5, 0);
+        assertEquals(times(4, 5), times(dao.getAllLocations()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLimitIsRejected() {
+        persist(0, 1, -1);
+    }
+
+    @Test
+    public void deletedLocationIsNotValid() {
+        List<Long> ids = persist(0, 5, 100);
+        dao.deleteLocation(ids.get(1));
+        dao.deleteLocations(Arrays.asList(ids.get(3), ids.get(4)));
+
+        List<Long> validIds = new ArrayList<Long>();
+        for (BackgroundLocation location : dao.getValidLocations()) {
+            validIds.add(location.getLocationId());
+        }
+        assertEquals(Arrays.asList(ids.get(0), ids.get(2)), validIds);
+        assertEquals(2L, dao.locationsForSyncCount(System.currentTimeMillis()).longValue());
+
+        dao.deleteAllLocations();
+        assertTrue(dao.getValidLocations().isEmpty());
+        assertEquals(0L, dao.locationsForSyncCount(System.currentTimeMillis()).longValue());
+    }
+
+    @Test
+    public void rangeQueryFiltersTimeAndBoundingBox() {
+        persist(0, 100, 1000);
+        long start = TestDatabase.createLocation(0).getTime();
+
+        assertEquals(times(10, 21), times(dao.getLocationsInRange(start + 10000, start + 20000, null, null)));
+        assertEquals(times(90, 100), times(dao.getLocationsInRange(start + 90000, null, null, null)));
+        assertEquals(times(0, 5), times(dao.getLocationsInRange(null, null, null, 5)));
+
+        // locations move by 1e-5 degree, bounding box of locations 40 to 49
+        double[] bbox = { 14.42 + 39.5e-5, 50.08 + 39.5e-5, 14.42 + 49.5e-5, 50.08 + 49.5e-5 };
+        assertEquals(times(40, 50), times(dao.getLocationsInRange(null, null, bbox, null)));
+        assertEquals(times(45, 50), times(dao.getLocationsInRange(start + 45000, null, bbox, null)));
+
+        double[] antimeridian = { 170, -90, 14.42 + 4.5e-5, 90 };
+        assertEquals(times(0, 5), times(dao.getLocationsInRange(null, null, antimeridian, null)));
+        assertTrue(dao.getLocationsInRange(null, null, new double[] { 0, 0, 1, 1 }, null).isEmpty());
+    }
+
+    @Test
+    public void leasedLocationIsNotPending() {
+        List<Long> ids = persist(0, 5, 100);
+        long now = System.currentTimeMillis();
+
+        assertEquals(ids.subList(0, 3), outbox.lease(ids.subList(0, 3), 1, now + MINUTE));
+        assertEquals(2L, dao.locationsForSyncCount(now).longValue());
+        // other holder cannot lease locations until lease expires
+        assertEquals(ids.subList(3, 5), outbox.lease(ids, 2, now + MINUTE));
+        assertEquals(0L, dao.locationsForSyncCount(now).longValue());
+        // holder renews its lease
+        assertEquals(ids.subList(0, 3), outbox.lease(ids.subList(0, 3), 1, now + 2 * MINUTE));
+    }
+
+    @Test
+    public void expiredLeaseCanBeTakenOver() {
+        List<Long> ids = persist(0, 3, 100);
+        long now = System.currentTimeMillis();
+
+        outbox.lease(ids, 1, now - 1);
+        assertEquals(3L, dao.locationsForSyncCount(now).longValue());
+        assertEquals(ids, outbox.lease(ids, 2, now + MINUTE));
+    }
+
+    @Test
+    public void releasedLocationIsPendingAgain() {
+        List<Long> ids = persist(0, 3, 100);
+        long now = System.currentTimeMillis();
+
+        outbox.lease(ids, 1, now + MINUTE);
+        outbox.release(2, ids);
+        assertEquals(0L, dao.locationsForSyncCount(now).longValue());
+        outbox.release(1, ids.subList(0, 2));
+        assertEquals(2L, dao.locationsForSyncCount(now).longValue());
+        assertEquals(ids.subList(0, 2), outbox.lease(ids, 3, now + MINUTE));
+    }
+
+    @Test
+    public void ackedLocationIsNotValid() {
+        List<Long> ids = persist(0, 4, 100);
+        long now = System.currentTimeMillis();
+
+        outbox.lease(ids.subList(0, 2), 1, now + MINUTE);
+        outbox.lease(ids.subList(2, 4), 2, now + MINUTE);
+        // only lease holder can ack
+        outbox.ack(1, ids);
+        assertEquals(2, dao.getValidLocations().size());
+        outbox.ack(2, ids.subList(2, 3));
+        assertEquals(1, dao.getValidLocations().size());
+
+        outbox.release(2, ids);
+        assertEquals(1L, dao.locationsForSyncCount(now).longValue());
+        assertTrue(outbox.lease(ids.subList(0, 3), 3, now + MINUTE).isEmpty());
+    }
+
+    /**
+     * Locations are appended in batches of 10 and drained by pages leased and acked by uploader
+     */
+    @Test
+    public void benchmarkAppendAndDrain() {
+        int count = 10000;
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(TestDatabase.createLocation(i));
+        }
+
+        long appendTime = System.nanoTime();
+        for (int i = 0; i < count; i += 10) {
+            dao.persistLocationsWithLimit(locations.subList(i, i + 10), count);
+        }
+        appendTime = System.nanoTime() - appendTime;
+
+        long drainTime = System.nanoTime();
+        long afterLocationId = 0;
+        int drained = 0;
+        List<BackgroundLocation> page;
+        while (!(page = dao.getLocationsPage(afterLocationId, 100)).isEmpty()) {
+            List<Long> ids = new ArrayList<Long>(page.size());
+            for (BackgroundLocation location : page) {
+                ids.add(location.getLocationId());
+            }
+            List<Long> leased = outbox.lease(ids, 1, System.currentTimeMillis() + MINUTE);
+            outbox.ack(1, leased);
+            drained += leased.size();
+            afterLocationId = ids.get(ids.size() - 1);
+        }
+        drainTime = System.nanoTime() - drainTime;
+
+        System.out.println(String.format("%s append %d us/location, drain %d us/location", getClass().getSimpleName(),
+                appendTime / count / 1000, drainTime / count / 1000));
+        assertEquals(count, drained);
+        assertTrue(dao.getValidLocations().isEmpty());
+    }
+
+    private List<Long> persist(int first, int count, int maxRows) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        for (int i = first; i < first + count; i++) {
+            locations.add(TestDatabase.createLocation(i));
+        }
+        return dao.persistLocationsWithLimit(locations, maxRows);
+    }
+
+    /**
+     * Returns times of TestDatabase locations from (inclusive) to (exclusive)
+     */
+    private static List<Long> times(int from, int to) {
+        List<Long> times = new ArrayList<Long>();
+        for (int i = from; i < to; i++) {
+            times.add(TestDatabase.createLocation(i).getTime());
+        }
+        return times;
+    }
+
+    private static List<Long> times(Collection<BackgroundLocation> locations) {
+        List<Long> times = new ArrayList<Long>();
+        for (BackgroundLocation location : locations) {
+            times.add(location.getTime());
+        }
+        Collections.sort(times);
+        return times;
+    }
+}
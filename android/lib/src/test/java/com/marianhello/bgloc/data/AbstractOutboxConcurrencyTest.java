@@ -0,0 +1,277 @@
+package com.marianhello.bgloc.data;
+
+import com.marianhello.bgloc.data.serializer.LocationSerializer;
+import com.marianhello.bgloc.data.sqlite.TestDatabase;
+import com.marianhello.bgloc.sync.BatchManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Realtime posting and batch sync racing for same locations
+ *
+ * Every location has to be uploaded exactly once, by only one of uploaders
+ * and never while it is held by other uploader. Every store backend runs the same race
+ * by extending this class, sync drains its own outbox as sync adapter process does.
+ */
+public abstract class AbstractOutboxConcurrencyTest {
+    private static final long REALTIME_LEASE_ID = 1;
+    private static final long MINUTE = 60000;
+    private static final int ROUNDS = 300;
+    private static final int MAX_LOCATIONS = 10000;
+
+    private LocationDAO dao;
+    private LocationOutbox outbox;
+    private BatchManager batchManager;
+
+    // locations being uploaded right now, id -> uploader
+    private final ConcurrentHashMap<Long, String> uploading = new ConcurrentHashMap<Long, String>();
+    private final List<String> violations = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<Long> persisted = Collections.synchronizedSet(new HashSet<Long>());
+    private final Set<Long> realtimeUploaded = new HashSet<Long>();
+    private final Set<Long> syncUploaded = new HashSet<Long>();
+    private volatile boolean persisting;
+    private long batchStartMillis;
+
+    /**
+     * Serializer recording locations written into batch as being uploaded by sync
+     */
+    private class RecordingSerializer implements LocationSerializer {
+        final List<Long> written = new ArrayList<Long>();
+
+        public String getContentType() {
+            return "application/octet-stream";
+        }
+
+        public byte[] serialize(BackgroundLocation location) {
+            throw new UnsupportedOperationException();
+        }
+
+        public BatchWriter createBatchWriter(final OutputStream out) {
+            written.clear();
+            return new BatchWriter() {
+                public void write(BackgroundLocation location) throws IOException {
+                    startUpload(location.getLocationId(), "sync");
+                    written.add(location.getLocationId());
+                    out.write(1);
+                }
+
+                public void finish() {
+                }
+            };
+        }
+    }
+
+    protected abstract LocationDAO createLocationDAO() throws Exception;
+
+    /**
+     * Returns outbox of realtime posting
+     */
+    protected abstract LocationOutbox createLocationOutbox() throws Exception;
+
+    /**
+     * Returns outbox drained by batch sync
+     */
+    protected abstract LocationOutbox createSyncOutbox() throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        dao = createLocationDAO();
+        outbox = createLocationOutbox();
+        batchManager = new BatchManager(createSyncOutbox());
+        batchStartMillis = System.currentTimeMillis();
+    }
+
+    @Test(timeout = 60000)
+    public void realtimeAndSyncUploadEveryLocationOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            persisting = true;
+            Future<Void> realtime = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        runRealtime(new Random(1));
+                    } finally {
+                        persisting = false;
+                    }
+                    return null;
+                }
+            });
+            Future<Void> sync = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(2);
+                    while (persisting) {
+                        if (!runSync(random, 4)) {
+                            Thread.yield();
+                        }
+                    }
+                    return null;
+                }
+            });
+            realtime.get(50, TimeUnit.SECONDS);
+            sync.get(50, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // locations left behind by released uploads are picked up by final sync
+        Random random = new Random(3);
+        while (runSync(random, 0)) {
+        }
+
+        assertEquals(Collections.<String>emptyList(), violations);
+        Set<Long> uploadedTwice = new HashSet<Long>(realtimeUploaded);
+        uploadedTwice.retainAll(syncUploaded);
+        assertEquals(Collections.<Long>emptySet(), uploadedTwice);
+        Set<Long> uploaded = new HashSet<Long>(realtimeUploaded);
+        uploaded.addAll(syncUploaded);
+        assertEquals(persisted, uploaded);
+        assertTrue(realtimeUploaded.size() > 0);
+        assertTrue(syncUploaded.size() > 0);
+        assertTrue(dao.getValidLocations().isEmpty());
+        assertEquals(0L, dao.locationsForSyncCount(System.currentTimeMillis()).longValue());
+    }
+
+    /**
+     * Realtime upload which took longer than its lease cannot ack locations taken over by sync
+     */
+    @Test
+    public void expiredRealtimeLeaseCannotAckSyncLease() throws Exception {
+        List<Long> ids = persist(0, 5);
+        long now = System.currentTimeMillis();
+        assertEquals(ids, outbox.lease(ids, REALTIME_LEASE_ID, now - 1));
+
+        BatchManager.StreamingBatch batch = batchManager.createStreamingBatch(batchStartMillis, 1, null,
+                10, Integer.MAX_VALUE, new RecordingSerializer());
+        batch.writeTo(new NullOutputStream());
+        assertEquals(5, batch.getWrittenCount());
+
+        outbox.ack(REALTIME_LEASE_ID, ids);
+        outbox.release(REALTIME_LEASE_ID, ids);
+        assertEquals(5, dao.getValidLocations().size());
+        assertEquals(0L, dao.locationsForSyncCount(now).longValue());
+
+        batchManager.setBatchCompleted(batch);
+        assertTrue(dao.getValidLocations().isEmpty());
+    }
+
+    /**
+     * Persist locations and upload them as LocationService does, racing with sync for them
+     */
+    private void runRealtime(Random random) {
+        int sequence = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            int count = 1 + random.nextInt(10);
+            List<Long> ids = persist(sequence, count);
+            sequence += count;
+
+            List<Long> leased = outbox.lease(ids, REALTIME_LEASE_ID, System.currentTimeMillis() + MINUTE);
+            for (Long id : leased) {
+                startUpload(id, "realtime");
+            }
+            waitForServer(random);
+            // lease is given up before DB update, so other uploader can never see it still held
+            for (Long id : leased) {
+                uploading.remove(id);
+            }
+            if (random.nextInt(3) > 0) {
+                for (Long id : leased) {
+                    if (!realtimeUploaded.add(id)) {
+                        violations.add("location " + id + " uploaded twice by realtime");
+                    }
+                }
+                outbox.ack(REALTIME_LEASE_ID, leased);
+            } else {
+                outbox.release(REALTIME_LEASE_ID, leased);
+            }
+        }
+    }
+
+    /**
+     * Run single sync as SyncAdapter does, failing some of batches
+     *
+     * @param failureRate one of failureRate batches fails, 0 if none
+     * @return true if there were locations to sync
+     */
+    private boolean runSync(Random random, int failureRate) throws IOException {
+        RecordingSerializer serializer = new RecordingSerializer();
+        BatchManager.StreamingBatch batch = batchManager.createStreamingBatch(++batchStartMillis, 1, null,
+                1 + random.nextInt(20), Integer.MAX_VALUE, serializer);
+        if (batch == null) {
+            return false;
+        }
+        while (batch != null) {
+            batch.writeTo(new NullOutputStream());
+            waitForServer(random);
+            for (Long id : serializer.written) {
+                uploading.remove(id);
+            }
+            if (failureRate > 0 && random.nextInt(failureRate) == 0) {
+                batchManager.releaseBatch(batch);
+                break;
+            }
+            for (Long id : serializer.written) {
+                if (!syncUploaded.add(id)) {
+                    violations.add("location " + id + " uploaded twice by sync");
+                }
+            }
+            batchManager.setBatchCompleted(batch);
+            batch = batchManager.nextStreamingBatch(batch);
+        }
+        return true;
+    }
+
+    /**
+     * Keep uploaded locations in flight for a while, so uploads of both uploaders overlap
+     */
+    private static void waitForServer(Random random) {
+        try {
+            Thread.sleep(random.nextInt(3));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startUpload(Long locationId, String uploader) {
+        String other = uploading.putIfAbsent(locationId, uploader);
+        if (other != null) {
+            violations.add("location " + locationId + " uploaded by " + uploader + " while held by " + other);
+        }
+    }
+
+    private List<Long> persist(int first, int count) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        for (int i = first; i < first + count; i++) {
+            locations.add(TestDatabase.createLocation(i));
+        }
+        List<Long> ids = dao.persistLocationsWithLimit(locations, MAX_LOCATIONS);
+        persisted.addAll(ids);
+        return ids;
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.marianhello.bgloc.data;
+
+import com.marianhello.bgloc.Config;
+import com.marianhello.bgloc.data.journal.JournalLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationOutbox;
+import com.marianhello.bgloc.data.sqlite.TestDatabase;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class DAOFactoryTest {
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void journalIsUsedWithoutUpload() {
+        Config config = new Config();
+        config.setLocationStore(Config.JOURNAL_LOCATION_STORE);
+
+        assertTrue(DAOFactory.createLocationDAO(RuntimeEnvironment.application, config) instanceof JournalLocationDAO);
+        assertTrue(DAOFactory.createLocationOutbox(RuntimeEnvironment.application, config) instanceof JournalLocationDAO);
+    }
+
+    @Test
+    public void journalIsUsedWithUpload() {
+        Config config = new Config();
+        config.setLocationStore(Config.JOURNAL_LOCATION_STORE);
+        config.setSyncUrl("http://localhost/sync");
+
+        assertTrue(DAOFactory.createLocationDAO(RuntimeEnvironment.application, config) instanceof JournalLocationDAO);
+        assertTrue(DAOFactory.createLocationOutbox(RuntimeEnvironment.application, config) instanceof JournalLocationDAO);
+    }
+
+    @Test
+    public void sqliteIsUsedByDefault() {
+        Config config = new Config();
+        config.setUrl("http://localhost/locations");
+
+        assertTrue(DAOFactory.createLocationDAO(RuntimeEnvironment.application, config) instanceof SQLiteLocationDAO);
+        assertTrue(DAOFactory.createLocationOutbox(RuntimeEnvironment.application, config) instanceof SQLiteLocationOutbox);
+    }
+}
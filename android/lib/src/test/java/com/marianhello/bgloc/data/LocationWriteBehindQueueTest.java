@@ -0,0 +1,71 @@
+package com.marianhello.bgloc.data;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
+import com.marianhello.bgloc.data.sqlite.TestDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class LocationWriteBehindQueueTest {
+    private final List<BackgroundLocation> persisted = new ArrayList<BackgroundLocation>();
+    private LocationDAO dao;
+    private LocationWriteBehindQueue queue;
+
+    @Before
+    public void setUp() {
+        dao = new SQLiteLocationDAO(TestDatabase.open());
+        queue = new LocationWriteBehindQueue(dao, new Handler(Looper.getMainLooper()), new LocationWriteBehindQueue.Listener() {
+            public void onLocationsPersisted(List<BackgroundLocation> locations) {
+                persisted.addAll(locations);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void locationsAreFlushedWithLimit() {
+        queue.setMaxRows(0);
+        queue.offer(TestDatabase.createLocation(0));
+        queue.offer(TestDatabase.createLocation(1));
+        queue.flush();
+
+        assertEquals(2, persisted.size());
+        assertEquals(0, queue.size());
+        // only newest location is kept
+        Collection<BackgroundLocation> stored = dao.getAllLocations();
+        assertEquals(1, stored.size());
+        assertEquals(persisted.get(1).getLocationId(), stored.iterator().next().getLocationId());
+    }
+
+    @Test
+    public void failedLocationsArePassedToListener() {
+        // store rejects invalid limit, flush must not throw
+        queue.setMaxRows(-1);
+        queue.offer(TestDatabase.createLocation(0));
+        queue.offer(TestDatabase.createLocation(1));
+        queue.flush();
+
+        assertEquals(2, persisted.size());
+        for (BackgroundLocation location : persisted) {
+            assertEquals(Long.valueOf(-1), location.getLocationId());
+        }
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,129 @@
+package com.marianhello.bgloc.data.journal;
+
+import com.marianhello.bgloc.data.AbstractLocationDAOTest;
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationOutbox;
+import com.marianhello.bgloc.data.sqlite.TestDatabase;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class JournalLocationDAOTest extends AbstractLocationDAOTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Override
+    protected LocationDAO createLocationDAO() throws Exception {
+        file = new File(folder.getRoot(), JournalLocationDAO.JOURNAL_FILE_NAME);
+        return new JournalLocationDAO(file, 100);
+    }
+
+    @Override
+    protected LocationOutbox createLocationOutbox() {
+        return (LocationOutbox) dao;
+    }
+
+    @Test
+    public void locationsSurviveReopen() {
+        persist(0, 30, 20);
+        dao.deleteLocation(12L);
+
+        JournalLocationDAO reopened = new JournalLocationDAO(file, 100);
+        assertEquals(dao.getAllLocations().size(), reopened.getAllLocations().size());
+        assertEquals(19, reopened.getValidLocations().size());
+        assertEquals(Long.valueOf(31), reopened.persistLocation(TestDatabase.createLocation(30)));
+    }
+
+    @Test
+    public void resizedJournalReplacesFile() throws Exception {
+        persist(0, 30, 50);
+        persist(30, 10, 20);
+
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertEquals(20, dao.getAllLocations().size());
+        JournalLocationDAO reopened = new JournalLocationDAO(file, 100);
+        assertEquals(20, reopened.getAllLocations().size());
+        assertEquals(Long.valueOf(21), reopened.getAllLocations().iterator().next().getLocationId());
+    }
+
+    @Test
+    public void tornRecordIsDroppedOnReopen() throws Exception {
+        persist(0, 10, 100);
+
+        // corrupt latitude of location 5
+        int headerSize = 32, bitmapSize = 16, leasesSize = 100 * 16, recordSize = 80;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(headerSize + bitmapSize + leasesSize + 4 * recordSize + 16);
+            raf.writeDouble(0);
+        } finally {
+            raf.close();
+        }
+
+        JournalLocationDAO reopened = new JournalLocationDAO(file, 100);
+        assertEquals(9, reopened.getAllLocations().size());
+        assertEquals(9L, reopened.locationsForSyncCount(System.currentTimeMillis()).longValue());
+    }
+
+    /**
+     * Sync adapter process maps journal of service process
+     */
+    @Test
+    public void otherProcessSharesLocationsAndLeases() {
+        JournalLocationDAO sync = new JournalLocationDAO(file, 100);
+        persist(0, 10, 100);
+        long now = System.currentTimeMillis();
+
+        assertEquals(10L, sync.getMaxLocationId());
+        assertEquals(10, sync.leasePending(1, now + 60000, 10, 100));
+        assertEquals(0L, dao.locationsForSyncCount(now).longValue());
+        assertTrue(outbox.lease(Arrays.asList(1L, 2L), 2, now + 60000).isEmpty());
+
+        assertEquals(4, sync.getLeasedLocations(1, 6, 10, 100).size());
+        assertEquals(6, sync.ack(1, 0, 6));
+        assertEquals(4, dao.getValidLocations().size());
+        assertEquals(4, sync.release(1));
+        assertEquals(4L, dao.locationsForSyncCount(now).longValue());
+    }
+
+    @Test
+    public void otherProcessReopensResizedJournal() {
+        JournalLocationDAO sync = new JournalLocationDAO(file, 100);
+        persist(0, 30, 100);
+        long now = System.currentTimeMillis();
+        assertEquals(30, sync.leasePending(1, now + 60000, 30, 100));
+
+        persist(30, 10, 20);
+        assertEquals(40L, sync.getMaxLocationId());
+        // leases of kept locations survive resize
+        assertEquals(10, sync.getLeasedLocations(1, 0, 40, 100).size());
+        assertEquals(10L, sync.locationsForSyncCount(now).longValue());
+        assertEquals(Long.valueOf(41), sync.persistLocation(TestDatabase.createLocation(40)));
+        assertEquals(20, dao.getAllLocations().size());
+    }
+
+    private void persist(int first, int count, int maxRows) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        for (int i = first; i < first + count; i++) {
+            locations.add(TestDatabase.createLocation(i));
+        }
+        dao.persistLocationsWithLimit(locations, maxRows);
+    }
+}
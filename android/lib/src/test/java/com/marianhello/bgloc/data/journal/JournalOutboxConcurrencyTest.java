@@ -0,0 +1,44 @@
+package com.marianhello.bgloc.data.journal;
+
+import com.marianhello.bgloc.data.AbstractOutboxConcurrencyTest;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationOutbox;
+
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+
+/**
+ * Service and sync adapter process racing for locations of the same journal,
+ * every process has its own instance (mapping) of journal
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JournalOutboxConcurrencyTest extends AbstractOutboxConcurrencyTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JournalLocationDAO journal;
+
+    @Override
+    protected LocationDAO createLocationDAO() {
+        journal = new JournalLocationDAO(getFile(), 10000);
+        return journal;
+    }
+
+    @Override
+    protected LocationOutbox createLocationOutbox() {
+        return journal;
+    }
+
+    @Override
+    protected LocationOutbox createSyncOutbox() {
+        return new JournalLocationDAO(getFile(), 10000);
+    }
+
+    private File getFile() {
+        return new File(folder.getRoot(), JournalLocationDAO.JOURNAL_FILE_NAME);
+    }
+}
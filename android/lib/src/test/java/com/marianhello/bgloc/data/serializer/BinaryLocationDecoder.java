@@ -0,0 +1,86 @@
+package com.marianhello.bgloc.data.serializer;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference decoder of BinaryLocationSerializer wire format
+ *
+ * Written from format description only, servers accepting
+ * application/x-bgloc-locations can port it as is.
+ */
+public class BinaryLocationDecoder {
+    private static final double COORDINATE_SCALE = 1e7;
+
+    private BinaryLocationDecoder() {}
+
+    public static List<BackgroundLocation> decode(byte[] data) throws IOException {
+        InputStream in = new ByteArrayInputStream(data);
+        if (in.read() != 'B' || in.read() != 'L') {
+            throw new IOException("Not a location stream");
+        }
+        int version = in.read();
+        if (version != 1) {
+            throw new IOException("Unsupported version: " + version);
+        }
+
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        List<String> providers = new ArrayList<String>();
+        providers.add(null);
+        long time = 0, latitude = 0, longitude = 0;
+        while (in.available() > 0) {
+            int flags = (int) readVarint(in);
+            time += readVarint(in);
+            latitude += readVarint(in);
+            longitude += readVarint(in);
+            int providerIndex = (int) readVarint(in);
+            if (providerIndex == providers.size()) {
+                byte[] bytes = new byte[(int) readVarint(in)];
+                if (in.read(bytes) != bytes.length) {
+                    throw new IOException("Truncated provider");
+                }
+                providers.add(new String(bytes, "UTF-8"));
+            } else if (providerIndex > providers.size()) {
+                throw new IOException("Unknown provider index: " + providerIndex);
+            }
+
+            BackgroundLocation l = new BackgroundLocation(providers.get(providerIndex));
+            l.setTime(time);
+            l.setLatitude(latitude / COORDINATE_SCALE);
+            l.setLongitude(longitude / COORDINATE_SCALE);
+            if ((flags & 1) != 0) l.setAccuracy(readVarint(in) / 10f);
+            if ((flags & 2) != 0) l.setSpeed(readVarint(in) / 100f);
+            if ((flags & 4) != 0) l.setBearing(readVarint(in) / 10f);
+            if ((flags & 8) != 0) l.setAltitude(readVarint(in) / 10d);
+            if ((flags & 16) != 0) l.setRadius(readVarint(in) / 10f);
+            if ((flags & 32) != 0) l.setLocationProvider((int) readVarint(in));
+            if ((flags & 64) != 0) {
+                l.setSmoothedLatitude((latitude + readVarint(in)) / COORDINATE_SCALE);
+                l.setSmoothedLongitude((longitude + readVarint(in)) / COORDINATE_SCALE);
+            }
+            locations.add(l);
+        }
+
+        return locations;
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Truncated varint");
+            }
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
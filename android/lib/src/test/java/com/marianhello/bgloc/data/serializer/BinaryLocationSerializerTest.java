@@ -0,0 +1,187 @@
+package com.marianhello.bgloc.data.serializer;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryLocationSerializerTest {
+    private static final double COORDINATE_PRECISION = 0.5e-7;
+
+    private final BinaryLocationSerializer serializer = new BinaryLocationSerializer();
+
+    @Test
+    public void batchRoundTrip() throws IOException {
+        List<BackgroundLocation> locations = createTrack(1000, new Random(1));
+        assertLocationsEqual(locations, BinaryLocationDecoder.decode(serialize(serializer, locations)));
+    }
+
+    @Test
+    public void singleLocationRoundTrip() throws IOException {
+        BackgroundLocation location = createTrack(1, new Random(2)).get(0);
+        assertLocationsEqual(Arrays.asList(location), BinaryLocationDecoder.decode(serializer.serialize(location)));
+    }
+
+    @Test
+    public void providersAreSentOnce() throws IOException {
+        String[] providers = { "gps", null, "network", "gps", "žluťoučký", "network", null, "žluťoučký" };
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        for (int i = 0; i < providers.length; i++) {
+            BackgroundLocation location = new BackgroundLocation(providers[i]);
+            location.setTime(1000L * i);
+            locations.add(location);
+        }
+        byte[] data = serialize(serializer, locations);
+
+        assertLocationsEqual(locations, BinaryLocationDecoder.decode(data));
+        assertEquals(1, count(data, "gps".getBytes("UTF-8")));
+        assertEquals(1, count(data, "network".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void edgeValuesRoundTrip() throws IOException {
+        double[][] coordinates = { { 90, 180 }, { -90, -180 }, { 0, 0 }, { 89.9999999, -179.9999999 } };
+        long[] times = { Long.MAX_VALUE / 2, 0, -1000, 1 };
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        for (int i = 0; i < coordinates.length; i++) {
+            BackgroundLocation location = new BackgroundLocation("gps");
+            location.setTime(times[i]);
+            location.setLatitude(coordinates[i][0]);
+            location.setLongitude(coordinates[i][1]);
+            if (i == 1) {
+                location.setAltitude(-430.5);
+                location.setSpeed(0);
+                location.setBearing(359.9f);
+                location.setSmoothedLatitude(-89.9);
+                location.setSmoothedLongitude(179.9);
+            }
+            locations.add(location);
+        }
+        assertLocationsEqual(locations, BinaryLocationDecoder.decode(serialize(serializer, locations)));
+    }
+
+    @Test
+    public void emptyBatchHasHeaderOnly() throws IOException {
+        byte[] data = serialize(serializer, new ArrayList<BackgroundLocation>());
+        assertEquals(3, data.length);
+        assertTrue(BinaryLocationDecoder.decode(data).isEmpty());
+    }
+
+    /**
+     * Size and throughput of binary and JSON batch of typical track
+     */
+    @Test
+    public void benchmarkSizeAndThroughput() throws IOException {
+        List<BackgroundLocation> locations = createTrack(10000, new Random(3));
+        LocationSerializer json = new JsonLocationSerializer();
+        // warm up
+        serialize(serializer, locations);
+        serialize(json, locations);
+
+        long binaryTime = System.nanoTime();
+        int binarySize = serialize(serializer, locations).length;
+        binaryTime = System.nanoTime() - binaryTime;
+
+        long jsonTime = System.nanoTime();
+        int jsonSize = serialize(json, locations).length;
+        jsonTime = System.nanoTime() - jsonTime;
+
+        System.out.println(String.format("binary %d B/location %d ns/location, json %d B/location %d ns/location",
+                binarySize / locations.size(), binaryTime / locations.size(),
+                jsonSize / locations.size(), jsonTime / locations.size()));
+        assertTrue(binarySize * 4 < jsonSize);
+    }
+
+    private static byte[] serialize(LocationSerializer serializer, List<BackgroundLocation> locations) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LocationSerializer.BatchWriter writer = serializer.createBatchWriter(out);
+        for (BackgroundLocation location : locations) {
+            writer.write(location);
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    private static void assertLocationsEqual(List<BackgroundLocation> expected, List<BackgroundLocation> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            BackgroundLocation e = expected.get(i);
+            BackgroundLocation a = actual.get(i);
+            String message = "location " + i;
+            assertEquals(message, e.getProvider(), a.getProvider());
+            assertEquals(message, e.getTime(), a.getTime());
+            assertEquals(message, e.getLatitude(), a.getLatitude(), COORDINATE_PRECISION);
+            assertEquals(message, e.getLongitude(), a.getLongitude(), COORDINATE_PRECISION);
+            assertEquals(message, e.hasAccuracy(), a.hasAccuracy());
+            assertEquals(message, e.hasSpeed(), a.hasSpeed());
+            assertEquals(message, e.hasBearing(), a.hasBearing());
+            assertEquals(message, e.hasAltitude(), a.hasAltitude());
+            assertEquals(message, e.hasRadius(), a.hasRadius());
+            assertEquals(message, e.hasSmoothed(), a.hasSmoothed());
+            if (e.hasAccuracy()) assertEquals(message, e.getAccuracy(), a.getAccuracy(), 0.05);
+            if (e.hasSpeed()) assertEquals(message, e.getSpeed(), a.getSpeed(), 0.005);
+            if (e.hasBearing()) assertEquals(message, e.getBearing(), a.getBearing(), 0.05);
+            if (e.hasAltitude()) assertEquals(message, e.getAltitude(), a.getAltitude(), 0.05);
+            if (e.hasRadius()) assertEquals(message, e.getRadius(), a.getRadius(), 0.05);
+            if (e.hasSmoothed()) {
+                assertEquals(message, e.getSmoothedLatitude(), a.getSmoothedLatitude(), 2 * COORDINATE_PRECISION);
+                assertEquals(message, e.getSmoothedLongitude(), a.getSmoothedLongitude(), 2 * COORDINATE_PRECISION);
+            }
+            assertEquals(message, e.getLocationProvider(), a.getLocationProvider());
+        }
+    }
+
+    private static int count(byte[] data, byte[] pattern) {
+        int count = 0;
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            boolean matches = true;
+            for (int j = 0; j < pattern.length && matches; j++) {
+                matches = data[i + j] == pattern[j];
+            }
+            if (matches) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns walking track with fix every second, optional values set randomly
+     */
+    private static List<BackgroundLocation> createTrack(int count, Random random) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        double latitude = 50.08, longitude = 14.42;
+        for (int i = 0; i < count; i++) {
+            latitude += (random.nextDouble() - 0.3) * 0.00002;
+            longitude += (random.nextDouble() - 0.3) * 0.00002;
+            BackgroundLocation location = new BackgroundLocation(i % 10 == 0 ? "network" : "gps");
+            location.setTime(1500000000000L + i * 1000L + random.nextInt(50));
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+            location.setAccuracy(3 + random.nextFloat() * 20);
+            if (random.nextBoolean()) location.setSpeed(random.nextFloat() * 2);
+            if (random.nextBoolean()) location.setBearing(random.nextFloat() * 360);
+            if (random.nextBoolean()) location.setAltitude(200 + random.nextDouble() * 10);
+            if (i % 3 == 0) location.setRadius(random.nextFloat() * 50);
+            if (i % 2 == 0) location.setLocationProvider(i % 3);
+            if (i % 4 == 0) {
+                location.setSmoothedLatitude(latitude + (random.nextDouble() - 0.5) * 0.0001);
+                location.setSmoothedLongitude(longitude + (random.nextDouble() - 0.5) * 0.0001);
+            }
+            locations.add(location);
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,166 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.utils.GeoHash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bounding box queries against 1M locations
+ *
+ * Locations recorded every second over almost twelve days are bulk loaded,
+ * as persisting them one by one through DAO would take too long.
+ * Query of small bounding box and short time range must be answered in less than 10ms.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LargeLocationRangeQueryTest {
+    private static final int LOCATIONS = 1000000;
+    // compound select of older SQLite has at most 500 terms, multi-row VALUES is not supported
+    private static final int ROWS_PER_INSERT = 500;
+    private static final long START_TIME = 1000000000000L;
+    private static final long MAX_QUERY_MILLIS = 10;
+
+    private static final double[] BBOX = { 14.40, 50.05, 14.41, 50.06 };
+
+    private SQLiteDatabase db;
+    private SQLiteLocationDAO dao;
+
+    @Before
+    public void setUp() {
+        db = TestDatabase.open();
+        dao = new SQLiteLocationDAO(db);
+
+        // half of locations spread over whole world, other half clustered around Prague
+        Random random = new Random(1);
+        String insert = "INSERT INTO " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_NAME_PROVIDER + "," +
+                LocationEntry.COLUMN_NAME_TIME + "," +
+                LocationEntry.COLUMN_NAME_ACCURACY + "," +
+                LocationEntry.COLUMN_NAME_LATITUDE + "," +
+                LocationEntry.COLUMN_NAME_LONGITUDE + "," +
+                LocationEntry.COLUMN_NAME_HAS_ACCURACY + "," +
+                LocationEntry.COLUMN_NAME_LOCATION_PROVIDER + "," +
+                LocationEntry.COLUMN_NAME_VALID + "," +
+                LocationEntry.COLUMN_NAME_BATCH_START_MILLIS + "," +
+                LocationEntry.COLUMN_NAME_GEOHASH + "," +
+                LocationEntry.COLUMN_NAME_LEASE_ID + "," +
+                LocationEntry.COLUMN_NAME_LEASE_EXPIRES + "," +
+                LocationEntry.COLUMN_NAME_TIME_BUCKET + ") ";
+        StringBuilder sql = new StringBuilder();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATIONS; i++) {
+                long time = START_TIME + i * 1000L;
+                double latitude, longitude;
+                if (i % 2 == 0) {
+                    latitude = -90 + random.nextDouble() * 180;
+                    longitude = -180 + random.nextDouble() * 360;
+                } else {
+                    latitude = 50 + random.nextDouble() * 0.2;
+                    longitude = 14.3 + random.nextDouble() * 0.3;
+                }
+                sql.append(sql.length() == 0 ? insert : " UNION ALL ")
+                        .append("SELECT 'gps',").append(time).append(",10,")
+                        .append(latitude).append(',').append(longitude).append(",1,0,1,0,")
+                        .append(GeoHash.encode(latitude, longitude)).append(",0,0,")
+                        .append(time / LocationEntry.TIME_BUCKET_MILLIS);
+                if ((i + 1) % ROWS_PER_INSERT == 0) {
+                    db.execSQL(sql.toString());
+                    sql.setLength(0);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void boundingBoxOfHourIsFast() {
+        long from = START_TIME + LOCATIONS / 2 * 1000L;
+        long to = from + 3600000;
+        List<BackgroundLocation> locations = dao.getLocationsInRange(from, to, BBOX, null);
+        assertEquals(count(from, to), locations.size());
+        assertTrue(locations.size() > 0);
+
+        long elapsed = benchmark(from, to);
+        assertTrue("query took " + elapsed / 1000 + " us", elapsed < MAX_QUERY_MILLIS * 1000000);
+    }
+
+    /**
+     * Longer time ranges are just reported, whole time range is not searched bucket by bucket
+     */
+    @Test
+    public void benchmarkBoundingBox() {
+        long from = START_TIME + LOCATIONS / 2 * 1000L;
+        long to = from + 24 * 3600000L;
+        assertEquals(count(from, to), dao.getLocationsInRange(from, to, BBOX, null).size());
+        benchmark(from, to);
+
+        assertEquals(count(null, null), dao.getLocationsInRange(null, null, BBOX, null).size());
+        benchmark(null, null);
+    }
+
+    /**
+     * Returns best average time of query of several rounds in nanoseconds
+     *
+     * Timing of robolectric shadows is noisy (even trivial query takes milliseconds),
+     * so best round is taken as for timeit.
+     */
+    private long benchmark(Long from, Long to) {
+        int rounds = 10;
+        int runs = 20;
+        int found = 0;
+        // warm up, so query is not measured with interpreted code of robolectric shadows
+        for (int i = 0; i < runs; i++) {
+            dao.getLocationsInRange(from, to, BBOX, null);
+        }
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            long elapsed = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                found = dao.getLocationsInRange(from, to, BBOX, null).size();
+            }
+            elapsed = (System.nanoTime() - elapsed) / runs;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+
+        System.out.println(String.format("bounding box of %d locations from %s to %s: best %d us, mean %d us",
+                found, from, to, best / 1000, total / rounds / 1000));
+        return best;
+    }
+
+    private long count(Long from, Long to) {
+        String where = LocationEntry.COLUMN_NAME_LATITUDE + " BETWEEN " + BBOX[1] + " AND " + BBOX[3] +
+                " AND " + LocationEntry.COLUMN_NAME_LONGITUDE + " BETWEEN " + BBOX[0] + " AND " + BBOX[2];
+        if (from != null) {
+            where += " AND " + LocationEntry.COLUMN_NAME_TIME + " >= " + from;
+        }
+        if (to != null) {
+            where += " AND " + LocationEntry.COLUMN_NAME_TIME + " <= " + to;
+        }
+        return DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME, where);
+    }
+}
@@ -0,0 +1,197 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.serializer.JsonLocationSerializer;
+import com.marianhello.bgloc.sync.BatchManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Random sequences of location operations checking that trigger maintained
+ * valid location counter stays equal to COUNT(*) of valid locations
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocationCounterFuzzTest {
+    private static final int OPERATIONS = 400;
+
+    private SQLiteDatabase db;
+    private SQLiteLocationDAO dao;
+    private SQLiteLocationOutbox outbox;
+    private BatchManager batchManager;
+    private int sequence;
+    private long leaseId = 1;
+
+    @Before
+    public void setUp() {
+        db = TestDatabase.open();
+        dao = new SQLiteLocationDAO(db);
+        outbox = new SQLiteLocationOutbox(db);
+        batchManager = new BatchManager(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void counterMatchesCountOfValidLocations() throws Exception {
+        for (long seed = 1; seed <= 5; seed++) {
+            Random random = new Random(seed);
+            for (int i = 0; i < OPERATIONS; i++) {
+                String operation = runRandomOperation(random);
+                assertCounter("seed " + seed + ", operation " + i + " (" + operation + ")");
+            }
+            dao.deleteAllLocations();
+            assertCounter("seed " + seed + ", deleteAll");
+        }
+    }
+
+    /**
+     * Ring wrapping over valid locations replaces them by INSERT OR REPLACE.
+     * Row deleted by REPLACE conflict resolution fires delete trigger only with recursive_triggers.
+     */
+    @Test
+    public void ringEvictionOfValidLocationsDecrementsCounter() {
+        persist(30, 10);
+        assertEquals(10, counter());
+        assertCounter("ring eviction");
+    }
+
+    @Test
+    public void counterDriftsWithoutRecursiveTriggers() {
+        db.execSQL("PRAGMA recursive_triggers = OFF");
+        try {
+            persist(30, 10);
+            assertNotEquals(count(), counter());
+        } finally {
+            db.execSQL("PRAGMA recursive_triggers = ON");
+        }
+    }
+
+    private String runRandomOperation(Random random) throws Exception {
+        switch (random.nextInt(10)) {
+            case 0:
+            case 1:
+                persist(1 + random.nextInt(20), 5 + random.nextInt(40));
+                return "persist with limit";
+            case 2:
+                dao.persistLocation(TestDatabase.createLocation(sequence++));
+                return "persist";
+            case 3:
+                Long id = randomLocationId(random);
+                if (id != null) {
+                    dao.deleteLocation(id);
+                }
+                return "delete";
+            case 4:
+                List<Long> ids = new ArrayList<Long>();
+                for (int i = random.nextInt(5); i >= 0; i--) {
+                    Long locationId = randomLocationId(random);
+                    if (locationId != null) {
+                        ids.add(locationId);
+                    }
+                }
+                dao.deleteLocations(ids);
+                return "delete many";
+            case 5:
+                if (random.nextInt(10) == 0) {
+                    dao.deleteAllLocations();
+                    return "deleteAll";
+                }
+                dao.archiveInvalidLocations(1 + random.nextInt(10));
+                return "archive";
+            case 6:
+                long batchId = leaseId++;
+                File file = batchManager.createBatch(batchId, 1);
+                if (file != null) {
+                    file.delete();
+                    if (random.nextBoolean()) {
+                        batchManager.setBatchCompleted(batchId);
+                    } else {
+                        batchManager.releaseBatch(batchId);
+                    }
+                }
+                return "createBatch";
+            case 7:
+                BatchManager.StreamingBatch batch = batchManager.createStreamingBatch(leaseId++, 1, null,
+                        1 + random.nextInt(10), Integer.MAX_VALUE, new JsonLocationSerializer());
+                while (batch != null) {
+                    batch.writeTo(new ByteArrayOutputStream());
+                    if (random.nextInt(4) == 0) {
+                        batchManager.releaseBatch(batch);
+                        break;
+                    }
+                    batchManager.setBatchCompleted(batch);
+                    batch = batchManager.nextStreamingBatch(batch);
+                }
+                return "streaming batch";
+            default:
+                List<Long> candidates = new ArrayList<Long>();
+                for (int i = random.nextInt(5); i >= 0; i--) {
+                    Long locationId = randomLocationId(random);
+                    if (locationId != null) {
+                        candidates.add(locationId);
+                    }
+                }
+                long realtimeLeaseId = -(leaseId++);
+                List<Long> leased = outbox.lease(candidates, realtimeLeaseId, System.currentTimeMillis() + 60000);
+                List<Long> acked = new ArrayList<Long>();
+                List<Long> released = new ArrayList<Long>();
+                for (Long locationId : leased) {
+                    (random.nextBoolean() ? acked : released).add(locationId);
+                }
+                outbox.ack(realtimeLeaseId, acked);
+                outbox.release(realtimeLeaseId, released);
+                return "realtime lease";
+        }
+    }
+
+    private void persist(int count, int maxRows) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(TestDatabase.createLocation(sequence++));
+        }
+        dao.persistLocationsWithLimit(locations, maxRows);
+    }
+
+    private Long randomLocationId(Random random) {
+        long maxId = DatabaseUtils.longForQuery(db, "SELECT IFNULL((SELECT MAX(_id) FROM location), 0)", null);
+        return maxId == 0 ? null : Long.valueOf(1 + (long) random.nextInt((int) maxId));
+    }
+
+    private long counter() {
+        return DatabaseUtils.longForQuery(db, "SELECT valid_count FROM location_counter", null);
+    }
+
+    private long count() {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM location WHERE valid = 1", null);
+    }
+
+    private void assertCounter(String message) {
+        assertEquals(message, count(), counter());
+
+        long now = System.currentTimeMillis();
+        long forSync = DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM location WHERE valid = 1 AND (lease_expires IS NULL OR lease_expires < ?)",
+                new String[] { String.valueOf(now) });
+        assertEquals(message, forSync, dao.locationsForSyncCount(now).longValue());
+    }
+}
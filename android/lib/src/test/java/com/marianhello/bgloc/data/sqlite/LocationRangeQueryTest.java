@@ -0,0 +1,169 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time range and bounding box queries compared with brute force filtering,
+ * with benchmark of geohash range scans against time range scan
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocationRangeQueryTest {
+    private static final int LOCATIONS = 20000;
+    private static final long START_TIME = 1000000000000L;
+    // locations span two weeks, so queries are searched both by time bucket and by geohash range
+    private static final long INTERVAL = 60000L;
+
+    private SQLiteLocationDAO dao;
+    private List<BackgroundLocation> locations;
+
+    @Before
+    public void setUp() {
+        dao = new SQLiteLocationDAO(TestDatabase.open());
+        locations = new ArrayList<BackgroundLocation>(LOCATIONS);
+
+        // half of locations spread over whole world, other half clustered around Prague
+        Random random = new Random(1);
+        List<BackgroundLocation> chunk = new ArrayList<BackgroundLocation>();
+        for (int i = 0; i < LOCATIONS; i++) {
+            BackgroundLocation location = new BackgroundLocation("gps");
+            location.setTime(START_TIME + i * INTERVAL);
+            if (i % 2 == 0) {
+                location.setLatitude(-90 + random.nextDouble() * 180);
+                location.setLongitude(-180 + random.nextDouble() * 360);
+            } else {
+                location.setLatitude(50 + random.nextDouble() * 0.2);
+                location.setLongitude(14.3 + random.nextDouble() * 0.3);
+            }
+            location.setAccuracy(10);
+            location.setLocationProvider(0);
+            locations.add(location);
+            chunk.add(location);
+            if (chunk.size() == 1000) {
+                dao.persistLocationsWithLimit(chunk, LOCATIONS);
+                chunk.clear();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        // some locations get synced and archived into segments
+        for (long id = 1; id <= LOCATIONS / 10; id++) {
+            dao.deleteLocation(id);
+        }
+        dao.archiveInvalidLocations(100);
+
+        Random random = new Random(2);
+        for (int i = 0; i < 50; i++) {
+            Long from = random.nextBoolean() ? Long.valueOf(START_TIME + random.nextInt(LOCATIONS) * INTERVAL) : null;
+            Long to = random.nextBoolean() ? Long.valueOf(START_TIME + random.nextInt(LOCATIONS) * INTERVAL) : null;
+            double[] bbox = null;
+            if (random.nextInt(4) > 0) {
+                double size = i % 2 == 0 ? random.nextDouble() * 60 : random.nextDouble() * 0.05;
+                double south = i % 2 == 0 ? -90 + random.nextDouble() * (180 - size) : 50 + random.nextDouble() * 0.15;
+                double west = i % 2 == 0 ? -180 + random.nextDouble() * 360 : 14.3 + random.nextDouble() * 0.25;
+                double east = west + size > 180 ? west + size - 360 : west + size;
+                bbox = new double[] { west, south, east, south + size };
+            }
+
+            List<Long> expected = new ArrayList<Long>();
+            for (BackgroundLocation location : locations) {
+                if (matches(location, from, to, bbox)) {
+                    expected.add(location.getTime());
+                }
+            }
+            List<Long> actual = new ArrayList<Long>();
+            for (BackgroundLocation location : dao.getLocationsInRange(from, to, bbox, null)) {
+                actual.add(location.getTime());
+            }
+            assertEquals("query " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void respectsLimit() {
+        List<BackgroundLocation> page = dao.getLocationsInRange(START_TIME, null, new double[] { 14.3, 50, 14.6, 50.2 }, 10);
+        assertEquals(10, page.size());
+        assertEquals(START_TIME + INTERVAL, page.get(0).getTime());
+    }
+
+    /**
+     * Small bounding box in whole time range, geohash index vs filtering of time range scan
+     */
+    @Test
+    public void benchmarkBoundingBox() {
+        double[] bbox = { 14.40, 50.05, 14.41, 50.06 };
+        int runs = 20;
+        // warm up
+        dao.getLocationsInRange(START_TIME, null, bbox, null);
+        filterTimeRange(START_TIME, bbox);
+
+        long geohashTime = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < runs; i++) {
+            found = dao.getLocationsInRange(START_TIME, null, bbox, null).size();
+        }
+        geohashTime = (System.nanoTime() - geohashTime) / runs;
+
+        long scanTime = System.nanoTime();
+        int scanned = 0;
+        for (int i = 0; i < runs; i++) {
+            scanned = filterTimeRange(START_TIME, bbox);
+        }
+        scanTime = (System.nanoTime() - scanTime) / runs;
+
+        System.out.println(String.format("bounding box of %d locations: geohash %d us, time range scan %d us",
+                found, geohashTime / 1000, scanTime / 1000));
+        assertEquals(scanned, found);
+        assertTrue(found > 0);
+    }
+
+    private int filterTimeRange(long from, double[] bbox) {
+        int count = 0;
+        for (BackgroundLocation location : dao.getLocationsInRange(from, null, null, null)) {
+            if (matches(location, null, null, bbox)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean matches(BackgroundLocation location, Long from, Long to, double[] bbox) {
+        if (from != null && location.getTime() < from) {
+            return false;
+        }
+        if (to != null && location.getTime() > to) {
+            return false;
+        }
+        if (bbox == null) {
+            return true;
+        }
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+        if (latitude < bbox[1] || latitude > bbox[3]) {
+            return false;
+        }
+        if (bbox[0] > bbox[2]) {
+            return longitude >= bbox[0] || longitude <= bbox[2];
+        }
+        return longitude >= bbox[0] && longitude <= bbox[2];
+    }
+}
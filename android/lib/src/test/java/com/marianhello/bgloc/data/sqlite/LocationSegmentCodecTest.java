@@ -0,0 +1,198 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LocationSegmentCodecTest {
+    // precision of segments of version 1
+    private static final double COORDINATE_PRECISION = 0.5e-7;
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void roundTrip() {
+        List<BackgroundLocation> locations = createTrack(500, new Random(1));
+        List<BackgroundLocation> decoded = LocationSegmentCodec.decode(LocationSegmentCodec.encode(locations));
+
+        assertEquals(locations.size(), decoded.size());
+        for (int i = 0; i < locations.size(); i++) {
+            BackgroundLocation expected = locations.get(i);
+            BackgroundLocation actual = decoded.get(i);
+            String message = "location " + i;
+            assertEquals(message, expected.getLocationId(), actual.getLocationId());
+            assertEquals(message, expected.getProvider(), actual.getProvider());
+            assertEquals(message, expected.getTime(), actual.getTime());
+            assertEquals(message, expected.getLatitude(), actual.getLatitude(), 0);
+            assertEquals(message, expected.getLongitude(), actual.getLongitude(), 0);
+            assertEquals(message, expected.hasAccuracy(), actual.hasAccuracy());
+            assertEquals(message, expected.hasSpeed(), actual.hasSpeed());
+            assertEquals(message, expected.hasBearing(), actual.hasBearing());
+            assertEquals(message, expected.hasAltitude(), actual.hasAltitude());
+            assertEquals(message, expected.hasRadius(), actual.hasRadius());
+            assertEquals(message, expected.getAccuracy(), actual.getAccuracy(), 0);
+            assertEquals(message, expected.getSpeed(), actual.getSpeed(), 0);
+            assertEquals(message, expected.getBearing(), actual.getBearing(), 0);
+            assertEquals(message, expected.getAltitude(), actual.getAltitude(), 0);
+            assertEquals(message, expected.getRadius(), actual.getRadius(), 0);
+            assertEquals(message, expected.getLocationProvider(), actual.getLocationProvider());
+            assertEquals(message, expected.hasSmoothed(), actual.hasSmoothed());
+            if (expected.hasSmoothed()) {
+                assertEquals(message, expected.getSmoothedLatitude(), actual.getSmoothedLatitude(), 0);
+                assertEquals(message, expected.getSmoothedLongitude(), actual.getSmoothedLongitude(), 0);
+            }
+            assertEquals(message, expected.isValid(), actual.isValid());
+        }
+    }
+
+    @Test
+    public void roundTripOfEdgeValues() {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        double[][] coordinates = { { 90, 180 }, { -90, -180 }, { 0, 0 }, { -89.9999999, 179.9999999 } };
+        long[] times = { 0, Long.MAX_VALUE / 2, 1, 1000000000000L };
+        for (int i = 0; i < coordinates.length; i++) {
+            BackgroundLocation location = new BackgroundLocation(i == 0 ? null : "provider " + (i % 2));
+            location.setLocationId(i == 0 ? 1L : 1000000L * i);
+            location.setTime(times[i]);
+            location.setLatitude(coordinates[i][0]);
+            location.setLongitude(coordinates[i][1]);
+            locations.add(location);
+        }
+
+        List<BackgroundLocation> decoded = LocationSegmentCodec.decode(LocationSegmentCodec.encode(locations));
+        for (int i = 0; i < locations.size(); i++) {
+            assertEquals(locations.get(i).getProvider(), decoded.get(i).getProvider());
+            assertEquals(locations.get(i).getLocationId(), decoded.get(i).getLocationId());
+            assertEquals(locations.get(i).getTime(), decoded.get(i).getTime());
+            assertEquals(locations.get(i).getLatitude(), decoded.get(i).getLatitude(), 0);
+            assertEquals(locations.get(i).getLongitude(), decoded.get(i).getLongitude(), 0);
+            assertFalse(decoded.get(i).hasAccuracy());
+            assertNull(decoded.get(i).getLocationProvider());
+        }
+        assertEquals(0, LocationSegmentCodec.decode(LocationSegmentCodec.encode(new ArrayList<BackgroundLocation>())).size());
+    }
+
+    /**
+     * Segments of version 1 stored values rounded to their scale unit
+     */
+    @Test
+    public void decodesRoundedSegment() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarints(out, 1, 1, 3); // version, providers count, provider length
+        out.write('g');
+        out.write('p');
+        out.write('s');
+        writeVarints(out,
+            1, // locations count
+            1 | 1 << 3 | 1 << 5, // flags: accuracy, altitude, location provider
+            7, 1000000000000L, 500812345, 144212345, // id, time, latitude, longitude
+            1, 125, 2503, 0 // provider, accuracy, altitude, location provider
+        );
+
+        BackgroundLocation location = LocationSegmentCodec.decode(out.toByteArray()).get(0);
+        assertEquals("gps", location.getProvider());
+        assertEquals(Long.valueOf(7), location.getLocationId());
+        assertEquals(1000000000000L, location.getTime());
+        assertEquals(50.0812345, location.getLatitude(), COORDINATE_PRECISION);
+        assertEquals(14.4212345, location.getLongitude(), COORDINATE_PRECISION);
+        assertEquals(12.5f, location.getAccuracy(), 0);
+        assertEquals(250.3, location.getAltitude(), 1e-9);
+        assertFalse(location.hasSpeed());
+        assertEquals(Integer.valueOf(0), location.getLocationProvider());
+        assertFalse(location.isValid());
+    }
+
+    /**
+     * Archived location has to take at least 5 times less space than location row with its indexes
+     */
+    @Test
+    public void segmentIsFiveTimesSmallerThanLocationRows() {
+        int count = 5000;
+        List<BackgroundLocation> locations = createTrack(count, new Random(2));
+
+        SQLiteDatabase db = TestDatabase.open();
+        SQLiteLocationDAO dao = new SQLiteLocationDAO(db);
+        long emptySize = databaseSize(db);
+        for (int i = 0; i < count; i += 500) {
+            dao.persistLocationsWithLimit(locations.subList(i, i + 500), count);
+        }
+        long rowBytes = (databaseSize(db) - emptySize) / count;
+
+        long segmentBytes = 0;
+        for (int i = 0; i < count; i += 500) {
+            segmentBytes += LocationSegmentCodec.encode(locations.subList(i, i + 500)).length;
+        }
+        segmentBytes /= count;
+
+        System.out.println(String.format("location row %d B, archived location %d B", rowBytes, segmentBytes));
+        assertTrue(rowBytes >= 5 * segmentBytes);
+    }
+
+    private static void writeVarints(ByteArrayOutputStream out, long... values) {
+        for (long value : values) {
+            long v = (value << 1) ^ (value >> 63); // zigzag
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+    }
+
+    private static long databaseSize(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /**
+     * Returns track of walking device with fix every second and all optional values set
+     */
+    private static List<BackgroundLocation> createTrack(int count, Random random) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        double latitude = 50.08, longitude = 14.42;
+        for (int i = 0; i < count; i++) {
+            latitude += (random.nextDouble() - 0.3) * 0.00002;
+            longitude += (random.nextDouble() - 0.3) * 0.00002;
+            BackgroundLocation location = new BackgroundLocation(i % 10 == 0 ? "network" : "gps");
+            location.setLocationId(i + 1L);
+            location.setTime(1000000000000L + i * 1000L + random.nextInt(50));
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+            location.setAccuracy(3 + random.nextFloat() * 20);
+            location.setSpeed(random.nextFloat() * 2);
+            location.setBearing(random.nextFloat() * 360);
+            location.setAltitude(200 + random.nextDouble() * 10);
+            if (i % 3 == 0) {
+                location.setRadius(random.nextFloat() * 50);
+            }
+            location.setLocationProvider(i % 2);
+            if (i % 4 == 0) {
+                location.setSmoothedLatitude(latitude + (random.nextDouble() - 0.5) * 0.00001);
+                location.setSmoothedLongitude(longitude + (random.nextDouble() - 0.5) * 0.00001);
+            }
+            location.setValid(i % 7 != 0);
+            locations.add(location);
+        }
+        return locations;
+    }
+}
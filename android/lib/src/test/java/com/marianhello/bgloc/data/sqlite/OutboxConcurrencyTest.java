@@ -0,0 +1,33 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import com.marianhello.bgloc.data.AbstractOutboxConcurrencyTest;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationOutbox;
+
+import org.junit.After;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class OutboxConcurrencyTest extends AbstractOutboxConcurrencyTest {
+
+    @Override
+    protected LocationDAO createLocationDAO() {
+        return new SQLiteLocationDAO(TestDatabase.open());
+    }
+
+    @Override
+    protected LocationOutbox createLocationOutbox() {
+        return new SQLiteLocationOutbox(TestDatabase.open());
+    }
+
+    @Override
+    protected LocationOutbox createSyncOutbox() {
+        return new SQLiteLocationOutbox(TestDatabase.open());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+}
@@ -0,0 +1,163 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.serializer.JsonLocationSerializer;
+import com.marianhello.bgloc.sync.BatchManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Query plan regression test
+ *
+ * Sync, time range and eviction paths are exercised against 100k locations fixture.
+ * Every statement touching location table compiled on the way is explained
+ * and test fails when any of them falls back to scan of location table.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest {
+    private static final int FIXTURE_SIZE = 100000;
+    private static final int CHUNK_SIZE = 1000;
+
+    private static final Pattern LOCATION_TABLE = Pattern.compile("\\blocation\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DML = Pattern.compile("^\\s*(SELECT|INSERT|UPDATE|DELETE)\\b", Pattern.CASE_INSENSITIVE);
+    // "SCAN TABLE location ..." (SQLite < 3.24) or "SCAN location ..."
+    private static final Pattern LOCATION_SCAN = Pattern.compile("^SCAN (TABLE )?location( |$)");
+
+    private SQLiteDatabase db;
+    private SQLiteLocationDAO dao;
+    private SQLiteLocationOutbox outbox;
+
+    @Before
+    public void setUp() {
+        db = TestDatabase.open();
+        dao = new SQLiteLocationDAO(db);
+        outbox = new SQLiteLocationOutbox(db);
+        // ring is initialized upfront, one time initialization over existing locations scans table
+        db.execSQL("INSERT INTO " + SQLiteLocationContract.RingEntry.TABLE_NAME + " (" +
+                SQLiteLocationContract.RingEntry._ID + "," +
+                SQLiteLocationContract.RingEntry.COLUMN_NAME_CAPACITY + "," +
+                SQLiteLocationContract.RingEntry.COLUMN_NAME_HEAD + ") VALUES (1, " + FIXTURE_SIZE + ", 0)");
+        RecordingSQLiteConnection.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void queriesDoNotScanLocationTable() throws Exception {
+        persist(0, FIXTURE_SIZE, FIXTURE_SIZE);
+
+        // eviction: full ring, shrink, grow, archive of invalid locations
+        persist(FIXTURE_SIZE, 2 * CHUNK_SIZE, FIXTURE_SIZE);
+        persist(FIXTURE_SIZE + 2 * CHUNK_SIZE, CHUNK_SIZE, FIXTURE_SIZE - 3 * CHUNK_SIZE);
+        persist(FIXTURE_SIZE + 3 * CHUNK_SIZE, CHUNK_SIZE, FIXTURE_SIZE / 3);
+        persist(FIXTURE_SIZE + 4 * CHUNK_SIZE, CHUNK_SIZE, FIXTURE_SIZE);
+        List<BackgroundLocation> page = dao.getLocationsPage(0, CHUNK_SIZE);
+        List<Long> ids = new ArrayList<Long>();
+        for (BackgroundLocation location : page) {
+            ids.add(location.getLocationId());
+        }
+        dao.deleteLocation(ids.get(0));
+        dao.deleteLocations(ids);
+        dao.archiveInvalidLocations(100);
+
+        // sync: realtime leases and batch sync
+        long now = System.currentTimeMillis();
+        dao.locationsForSyncCount(now);
+        outbox.pendingCount(now);
+        List<Long> leased = outbox.lease(Arrays.asList(ids.get(ids.size() - 1), page.get(0).getLocationId() + CHUNK_SIZE), 1, now + 60000);
+        outbox.ack(1, leased.subList(0, Math.min(1, leased.size())));
+        outbox.release(1, leased);
+        outbox.leasePending(2, now + 60000, Long.MAX_VALUE, 10);
+        outbox.renew(2, now + 120000);
+        outbox.ack(2, 0, Long.MAX_VALUE);
+        outbox.release(2);
+
+        BatchManager batchManager = new BatchManager(RuntimeEnvironment.application);
+        BatchManager.StreamingBatch batch = batchManager.createStreamingBatch(now, 1, null, CHUNK_SIZE, Integer.MAX_VALUE, new JsonLocationSerializer());
+        batch.writeTo(new ByteArrayOutputStream());
+        batchManager.setBatchCompleted(batch);
+        batchManager.releaseBatch(batch);
+        batchManager.createBatch(now + 1, 1).delete();
+        batchManager.setBatchCompleted(now + 1);
+
+        // time range and bounding box
+        long from = TestDatabase.createLocation(FIXTURE_SIZE / 2).getTime();
+        dao.getLocationsInRange(from, from + 3600000, null, 100);
+        dao.getLocationsInRange(from, null, new double[] { 14.42, 50.08, 14.43, 50.09 }, 100);
+        dao.getLocationsInRange(null, from, new double[] { 179.9, -0.1, -179.9, 0.1 }, null);
+        dao.getLocationsInRange(from, from + 3600000, new double[] { 14.42, 50.08, 14.43, 50.09 }, 100);
+        // time range of more than week is not searched bucket by bucket
+        dao.getLocationsInRange(from - 30 * 24 * 3600000L, from, new double[] { 14.42, 50.08, 14.43, 50.09 }, 100);
+
+        List<String> scans = new ArrayList<String>();
+        for (String sql : RecordingSQLiteConnection.getStatements()) {
+            if (!DML.matcher(sql).find() || !LOCATION_TABLE.matcher(sql).find()) {
+                continue;
+            }
+            for (String detail : explain(sql)) {
+                if (LOCATION_SCAN.matcher(detail).find()) {
+                    scans.add(detail + " <- " + sql);
+                }
+            }
+        }
+        if (!scans.isEmpty()) {
+            fail("Queries scanning location table:\n" + join(scans));
+        }
+        assertTrue(RecordingSQLiteConnection.getStatements().size() > 0);
+    }
+
+    private void persist(int first, int count, int maxRows) {
+        for (int i = first; i < first + count; i += CHUNK_SIZE) {
+            List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(CHUNK_SIZE);
+            for (int j = i; j < Math.min(i + CHUNK_SIZE, first + count); j++) {
+                locations.add(TestDatabase.createLocation(j));
+            }
+            dao.persistLocationsWithLimit(locations, maxRows);
+        }
+    }
+
+    /**
+     * Returns details of query plan, parameters of statement are left unbound (null)
+     */
+    private List<String> explain(String sql) {
+        List<String> details = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int column = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(column));
+            }
+        } finally {
+            cursor.close();
+        }
+        return details;
+    }
+
+    private static String join(List<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+}
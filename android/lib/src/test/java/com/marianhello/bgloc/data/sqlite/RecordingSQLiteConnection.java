@@ -0,0 +1,113 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.os.Looper;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shadow of SQLiteConnection recording every sql statement compiled by connection
+ * and statements compiled or executed on main thread
+ */
+@Implements(className = "android.database.sqlite.SQLiteConnection", isInAndroidSdk = false)
+public class RecordingSQLiteConnection extends ShadowSQLiteConnection {
+    private static final Set<String> statements = new LinkedHashSet<String>();
+    private static final Set<String> mainThreadStatements = new LinkedHashSet<String>();
+    private static final Map<Long, String> sqlByStatement = new HashMap<Long, String>();
+
+    @Implementation
+    public static long nativePrepareStatement(long connectionPtr, String sql) {
+        long statementPtr = ShadowSQLiteConnection.nativePrepareStatement(connectionPtr, sql);
+        synchronized (statements) {
+            statements.add(sql);
+            sqlByStatement.put(statementPtr, sql);
+            if (isMainThread()) {
+                mainThreadStatements.add(sql);
+            }
+        }
+        return statementPtr;
+    }
+
+    @Implementation
+    public static void nativeExecute(long connectionPtr, long statementPtr) {
+        recordExecution(statementPtr);
+        ShadowSQLiteConnection.nativeExecute(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static long nativeExecuteForLong(long connectionPtr, long statementPtr) {
+        recordExecution(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForLong(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static String nativeExecuteForString(long connectionPtr, long statementPtr) {
+        recordExecution(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForString(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static int nativeExecuteForChangedRowCount(long connectionPtr, long statementPtr) {
+        recordExecution(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForChangedRowCount(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static long nativeExecuteForLastInsertedRowId(long connectionPtr, long statementPtr) {
+        recordExecution(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForLastInsertedRowId(connectionPtr, statementPtr);
+    }
+
+    @Implementation
+    public static long nativeExecuteForCursorWindow(long connectionPtr, long statementPtr, long windowPtr,
+                                                    int startPos, int requiredPos, boolean countAllRows) {
+        recordExecution(statementPtr);
+        return ShadowSQLiteConnection.nativeExecuteForCursorWindow(connectionPtr, statementPtr, windowPtr,
+                startPos, requiredPos, countAllRows);
+    }
+
+    private static void recordExecution(long statementPtr) {
+        if (isMainThread()) {
+            synchronized (statements) {
+                mainThreadStatements.add(sqlByStatement.get(statementPtr));
+            }
+        }
+    }
+
+    private static boolean isMainThread() {
+        return Thread.currentThread() == Looper.getMainLooper().getThread();
+    }
+
+    public static void clear() {
+        synchronized (statements) {
+            statements.clear();
+            mainThreadStatements.clear();
+        }
+    }
+
+    /**
+     * Returns statements compiled or executed on main thread since last clear
+     */
+    public static List<String> getMainThreadStatements() {
+        synchronized (statements) {
+            return new ArrayList<String>(mainThreadStatements);
+        }
+    }
+
+    /**
+     * Returns statements compiled since last clear in order of their first compilation
+     */
+    public static List<String> getStatements() {
+        synchronized (statements) {
+            return new ArrayList<String>(statements);
+        }
+    }
+}
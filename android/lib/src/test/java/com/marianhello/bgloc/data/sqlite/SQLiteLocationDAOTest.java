@@ -0,0 +1,104 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import com.marianhello.bgloc.data.AbstractLocationDAOTest;
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationDAO;
+import com.marianhello.bgloc.data.LocationOutbox;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SQLiteLocationDAOTest extends AbstractLocationDAOTest {
+
+    @Override
+    protected LocationDAO createLocationDAO() {
+        return new SQLiteLocationDAO(TestDatabase.open());
+    }
+
+    @Override
+    protected LocationOutbox createLocationOutbox() {
+        return new SQLiteLocationOutbox(TestDatabase.open());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void archivedLocationsArePagedWithLocationTable() {
+        List<Long> ids = persistAndArchive(50);
+
+        List<Long> paged = new ArrayList<Long>();
+        long afterLocationId = 0;
+        List<BackgroundLocation> page;
+        while (!(page = dao.getLocationsPage(afterLocationId, 7)).isEmpty()) {
+            assertTrue(page.size() <= 7);
+            for (BackgroundLocation location : page) {
+                paged.add(location.getLocationId());
+                // every other location has been deleted before archiving
+                assertEquals(ids.indexOf(location.getLocationId()) % 2 == 1, location.isValid());
+            }
+            afterLocationId = page.get(page.size() - 1).getLocationId();
+        }
+        assertEquals(ids, paged);
+
+        List<Long> all = new ArrayList<Long>();
+        for (BackgroundLocation location : dao.getAllLocations()) {
+            all.add(location.getLocationId());
+        }
+        assertEquals(ids, all);
+        assertEquals(50, dao.getAllLocations().size());
+        assertEquals(25, dao.getValidLocations().size());
+    }
+
+    @Test
+    public void archivedLocationsCanBeDeleted() {
+        List<Long> ids = persistAndArchive(50);
+
+        dao.deleteLocation(ids.get(1));
+        List<Long> validIds = new ArrayList<Long>();
+        for (BackgroundLocation location : dao.getValidLocations()) {
+            validIds.add(location.getLocationId());
+        }
+        assertEquals(24, validIds.size());
+        assertTrue(!validIds.contains(ids.get(1)));
+
+        dao.deleteAllLocations();
+        assertTrue(dao.getValidLocations().isEmpty());
+        for (BackgroundLocation location : dao.getAllLocations()) {
+            assertTrue(!location.isValid());
+        }
+    }
+
+    /**
+     * Persist locations, delete every other one and archive as many of them as segments of 10 allow
+     */
+    private List<Long> persistAndArchive(int count) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(TestDatabase.createLocation(i));
+        }
+        List<Long> ids = dao.persistLocationsWithLimit(locations, count);
+        for (int i = 0; i < count; i += 2) {
+            dao.deleteLocation(ids.get(i));
+        }
+
+        SQLiteLocationDAO sqliteDAO = (SQLiteLocationDAO) dao;
+        int archived = 0;
+        while (sqliteDAO.archiveInvalidLocations(10) > 0 || sqliteDAO.archiveValidLocationsBefore(System.currentTimeMillis(), 10) > 0) {
+            archived += 10;
+        }
+        assertEquals(count - count % 20, archived);
+        return ids;
+    }
+}
@@ -0,0 +1,50 @@
+package com.marianhello.bgloc.data.sqlite;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.utils.SQLiteStatementCache;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.reflect.Field;
+
+/**
+ * Fresh plugin database for every test
+ *
+ * DAOs and BatchManager share singleton SQLiteOpenHelper, which would otherwise
+ * outlive database of previous test.
+ */
+public class TestDatabase {
+    private TestDatabase() {}
+
+    public static SQLiteDatabase open() {
+        return SQLiteOpenHelper.getHelper(RuntimeEnvironment.application).getWritableDatabase();
+    }
+
+    public static void close() throws Exception {
+        Field field = SQLiteOpenHelper.class.getDeclaredField("instance");
+        field.setAccessible(true);
+        SQLiteOpenHelper helper = (SQLiteOpenHelper) field.get(null);
+        if (helper != null) {
+            SQLiteStatementCache.release(helper.getWritableDatabase());
+            helper.close();
+            field.set(null, null);
+        }
+    }
+
+    /**
+     * Create location of device moving north-east from Prague city centre
+     *
+     * @param i sequence number of location
+     */
+    public static BackgroundLocation createLocation(int i) {
+        BackgroundLocation location = new BackgroundLocation("gps");
+        location.setTime(1000000000000L + i * 1000L);
+        location.setLatitude(50.08 + (i % 10000) * 0.00001);
+        location.setLongitude(14.42 + (i % 10000) * 0.00001);
+        location.setAccuracy(10);
+        location.setLocationProvider(0);
+        return location;
+    }
+}
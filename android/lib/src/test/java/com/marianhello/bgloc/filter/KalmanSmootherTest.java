@@ -0,0 +1,141 @@
+package com.marianhello.bgloc.filter;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replay of synthetic tracks with known ground truth and gaussian noise of reported accuracy,
+ * comparing error of smoothed coordinates with error of raw ones
+ */
+@RunWith(RobolectricTestRunner.class)
+public class KalmanSmootherTest {
+    private static final double EARTH_RADIUS = 6371009; // meters
+    private static final double START_LATITUDE = 50.08;
+    private static final double START_LONGITUDE = 14.42;
+    private static final long START_TIME = 1000000000000L;
+
+    /**
+     * Track of device with ground truth position of every fix
+     */
+    private static class Track {
+        final List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>();
+        final List<double[]> truth = new ArrayList<double[]>();
+    }
+
+    @Test
+    public void smoothsWalking() {
+        // 1.4 m/s with slowly changing heading, fix every second, 10m accuracy
+        Track track = createTrack(1800, 1000, 1.4, 0.05, 10, new Random(1));
+        assertSmoothingReducesError("walking", track, 0.7);
+    }
+
+    @Test
+    public void smoothsDriving() {
+        // 15 m/s with slowly changing heading, fix every second, 10m accuracy
+        Track track = createTrack(1800, 1000, 15, 0.02, 10, new Random(2));
+        assertSmoothingReducesError("driving", track, 0.7);
+    }
+
+    @Test
+    public void smoothsStationaryJitter() {
+        Track track = createTrack(600, 1000, 0, 0, 20, new Random(3));
+        assertSmoothingReducesError("stationary", track, 0.6);
+    }
+
+    @Test
+    public void restartsAfterGap() {
+        KalmanSmoother smoother = new KalmanSmoother(1.0, 60000);
+        Track track = createTrack(20, 1000, 1.4, 0, 10, new Random(4));
+        for (BackgroundLocation location : track.locations) {
+            smoother.smooth(location);
+        }
+
+        BackgroundLocation location = createLocation(START_TIME + 20000 + 60001, START_LATITUDE + 0.01, START_LONGITUDE, 10);
+        smoother.smooth(location);
+        assertEquals(location.getLatitude(), location.getSmoothedLatitude(), 1e-9);
+        assertEquals(location.getLongitude(), location.getSmoothedLongitude(), 1e-9);
+    }
+
+    private static void assertSmoothingReducesError(String name, Track track, double maxErrorRatio) {
+        KalmanSmoother smoother = new KalmanSmoother();
+        long time = System.nanoTime();
+        for (BackgroundLocation location : track.locations) {
+            smoother.smooth(location);
+        }
+        time = System.nanoTime() - time;
+
+        double rawError = 0;
+        double smoothedError = 0;
+        // filter needs few locations to estimate velocity
+        int warmUp = 10;
+        for (int i = warmUp; i < track.locations.size(); i++) {
+            BackgroundLocation location = track.locations.get(i);
+            double[] truth = track.truth.get(i);
+            rawError += squaredDistance(location.getLatitude(), location.getLongitude(), truth[0], truth[1]);
+            smoothedError += squaredDistance(location.getSmoothedLatitude(), location.getSmoothedLongitude(), truth[0], truth[1]);
+        }
+        int count = track.locations.size() - warmUp;
+        rawError = Math.sqrt(rawError / count);
+        smoothedError = Math.sqrt(smoothedError / count);
+
+        System.out.println(String.format("%s: raw rms error %.1f m, smoothed rms error %.1f m, %d ns/location",
+                name, rawError, smoothedError, time / track.locations.size()));
+        assertTrue(name + " smoothed error " + smoothedError + " raw error " + rawError,
+                smoothedError < rawError * maxErrorRatio);
+    }
+
+    /**
+     * Create track of device moving at constant speed with heading drifting by random walk
+     *
+     * @param count number of fixes
+     * @param interval time between fixes in milliseconds
+     * @param speed speed in m/s
+     * @param turnRate standard deviation of heading change per fix in radians
+     * @param accuracy standard deviation of position noise in meters per axis
+     */
+    private static Track createTrack(int count, long interval, double speed, double turnRate, float accuracy, Random random) {
+        Track track = new Track();
+        double metersPerDegreeLatitude = Math.toRadians(EARTH_RADIUS);
+        double metersPerDegreeLongitude = metersPerDegreeLatitude * Math.cos(Math.toRadians(START_LATITUDE));
+        double latitude = START_LATITUDE;
+        double longitude = START_LONGITUDE;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < count; i++) {
+            heading += random.nextGaussian() * turnRate;
+            double distance = speed * interval / 1000d;
+            latitude += distance * Math.cos(heading) / metersPerDegreeLatitude;
+            longitude += distance * Math.sin(heading) / metersPerDegreeLongitude;
+
+            double noisyLatitude = latitude + random.nextGaussian() * accuracy / metersPerDegreeLatitude;
+            double noisyLongitude = longitude + random.nextGaussian() * accuracy / metersPerDegreeLongitude;
+            track.locations.add(createLocation(START_TIME + i * interval, noisyLatitude, noisyLongitude, accuracy));
+            track.truth.add(new double[] { latitude, longitude });
+        }
+        return track;
+    }
+
+    private static BackgroundLocation createLocation(long time, double latitude, double longitude, float accuracy) {
+        BackgroundLocation location = new BackgroundLocation("gps");
+        location.setTime(time);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setAccuracy(accuracy);
+        return location;
+    }
+
+    private static double squaredDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dy = Math.toRadians(latitude1 - latitude2) * EARTH_RADIUS;
+        double dx = Math.toRadians(longitude1 - longitude2) * EARTH_RADIUS * Math.cos(Math.toRadians(latitude2));
+        return dx * dx + dy * dy;
+    }
+}
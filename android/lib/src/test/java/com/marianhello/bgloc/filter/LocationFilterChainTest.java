@@ -0,0 +1,97 @@
+package com.marianhello.bgloc.filter;
+
+import android.location.Location;
+
+import com.marianhello.bgloc.Config;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LocationFilterChainTest {
+
+    /**
+     * Custom filter rejecting locations west of given longitude
+     */
+    private static class WestFilter implements LocationFilter {
+        private final double longitude;
+
+        WestFilter(double longitude) {
+            this.longitude = longitude;
+        }
+
+        public String getName() {
+            return "west";
+        }
+
+        public boolean accept(Location location, Location lastAccepted) {
+            return location.getLongitude() >= longitude;
+        }
+    }
+
+    @Test
+    public void duplicatesAreAcceptedByDefault() {
+        LocationFilterChain chain = LocationFilterFactory.createFilterChain(new Config());
+        assertTrue(chain.accept(createLocation(1000, 14.42)));
+        assertTrue(chain.accept(createLocation(1000, 14.42)));
+        assertEquals(2, chain.getStats().getAccepted());
+        assertTrue(chain.getStats().getDropped().isEmpty());
+    }
+
+    @Test
+    public void duplicatesAreRejectedWhenEnabled() {
+        Config config = new Config();
+        config.setRejectDuplicateLocations(true);
+        LocationFilterChain chain = LocationFilterFactory.createFilterChain(config);
+        assertTrue(chain.accept(createLocation(1000, 14.42)));
+        assertFalse(chain.accept(createLocation(1000, 14.43)));
+        assertFalse(chain.accept(createLocation(1500, 14.42)));
+        assertTrue(chain.accept(createLocation(2000, 14.42)));
+        assertEquals(Long.valueOf(2), chain.getStats().getDropped().get("duplicate"));
+    }
+
+    @Test
+    public void customFiltersAreKeptWhenBuiltInFiltersAreReplaced() {
+        Config config = new Config();
+        config.setRejectDuplicateLocations(true);
+        LocationFilterChain chain = LocationFilterFactory.createFilterChain(config);
+        chain.add(new WestFilter(14));
+        assertFalse(chain.accept(createLocation(1000, 13)));
+        assertTrue(chain.accept(createLocation(2000, 14.42)));
+
+        config.setRejectDuplicateLocations(false);
+        config.setMaxAccuracy(50);
+        chain.setBuiltInFilters(LocationFilterFactory.createFilters(config));
+        assertEquals(Arrays.asList("accuracy", "west"), Arrays.asList(dropped(chain)));
+        assertEquals(Long.valueOf(1), chain.getStats().getDropped().get("west"));
+
+        assertFalse(chain.accept(createLocation(3000, 13)));
+        assertTrue(chain.accept(createLocation(3000, 14.42)));
+        assertTrue(chain.accept(createLocation(3000, 14.42)));
+        assertEquals(Long.valueOf(2), chain.getStats().getDropped().get("west"));
+
+        chain.setBuiltInFilters(Collections.<LocationFilter>emptyList());
+        assertEquals(Arrays.asList("west"), Arrays.asList(dropped(chain)));
+    }
+
+    private static String[] dropped(LocationFilterChain chain) {
+        return chain.getStats().getDropped().keySet().toArray(new String[0]);
+    }
+
+    private static Location createLocation(long time, double longitude) {
+        Location location = new Location("gps");
+        location.setTime(time);
+        location.setLatitude(50.08);
+        location.setLongitude(longitude);
+        location.setAccuracy(10);
+        return location;
+    }
+}
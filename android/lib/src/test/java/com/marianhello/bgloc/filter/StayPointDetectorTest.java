@@ -0,0 +1,201 @@
+package com.marianhello.bgloc.filter;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.Visit;
+import com.marianhello.bgloc.data.sqlite.SQLiteVisitDAO;
+import com.marianhello.bgloc.data.sqlite.TestDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replay of synthetic tracks of stays with jittering fixes and trips between them
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StayPointDetectorTest {
+    private static final double METERS_PER_DEGREE = 111195;
+    private static final double HOME_LATITUDE = 50.08;
+    private static final double HOME_LONGITUDE = 14.42;
+    private static final double RADIUS = 50; // meters
+    private static final long MIN_DURATION = 5 * 60 * 1000; // milliseconds
+    private static final long INTERVAL = 10000; // milliseconds
+
+    private StayPointDetector detector;
+    private Random random;
+    private long time;
+
+    @Before
+    public void setUp() {
+        detector = new StayPointDetector(RADIUS, MIN_DURATION);
+        random = new Random(1);
+        time = 1000000000000L;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void jitteringFixesBecomeSingleVisit() {
+        long arrival = time;
+        List<Visit> visits = new ArrayList<Visit>();
+        visits.addAll(stay(0, 0, 300, 10));
+        long departure = time - INTERVAL;
+        visits.addAll(trip(0, 0, 2000, 0, 20));
+
+        assertEquals(1, visits.size());
+        Visit visit = visits.get(0);
+        assertEquals(arrival, visit.getArrival());
+        assertEquals(departure, visit.getDeparture());
+        assertEquals(300, visit.getPointCount());
+        assertTrue(distance(visit, 0, 0) < 5);
+        assertEquals(320, detector.getReceived());
+        assertEquals(1, detector.getEmitted());
+    }
+
+    @Test
+    public void shortStopIsNotVisit() {
+        List<Visit> visits = new ArrayList<Visit>();
+        visits.addAll(stay(0, 0, 12, 10));
+        visits.addAll(trip(0, 0, 2000, 0, 20));
+
+        assertTrue(visits.isEmpty());
+        assertNull(detector.flush());
+        assertEquals(0, detector.getEmitted());
+    }
+
+    @Test
+    public void consecutiveStaysAreSeparateVisits() {
+        List<Visit> visits = new ArrayList<Visit>();
+        visits.addAll(stay(0, 0, 120, 10));
+        visits.addAll(trip(0, 0, 3000, 1000, 30));
+        visits.addAll(stay(3000, 1000, 60, 10));
+        Visit last = detector.flush();
+
+        assertEquals(1, visits.size());
+        Visit home = visits.get(0);
+        assertTrue(distance(home, 0, 0) < 5);
+        assertEquals(120, home.getPointCount());
+        assertNotNull(last);
+        assertTrue(distance(last, 3000, 1000) < 5);
+        assertEquals(60, last.getPointCount());
+        assertTrue(home.getDeparture() < last.getArrival());
+        assertTrue(last.getDuration() >= MIN_DURATION);
+    }
+
+    @Test
+    public void inaccurateFixDoesNotEndVisit() {
+        List<Visit> visits = new ArrayList<Visit>();
+        visits.addAll(stay(0, 0, 30, 10));
+        BackgroundLocation outlier = createLocation(500, 500, 1000);
+        assertNull(detector.offer(outlier));
+        visits.addAll(stay(0, 0, 30, 10));
+        visits.add(detector.flush());
+
+        assertEquals(1, visits.size());
+        assertEquals(60, visits.get(0).getPointCount());
+    }
+
+    @Test
+    public void outOfOrderFixIsIgnored() {
+        stay(0, 0, 40, 10);
+        time -= 20 * INTERVAL;
+        assertNull(detector.offer(createLocation(2000, 0, 10)));
+        time += 20 * INTERVAL;
+
+        Visit visit = detector.flush();
+        assertEquals(40, visit.getPointCount());
+        assertTrue(distance(visit, 0, 0) < 5);
+    }
+
+    @Test
+    public void visitsAreStored() {
+        List<Visit> visits = new ArrayList<Visit>();
+        visits.addAll(stay(0, 0, 60, 10));
+        visits.addAll(trip(0, 0, 2000, 0, 20));
+        visits.addAll(stay(2000, 0, 60, 10));
+        visits.add(detector.flush());
+
+        SQLiteVisitDAO dao = new SQLiteVisitDAO(TestDatabase.open());
+        for (Visit visit : visits) {
+            dao.persistVisit(visit);
+        }
+        List<Visit> stored = new ArrayList<Visit>(dao.getAllVisits());
+        assertEquals(2, stored.size());
+        for (int i = 0; i < stored.size(); i++) {
+            assertEquals(visits.get(i).getArrival(), stored.get(i).getArrival());
+            assertEquals(visits.get(i).getDeparture(), stored.get(i).getDeparture());
+            assertEquals(visits.get(i).getLatitude(), stored.get(i).getLatitude(), 1e-7);
+            assertEquals(visits.get(i).getLongitude(), stored.get(i).getLongitude(), 1e-7);
+            assertEquals(visits.get(i).getPointCount(), stored.get(i).getPointCount());
+        }
+    }
+
+    /**
+     * Offer fixes jittering with given deviation around point x, y meters east and north of home
+     *
+     * @return emitted visits
+     */
+    private List<Visit> stay(double x, double y, int count, double deviation) {
+        List<Visit> visits = new ArrayList<Visit>();
+        for (int i = 0; i < count; i++) {
+            BackgroundLocation location = createLocation(x + random.nextGaussian() * deviation,
+                    y + random.nextGaussian() * deviation, (float) deviation);
+            offer(location, visits);
+        }
+        return visits;
+    }
+
+    /**
+     * Offer fixes moving along straight line from one point to another, excluding both points
+     *
+     * @return emitted visits
+     */
+    private List<Visit> trip(double fromX, double fromY, double toX, double toY, int count) {
+        List<Visit> visits = new ArrayList<Visit>();
+        for (int i = 1; i <= count; i++) {
+            double f = (double) i / (count + 1);
+            offer(createLocation(fromX + (toX - fromX) * f, fromY + (toY - fromY) * f, 10), visits);
+        }
+        return visits;
+    }
+
+    private void offer(BackgroundLocation location, List<Visit> visits) {
+        Visit visit = detector.offer(location);
+        if (visit != null) {
+            visits.add(visit);
+        }
+    }
+
+    private BackgroundLocation createLocation(double x, double y, float accuracy) {
+        BackgroundLocation location = new BackgroundLocation("gps");
+        location.setTime(time);
+        location.setLatitude(HOME_LATITUDE + y / METERS_PER_DEGREE);
+        location.setLongitude(HOME_LONGITUDE + x / (METERS_PER_DEGREE * Math.cos(Math.toRadians(HOME_LATITUDE))));
+        location.setAccuracy(accuracy);
+        time += INTERVAL;
+        return location;
+    }
+
+    /**
+     * Returns distance in meters of visit centroid from point x, y meters east and north of home
+     */
+    private static double distance(Visit visit, double x, double y) {
+        double dx = (visit.getLongitude() - HOME_LONGITUDE) * METERS_PER_DEGREE * Math.cos(Math.toRadians(HOME_LATITUDE)) - x;
+        double dy = (visit.getLatitude() - HOME_LATITUDE) * METERS_PER_DEGREE - y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,150 @@
+package com.marianhello.bgloc.filter;
+
+import com.marianhello.bgloc.data.BackgroundLocation;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TrajectorySimplifierTest {
+    private static final double EARTH_RADIUS = 6371009; // meters
+    // error of projection of simplifier and of this test, in meters
+    private static final double PRECISION = 0.01;
+
+    /**
+     * Every dropped location has to be within tolerance from segment between emitted locations around it
+     */
+    @Test
+    public void maxPerpendicularErrorIsWithinTolerance() {
+        double[] tolerances = { 1, 5, 20 };
+        for (int seed = 1; seed <= 5; seed++) {
+            for (double tolerance : tolerances) {
+                List<BackgroundLocation> track = createTrack(2000, new Random(seed));
+                List<BackgroundLocation> emitted = simplify(new TrajectorySimplifier(tolerance), track);
+
+                double maxError = maxError(track, emitted);
+                String message = "seed " + seed + " tolerance " + tolerance + " max error " + maxError;
+                assertTrue(message, maxError <= tolerance + PRECISION);
+                assertTrue(message, emitted.size() < track.size());
+            }
+        }
+    }
+
+    @Test
+    public void keepsEndsOfTrajectory() {
+        List<BackgroundLocation> track = createTrack(500, new Random(6));
+        List<BackgroundLocation> emitted = simplify(new TrajectorySimplifier(10), track);
+        assertSame(track.get(0), emitted.get(0));
+        assertSame(track.get(track.size() - 1), emitted.get(emitted.size() - 1));
+    }
+
+    @Test
+    public void straightLineIsReducedToItsEnds() {
+        List<BackgroundLocation> track = new ArrayList<BackgroundLocation>();
+        for (int i = 0; i < 50; i++) {
+            track.add(createLocation(i, 50.08 + i * 1e-5, 14.42 + i * 1e-5));
+        }
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(1);
+        List<BackgroundLocation> emitted = simplify(simplifier, track);
+        assertEquals(2, emitted.size());
+        assertEquals(50, simplifier.getReceived());
+        assertEquals(2, simplifier.getEmitted());
+        assertNull(simplifier.flush());
+    }
+
+    @Test
+    public void windowIsBounded() {
+        List<BackgroundLocation> track = new ArrayList<BackgroundLocation>();
+        for (int i = 0; i < 100; i++) {
+            track.add(createLocation(i, 50.08 + i * 1e-5, 14.42));
+        }
+        List<BackgroundLocation> emitted = simplify(new TrajectorySimplifier(1, 10), track);
+        for (int i = 1; i < emitted.size(); i++) {
+            int gap = track.indexOf(emitted.get(i)) - track.indexOf(emitted.get(i - 1));
+            assertTrue("gap " + gap, gap <= 11);
+        }
+    }
+
+    private static List<BackgroundLocation> simplify(TrajectorySimplifier simplifier, List<BackgroundLocation> track) {
+        List<BackgroundLocation> emitted = new ArrayList<BackgroundLocation>();
+        for (BackgroundLocation location : track) {
+            BackgroundLocation result = simplifier.offer(location);
+            if (result != null) {
+                emitted.add(result);
+            }
+        }
+        BackgroundLocation result = simplifier.flush();
+        if (result != null) {
+            emitted.add(result);
+        }
+        return emitted;
+    }
+
+    /**
+     * Returns max distance in meters of dropped location from segment of simplified trajectory
+     */
+    private static double maxError(List<BackgroundLocation> track, List<BackgroundLocation> emitted) {
+        double maxError = 0;
+        int start = 0;
+        for (int i = 1; i < emitted.size(); i++) {
+            int end = track.indexOf(emitted.get(i));
+            assertTrue(end > start);
+            for (int j = start + 1; j < end; j++) {
+                maxError = Math.max(maxError, distanceToSegment(track.get(j), track.get(start), track.get(end)));
+            }
+            start = end;
+        }
+        assertEquals(track.size() - 1, start);
+        return maxError;
+    }
+
+    private static double distanceToSegment(BackgroundLocation location, BackgroundLocation a, BackgroundLocation b) {
+        double metersPerDegreeLongitude = Math.toRadians(EARTH_RADIUS) * Math.cos(Math.toRadians(a.getLatitude()));
+        double bx = (b.getLongitude() - a.getLongitude()) * metersPerDegreeLongitude;
+        double by = Math.toRadians(b.getLatitude() - a.getLatitude()) * EARTH_RADIUS;
+        double x = (location.getLongitude() - a.getLongitude()) * metersPerDegreeLongitude;
+        double y = Math.toRadians(location.getLatitude() - a.getLatitude()) * EARTH_RADIUS;
+
+        double length2 = bx * bx + by * by;
+        double t = length2 > 0 ? Math.max(0, Math.min(1, (x * bx + y * by) / length2)) : 0;
+        return Math.hypot(x - t * bx, y - t * by);
+    }
+
+    /**
+     * Create walking track with turns and gps jitter
+     */
+    private static List<BackgroundLocation> createTrack(int count, Random random) {
+        List<BackgroundLocation> track = new ArrayList<BackgroundLocation>(count);
+        double latitude = 50.08, longitude = 14.42;
+        double heading = 0;
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(50) == 0) {
+                heading += (random.nextDouble() - 0.5) * Math.PI;
+            }
+            double distance = random.nextDouble() * 3;
+            latitude += Math.toDegrees((distance * Math.cos(heading) + random.nextGaussian()) / EARTH_RADIUS);
+            longitude += Math.toDegrees((distance * Math.sin(heading) + random.nextGaussian()) / EARTH_RADIUS)
+                    / Math.cos(Math.toRadians(latitude));
+            track.add(createLocation(i, latitude, longitude));
+        }
+        return track;
+    }
+
+    private static BackgroundLocation createLocation(int i, double latitude, double longitude) {
+        BackgroundLocation location = new BackgroundLocation("gps");
+        location.setTime(1000000000000L + i * 1000L);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        return location;
+    }
+}
@@ -0,0 +1,211 @@
+package com.marianhello.bgloc.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server listening on loopback
+ *
+ * Counts accepted connections and served requests, so tests can tell how many
+ * requests have been made and how many connections (handshakes) they needed.
+ * Connections are kept alive unless server is asked to close them after every response.
+ * Handshake delay is slept once per accepted connection, simulating
+ * round trips of TCP and TLS handshake on real network.
+ */
+public class LocalHttpServer {
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    private volatile boolean closeConnections = false;
+    private volatile long handshakeDelay = 0;
+
+    public LocalHttpServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        acceptThread = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "LocalHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/locations";
+    }
+
+    /**
+     * Close connection after every response (Connection: close)
+     */
+    public void setCloseConnections(boolean closeConnections) {
+        this.closeConnections = closeConnections;
+    }
+
+    /**
+     * Set delay in milliseconds before first request of new connection is served
+     */
+    public void setHandshakeDelay(long handshakeDelay) {
+        this.handshakeDelay = handshakeDelay;
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns bodies of all served requests in order they have been received
+     */
+    public List<String> getBodies() {
+        synchronized (bodies) {
+            return new ArrayList<String>(bodies);
+        }
+    }
+
+    public void reset() {
+        connections.set(0);
+        requests.set(0);
+        bodies.clear();
+    }
+
+    public void shutdown() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.incrementAndGet();
+            sockets.add(socket);
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    serve(socket);
+                }
+            }, "LocalHttpServer-connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            sleep(handshakeDelay);
+            InputStream is = socket.getInputStream();
+            OutputStream os = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(is);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;
+                }
+
+                long contentLength = 0;
+                boolean chunked = false;
+                String line;
+                while ((line = readLine(is)) != null && !line.isEmpty()) {
+                    String header = line.toLowerCase(Locale.US);
+                    if (header.startsWith("content-length:")) {
+                        contentLength = Long.parseLong(header.substring(15).trim());
+                    } else if (header.startsWith("transfer-encoding:") && header.contains("chunked")) {
+                        chunked = true;
+                    }
+                }
+                bodies.add(chunked ? readChunked(is) : read(is, contentLength));
+                requests.incrementAndGet();
+
+                boolean close = closeConnections;
+                os.write(("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n" +
+                        (close ? "Connection: close\r\n" : "") + "\r\n").getBytes("US-ASCII"));
+                os.flush();
+                if (close) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // connection closed by client
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static String readChunked(InputStream is) throws IOException {
+        StringBuilder body = new StringBuilder();
+        long size;
+        while ((size = Long.parseLong(readLine(is).split(";")[0].trim(), 16)) > 0) {
+            body.append(read(is, size));
+            readLine(is);
+        }
+        // trailers
+        String line;
+        while ((line = readLine(is)) != null && !line.isEmpty()) {}
+        return body.toString();
+    }
+
+    private static String read(InputStream is, long length) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (length > 0) {
+            int read = is.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read == -1) {
+                throw new IOException("Unexpected end of request body");
+            }
+            body.write(buffer, 0, read);
+            length -= read;
+        }
+        return body.toString("UTF-8");
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = is.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
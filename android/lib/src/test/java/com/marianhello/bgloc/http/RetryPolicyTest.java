@@ -0,0 +1,239 @@
+package com.marianhello.bgloc.http;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private static final String URL = "http://example.com/locations";
+    private static final long BASE_DELAY = 1000;
+    private static final long MAX_DELAY = 60000;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_DURATION = 30000;
+
+    private FakeClock clock;
+    private FakeRandom random;
+    private RetryPolicy policy;
+    private List<String> transitions;
+
+    private static class FakeClock implements RetryPolicy.Clock {
+        long now = 1000000000000L;
+
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static class FakeRandom extends Random {
+        double value;
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        random = new FakeRandom();
+        policy = new RetryPolicy(BASE_DELAY, MAX_DELAY, FAILURE_THRESHOLD, OPEN_DURATION, clock, random);
+        transitions = new ArrayList<String>();
+        policy.setListener(new RetryPolicy.Listener() {
+            public void onStateChanged(String endpoint, RetryPolicy.State from, RetryPolicy.State to, long retryAt) {
+                transitions.add(from + "->" + to);
+            }
+        });
+    }
+
+    @Test
+    public void backoffIsWithinBounds() {
+        // threshold high enough to keep circuit closed
+        policy = new RetryPolicy(BASE_DELAY, MAX_DELAY, 100, OPEN_DURATION, clock, random);
+        for (int failures = 1; failures <= 40; failures++) {
+            long ceiling = Math.min(MAX_DELAY, BASE_DELAY << Math.min(failures - 1, 30));
+
+            random.value = Math.nextAfter(1.0, 0);
+            fail(failures);
+            long delay = policy.getDelay(URL);
+            assertTrue("failures " + failures + " delay " + delay, delay <= ceiling && delay >= ceiling - 1);
+            assertFalse(policy.allowRequest(URL));
+
+            random.value = 0;
+            fail(failures);
+            assertEquals("failures " + failures, 0, policy.getDelay(URL));
+            assertTrue(policy.allowRequest(URL));
+        }
+        assertTrue(transitions.isEmpty());
+    }
+
+    @Test
+    public void requestIsNotAllowedDuringBackoff() {
+        random.value = 0.5;
+        policy.onFailure(URL, null);
+        assertEquals(BASE_DELAY / 2, policy.getDelay(URL));
+        assertFalse(policy.allowRequest(URL));
+
+        clock.now += BASE_DELAY / 2;
+        assertEquals(0, policy.getDelay(URL));
+        assertTrue(policy.allowRequest(URL));
+    }
+
+    @Test
+    public void circuitOpensAtThreshold() {
+        for (int i = 0; i < FAILURE_THRESHOLD - 1; i++) {
+            policy.onFailure(URL, null);
+            assertEquals(RetryPolicy.State.CLOSED, policy.getState(URL));
+        }
+        policy.onFailure(URL, null);
+        assertEquals(RetryPolicy.State.OPEN, policy.getState(URL));
+        assertEquals(OPEN_DURATION, policy.getDelay(URL));
+        assertFalse(policy.allowRequest(URL));
+        // other endpoints are not affected
+        assertTrue(policy.allowRequest("http://example.com/sync"));
+    }
+
+    @Test
+    public void halfOpenAllowsSingleProbe() {
+        openCircuit();
+        clock.now += OPEN_DURATION;
+
+        assertTrue(policy.allowRequest(URL));
+        assertEquals(RetryPolicy.State.HALF_OPEN, policy.getState(URL));
+        assertFalse(policy.allowRequest(URL));
+        assertFalse(policy.allowRequest(URL));
+        assertEquals(OPEN_DURATION, policy.getDelay(URL));
+
+        policy.onSuccess(URL);
+        assertEquals(RetryPolicy.State.CLOSED, policy.getState(URL));
+        assertTrue(policy.allowRequest(URL));
+        assertTrue(policy.allowRequest(URL));
+        assertEquals(listOf("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    public void failedProbeOpensCircuitAgain() {
+        openCircuit();
+        clock.now += OPEN_DURATION;
+        assertTrue(policy.allowRequest(URL));
+
+        policy.onFailure(URL, null);
+        assertEquals(RetryPolicy.State.OPEN, policy.getState(URL));
+        assertFalse(policy.allowRequest(URL));
+
+        clock.now += OPEN_DURATION;
+        assertTrue(policy.allowRequest(URL));
+        assertEquals(listOf("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN", "OPEN->HALF_OPEN"), transitions);
+    }
+
+    @Test
+    public void parsesRetryAfterSeconds() {
+        assertEquals(Long.valueOf(120000), RetryPolicy.parseRetryAfter("120", clock.now));
+        assertEquals(Long.valueOf(5000), RetryPolicy.parseRetryAfter(" 5 ", clock.now));
+        assertEquals(Long.valueOf(0), RetryPolicy.parseRetryAfter("-5", clock.now));
+    }
+
+    @Test
+    public void parsesRetryAfterHttpDate() {
+        assertEquals(Long.valueOf(90000), RetryPolicy.parseRetryAfter(httpDate(clock.now + 90000), clock.now));
+        assertEquals(Long.valueOf(0), RetryPolicy.parseRetryAfter(httpDate(clock.now - 90000), clock.now));
+        assertEquals(Long.valueOf(1000),
+                RetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:49:38 GMT", 784111777000L));
+    }
+
+    @Test
+    public void ignoresInvalidRetryAfter() {
+        assertNull(RetryPolicy.parseRetryAfter(null, clock.now));
+        assertNull(RetryPolicy.parseRetryAfter("", clock.now));
+        assertNull(RetryPolicy.parseRetryAfter("soon", clock.now));
+        assertNull(RetryPolicy.parseRetryAfter("06/11/1994", clock.now));
+    }
+
+    @Test
+    public void retryAfterOverridesBackoff() {
+        random.value = 0;
+        policy.onResponse(URL, 429, "120");
+        assertEquals(120000, policy.getDelay(URL));
+
+        policy.onResponse(URL, 503, httpDate(clock.now + 45000));
+        assertEquals(45000, policy.getDelay(URL));
+
+        // circuit is open at least for open duration, even if server wants less
+        policy.onResponse(URL, 503, "1");
+        assertEquals(RetryPolicy.State.OPEN, policy.getState(URL));
+        assertEquals(OPEN_DURATION, policy.getDelay(URL));
+    }
+
+    @Test
+    public void clientErrorResetsPolicy() {
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(404));
+        assertTrue(RetryPolicy.isRetryable(408));
+        assertTrue(RetryPolicy.isRetryable(429));
+        assertTrue(RetryPolicy.isRetryable(500));
+
+        random.value = 0.5;
+        policy.onResponse(URL, 500, null);
+        policy.onResponse(URL, 500, null);
+        assertTrue(policy.getDelay(URL) > 0);
+        policy.onResponse(URL, 404, null);
+        assertEquals(0, policy.getDelay(URL));
+        assertEquals(RetryPolicy.State.CLOSED, policy.getState(URL));
+
+        // failure counting starts again
+        policy.onResponse(URL, 500, null);
+        policy.onResponse(URL, 500, null);
+        assertEquals(RetryPolicy.State.CLOSED, policy.getState(URL));
+
+        policy.onResponse(URL, 500, null);
+        assertEquals(RetryPolicy.State.OPEN, policy.getState(URL));
+        clock.now += OPEN_DURATION;
+        assertTrue(policy.allowRequest(URL));
+        policy.onResponse(URL, 400, null);
+        assertEquals(RetryPolicy.State.CLOSED, policy.getState(URL));
+        assertTrue(policy.allowRequest(URL));
+    }
+
+    /**
+     * Reset policy and report given number of consecutive failures
+     */
+    private void fail(int failures) {
+        policy.onSuccess(URL);
+        for (int i = 0; i < failures; i++) {
+            policy.onFailure(URL, null);
+        }
+    }
+
+    private void openCircuit() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            policy.onFailure(URL, null);
+        }
+        assertEquals(RetryPolicy.State.OPEN, policy.getState(URL));
+    }
+
+    private static String httpDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<String>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,132 @@
+package com.marianhello.bgloc.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * UrlConnectionTransport against local server
+ *
+ * Server counts accepted connections, so every new connection stands for one handshake.
+ * Closing connection after every response is how transport behaved before connections
+ * were returned to keep-alive pool.
+ */
+public class UrlConnectionTransportTest {
+    private static final int REQUESTS = 20;
+    private static final long HANDSHAKE_DELAY = 25;
+
+    private LocalHttpServer server;
+    private UrlConnectionTransport transport;
+    private Map<String, String> headers;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalHttpServer();
+        transport = new UrlConnectionTransport();
+        headers = new HashMap<String, String>();
+        headers.put("x-batch-id", "1");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void connectionIsReusedByFollowingRequests() throws IOException {
+        for (int i = 0; i < REQUESTS; i++) {
+            assertEquals(200, transport.post(server.getUrl(), "application/json", headers, body("[" + i + "]")).getResponseCode());
+        }
+        assertEquals(REQUESTS, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void everyRequestHandshakesWhenConnectionIsClosed() throws IOException {
+        server.setCloseConnections(true);
+        for (int i = 0; i < REQUESTS; i++) {
+            assertEquals(200, transport.post(server.getUrl(), "application/json", headers, body("[" + i + "]")).getResponseCode());
+        }
+        assertEquals(REQUESTS, server.getRequestCount());
+        assertEquals(REQUESTS, server.getConnectionCount());
+    }
+
+    @Test
+    public void reusedConnectionsReduceLatency() throws IOException {
+        server.setHandshakeDelay(HANDSHAKE_DELAY);
+
+        server.setCloseConnections(true);
+        long before = postAll();
+        int handshakesBefore = server.getConnectionCount();
+
+        server.reset();
+        server.setCloseConnections(false);
+        long after = postAll();
+        int handshakesAfter = server.getConnectionCount();
+
+        System.out.println(String.format("%d requests: %d handshakes %d ms without reuse, %d handshakes %d ms with reuse",
+                REQUESTS, handshakesBefore, before, handshakesAfter, after));
+        assertEquals(REQUESTS, handshakesBefore);
+        assertEquals(1, handshakesAfter);
+        assertTrue(before >= REQUESTS * HANDSHAKE_DELAY);
+        assertTrue(after < before / 2);
+    }
+
+    @Test
+    public void bodyOfUnknownLengthIsChunked() throws IOException {
+        HttpTransport.Response response = transport.post(server.getUrl(), "application/json", headers, new HttpTransport.Body() {
+            public long getContentLength() {
+                return -1;
+            }
+
+            public void writeTo(OutputStream os) throws IOException {
+                os.write("[1,".getBytes("UTF-8"));
+                os.write("2]".getBytes("UTF-8"));
+            }
+        });
+        assertEquals(200, response.getResponseCode());
+        assertEquals("[1,2]", server.getBodies().get(0));
+    }
+
+    @Test
+    public void requestIsTimed() throws IOException {
+        RequestTiming timing = transport.post(server.getUrl(), "application/json", headers, body("[]")).getTiming();
+        assertTrue(timing.getDnsMillis() >= 0);
+        assertTrue(timing.getConnectMillis() >= 0);
+        assertTrue(timing.getTtfbMillis() >= 0);
+        assertTrue(timing.getTotalMillis() >= timing.getTtfbMillis());
+    }
+
+    /**
+     * Returns total time of posting all requests in milliseconds
+     */
+    private long postAll() throws IOException {
+        long total = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            RequestTiming timing = transport.post(server.getUrl(), "application/json", headers, body("[" + i + "]")).getTiming();
+            total += timing.getTotalMillis();
+        }
+        return total;
+    }
+
+    private static HttpTransport.Body body(String json) throws IOException {
+        final byte[] bytes = json.getBytes("UTF-8");
+        return new HttpTransport.Body() {
+            public long getContentLength() {
+                return bytes.length;
+            }
+
+            public void writeTo(OutputStream os) throws IOException {
+                os.write(bytes);
+            }
+        };
+    }
+}
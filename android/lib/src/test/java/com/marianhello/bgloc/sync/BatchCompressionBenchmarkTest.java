@@ -0,0 +1,193 @@
+package com.marianhello.bgloc.sync;
+
+import com.marianhello.bgloc.Config;
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.LocationOutbox;
+import com.marianhello.bgloc.data.serializer.BinaryLocationSerializer;
+import com.marianhello.bgloc.data.serializer.JsonLocationSerializer;
+import com.marianhello.bgloc.data.serializer.LocationSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bytes on wire and CPU cost of compressed batches per 1,000 fixes
+ *
+ * Batches are streamed from in memory outbox, so measured CPU time is spent
+ * by serializer and compressor only. CPU time of compression is difference
+ * against uncompressed batch of the same format.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BatchCompressionBenchmarkTest {
+    private static final int FIXES = 1000;
+    private static final int ROUNDS = 20;
+
+    private static final int[] COMPRESSIONS = { Config.NO_COMPRESSION, Config.GZIP_COMPRESSION, Config.DEFLATE_COMPRESSION };
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void benchmarkCompression() throws IOException {
+        List<BackgroundLocation> locations = createTrack(FIXES, new Random(1));
+        LocationSerializer[] serializers = { new JsonLocationSerializer(), new BinaryLocationSerializer() };
+
+        for (LocationSerializer serializer : serializers) {
+            byte[] raw = null;
+            long rawCpu = 0;
+            for (int compression : COMPRESSIONS) {
+                byte[] body = writeBatch(locations, compression, serializer);
+                long cpu = measureCpu(locations, compression, serializer);
+                if (compression == Config.NO_COMPRESSION) {
+                    raw = body;
+                    rawCpu = cpu;
+                } else {
+                    assertArrayEquals(raw, decompress(body, compression));
+                    assertTrue(body.length < raw.length);
+                }
+                System.out.println(String.format("%s %s: %d bytes, %d us cpu per %d fixes (compression %d us)",
+                        serializer.getContentType(), BatchManager.getContentEncoding(compression),
+                        body.length, cpu / 1000, FIXES, Math.max(0, cpu - rawCpu) / 1000));
+            }
+        }
+    }
+
+    @Test
+    public void compressionReducesBytesOnWire() throws IOException {
+        List<BackgroundLocation> locations = createTrack(FIXES, new Random(2));
+        byte[] json = writeBatch(locations, Config.NO_COMPRESSION, new JsonLocationSerializer());
+        byte[] gzip = writeBatch(locations, Config.GZIP_COMPRESSION, new JsonLocationSerializer());
+        byte[] deflate = writeBatch(locations, Config.DEFLATE_COMPRESSION, new JsonLocationSerializer());
+        byte[] binary = writeBatch(locations, Config.NO_COMPRESSION, new BinaryLocationSerializer());
+
+        // gzip and zlib differ by header and trailer only
+        assertTrue(deflate.length < gzip.length);
+        assertTrue(gzip.length * 3 < json.length);
+        assertTrue(binary.length * 3 < json.length);
+    }
+
+    private byte[] writeBatch(List<BackgroundLocation> locations, int compression, LocationSerializer serializer) throws IOException {
+        BatchManager batchManager = new BatchManager(new MemoryOutbox(locations));
+        BatchManager.StreamingBatch batch = batchManager.createStreamingBatch(1L, 1, compression,
+                Integer.MAX_VALUE, Integer.MAX_VALUE, serializer);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns best CPU time of writing batch of several rounds in nanoseconds
+     */
+    private long measureCpu(List<BackgroundLocation> locations, int compression, LocationSerializer serializer) throws IOException {
+        // warm up
+        for (int i = 0; i < ROUNDS; i++) {
+            writeBatch(locations, compression, serializer);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long cpu = threads.getCurrentThreadCpuTime();
+            writeBatch(locations, compression, serializer);
+            best = Math.min(best, threads.getCurrentThreadCpuTime() - cpu);
+        }
+        return best;
+    }
+
+    private static byte[] decompress(byte[] body, int compression) throws IOException {
+        InputStream is = compression == Config.GZIP_COMPRESSION
+                ? new GZIPInputStream(new ByteArrayInputStream(body))
+                : new InflaterInputStream(new ByteArrayInputStream(body));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        is.close();
+        return out.toByteArray();
+    }
+
+    private static List<BackgroundLocation> createTrack(int count, Random random) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        double latitude = 50.08, longitude = 14.42;
+        for (int i = 0; i < count; i++) {
+            latitude += (random.nextDouble() - 0.3) * 0.00002;
+            longitude += (random.nextDouble() - 0.3) * 0.00002;
+            BackgroundLocation location = new BackgroundLocation("gps");
+            location.setLocationId(i + 1L);
+            location.setTime(1500000000000L + i * 1000L + random.nextInt(50));
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+            location.setAccuracy(3 + random.nextFloat() * 20);
+            location.setSpeed(random.nextFloat() * 2);
+            location.setBearing(random.nextFloat() * 360);
+            location.setAltitude(200 + random.nextDouble() * 10);
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    /**
+     * Outbox with all locations pending, leases and acks are not tracked
+     */
+    private static class MemoryOutbox implements LocationOutbox {
+        private final List<BackgroundLocation> locations;
+
+        MemoryOutbox(List<BackgroundLocation> locations) {
+            this.locations = locations;
+        }
+
+        public List<Long> lease(List<Long> locationIds, long leaseId, long leaseExpires) {
+            return locationIds;
+        }
+
+        public void ack(long leaseId, List<Long> locationIds) {}
+
+        public void release(long leaseId, List<Long> locationIds) {}
+
+        public long pendingCount(long now) {
+            return locations.size();
+        }
+
+        public long getMaxLocationId() {
+            return locations.size();
+        }
+
+        public int leasePending(long leaseId, long leaseExpires, long maxLocationId, int limit) {
+            return Math.min(locations.size(), limit);
+        }
+
+        public List<BackgroundLocation> getLeasedLocations(long leaseId, long afterLocationId, long maxLocationId, int limit) {
+            int from = (int) Math.min(afterLocationId, locations.size());
+            int to = (int) Math.min(Math.min(from + limit, maxLocationId), locations.size());
+            return from < to ? locations.subList(from, to) : Arrays.<BackgroundLocation>asList();
+        }
+
+        public int renew(long leaseId, long leaseExpires) {
+            return 0;
+        }
+
+        public int ack(long leaseId, long afterLocationId, long toLocationId) {
+            return 0;
+        }
+
+        public int release(long leaseId) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.marianhello.bgloc.sync;
+
+import com.marianhello.bgloc.Config;
+import com.marianhello.bgloc.data.BackgroundLocation;
+import com.marianhello.bgloc.data.serializer.JsonLocationSerializer;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationContract.LocationEntry;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationDAO;
+import com.marianhello.bgloc.data.sqlite.SQLiteLocationOutbox;
+import com.marianhello.bgloc.data.sqlite.TestDatabase;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streaming batches drained from sqlite outbox
+ *
+ * Upload is stood in by writing batch into memory, locations are acked
+ * or released the same way SyncAdapter does after server has responded.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BatchManagerTest {
+    private static final int WRITER_BUFFER = 8192;
+
+    private SQLiteLocationDAO dao;
+    private BatchManager batchManager;
+
+    @Before
+    public void setUp() {
+        dao = new SQLiteLocationDAO(TestDatabase.open());
+        batchManager = new BatchManager(new SQLiteLocationOutbox(TestDatabase.open()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void batchIsStreamedWithoutTempFile() throws Exception {
+        persist(0, 25);
+        int tempFiles = countBatchFiles();
+
+        BatchManager.StreamingBatch batch = createBatch(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        JSONArray json = new JSONArray(upload(batch));
+
+        assertEquals(25, json.length());
+        assertEquals(25, batch.getWrittenCount());
+        assertEquals(TestDatabase.createLocation(0).getTime(), json.getJSONObject(0).getLong("time"));
+        assertEquals(TestDatabase.createLocation(24).getTime(), json.getJSONObject(24).getLong("time"));
+        assertEquals(tempFiles, countBatchFiles());
+    }
+
+    @Test
+    public void locationsAreSyncedOnlyAfterAck() throws Exception {
+        persist(0, 25);
+        long now = System.currentTimeMillis();
+
+        BatchManager.StreamingBatch batch = createBatch(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        upload(batch);
+        // leased locations are not pending, but still not synced
+        assertEquals(0L, dao.locationsForSyncCount(now).longValue());
+        assertEquals(25, dao.getValidLocations().size());
+
+        batchManager.setBatchCompleted(batch);
+        assertEquals(0, dao.getValidLocations().size());
+        assertNull(batchManager.nextStreamingBatch(batch));
+    }
+
+    @Test
+    public void failedUploadReturnsLocations() throws Exception {
+        persist(0, 25);
+
+        BatchManager.StreamingBatch batch = createBatch(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        upload(batch);
+        batchManager.releaseBatch(batch);
+
+        assertEquals(25L, dao.locationsForSyncCount(System.currentTimeMillis()).longValue());
+        batch = createBatch(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertNotNull(batch);
+        assertEquals(25, new JSONArray(upload(batch)).length());
+    }
+
+    @Test
+    public void batchIsNotCreatedUnderThreshold() {
+        persist(0, 5);
+        assertNull(batchManager.createStreamingBatch(1L, 6, Config.NO_COMPRESSION,
+                Integer.MAX_VALUE, Integer.MAX_VALUE, new JsonLocationSerializer()));
+        assertEquals(5L, dao.locationsForSyncCount(System.currentTimeMillis()).longValue());
+    }
+
+    @Test
+    public void batchesAreCappedByCount() throws Exception {
+        persist(0, 25);
+
+        List<Integer> sizes = new ArrayList<Integer>();
+        BatchManager.StreamingBatch batch = createBatch(10, Integer.MAX_VALUE);
+        while (batch != null) {
+            sizes.add(new JSONArray(upload(batch)).length());
+            batchManager.setBatchCompleted(batch);
+            batch = batchManager.nextStreamingBatch(batch);
+        }
+        assertEquals(Arrays.asList(10, 10, 5), sizes);
+        assertEquals(0, dao.getValidLocations().size());
+    }
+
+    @Test
+    public void batchesAreCappedByBytes() throws Exception {
+        persist(0, 1000);
+        BatchManager.StreamingBatch probe = createBatch(1, Integer.MAX_VALUE);
+        int locationBytes = upload(probe).length();
+        batchManager.releaseBatch(probe);
+
+        // byte count lags behind serializer by its writer buffer
+        int maxBatchBytes = 32 * 1024;
+        BatchManager.StreamingBatch batch = createBatch(Integer.MAX_VALUE, maxBatchBytes);
+        int batches = 0;
+        int total = 0;
+        while (batch != null) {
+            String body = upload(batch);
+            assertTrue(body.length() < maxBatchBytes + WRITER_BUFFER + locationBytes);
+            total += new JSONArray(body).length();
+            batches++;
+            batchManager.setBatchCompleted(batch);
+            batch = batchManager.nextStreamingBatch(batch);
+        }
+        assertEquals(1000, total);
+        assertTrue(batches > 1);
+    }
+
+    @Test
+    public void batchesAreAckedSeparately() throws Exception {
+        persist(0, 25);
+
+        BatchManager.StreamingBatch first = createBatch(10, Integer.MAX_VALUE);
+        upload(first);
+        batchManager.setBatchCompleted(first);
+        assertEquals(15, dao.getValidLocations().size());
+
+        BatchManager.StreamingBatch second = batchManager.nextStreamingBatch(first);
+        assertTrue(second.getBatchStartMillis() != first.getBatchStartMillis());
+        upload(second);
+        // failed batch returns its locations and locations of following batches
+        batchManager.releaseBatch(second);
+        assertEquals(15, dao.getValidLocations().size());
+        assertEquals(15L, dao.locationsForSyncCount(System.currentTimeMillis()).longValue());
+    }
+
+    @Test
+    public void killedSyncResumesFromFirstUnackedBatch() throws Exception {
+        persist(0, 25);
+
+        BatchManager.StreamingBatch batch = createBatch(10, Integer.MAX_VALUE);
+        upload(batch);
+        batchManager.setBatchCompleted(batch);
+        upload(batchManager.nextStreamingBatch(batch));
+        // sync process is killed before second batch is acked, its lease expires
+        TestDatabase.open().execSQL("UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_NAME_LEASE_EXPIRES + " = 0");
+
+        batch = batchManager.createStreamingBatch(2L, 1, Config.NO_COMPRESSION,
+                10, Integer.MAX_VALUE, new JsonLocationSerializer());
+        JSONArray json = new JSONArray(upload(batch));
+        assertEquals(10, json.length());
+        assertEquals(TestDatabase.createLocation(10).getTime(), json.getJSONObject(0).getLong("time"));
+        batchManager.setBatchCompleted(batch);
+        assertEquals(5, new JSONArray(upload(batchManager.nextStreamingBatch(batch))).length());
+    }
+
+    private BatchManager.StreamingBatch createBatch(int maxBatchSize, int maxBatchBytes) {
+        return batchManager.createStreamingBatch(1L, 1, Config.NO_COMPRESSION,
+                maxBatchSize, maxBatchBytes, new JsonLocationSerializer());
+    }
+
+    private static String upload(BatchManager.StreamingBatch batch) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeTo(out);
+        return out.toString("UTF-8");
+    }
+
+    private List<Long> persist(int first, int count) {
+        List<BackgroundLocation> locations = new ArrayList<BackgroundLocation>(count);
+        for (int i = first; i < first + count; i++) {
+            locations.add(TestDatabase.createLocation(i));
+        }
+        return dao.persistLocationsWithLimit(locations, 1000);
+    }
+
+    private static int countBatchFiles() {
+        File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("locations") && name.endsWith(".batch");
+            }
+        });
+        return files == null ? 0 : files.length;
+    }
+}
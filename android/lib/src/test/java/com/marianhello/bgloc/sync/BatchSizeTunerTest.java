@@ -0,0 +1,131 @@
+package com.marianhello.bgloc.sync;
+
+import com.marianhello.bgloc.data.UploadStats;
+import com.marianhello.bgloc.data.sqlite.SQLiteUploadStatsDAO;
+import com.marianhello.bgloc.data.sqlite.TestDatabase;
+import com.marianhello.bgloc.http.RequestTiming;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Batch size and sync threshold tuned by simulated uploads
+ *
+ * With 10s target upload time, batch size is ten times measured throughput per second.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BatchSizeTunerTest {
+    private static final int MIN_BATCH_SIZE = 10;
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final int MAX_SYNC_THRESHOLD = 100;
+    private static final long TARGET_UPLOAD_TIME = 10000;
+
+    private BatchSizeTuner tuner;
+
+    @Before
+    public void setUp() {
+        tuner = createTuner();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.close();
+    }
+
+    @Test
+    public void configuredValuesAreUsedUntilFirstUpload() {
+        UploadStats stats = tuner.getStats("wifi");
+        assertEquals(MAX_BATCH_SIZE, stats.getBatchSize());
+        assertEquals(MAX_SYNC_THRESHOLD, stats.getSyncThreshold());
+        assertEquals(0, stats.getUploads());
+    }
+
+    @Test
+    public void networkTypesAreTunedIndependently() {
+        // 1000 locations/s on wifi, 5 locations/s on cellular
+        for (int i = 0; i < 5; i++) {
+            tuner.onUploadSucceeded("wifi", 500, timing(500));
+            tuner.onUploadSucceeded("mobile", 50, timing(10000));
+        }
+        assertEquals(MAX_BATCH_SIZE, tuner.getBatchSize("wifi"));
+        assertEquals(MAX_SYNC_THRESHOLD, tuner.getSyncThreshold("wifi"));
+        assertEquals(50, tuner.getBatchSize("mobile"));
+        // threshold never exceeds batch size, so sync on slow network is single short request
+        assertEquals(50, tuner.getSyncThreshold("mobile"));
+        assertEquals(1000, tuner.getStats("wifi").getThroughput(), 1e-6);
+        assertEquals(5, tuner.getStats("mobile").getThroughput(), 1e-6);
+    }
+
+    @Test
+    public void batchSizeFollowsThroughput() {
+        tuner.onUploadSucceeded("mobile", 50, timing(10000));
+        assertEquals(50, tuner.getBatchSize("mobile"));
+
+        // network gets faster, average moves towards 20 locations/s
+        int batchSize = tuner.getBatchSize("mobile");
+        for (int i = 0; i < 10; i++) {
+            tuner.onUploadSucceeded("mobile", 200, timing(10000));
+            int next = tuner.getBatchSize("mobile");
+            assertTrue(next >= batchSize);
+            batchSize = next;
+        }
+        assertTrue(batchSize > 190 && batchSize <= 200);
+    }
+
+    @Test
+    public void batchSizeStaysWithinBounds() {
+        tuner.onUploadSucceeded("mobile", 1, timing(60000));
+        assertEquals(MIN_BATCH_SIZE, tuner.getBatchSize("mobile"));
+        assertEquals(MIN_BATCH_SIZE, tuner.getSyncThreshold("mobile"));
+
+        tuner.onUploadSucceeded("wifi", 100000, timing(100));
+        assertEquals(MAX_BATCH_SIZE, tuner.getBatchSize("wifi"));
+        assertEquals(MAX_SYNC_THRESHOLD, tuner.getSyncThreshold("wifi"));
+    }
+
+    @Test
+    public void failuresShrinkBatchSize() {
+        tuner.onUploadSucceeded("mobile", 300, timing(10000));
+        assertEquals(300, tuner.getBatchSize("mobile"));
+
+        int batchSize = tuner.getBatchSize("mobile");
+        for (int i = 0; i < 20; i++) {
+            UploadStats stats = tuner.onUploadFailed("mobile");
+            assertTrue(stats.getBatchSize() <= batchSize);
+            assertTrue(stats.getBatchSize() >= MIN_BATCH_SIZE);
+            batchSize = stats.getBatchSize();
+        }
+        assertEquals(MIN_BATCH_SIZE, batchSize);
+        assertEquals(20, tuner.getStats("mobile").getFailures());
+    }
+
+    @Test
+    public void statsAreSharedThroughStore() {
+        tuner.onUploadSucceeded("mobile", 50, timing(10000));
+        tuner.onUploadFailed("mobile");
+
+        // sync process reads stats recorded by service
+        UploadStats stats = createTuner().getStats("mobile");
+        assertEquals(1, stats.getUploads());
+        assertEquals(1, stats.getFailures());
+        assertEquals(tuner.getBatchSize("mobile"), stats.getBatchSize());
+    }
+
+    private static BatchSizeTuner createTuner() {
+        return new BatchSizeTuner(new SQLiteUploadStatsDAO(TestDatabase.open()), MIN_BATCH_SIZE, MAX_BATCH_SIZE,
+                MAX_SYNC_THRESHOLD, BatchSizeTuner.DEFAULT_ALPHA, TARGET_UPLOAD_TIME);
+    }
+
+    private static RequestTiming timing(long totalMillis) {
+        RequestTiming timing = new RequestTiming();
+        timing.setTtfbMillis(totalMillis);
+        timing.setTotalMillis(totalMillis);
+        return timing;
+    }
+}
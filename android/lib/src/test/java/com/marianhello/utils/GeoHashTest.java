@@ -0,0 +1,92 @@
+package com.marianhello.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeoHashTest {
+
+    @Test
+    public void rangesAreSortedAndDisjoint() {
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            double[] bbox = randomBoundingBox(random);
+            List<long[]> ranges = GeoHash.coverRanges(bbox[0], bbox[1], bbox[2], bbox[3]);
+            assertTrue(ranges.size() > 0);
+            assertTrue(ranges.size() <= 32);
+            for (int j = 0; j < ranges.size(); j++) {
+                assertTrue(ranges.get(j)[0] <= ranges.get(j)[1]);
+                if (j > 0) {
+                    assertTrue(ranges.get(j - 1)[1] + 1 < ranges.get(j)[0]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rangesCoverEveryLocationInBoundingBox() {
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            double[] bbox = randomBoundingBox(random);
+            List<long[]> ranges = GeoHash.coverRanges(bbox[0], bbox[1], bbox[2], bbox[3]);
+            for (int j = 0; j < 100; j++) {
+                double latitude = bbox[1] + random.nextDouble() * (bbox[3] - bbox[1]);
+                double width = bbox[2] - bbox[0];
+                if (width < 0) {
+                    width += 360;
+                }
+                double longitude = bbox[0] + random.nextDouble() * width;
+                if (longitude > 180) {
+                    longitude -= 360;
+                }
+                if (!contains(ranges, GeoHash.encode(latitude, longitude))) {
+                    fail("Location " + latitude + "," + longitude + " not covered by bbox " +
+                            bbox[0] + "," + bbox[1] + "," + bbox[2] + "," + bbox[3]);
+                }
+            }
+            // corners
+            assertTrue(contains(ranges, GeoHash.encode(bbox[1], bbox[0])));
+            assertTrue(contains(ranges, GeoHash.encode(bbox[3], bbox[2])));
+        }
+    }
+
+    @Test
+    public void nearbyLocationsSharePrefix() {
+        long a = GeoHash.encode(50.0800, 14.4200);
+        long b = GeoHash.encode(50.0801, 14.4201);
+        long c = GeoHash.encode(-33.8688, 151.2093);
+        assertTrue(Long.numberOfLeadingZeros(a ^ b) > Long.numberOfLeadingZeros(a ^ c));
+    }
+
+    private static boolean contains(List<long[]> ranges, long hash) {
+        for (long[] range : ranges) {
+            if (hash >= range[0] && hash <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns [west, south, east, north] of random size from meters to whole world,
+     * about tenth of them crossing antimeridian
+     */
+    private static double[] randomBoundingBox(Random random) {
+        double size = Math.pow(10, -5 + random.nextDouble() * 7);
+        double south = -90 + random.nextDouble() * 180;
+        double north = Math.min(90, south + size);
+        double west = -180 + random.nextDouble() * 360;
+        if (random.nextInt(10) == 0) {
+            west = 180 - random.nextDouble() * Math.min(size, 10);
+        }
+        double east = west + Math.min(size, 359);
+        if (east > 180) {
+            east -= 360;
+        }
+        return new double[] { west, south, east, north };
+    }
+}
@@ -0,0 +1,202 @@
+package com.marianhello.utils;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class SQLiteStatementCacheTest {
+    private static final String SQL_INSERT = "INSERT INTO bench (value) VALUES (?)";
+    private static final String SQL_COUNT = "SELECT COUNT(*) FROM bench";
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE bench (value INTEGER)");
+    }
+
+    @After
+    public void tearDown() {
+        SQLiteStatementCache.release(db);
+        db.close();
+    }
+
+    @Test
+    public void returnsSameStatementForSameSql() {
+        SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_INSERT);
+        assertSame(stmt, SQLiteStatementCache.getStatement(db, SQL_INSERT));
+    }
+
+    @Test
+    public void threadsDoNotShareStatement() throws Exception {
+        final SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_INSERT);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SQLiteStatement other = executor.submit(new Callable<SQLiteStatement>() {
+                @Override
+                public SQLiteStatement call() {
+                    return SQLiteStatementCache.getStatement(db, SQL_INSERT);
+                }
+            }).get(5, TimeUnit.SECONDS);
+            assertNotSame(stmt, other);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Thread holding transaction executes statement, while other thread executes
+     * statement of same sql outside of transaction and waits for connection.
+     * Statement shared by both threads and locked for execution would deadlock here
+     * (lock order connection -> statement in first thread, statement -> connection in other one).
+     */
+    @Test(timeout = 10000)
+    public void statementOfOtherThreadWaitingForConnectionDoesNotBlock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        db.beginTransaction();
+        try {
+            Future<Long> insert = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_INSERT);
+                    stmt.clearBindings();
+                    stmt.bindLong(1, 2);
+                    return stmt.executeInsert();
+                }
+            });
+            // give other thread time to block on connection
+            Thread.sleep(200);
+
+            SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_INSERT);
+            stmt.clearBindings();
+            stmt.bindLong(1, 1);
+            stmt.executeInsert();
+            db.setTransactionSuccessful();
+            db.endTransaction();
+
+            insert.get(5, TimeUnit.SECONDS);
+            assertEquals(2L, SQLiteStatementCache.getStatement(db, SQL_COUNT).simpleQueryForLong());
+        } finally {
+            if (db.inTransaction()) {
+                db.endTransaction();
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void releaseClosesStatementsOfAllThreads() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SQLiteStatement other = executor.submit(new Callable<SQLiteStatement>() {
+                @Override
+                public SQLiteStatement call() {
+                    return SQLiteStatementCache.getStatement(db, SQL_COUNT);
+                }
+            }).get(5, TimeUnit.SECONDS);
+            SQLiteStatementCache.release(db);
+            try {
+                other.simpleQueryForLong();
+                fail("Statement of other thread has not been closed");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+
+            // statement of released database is compiled again
+            SQLiteStatement stmt = executor.submit(new Callable<SQLiteStatement>() {
+                @Override
+                public SQLiteStatement call() {
+                    return SQLiteStatementCache.getStatement(db, SQL_COUNT);
+                }
+            }).get(5, TimeUnit.SECONDS);
+            assertNotSame(other, stmt);
+            assertEquals(0L, stmt.simpleQueryForLong());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Allocation benchmark of compile per execution vs cached statement
+     */
+    @Test
+    public void allocatesLessThanCompilePerExecution() {
+        final int executions = 5000;
+        // warm up
+        insertCompiled(executions);
+        insertCached(executions);
+
+        long compiledBytes = allocatedBytes();
+        long compiledTime = System.nanoTime();
+        insertCompiled(executions);
+        compiledTime = System.nanoTime() - compiledTime;
+        compiledBytes = allocatedBytes() - compiledBytes;
+
+        long cachedBytes = allocatedBytes();
+        long cachedTime = System.nanoTime();
+        insertCached(executions);
+        cachedTime = System.nanoTime() - cachedTime;
+        cachedBytes = allocatedBytes() - cachedBytes;
+
+        System.out.println(String.format("compile per execution: %d B/op %d ns/op",
+                compiledBytes / executions, compiledTime / executions));
+        System.out.println(String.format("cached statement: %d B/op %d ns/op",
+                cachedBytes / executions, cachedTime / executions));
+        assertTrue(cachedBytes < compiledBytes);
+    }
+
+    private void insertCompiled(int executions) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < executions; i++) {
+                SQLiteStatement stmt = db.compileStatement(SQL_INSERT);
+                stmt.bindLong(1, i);
+                stmt.executeInsert();
+                stmt.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void insertCached(int executions) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < executions; i++) {
+                SQLiteStatement stmt = SQLiteStatementCache.getStatement(db, SQL_INSERT);
+                stmt.clearBindings();
+                stmt.bindLong(1, i);
+                stmt.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
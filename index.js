@@ -6,13 +6,29 @@ const RNBackgroundGeolocation = NativeModules.BackgroundGeolocation;
 function emptyFn() {}
 
 var BackgroundGeolocation = {
-  events: ['location', 'stationary', 'error'],
+  events: ['location', 'stationary', 'error', 'circuit', 'visit'],
 
   provider: {
     ANDROID_DISTANCE_FILTER_PROVIDER: 0,
     ANDROID_ACTIVITY_PROVIDER: 1
   },
 
+  locationStore: {
+    SQLITE: 0,
+    JOURNAL: 1
+  },
+
+  compression: {
+    NONE: 0,
+    GZIP: 1,
+    DEFLATE: 2
+  },
+
+  payloadFormat: {
+    JSON: 0,
+    BINARY: 1
+  },
+
   mode: {
     BACKGROUND: 0,
     FOREGROUND: 1
@@ -73,10 +89,19 @@ var BackgroundGeolocation = {
     RNBackgroundGeolocation.stopWatchingLocationMode(successFn, errorFn);
   },
 
-  getLocations: function(successFn, errorFn) {
+  getLocations: function(options, successFn, errorFn) {
+    if (typeof options === 'function') {
+      errorFn = successFn;
+      successFn = options;
+      options = null;
+    }
     successFn = successFn || emptyFn;
     errorFn = errorFn || emptyFn;
-    RNBackgroundGeolocation.getLocations(successFn, errorFn);
+    if (options == null) {
+      RNBackgroundGeolocation.getLocations(successFn, errorFn);
+      return;
+    }
+    RNBackgroundGeolocation.getLocationsPage(options, successFn, errorFn);
   },
 /*
   getValidLocations: function(successFn, errorFn) {
@@ -97,6 +122,12 @@ var BackgroundGeolocation = {
     RNBackgroundGeolocation.deleteAllLocations(successFn, errorFn);
   },
 */
+  getLocationsInRange: function(options, successFn, errorFn) {
+    successFn = successFn || emptyFn;
+    errorFn = errorFn || emptyFn;
+    RNBackgroundGeolocation.getLocationsInRange(options || {}, successFn, errorFn);
+  },
+
   switchMode: function(modeId, successFn, errorFn) {
     successFn = successFn || emptyFn;
     errorFn = errorFn || emptyFn;
@@ -115,6 +146,24 @@ var BackgroundGeolocation = {
     RNBackgroundGeolocation.getLogEntries(limit, successFn, errorFn);
   },
 
+  getSyncStats: function(successFn, errorFn) {
+    successFn = successFn || emptyFn;
+    errorFn = errorFn || emptyFn;
+    RNBackgroundGeolocation.getSyncStats(successFn, errorFn);
+  },
+
+  getVisits: function(successFn, errorFn) {
+    successFn = successFn || emptyFn;
+    errorFn = errorFn || emptyFn;
+    RNBackgroundGeolocation.getVisits(successFn, errorFn);
+  },
+
+  deleteAllVisits: function(successFn, errorFn) {
+    successFn = successFn || emptyFn;
+    errorFn = errorFn || emptyFn;
+    RNBackgroundGeolocation.deleteAllVisits(successFn, errorFn);
+  },
+
   on: function(event, callbackFn) {
     if (typeof callbackFn !== 'function') {
       throw 'RNBackgroundGeolocation: callback function must be provided';